@@ -0,0 +1,94 @@
+package com.rednetty.voicerecorder.benchmarks;
+
+import com.rednetty.voicerecorder.model.RecordingMetadata;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Synthetic inputs shared by the benchmarks: PCM buffers, recording metadata and scratch directories.
+ */
+final class BenchmarkData {
+    private static final String[] CATEGORIES = {"basic", "commands", "questions", "numbers", "names"};
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * Gaussian noise as 16-bit little-endian PCM, reproducible for a given seed.
+     */
+    static byte[] pcm(int length, long seed) {
+        Random random = new Random(seed);
+        byte[] pcm = new byte[length & ~1];
+        for (int i = 0; i < pcm.length; i += 2) {
+            int sample = (int) (random.nextGaussian() * 8000);
+            sample = Math.max(-32768, Math.min(32767, sample));
+            pcm[i] = (byte) sample;
+            pcm[i + 1] = (byte) (sample >> 8);
+        }
+        return pcm;
+    }
+
+    /**
+     * Metadata shaped like a real corpus: a few hundred users, a few thousand phrases.
+     */
+    static List<RecordingMetadata> recordings(int count, long seed) {
+        Random random = new Random(seed);
+        List<RecordingMetadata> recordings = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int phrase = random.nextInt(5000);
+            String category = CATEGORIES[phrase % CATEGORIES.length];
+            String recordingId = new UUID(random.nextLong(), random.nextLong()).toString();
+            RecordingMetadata metadata = new RecordingMetadata(
+                    "user-" + random.nextInt(300),
+                    category + "-" + phrase,
+                    "Synthetic phrase number " + phrase,
+                    category,
+                    recordingId + ".wav",
+                    String.format("2024%02d%02d_%06d", 1 + random.nextInt(12), 1 + random.nextInt(28), random.nextInt(240000)),
+                    random.nextInt(4) == 0 ? "impaired" : "clear",
+                    null,
+                    "Linux 6.1 (amd64)"
+            );
+            metadata.setRecordingId(recordingId);
+            metadata.addAudioProperty("sampleRate", 16000.0f);
+            metadata.addAudioProperty("bitsPerSample", 16);
+            metadata.addAudioProperty("channels", 1);
+            metadata.addAudioProperty("rms", random.nextDouble() * 0.2);
+            metadata.addAudioProperty("peak", random.nextInt(32768));
+            recordings.add(metadata);
+        }
+        return recordings;
+    }
+
+    static Path createTempDirectory(String prefix) throws IOException {
+        return Files.createTempDirectory(prefix);
+    }
+
+    static void deleteRecursively(Path root) throws IOException {
+        if (root == null || !Files.exists(root)) {
+            return;
+        }
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
@@ -0,0 +1,64 @@
+package com.rednetty.voicerecorder.benchmarks;
+
+import com.rednetty.voicerecorder.audio.AudioRecorder;
+import com.rednetty.voicerecorder.audio.SyntheticAudioSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One whole take through {@link AudioRecorder}: captureAudio publishing into the ring, the writer,
+ * level and stats consumers, and saveRecording moving the finished WAV into place. The synthetic
+ * source runs unthrottled, so the score is the pipeline's cost per take rather than its duration.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class CaptureBenchmark {
+    @Param({"1000", "10000"})
+    public long takeMillis;
+
+    private Path directory;
+    private AudioRecorder recorder;
+    private File takeFile;
+    private String savedPath;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = BenchmarkData.createTempDirectory("capture-bench");
+        recorder = new AudioRecorder(new SyntheticAudioSource(takeMillis, 0));
+        recorder.setAudioLevelListener(level -> { });
+        takeFile = directory.resolve("take.wav").toFile();
+        savedPath = directory.resolve("saved").resolve("take.wav").toString();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchmarkData.deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public boolean recordAndSaveTake() throws Exception {
+        recorder.startRecording(takeFile);
+        recorder.awaitEndOfSource(Long.MAX_VALUE);
+        recorder.stopRecording();
+        return recorder.saveRecording(savedPath);
+    }
+}
@@ -0,0 +1,77 @@
+package com.rednetty.voicerecorder.benchmarks;
+
+import com.rednetty.voicerecorder.model.RecordingMetadata;
+import com.rednetty.voicerecorder.util.DataManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DataManager.saveGlobalMetadata and loadGlobalMetadata over generated indexes.
+ * Loading maps the binary snapshot; scanning then touches every record through the views.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IndexBenchmark {
+    @Param({"1000", "10000", "100000"})
+    public int recordings;
+
+    private Path directory;
+    private List<RecordingMetadata> records;
+    private DataManager dataManager;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = BenchmarkData.createTempDirectory("index-bench");
+        records = BenchmarkData.recordings(recordings, 42);
+        dataManager = new DataManager(directory.toString());
+        dataManager.lockCorpus();
+        dataManager.loadGlobalMetadata();
+        dataManager.saveGlobalMetadata(records);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchmarkData.deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public int saveGlobalMetadata() {
+        // A fresh list each time, so the unchanged-index shortcut never applies
+        dataManager.saveGlobalMetadata(new ArrayList<>(records));
+        return records.size();
+    }
+
+    @Benchmark
+    public int loadGlobalMetadata() {
+        return new DataManager(directory.toString()).loadGlobalMetadata().size();
+    }
+
+    @Benchmark
+    public long loadAndScan() {
+        DataManager loaded = new DataManager(directory.toString());
+        loaded.loadGlobalMetadata();
+        long[] checksum = new long[1];
+        loaded.forEachRecording(view -> checksum[0] += view.getPhraseId().hashCode());
+        return checksum[0];
+    }
+}
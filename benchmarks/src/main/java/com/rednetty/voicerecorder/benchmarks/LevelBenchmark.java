@@ -0,0 +1,91 @@
+package com.rednetty.voicerecorder.benchmarks;
+
+import com.rednetty.voicerecorder.audio.AudioStats;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Level metering over one capture buffer: the original mean-absolute loop against the AudioStats kernel.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LevelBenchmark {
+    @Param({"4096", "65536"})
+    public int bufferSize;
+
+    private byte[] pcm;
+    private ByteBuffer directPcm;
+    private AudioStats stats;
+
+    @Setup
+    public void setUp() {
+        // Loud noise, so the legacy int sum is exercised near its worst case
+        Random random = new Random(42);
+        pcm = new byte[bufferSize];
+        for (int i = 0; i < bufferSize; i += 2) {
+            int sample = (int) (random.nextGaussian() * 12000);
+            sample = Math.max(-32768, Math.min(32767, sample));
+            pcm[i] = (byte) sample;
+            pcm[i + 1] = (byte) (sample >> 8);
+        }
+        directPcm = ByteBuffer.allocateDirect(bufferSize).order(ByteOrder.LITTLE_ENDIAN);
+        directPcm.put(pcm).flip();
+        stats = new AudioStats();
+    }
+
+    @Benchmark
+    public int legacyMeanAbsolute() {
+        return legacyCalculateAudioLevel(pcm, pcm.length);
+    }
+
+    @Benchmark
+    public int statsByteArray() {
+        stats.reset();
+        stats.accumulate(pcm, 0, pcm.length);
+        return stats.getLevel();
+    }
+
+    @Benchmark
+    public int statsDirectBuffer() {
+        stats.reset();
+        stats.accumulate(directPcm);
+        return stats.getLevel();
+    }
+
+    // Copy of the AudioRecorder implementation that AudioStats replaced
+    private static int legacyCalculateAudioLevel(byte[] buffer, int bytesRead) {
+        int sum = 0;
+        // Process 16-bit samples
+        for (int i = 0; i < bytesRead; i += 2) {
+            if (i + 1 < bytesRead) {
+                int sample = (buffer[i] & 0xFF) | ((buffer[i + 1] & 0xFF) << 8);
+                if ((sample & 0x8000) != 0) {
+                    sample = -((sample ^ 0xFFFF) + 1); // Convert to signed
+                }
+                sum += Math.abs(sample);
+            }
+        }
+
+        int average = bytesRead > 0 ? sum / (bytesRead / 2) : 0;
+        // Scale 0-32767 to 0-100
+        return (int)(average / 327.67);
+    }
+}
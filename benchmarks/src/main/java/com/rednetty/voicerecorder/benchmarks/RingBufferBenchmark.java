@@ -0,0 +1,58 @@
+package com.rednetty.voicerecorder.benchmarks;
+
+import com.rednetty.voicerecorder.audio.PcmRingBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The capture hand-off: publishing one 4 KB frame and reading it back through each consumer cursor.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RingBufferBenchmark {
+    private static final int FRAME_SIZE = 4096;
+
+    @Param({"1", "3"})
+    public int consumers;
+
+    private PcmRingBuffer ringBuffer;
+    private PcmRingBuffer.Cursor[] cursors;
+    private byte[] frame;
+    private byte[] readBuffer;
+
+    @Setup
+    public void setUp() {
+        ringBuffer = new PcmRingBuffer(64, FRAME_SIZE);
+        cursors = new PcmRingBuffer.Cursor[consumers];
+        for (int i = 0; i < consumers; i++) {
+            cursors[i] = ringBuffer.newCursor();
+        }
+        frame = BenchmarkData.pcm(FRAME_SIZE, 1);
+        readBuffer = new byte[FRAME_SIZE];
+    }
+
+    @Benchmark
+    public int publishAndRead() {
+        ringBuffer.publish(frame, 0, frame.length);
+        int total = 0;
+        for (PcmRingBuffer.Cursor cursor : cursors) {
+            total += cursor.read(readBuffer);
+        }
+        return total;
+    }
+}
@@ -0,0 +1,84 @@
+package com.rednetty.voicerecorder.benchmarks;
+
+import com.rednetty.voicerecorder.audio.AudioRecorder;
+import com.rednetty.voicerecorder.audio.FlacEncoder;
+import com.rednetty.voicerecorder.audio.WavFileWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding a take to disk the way the writer consumer does: 4 KB frames streamed into a
+ * WavFileWriter, then the header patched on close. The FLAC case measures the compressed
+ * storage path; the noise input is its worst case, since nothing can be predicted.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class WavWriterBenchmark {
+    private static final int FRAME_SIZE = 4096;
+
+    @Param({"1", "10"})
+    public int takeSeconds;
+
+    private Path directory;
+    private File file;
+    private File flacFile;
+    private AudioFormat format;
+    private byte[] frame;
+    private int frames;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = BenchmarkData.createTempDirectory("wav-bench");
+        file = directory.resolve("take.wav").toFile();
+        flacFile = directory.resolve("take.flac").toFile();
+        format = new AudioFormat(AudioRecorder.getSampleRate(), AudioRecorder.getSampleSizeInBits(),
+                AudioRecorder.getChannels(), AudioRecorder.isSigned(), AudioRecorder.isBigEndian());
+        frame = BenchmarkData.pcm(FRAME_SIZE, 1);
+        frames = (int) (takeSeconds * format.getFrameRate() * format.getFrameSize() / FRAME_SIZE);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchmarkData.deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public long writeTake() throws IOException {
+        try (WavFileWriter writer = new WavFileWriter(file, format)) {
+            for (int i = 0; i < frames; i++) {
+                writer.write(frame, 0, frame.length);
+            }
+            return writer.getDataLength();
+        }
+    }
+
+    @Benchmark
+    public long encodeFlacTake() throws IOException {
+        try (FlacEncoder encoder = new FlacEncoder(flacFile, format)) {
+            for (int i = 0; i < frames; i++) {
+                encoder.write(frame, 0, frame.length);
+            }
+            return encoder.getSampleCount();
+        }
+    }
+}
@@ -4,6 +4,7 @@ import com.rednetty.voicerecorder.ui.MainFrame;
 import com.rednetty.voicerecorder.util.UIHelper;
 
 import javax.swing.SwingUtilities;
+import java.util.Arrays;
 
 /**
  * Main application class for the Phrase Recorder for AI Data Collection.
@@ -13,16 +14,20 @@ public class PhraseRecorderApp {
     /**
      * Application entry point.
      *
-     * @param args command line arguments
+     * @param args command line arguments; {@code --flac} stores takes as lossless FLAC and
+     *             {@code --features} stores log-mel features next to each take
      */
     public static void main(String[] args) {
+        boolean compressAudio = Arrays.asList(args).contains("--flac");
+        boolean extractFeatures = Arrays.asList(args).contains("--features");
+
         // Set up the system look and feel
         UIHelper.setupLookAndFeel();
 
         // Start the application on the EDT
         SwingUtilities.invokeLater(() -> {
             try {
-                MainFrame app = new MainFrame();
+                MainFrame app = new MainFrame(compressAudio, extractFeatures);
                 app.setVisible(true);
             } catch (Exception e) {
                 System.err.println("Error starting application: " + e.getMessage());
@@ -1,13 +1,46 @@
 package com.rednetty.voicerecorder.audio;
 
-import javax.sound.sampled.*;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import com.rednetty.voicerecorder.metrics.Counter;
+import com.rednetty.voicerecorder.metrics.Histogram;
+import com.rednetty.voicerecorder.metrics.MetricsRegistry;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.LineUnavailableException;
 import java.io.File;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
 
 /**
  * Handles audio recording functionality.
+ * Captured audio is streamed straight to a WAV file as it arrives, so heap use
+ * stays at a single capture buffer regardless of the take length.
+ * The capture thread only publishes into a {@link PcmRingBuffer}; the disk writer,
+ * the level meter and any registered analyzers each read it on their own thread.
+ * Audio comes from an {@link AudioSource}: the microphone by default, or a file or
+ * synthetic signal for headless runs.
+ * A voice activity detector also follows every take, so leading and trailing silence
+ * can be trimmed on save and a take can stop itself once the speaker has finished.
+ * In monitoring mode the source stays open between takes and the ring doubles as a
+ * pre-roll buffer, so each take starts with the audio captured just before Record was pressed.
+ * Optionally a {@link LogMelExtractor} follows each take too, writing log-mel features to a
+ * sidecar next to the WAV that is trimmed and moved along with it.
  */
 public class AudioRecorder {
     // Audio format constants
@@ -17,10 +50,67 @@ public class AudioRecorder {
     private static final boolean SIGNED = true;
     private static final boolean BIG_ENDIAN = false;
 
+    private static final int CAPTURE_BUFFER_SIZE = 4096;
+    // 64 x 4 KB frames holds about 8 seconds of 16kHz mono audio
+    private static final int RING_CAPACITY = 64;
+    private static final long CAPTURE_JOIN_TIMEOUT_MS = 2000;
+    private static final long DEFAULT_TRIM_PAD_MS = 250;
+    private static final long DEFAULT_PRE_ROLL_MS = 500;
+    // Frames of headroom a faster-than-real-time source leaves the slowest consumer
+    private static final int BACKPRESSURE_HEADROOM = 4;
+    private static final long BACKPRESSURE_PARK_NANOS = 100_000L;
+
+    // Shared by all recorders; see MetricsRegistry
+    private static final Counter CAPTURED_FRAMES = MetricsRegistry.getDefault().counter("capture.frames");
+    private static final Counter CAPTURED_BYTES = MetricsRegistry.getDefault().counter("capture.bytes");
+    private static final Counter CAPTURE_ERRORS = MetricsRegistry.getDefault().counter("capture.errors");
+    private static final Counter DROPPED_FRAMES = MetricsRegistry.getDefault().counter("capture.droppedFrames");
+    private static final Histogram SOURCE_READ = MetricsRegistry.getDefault().histogram("capture.readMicros");
+    private static final Histogram CONSUMER_LAG = MetricsRegistry.getDefault().histogram("capture.consumerLagFrames");
+    private static final Histogram BACKPRESSURE_WAIT =
+            MetricsRegistry.getDefault().histogram("capture.backpressureWaitMicros");
+    private static final AtomicInteger CAPTURE_THREAD_COUNT = new AtomicInteger();
+
+    private static final Histogram SAVE_LATENCY = MetricsRegistry.getDefault().histogram("recorder.saveMicros");
+    private static final Counter TAKES_SAVED = MetricsRegistry.getDefault().counter("recorder.takesSaved");
+    private static final Counter EMPTY_TAKES = MetricsRegistry.getDefault().counter("recorder.emptyTakes");
+
     private final AudioFormat audioFormat;
-    private TargetDataLine targetDataLine;
-    private boolean isRecording;
-    private ByteArrayOutputStream audioData;
+    private final AudioSource audioSource;
+    private boolean sourceOpen;
+    private boolean monitoring;
+    private volatile boolean capturing;
+    private volatile boolean isRecording;
+    private long preRollMillis;
+    private long takeStartPosition;
+    private int takeHistoryFrames;
+    // One capture thread per recorder, kept across takes
+    private ExecutorService captureExecutor;
+    private Future<?> captureTask;
+    private final PcmRingBuffer ringBuffer;
+    private final List<PcmFrameConsumer> frameConsumers;
+    private final List<RingBufferConsumerThread> consumerThreads;
+    // The consumers of the current take, as seen by the capture thread
+    private volatile RingBufferConsumerThread[] activeConsumers = new RingBufferConsumerThread[0];
+    private RingBufferConsumerThread writerThread;
+    private WavFileWriter wavWriter;
+    private final AudioStats takeStats;
+    private final VoiceActivityDetector voiceActivityDetector;
+    private boolean trimSilence;
+    private long trimPadMillis;
+    private long autoStopSilenceMillis;
+    private Runnable autoStopListener;
+    private long takeLength;
+    private long trimStart;
+    private long trimEnd;
+    // Set by the first saveRecording of a take, so a take is saved (and trimmed) at most once
+    private final AtomicBoolean takeSaved = new AtomicBoolean(true);
+    private File takeFile;
+    private boolean deleteTakeFileOnSave;
+    private boolean extractFeatures;
+    private LogMelExtractor featureExtractor;
+    private RingBufferConsumerThread featureThread;
+    private File featureFile;
     private AudioLevelListener levelListener;
 
     /**
@@ -31,104 +121,680 @@ public class AudioRecorder {
     }
 
     public AudioRecorder() {
-        this.audioFormat = new AudioFormat(
-                SAMPLE_RATE, SAMPLE_SIZE_IN_BITS, CHANNELS, SIGNED, BIG_ENDIAN);
+        this(new LineAudioSource());
+    }
+
+    /**
+     * Creates a recorder that captures from the given source instead of the microphone.
+     */
+    public AudioRecorder(AudioSource audioSource) {
+        this.audioSource = audioSource;
+        this.audioFormat = getAudioFormat();
         this.isRecording = false;
+        this.ringBuffer = new PcmRingBuffer(RING_CAPACITY, CAPTURE_BUFFER_SIZE);
+        this.frameConsumers = new ArrayList<>();
+        this.consumerThreads = new ArrayList<>();
+        this.takeStats = new AudioStats();
+        this.voiceActivityDetector = new VoiceActivityDetector(audioFormat);
+        this.trimSilence = true;
+        this.trimPadMillis = DEFAULT_TRIM_PAD_MS;
+        this.preRollMillis = DEFAULT_PRE_ROLL_MS;
     }
 
     public void setAudioLevelListener(AudioLevelListener listener) {
         this.levelListener = listener;
     }
 
+    /**
+     * How much audio from before {@link #startRecording(File)} each take starts with while monitoring.
+     */
+    public void setPreRollMillis(long preRollMillis) {
+        this.preRollMillis = Math.max(0, preRollMillis);
+    }
+
+    /**
+     * Opens the source and keeps capturing into the ring between takes. The open latency of the
+     * device is paid once here instead of on every Record press, and the ring's history serves as
+     * the pre-roll for the next take. Does nothing if already monitoring or recording.
+     */
+    public void startMonitoring() throws LineUnavailableException {
+        if (monitoring || sourceOpen) {
+            return;
+        }
+        audioSource.open(audioFormat);
+        sourceOpen = true;
+        ringBuffer.reopen();
+        consumerThreads.clear();
+        audioSource.start();
+        capturing = true;
+        captureTask = getCaptureExecutor().submit(this::captureAudio);
+        monitoring = true;
+    }
+
+    /**
+     * Ends any take in progress and closes the source.
+     */
+    public void stopMonitoring() {
+        stopRecording();
+        if (!monitoring) {
+            return;
+        }
+        monitoring = false;
+        closeSource();
+    }
+
+    public boolean isMonitoring() {
+        return monitoring;
+    }
+
+    /**
+     * Whether {@link #saveRecording(String)} cuts leading and trailing silence from the take. On by default.
+     */
+    public void setTrimSilence(boolean trimSilence) {
+        this.trimSilence = trimSilence;
+    }
+
+    /**
+     * Silence kept before and after the detected speech when trimming.
+     */
+    public void setTrimPadMillis(long trimPadMillis) {
+        this.trimPadMillis = Math.max(0, trimPadMillis);
+    }
+
+    /**
+     * Computes log-mel features during each take and session utterance, into a
+     * {@link LogMelFeatureFile} sidecar next to the audio. Takes effect from the next recording.
+     */
+    public void setExtractFeatures(boolean extractFeatures) {
+        this.extractFeatures = extractFeatures;
+    }
+
+    /**
+     * Notifies the auto-stop listener once this much silence follows speech; 0 disables auto-stop.
+     * Takes effect from the next recording.
+     */
+    public void setAutoStopSilenceMillis(long autoStopSilenceMillis) {
+        this.autoStopSilenceMillis = Math.max(0, autoStopSilenceMillis);
+    }
+
+    /**
+     * Called on the detector thread when auto-stop triggers. The listener should call
+     * {@link #stopRecording()} from another thread, for example the event dispatch thread.
+     */
+    public void setAutoStopListener(Runnable autoStopListener) {
+        this.autoStopListener = autoStopListener;
+    }
+
+    /**
+     * Registers an additional consumer (VAD, analyzers, ...) that receives every frame
+     * of each take on its own thread. Takes effect from the next recording.
+     */
+    public void addFrameConsumer(PcmFrameConsumer consumer) {
+        frameConsumers.add(consumer);
+    }
+
+    public void removeFrameConsumer(PcmFrameConsumer consumer) {
+        frameConsumers.remove(consumer);
+    }
+
+    /**
+     * Starts recording into a temporary file. The take is moved to its final
+     * location by {@link #saveRecording(String)}.
+     */
     public boolean startRecording() throws LineUnavailableException {
-        // Configure the data line
-        DataLine.Info dataLineInfo = new DataLine.Info(TargetDataLine.class, audioFormat);
+        File tempFile;
+        try {
+            tempFile = File.createTempFile("take-", ".wav");
+        } catch (IOException e) {
+            throw new LineUnavailableException("Could not create temporary take file: " + e.getMessage());
+        }
+        tempFile.deleteOnExit();
+        return startRecording(tempFile, true);
+    }
+
+    /**
+     * Starts recording and streams the captured audio directly into the given WAV file.
+     *
+     * @param outputFile the file the take is written to while recording
+     */
+    public boolean startRecording(File outputFile) throws LineUnavailableException {
+        return startRecording(outputFile, false);
+    }
 
-        if (!AudioSystem.isLineSupported(dataLineInfo)) {
-            throw new LineUnavailableException("Audio line not supported");
+    private boolean startRecording(File outputFile, boolean temporary) throws LineUnavailableException {
+        if (isRecording) {
+            return false;
         }
+        openCapture();
 
-        targetDataLine = (TargetDataLine) AudioSystem.getLine(dataLineInfo);
-        targetDataLine.open(audioFormat);
-        targetDataLine.start();
+        try {
+            wavWriter = new WavFileWriter(outputFile, audioFormat);
+        } catch (IOException e) {
+            if (!monitoring) {
+                closeSource();
+            }
+            throw new LineUnavailableException("Could not open take file: " + e.getMessage());
+        }
+        takeFile = outputFile;
+        deleteTakeFileOnSave = temporary;
+        takeSaved.set(false);
 
-        isRecording = true;
-        audioData = new ByteArrayOutputStream();
+        final WavFileWriter writer = wavWriter;
+        final AudioStats stats = takeStats;
+        stats.reset();
+        writerThread = attach("take-writer",
+                new PcmFrameConsumer() {
+                    @Override
+                    public void onFrame(byte[] data, int length, long streamPosition) throws IOException {
+                        writer.write(data, 0, length);
+                        stats.accumulate(data, 0, length);
+                    }
 
-        // Start the recording thread
-        Thread captureThread = new Thread(this::captureAudio);
-        captureThread.start();
+                    @Override
+                    public void onEnd() throws IOException {
+                        writer.close();
+                    }
+                });
+        attachFeatureExtractor(outputFile);
+        addLevelMeterConsumer();
+        voiceActivityDetector.reset();
+        final Runnable onAutoStop = autoStopListener;
+        if (autoStopSilenceMillis > 0 && onAutoStop != null) {
+            voiceActivityDetector.setHangoverMillis(autoStopSilenceMillis);
+            voiceActivityDetector.setListener(new VoiceActivityListener() {
+                @Override
+                public void onSpeechEnd(long position) {
+                    onAutoStop.run();
+                }
+            });
+        } else {
+            voiceActivityDetector.setHangoverMillis(VoiceActivityDetector.DEFAULT_HANGOVER_MILLIS);
+            voiceActivityDetector.setListener(null);
+        }
+        attach("voice-activity", voiceActivityDetector);
+        startCapture();
 
         return true;
     }
 
+    /**
+     * Starts a continuous session: the source stays open until {@link #stopRecording()} and the
+     * stream is cut into one take per utterance, so the device is set up once per session rather
+     * than once per phrase.
+     *
+     * @param segmentFiles supplies the file for each new take
+     * @param listener receives each finished take on the segmenter thread
+     */
+    public void startSession(Supplier<File> segmentFiles, SpeechSegmentListener listener)
+            throws LineUnavailableException {
+        if (isRecording) {
+            return;
+        }
+        openCapture();
+
+        // A session leaves no single take behind for saveRecording
+        wavWriter = null;
+        writerThread = null;
+        featureExtractor = null;
+        featureThread = null;
+        featureFile = null;
+
+        SpeechSegmentListener segmentListener = listener;
+        if (extractFeatures) {
+            // Utterances are only cut after the fact, so each one is analyzed once its file is complete
+            segmentListener = (file, audioProperties) -> {
+                extractFeatures(file);
+                listener.onSegment(file, audioProperties);
+            };
+        }
+        attach("speech-segmenter", new SpeechSegmenter(audioFormat, segmentFiles, segmentListener));
+        addLevelMeterConsumer();
+        startCapture();
+    }
+
+    // Opens the source for a take, or while monitoring marks where the take's pre-roll begins
+    private void openCapture() throws LineUnavailableException {
+        consumerThreads.clear();
+        if (monitoring) {
+            long preRollBytes = preRollMillis * (long) (audioFormat.getFrameRate() * audioFormat.getFrameSize()) / 1000;
+            preRollBytes -= preRollBytes % audioFormat.getFrameSize();
+            takeStartPosition = Math.max(0, ringBuffer.getStreamPosition() - preRollBytes);
+            // One extra frame in case the producer publishes while the cursors are created
+            takeHistoryFrames = (int) ((preRollBytes + CAPTURE_BUFFER_SIZE - 1) / CAPTURE_BUFFER_SIZE) + 1;
+        } else {
+            audioSource.open(audioFormat);
+            sourceOpen = true;
+            // Consumers attach before the first frame is published so nothing is missed
+            ringBuffer.reopen();
+            takeStartPosition = 0;
+            takeHistoryFrames = 0;
+        }
+    }
+
+    // Creates a consumer thread for the current take, starting at the take's first byte
+    private RingBufferConsumerThread attach(String name, PcmFrameConsumer consumer) {
+        RingBufferConsumerThread thread;
+        if (takeHistoryFrames > 0) {
+            thread = new RingBufferConsumerThread(name, ringBuffer, ringBuffer.newCursor(takeHistoryFrames),
+                    new PreRollWindow(takeStartPosition, consumer, ringBuffer.getFrameSize()));
+        } else {
+            thread = new RingBufferConsumerThread(name, ringBuffer, ringBuffer.newCursor(), consumer);
+        }
+        consumerThreads.add(thread);
+        return thread;
+    }
+
+    // Follows the take with a feature extractor writing next to the take file, if enabled
+    private void attachFeatureExtractor(File outputFile) {
+        featureExtractor = null;
+        featureThread = null;
+        featureFile = null;
+        if (!extractFeatures) {
+            return;
+        }
+        File file = LogMelFeatureFile.featureFileFor(outputFile);
+        try {
+            featureExtractor = new LogMelExtractor(audioFormat, file);
+            featureFile = file;
+            featureThread = attach("feature-extractor", featureExtractor);
+        } catch (IOException e) {
+            // The take is still recorded, just without features
+            System.err.println("Could not create feature file " + file + ": " + e.getMessage());
+            featureExtractor = null;
+        }
+    }
+
+    // Computes the features of a finished session utterance next to its file
+    private void extractFeatures(File audioFile) {
+        File file = LogMelFeatureFile.featureFileFor(audioFile);
+        try {
+            LogMelExtractor.extract(audioFile, file);
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Could not extract features for " + audioFile.getName() + ": " + e.getMessage());
+            file.delete();
+        }
+    }
+
+    private void addLevelMeterConsumer() {
+        if (levelListener != null) {
+            final AudioLevelListener listener = levelListener;
+            final AudioStats levelStats = new AudioStats();
+            attach("level-meter", (data, length, streamPosition) -> {
+                levelStats.reset();
+                levelStats.accumulate(data, 0, length);
+                listener.onLevelUpdate(levelStats.getLevel());
+            });
+        }
+    }
+
+    // Attaches the registered consumers, then starts the consumers and, unless monitoring, the source and the capture thread
+    private void startCapture() {
+        for (PcmFrameConsumer consumer : frameConsumers) {
+            attach("frame-consumer", consumer);
+        }
+        for (RingBufferConsumerThread consumerThread : consumerThreads) {
+            consumerThread.start();
+        }
+        activeConsumers = consumerThreads.toArray(new RingBufferConsumerThread[0]);
+
+        isRecording = true;
+        if (!monitoring) {
+            audioSource.start();
+            capturing = true;
+
+            // Run the capture loop on the recorder's capture thread
+            captureTask = getCaptureExecutor().submit(this::captureAudio);
+        }
+    }
+
+    /**
+     * Ends the current take or session. While monitoring the source stays open and the take ends
+     * at the last frame captured so far; otherwise the source is closed.
+     */
     public void stopRecording() {
-        if (isRecording && targetDataLine != null) {
-            isRecording = false;
-            targetDataLine.stop();
-            targetDataLine.close();
+        if (!isRecording) {
+            return;
+        }
+        isRecording = false;
+
+        if (monitoring) {
+            long endSequence = ringBuffer.getPublishedSequence();
+            for (RingBufferConsumerThread consumerThread : consumerThreads) {
+                consumerThread.finishAt(endSequence);
+            }
+        } else {
+            closeSource();
+        }
+
+        // Wait for the consumers to drain the ring and finalize the WAV header
+        try {
+            for (RingBufferConsumerThread consumerThread : consumerThreads) {
+                consumerThread.join(CAPTURE_JOIN_TIMEOUT_MS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        DROPPED_FRAMES.add(getConsumerOverruns());
+    }
+
+    // Stops the source, waits for the capture thread (which closes the ring on its way out) and only
+    // then closes the source, so the capture loop never reads from a source that is being closed
+    private void closeSource() {
+        if (!sourceOpen) {
+            return;
+        }
+        sourceOpen = false;
+        capturing = false;
+        audioSource.stop();
+        try {
+            if (captureTask != null && !awaitCapture(CAPTURE_JOIN_TIMEOUT_MS)) {
+                // Stuck in a read; leave that thread behind and start the next take on a new one
+                System.err.println("Capture thread did not stop within " + CAPTURE_JOIN_TIMEOUT_MS + " ms");
+                captureExecutor.shutdownNow();
+                captureExecutor = null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            audioSource.close();
+        }
+    }
+
+    private ExecutorService getCaptureExecutor() {
+        if (captureExecutor == null) {
+            String name = "audio-capture-" + CAPTURE_THREAD_COUNT.incrementAndGet();
+            captureExecutor = Executors.newSingleThreadExecutor(task -> {
+                Thread thread = new Thread(task, name);
+                thread.setDaemon(true);
+                // The device buffer overruns if this thread is starved
+                thread.setPriority(Thread.MAX_PRIORITY);
+                return thread;
+            });
+        }
+        return captureExecutor;
+    }
+
+    // Waits for the capture loop of the current take to return
+    private boolean awaitCapture(long timeoutMillis) throws InterruptedException {
+        try {
+            captureTask.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            return false;
+        } catch (ExecutionException e) {
+            // Already reported by the capture loop
+        }
+        return true;
+    }
+
+    /**
+     * Ends any take, closes the source and stops the capture thread. The recorder should not be
+     * used afterwards.
+     */
+    public void close() {
+        stopMonitoring();
+        if (captureExecutor != null) {
+            captureExecutor.shutdown();
+            captureExecutor = null;
         }
     }
 
+    /**
+     * Waits until a finite source (a file or synthetic take) has delivered all of its audio.
+     * The take still has to be finished with {@link #stopRecording()}.
+     *
+     * @return true if the source is exhausted, false on timeout
+     */
+    public boolean awaitEndOfSource(long timeoutMillis) throws InterruptedException {
+        return captureTask == null || awaitCapture(timeoutMillis);
+    }
+
+    /**
+     * Number of frames the disk writer lost during the last take because it fell behind.
+     */
+    public long getWriterOverruns() {
+        return writerThread != null ? writerThread.getOverruns() : 0;
+    }
+
+    /**
+     * Total number of frames lost by all consumers during the last take.
+     */
+    public long getConsumerOverruns() {
+        long total = 0;
+        for (RingBufferConsumerThread consumerThread : consumerThreads) {
+            total += consumerThread.getOverruns();
+        }
+        return total;
+    }
+
+    /**
+     * Statistics (RMS, peak, clipping, DC offset) over the whole of the last take.
+     * Complete once {@link #stopRecording()} has returned.
+     */
+    public AudioStats getLastTakeStats() {
+        return takeStats;
+    }
+
+    /**
+     * Voice activity results for the last saved take, as audio properties: whether speech was
+     * found, where it starts and ends and how long it lasts, and the range of the original take
+     * that was kept (all in milliseconds from the start of the original take).
+     */
+    public Map<String, Object> getLastTakeVoiceActivity() {
+        VoiceActivityDetector vad = voiceActivityDetector;
+        Map<String, Object> properties = new LinkedHashMap<>();
+        properties.put("speechDetected", vad.isSpeechDetected());
+        if (vad.isSpeechDetected()) {
+            properties.put("speechStartMs", vad.bytesToMillis(vad.getSpeechStart()));
+            properties.put("speechEndMs", vad.bytesToMillis(vad.getSpeechEnd()));
+            properties.put("speechDurationMs", vad.bytesToMillis(vad.getSpeechEnd() - vad.getSpeechStart()));
+        } else {
+            properties.put("speechDurationMs", 0L);
+        }
+        properties.put("trimStartMs", vad.bytesToMillis(trimStart));
+        properties.put("trimEndMs", vad.bytesToMillis(trimEnd));
+        properties.put("originalDurationMs", vad.bytesToMillis(takeLength));
+        return properties;
+    }
+
     public boolean isRecording() {
         return isRecording;
     }
 
+    /**
+     * Makes the last take available at the given path. The audio has already been
+     * written while recording, so this only moves the file if it was streamed elsewhere.
+     * Only the first call after a take saves it.
+     *
+     * @param filePath the destination WAV path
+     * @return false if there is no take, it contains no audio or it was already saved
+     */
     public boolean saveRecording(String filePath) throws IOException {
-        if (audioData == null || audioData.size() == 0) {
+        if (wavWriter == null || isRecording || !takeSaved.compareAndSet(false, true)) {
             return false;
         }
+        long startNanos = System.nanoTime();
+        boolean saved = saveTake(filePath);
+        SAVE_LATENCY.recordMicrosSince(startNanos);
+        (saved ? TAKES_SAVED : EMPTY_TAKES).increment();
+        return saved;
+    }
+
+    private boolean saveTake(String filePath) throws IOException {
+        if (writerThread.getError() != null) {
+            throw writerThread.getError();
+        }
 
-        byte[] audioBytes = audioData.toByteArray();
-        ByteArrayInputStream bais = new ByteArrayInputStream(audioBytes);
-        AudioInputStream recordedAIS = new AudioInputStream(
-                bais, audioFormat, audioBytes.length / audioFormat.getFrameSize());
+        // Make sure the header is patched even if the writer did not finish in time
+        wavWriter.close();
+        closeFeatures();
 
-        // Ensure directory exists
-        File outputFile = new File(filePath);
-        outputFile.getParentFile().mkdirs();
+        if (wavWriter.getDataLength() == 0) {
+            if (deleteTakeFileOnSave) {
+                takeFile.delete();
+            }
+            dropFeatures();
+            return false;
+        }
 
-        // Write to WAV file
-        AudioSystem.write(recordedAIS, AudioFileFormat.Type.WAVE, outputFile);
+        takeLength = wavWriter.getDataLength();
+        trimStart = 0;
+        trimEnd = takeLength;
+        if (trimSilence && voiceActivityDetector.isSpeechDetected()) {
+            long pad = voiceActivityDetector.millisToBytes(trimPadMillis);
+            long start = Math.max(0, voiceActivityDetector.getSpeechStart() - pad);
+            long end = Math.min(takeLength, voiceActivityDetector.getSpeechEnd() + pad);
+            if (featureFile != null) {
+                // Start on a frame boundary so the kept feature frames line up with the trimmed audio
+                long hopBytes = (long) featureExtractor.getHopLength() * audioFormat.getFrameSize();
+                start -= start % hopBytes;
+            }
+            if (end > start && (start > 0 || end < takeLength)) {
+                trimTake(start, end);
+                trimFeatures(start, end);
+                trimStart = start;
+                trimEnd = end;
+            }
+        }
+
+        File outputFile = new File(filePath);
+        if (!outputFile.getAbsoluteFile().equals(takeFile.getAbsoluteFile())) {
+            // Ensure directory exists
+            outputFile.getAbsoluteFile().getParentFile().mkdirs();
+            Files.move(takeFile.toPath(), outputFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            takeFile = outputFile;
+            deleteTakeFileOnSave = false;
+            if (featureFile != null) {
+                File movedFeatures = LogMelFeatureFile.featureFileFor(outputFile);
+                Files.move(featureFile.toPath(), movedFeatures.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                featureFile = movedFeatures;
+            }
+        }
 
         return true;
     }
 
+    /**
+     * The log-mel feature file of the last saved take, next to its audio, or null if features
+     * were not extracted or could not be written.
+     */
+    public File getLastTakeFeatureFile() {
+        return featureFile;
+    }
+
+    // Finishes the feature file; features that failed are dropped rather than failing the take
+    private void closeFeatures() {
+        if (featureExtractor == null) {
+            return;
+        }
+        try {
+            if (featureThread.getError() != null) {
+                throw featureThread.getError();
+            }
+            featureExtractor.onEnd();
+        } catch (IOException e) {
+            System.err.println("Dropping features for " + takeFile.getName() + ": " + e.getMessage());
+            dropFeatures();
+        }
+    }
+
+    private void dropFeatures() {
+        if (featureFile != null) {
+            featureFile.delete();
+        }
+        featureExtractor = null;
+        featureThread = null;
+        featureFile = null;
+    }
+
+    /**
+     * Keeps only the feature frames that lie inside the given range of the take's audio.
+     */
+    private void trimFeatures(long start, long end) {
+        if (featureFile == null) {
+            return;
+        }
+        int frameSize = audioFormat.getFrameSize();
+        int first = (int) (start / frameSize / featureExtractor.getHopLength());
+        try {
+            LogMelFeatureFile.slice(featureFile, first, featureExtractor.framesIn((end - start) / frameSize));
+        } catch (IOException e) {
+            System.err.println("Dropping features for " + takeFile.getName() + ": " + e.getMessage());
+            dropFeatures();
+        }
+    }
+
+    /**
+     * Replaces the take file with a copy holding only the given range of its audio data.
+     */
+    private void trimTake(long start, long end) throws IOException {
+        File trimmedFile = new File(takeFile.getPath() + ".trim");
+        try (FileChannel source = FileChannel.open(takeFile.toPath(), StandardOpenOption.READ);
+             WavFileWriter trimmed = new WavFileWriter(trimmedFile, audioFormat)) {
+            trimmed.transferFrom(source, WavFileWriter.HEADER_SIZE + start, end - start);
+        }
+        Files.move(trimmedFile.toPath(), takeFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
     private void captureAudio() {
-        byte[] buffer = new byte[4096];
         int bytesRead;
 
-        while (isRecording) {
-            bytesRead = targetDataLine.read(buffer, 0, buffer.length);
-
-            if (bytesRead > 0) {
-                audioData.write(buffer, 0, bytesRead);
+        try {
+            boolean realTime = audioSource.isRealTime();
+            while (capturing) {
+                if (!realTime) {
+                    awaitConsumers();
+                }
+                // Read straight into the next ring slot; consumers do the I/O and analysis
+                byte[] slot = ringBuffer.claim();
+                long readStart = System.nanoTime();
+                bytesRead = audioSource.read(slot, 0, slot.length);
+                SOURCE_READ.recordMicrosSince(readStart);
 
-                // Calculate audio level for visualization
-                if (levelListener != null) {
-                    int level = calculateAudioLevel(buffer, bytesRead);
-                    levelListener.onLevelUpdate(level);
+                if (bytesRead > 0) {
+                    ringBuffer.publish(bytesRead);
+                    CAPTURED_FRAMES.increment();
+                    CAPTURED_BYTES.add(bytesRead);
+                    recordConsumerLag();
+                } else if (bytesRead < 0) {
+                    break;
                 }
             }
+        } catch (IOException | RuntimeException e) {
+            // The capture thread outlives the take, so nothing above it would report this
+            CAPTURE_ERRORS.increment();
+            System.err.println("Error reading audio source: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            ringBuffer.close();
         }
     }
 
-    private int calculateAudioLevel(byte[] buffer, int bytesRead) {
-        int sum = 0;
-        // Process 16-bit samples
-        for (int i = 0; i < bytesRead; i += 2) {
-            if (i + 1 < bytesRead) {
-                int sample = (buffer[i] & 0xFF) | ((buffer[i + 1] & 0xFF) << 8);
-                if ((sample & 0x8000) != 0) {
-                    sample = -((sample ^ 0xFFFF) + 1); // Convert to signed
+    // A source that outruns real time waits for the slowest consumer instead of lapping it
+    private void awaitConsumers() {
+        int limit = ringBuffer.getCapacity() - BACKPRESSURE_HEADROOM;
+        long waitStart = 0;
+        for (RingBufferConsumerThread consumer : activeConsumers) {
+            while (capturing && consumer.isAlive() && consumer.getLag() >= limit) {
+                if (waitStart == 0) {
+                    waitStart = System.nanoTime();
                 }
-                sum += Math.abs(sample);
+                LockSupport.parkNanos(BACKPRESSURE_PARK_NANOS);
             }
         }
+        if (waitStart != 0) {
+            BACKPRESSURE_WAIT.recordMicrosSince(waitStart);
+        }
+    }
 
-        int average = bytesRead > 0 ? sum / (bytesRead / 2) : 0;
-        // Scale 0-32767 to 0-100
-        return (int)(average / 327.67);
+    // How far the slowest consumer of the take is behind the frame just published
+    private void recordConsumerLag() {
+        long maxLag = 0;
+        for (RingBufferConsumerThread consumer : activeConsumers) {
+            if (consumer.isAlive()) {
+                maxLag = Math.max(maxLag, consumer.getLag());
+            }
+        }
+        CONSUMER_LAG.record(maxLag);
     }
 
     // Provides access to audio format constants for metadata
@@ -151,4 +817,43 @@ public class AudioRecorder {
     public static boolean isBigEndian() {
         return BIG_ENDIAN;
     }
-}
\ No newline at end of file
+
+    /**
+     * The format every take is captured in.
+     */
+    public static AudioFormat getAudioFormat() {
+        return new AudioFormat(SAMPLE_RATE, SAMPLE_SIZE_IN_BITS, CHANNELS, SIGNED, BIG_ENDIAN);
+    }
+
+    /**
+     * Clips the stream seen by a take consumer to start at the take's first byte, so frames
+     * read from the ring history only contribute the pre-roll.
+     */
+    private static final class PreRollWindow implements PcmFrameConsumer {
+        private final long start;
+        private final PcmFrameConsumer delegate;
+        private final byte[] clipped;
+
+        PreRollWindow(long start, PcmFrameConsumer delegate, int frameSize) {
+            this.start = start;
+            this.delegate = delegate;
+            this.clipped = new byte[frameSize];
+        }
+
+        @Override
+        public void onFrame(byte[] data, int length, long streamPosition) throws IOException {
+            if (streamPosition >= start) {
+                delegate.onFrame(data, length, streamPosition);
+            } else if (streamPosition + length > start) {
+                int offset = (int) (start - streamPosition);
+                System.arraycopy(data, offset, clipped, 0, length - offset);
+                delegate.onFrame(clipped, length - offset, start);
+            }
+        }
+
+        @Override
+        public void onEnd() throws IOException {
+            delegate.onEnd();
+        }
+    }
+}
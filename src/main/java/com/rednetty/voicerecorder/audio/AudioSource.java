@@ -0,0 +1,47 @@
+package com.rednetty.voicerecorder.audio;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.LineUnavailableException;
+import java.io.IOException;
+
+/**
+ * Where {@link AudioRecorder} captures PCM from: a JavaSound line in the app, or a file or
+ * generated signal for headless runs and load tests. A source is opened once per take.
+ */
+public interface AudioSource {
+
+    /**
+     * Prepares the source to deliver audio in the given format.
+     */
+    void open(AudioFormat format) throws LineUnavailableException;
+
+    /**
+     * Starts delivering audio; called after all ring consumers are attached.
+     */
+    void start();
+
+    /**
+     * Blocks until audio is available and reads it into the buffer.
+     *
+     * @return number of bytes read, 0 if nothing was available, or -1 once the source is exhausted
+     */
+    int read(byte[] buffer, int offset, int length) throws IOException;
+
+    /**
+     * Whether audio arrives at the pace it is captured. Sources that can run faster than real time
+     * return false, and the recorder then waits for slow consumers instead of overrunning them.
+     */
+    default boolean isRealTime() {
+        return true;
+    }
+
+    /**
+     * Stops delivering audio and unblocks a pending {@link #read}.
+     */
+    void stop();
+
+    /**
+     * Releases the source. It can be opened again for the next take.
+     */
+    void close();
+}
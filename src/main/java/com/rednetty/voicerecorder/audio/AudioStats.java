@@ -0,0 +1,150 @@
+package com.rednetty.voicerecorder.audio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Allocation-free statistics over signed 16-bit little-endian PCM: RMS, peak, clipping count
+ * and DC offset, computed in a single pass. Accumulates across calls until {@link #reset()},
+ * so the same instance serves both per-buffer level metering and whole-take statistics.
+ *
+ * The inner loops are branch-free straight-line integer code so the JIT can unroll and vectorize them.
+ */
+public final class AudioStats {
+    // A sample at or beyond this magnitude counts as clipped
+    private static final int CLIP_LEVEL = 32767;
+    private static final double FULL_SCALE = 32768.0;
+
+    private long sampleCount;
+    private long sum;
+    private long sumOfSquares;
+    private int peak;
+    private long clippedSamples;
+
+    public void reset() {
+        sampleCount = 0;
+        sum = 0;
+        sumOfSquares = 0;
+        peak = 0;
+        clippedSamples = 0;
+    }
+
+    /**
+     * Adds the samples in {@code buffer[offset, offset + length)}; a trailing odd byte is ignored.
+     */
+    public void accumulate(byte[] buffer, int offset, int length) {
+        int end = offset + (length & ~1);
+        long localSum = 0;
+        long localSquares = 0;
+        int localPeak = peak;
+        long localClipped = 0;
+
+        for (int i = offset; i < end; i += 2) {
+            int sample = (buffer[i] & 0xFF) | (buffer[i + 1] << 8);
+            int mask = sample >> 31;
+            int magnitude = (sample ^ mask) - mask;
+            localSum += sample;
+            localSquares += sample * sample;
+            localPeak = Math.max(localPeak, magnitude);
+            localClipped += (CLIP_LEVEL - 1 - magnitude) >>> 31;
+        }
+
+        sampleCount += (end - offset) >> 1;
+        sum += localSum;
+        sumOfSquares += localSquares;
+        peak = localPeak;
+        clippedSamples += localClipped;
+    }
+
+    /**
+     * Adds the remaining samples of a short view; the buffer's position is not changed.
+     */
+    public void accumulate(ShortBuffer samples) {
+        int start = samples.position();
+        int end = samples.limit();
+        long localSum = 0;
+        long localSquares = 0;
+        int localPeak = peak;
+        long localClipped = 0;
+
+        for (int i = start; i < end; i++) {
+            int sample = samples.get(i);
+            int mask = sample >> 31;
+            int magnitude = (sample ^ mask) - mask;
+            localSum += sample;
+            localSquares += sample * sample;
+            localPeak = Math.max(localPeak, magnitude);
+            localClipped += (CLIP_LEVEL - 1 - magnitude) >>> 31;
+        }
+
+        sampleCount += end - start;
+        sum += localSum;
+        sumOfSquares += localSquares;
+        peak = localPeak;
+        clippedSamples += localClipped;
+    }
+
+    /**
+     * Adds the remaining bytes of a buffer as little-endian samples, whatever the buffer's byte order.
+     * The buffer's position is not changed.
+     */
+    public void accumulate(ByteBuffer pcm) {
+        ByteBuffer view = pcm.duplicate();
+        view.order(ByteOrder.LITTLE_ENDIAN);
+        accumulate(view.asShortBuffer());
+    }
+
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     * Root mean square level as a fraction of full scale (0.0 - 1.0).
+     */
+    public double getRms() {
+        return sampleCount > 0 ? Math.sqrt((double) sumOfSquares / sampleCount) / FULL_SCALE : 0.0;
+    }
+
+    /**
+     * Largest absolute sample value (0 - 32768).
+     */
+    public int getPeak() {
+        return peak;
+    }
+
+    /**
+     * Number of samples at full scale.
+     */
+    public long getClippedSamples() {
+        return clippedSamples;
+    }
+
+    /**
+     * Mean sample value as a fraction of full scale; non-zero values indicate a DC bias.
+     */
+    public double getDcOffset() {
+        return sampleCount > 0 ? (double) sum / sampleCount / FULL_SCALE : 0.0;
+    }
+
+    /**
+     * RMS level scaled to 0 - 100 for the level meter.
+     */
+    public int getLevel() {
+        return (int) Math.min(100, Math.round(getRms() * 100.0));
+    }
+
+    /**
+     * The statistics as audio properties for recording metadata.
+     */
+    public Map<String, Object> toAudioProperties() {
+        Map<String, Object> properties = new LinkedHashMap<>();
+        properties.put("rms", getRms());
+        properties.put("peak", getPeak());
+        properties.put("clippedSamples", getClippedSamples());
+        properties.put("dcOffset", getDcOffset());
+        return properties;
+    }
+}
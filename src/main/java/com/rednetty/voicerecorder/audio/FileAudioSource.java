@@ -0,0 +1,76 @@
+package com.rednetty.voicerecorder.audio;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Replays audio files (WAV, or FLAC through {@link FlacDecoder}) as if they were being captured,
+ * converting them to the recording format.
+ * Each take plays the next file of the list, wrapping around at the end.
+ */
+public class FileAudioSource extends PacedAudioSource {
+    private final List<File> files;
+    private int nextFile;
+    private AudioInputStream stream;
+
+    /**
+     * @param files the files to replay, one per take
+     * @param speed playback speed relative to real time, or 0 for unthrottled
+     */
+    public FileAudioSource(List<File> files, double speed) {
+        super(speed);
+        if (files.isEmpty()) {
+            throw new IllegalArgumentException("No files to replay");
+        }
+        this.files = files;
+    }
+
+    @Override
+    public void open(AudioFormat format) throws LineUnavailableException {
+        File file = files.get(nextFile);
+        nextFile = (nextFile + 1) % files.size();
+        try {
+            AudioInputStream source = file.getName().toLowerCase(Locale.ROOT).endsWith(FlacEncoder.FILE_EXTENSION)
+                    ? FlacDecoder.open(file) : AudioSystem.getAudioInputStream(file);
+            stream = source.getFormat().matches(format) ? source : AudioSystem.getAudioInputStream(format, source);
+        } catch (UnsupportedAudioFileException | IOException | IllegalArgumentException e) {
+            throw new LineUnavailableException("Could not replay " + file + ": " + e.getMessage());
+        }
+        super.open(format);
+    }
+
+    @Override
+    protected int fill(byte[] buffer, int offset, int length) throws IOException {
+        int total = 0;
+        while (total < length) {
+            int read = stream.read(buffer, offset + total, length - total);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        // Drop a partial trailing frame
+        total -= total % format.getFrameSize();
+        return total > 0 ? total : -1;
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        if (stream != null) {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                System.err.println("Error closing replay stream: " + e.getMessage());
+            }
+            stream = null;
+        }
+    }
+}
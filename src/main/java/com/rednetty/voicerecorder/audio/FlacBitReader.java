@@ -0,0 +1,179 @@
+package com.rednetty.voicerecorder.audio;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * MSB-first bit reader over a stream that keeps the running FLAC CRC-8 and CRC-16 of every
+ * byte it consumes, so frames can be verified without buffering them.
+ */
+final class FlacBitReader {
+    private final InputStream in;
+    private final byte[] buffer = new byte[64 * 1024];
+    private int position;
+    private int limit;
+
+    // Bits of the current byte not yet consumed, right-aligned
+    private int currentByte;
+    private int bitsLeft;
+
+    private int crc8;
+    private int crc16;
+
+    FlacBitReader(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Starts a fresh CRC over the bytes consumed from here on; call at a byte boundary.
+     */
+    void resetCrc() {
+        crc8 = 0;
+        crc16 = 0;
+    }
+
+    /**
+     * Feeds a byte that was consumed before the last {@link #resetCrc()} into the running CRCs,
+     * such as the sync code found while scanning for a frame.
+     */
+    void updateCrc(int b) {
+        crc8 = FlacCrc.crc8(crc8, b);
+        crc16 = FlacCrc.crc16(crc16, b);
+    }
+
+    int getCrc8() {
+        return crc8;
+    }
+
+    int getCrc16() {
+        return crc16;
+    }
+
+    boolean isByteAligned() {
+        return bitsLeft == 0;
+    }
+
+    /**
+     * Reads the next byte at a byte boundary, or returns -1 at the end of the stream.
+     */
+    int readByteOrEof() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        int b = buffer[position++] & 0xFF;
+        crc8 = FlacCrc.crc8(crc8, b);
+        crc16 = FlacCrc.crc16(crc16, b);
+        return b;
+    }
+
+    private int nextByte() throws IOException {
+        int b = readByteOrEof();
+        if (b < 0) {
+            throw new EOFException("Unexpected end of FLAC stream");
+        }
+        return b;
+    }
+
+    private boolean fill() throws IOException {
+        int read;
+        do {
+            read = in.read(buffer, 0, buffer.length);
+        } while (read == 0);
+        if (read < 0) {
+            return false;
+        }
+        position = 0;
+        limit = read;
+        return true;
+    }
+
+    /**
+     * Reads {@code bits} bits (at most 32) as an unsigned value.
+     */
+    long readBits(int bits) throws IOException {
+        long value = 0;
+        while (bits > 0) {
+            if (bitsLeft == 0) {
+                currentByte = nextByte();
+                bitsLeft = 8;
+            }
+            int take = Math.min(bits, bitsLeft);
+            int shift = bitsLeft - take;
+            value = (value << take) | ((currentByte >>> shift) & ((1 << take) - 1));
+            bitsLeft -= take;
+            bits -= take;
+        }
+        return value;
+    }
+
+    int readSignedBits(int bits) throws IOException {
+        if (bits == 0) {
+            return 0;
+        }
+        long value = readBits(bits);
+        return (int) ((value << (64 - bits)) >> (64 - bits));
+    }
+
+    /**
+     * Counts zero bits up to and including the terminating one bit, returning the number of zeros.
+     */
+    int readUnary() throws IOException {
+        int zeros = 0;
+        while (true) {
+            if (bitsLeft == 0) {
+                currentByte = nextByte();
+                bitsLeft = 8;
+            }
+            int remaining = currentByte & ((1 << bitsLeft) - 1);
+            if (remaining == 0) {
+                zeros += bitsLeft;
+                bitsLeft = 0;
+                continue;
+            }
+            // Position of the highest set bit among the remaining ones
+            int highest = 31 - Integer.numberOfLeadingZeros(remaining);
+            zeros += bitsLeft - 1 - highest;
+            bitsLeft = highest;
+            return zeros;
+        }
+    }
+
+    int readRice(int k) throws IOException {
+        long folded = ((long) readUnary() << k) | readBits(k);
+        return (int) ((folded >>> 1) ^ -(folded & 1));
+    }
+
+    /**
+     * Reads a UTF-8-style coded frame or sample number.
+     */
+    long readUtf8() throws IOException {
+        int first = (int) readBits(8);
+        if ((first & 0x80) == 0) {
+            return first;
+        }
+        int leadingOnes = Integer.numberOfLeadingZeros(~first << 24);
+        if (leadingOnes < 2 || leadingOnes > 7) {
+            throw new IOException("Invalid coded number in FLAC frame header");
+        }
+        long value = first & (0xFF >>> (leadingOnes + 1));
+        for (int i = 1; i < leadingOnes; i++) {
+            int next = (int) readBits(8);
+            if ((next & 0xC0) != 0x80) {
+                throw new IOException("Invalid coded number in FLAC frame header");
+            }
+            value = (value << 6) | (next & 0x3F);
+        }
+        return value;
+    }
+
+    void alignToByte() {
+        bitsLeft = 0;
+    }
+
+    void skipBytes(long count) throws IOException {
+        for (long i = 0; i < count; i++) {
+            nextByte();
+        }
+    }
+}
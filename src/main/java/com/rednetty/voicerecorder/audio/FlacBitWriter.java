@@ -0,0 +1,102 @@
+package com.rednetty.voicerecorder.audio;
+
+import java.util.Arrays;
+
+/**
+ * MSB-first bit packer used to assemble one FLAC frame in memory.
+ */
+final class FlacBitWriter {
+    private byte[] buffer;
+    private int length;
+    // Pending bits, right-aligned; never more than 7 between calls
+    private long accumulator;
+    private int accumulatedBits;
+
+    FlacBitWriter(int initialCapacity) {
+        this.buffer = new byte[initialCapacity];
+    }
+
+    void reset() {
+        length = 0;
+        accumulator = 0;
+        accumulatedBits = 0;
+    }
+
+    /**
+     * Writes the low {@code bits} bits of {@code value} (at most 32).
+     */
+    void writeBits(long value, int bits) {
+        if (bits == 0) {
+            return;
+        }
+        accumulator = (accumulator << bits) | (value & ((1L << bits) - 1));
+        accumulatedBits += bits;
+        while (accumulatedBits >= 8) {
+            accumulatedBits -= 8;
+            put((byte) (accumulator >>> accumulatedBits));
+        }
+        accumulator &= (1L << accumulatedBits) - 1;
+    }
+
+    /**
+     * Writes {@code zeros} zero bits followed by a one bit.
+     */
+    void writeUnary(int zeros) {
+        while (zeros >= 32) {
+            writeBits(0, 32);
+            zeros -= 32;
+        }
+        writeBits(1, zeros + 1);
+    }
+
+    /**
+     * Writes a signed value as a zigzag-folded Rice code with parameter {@code k}.
+     */
+    void writeRice(int value, int k) {
+        int folded = (value << 1) ^ (value >> 31);
+        writeUnary(folded >>> k);
+        writeBits(folded & ((1L << k) - 1), k);
+    }
+
+    /**
+     * Writes a frame or sample number in FLAC's UTF-8-style variable-length coding.
+     */
+    void writeUtf8(long value) {
+        if (value < 0x80) {
+            writeBits(value, 8);
+            return;
+        }
+        int continuationBytes = value < 0x800 ? 1 : value < 0x10000 ? 2 : value < 0x200000 ? 3
+                : value < 0x4000000 ? 4 : value < 0x80000000L ? 5 : 6;
+        int leadingOnes = continuationBytes + 1;
+        long prefix = ((1L << leadingOnes) - 1) << (8 - leadingOnes);
+        writeBits(prefix | (value >>> (6 * continuationBytes)), 8);
+        for (int i = continuationBytes - 1; i >= 0; i--) {
+            writeBits(0x80 | ((value >>> (6 * i)) & 0x3F), 8);
+        }
+    }
+
+    void alignToByte() {
+        if (accumulatedBits > 0) {
+            writeBits(0, 8 - accumulatedBits);
+        }
+    }
+
+    /**
+     * Number of complete bytes written; call {@link #alignToByte()} first to include pending bits.
+     */
+    int length() {
+        return length;
+    }
+
+    byte[] buffer() {
+        return buffer;
+    }
+
+    private void put(byte b) {
+        if (length == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        buffer[length++] = b;
+    }
+}
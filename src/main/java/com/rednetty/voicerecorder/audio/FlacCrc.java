@@ -0,0 +1,49 @@
+package com.rednetty.voicerecorder.audio;
+
+/**
+ * The CRC-8 (frame header) and CRC-16 (whole frame) checksums of the FLAC format.
+ */
+final class FlacCrc {
+    private static final int[] CRC8_TABLE = new int[256];
+    private static final int[] CRC16_TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc8 = i;
+            int crc16 = i << 8;
+            for (int bit = 0; bit < 8; bit++) {
+                crc8 = (crc8 & 0x80) != 0 ? (crc8 << 1) ^ 0x07 : crc8 << 1;
+                crc16 = (crc16 & 0x8000) != 0 ? (crc16 << 1) ^ 0x8005 : crc16 << 1;
+            }
+            CRC8_TABLE[i] = crc8 & 0xFF;
+            CRC16_TABLE[i] = crc16 & 0xFFFF;
+        }
+    }
+
+    private FlacCrc() {
+    }
+
+    static int crc8(int crc, int b) {
+        return CRC8_TABLE[(crc ^ b) & 0xFF];
+    }
+
+    static int crc16(int crc, int b) {
+        return ((crc << 8) ^ CRC16_TABLE[((crc >>> 8) ^ b) & 0xFF]) & 0xFFFF;
+    }
+
+    static int crc8(byte[] data, int offset, int length) {
+        int crc = 0;
+        for (int i = offset; i < offset + length; i++) {
+            crc = crc8(crc, data[i]);
+        }
+        return crc;
+    }
+
+    static int crc16(byte[] data, int offset, int length) {
+        int crc = 0;
+        for (int i = offset; i < offset + length; i++) {
+            crc = crc16(crc, data[i]);
+        }
+        return crc;
+    }
+}
@@ -0,0 +1,472 @@
+package com.rednetty.voicerecorder.audio;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Streams a FLAC file back out as interleaved little-endian signed PCM, one frame at a time.
+ *
+ * Handles everything {@link FlacEncoder} writes plus the rest of the format as produced by other
+ * encoders: stereo decorrelation, wasted bits, escaped residual partitions and both Rice coding
+ * methods, up to 24 bits per sample. Every frame's CRC-8 and CRC-16 are checked, and the MD5
+ * signature in STREAMINFO is checked once the last frame has been read, so reading a file to the
+ * end verifies that it decodes to exactly the PCM that was encoded.
+ */
+public class FlacDecoder extends InputStream {
+    private final InputStream in;
+    private final FlacBitReader reader;
+    private final AudioFormat format;
+    private final int channels;
+    private final int bitsPerSample;
+    private final int bytesPerSample;
+    private final long totalSamples;
+    private final byte[] expectedSignature;
+    private final MessageDigest md5;
+
+    private int[][] samples;
+    private byte[] output = new byte[0];
+    private int outputPosition;
+    private int outputLength;
+    private long decodedSamples;
+    private boolean finished;
+
+    public FlacDecoder(InputStream in) throws IOException {
+        this.in = in;
+        this.reader = new FlacBitReader(in);
+
+        if (reader.readBits(32) != 0x664C6143) {
+            throw new IOException("Not a FLAC stream");
+        }
+
+        boolean sawStreamInfo = false;
+        int sampleRate = 0;
+        int channelCount = 0;
+        int bits = 0;
+        int blockSize = 0;
+        long total = 0;
+        byte[] signature = new byte[16];
+        boolean last;
+        do {
+            last = reader.readBits(1) == 1;
+            int type = (int) reader.readBits(7);
+            long length = reader.readBits(24);
+            if (type == 0) {
+                reader.readBits(16); // minimum block size
+                blockSize = (int) reader.readBits(16);
+                reader.readBits(24); // minimum frame size
+                reader.readBits(24); // maximum frame size
+                sampleRate = (int) reader.readBits(20);
+                channelCount = (int) reader.readBits(3) + 1;
+                bits = (int) reader.readBits(5) + 1;
+                total = (reader.readBits(4) << 32) | reader.readBits(32);
+                for (int i = 0; i < signature.length; i++) {
+                    signature[i] = (byte) reader.readBits(8);
+                }
+                reader.skipBytes(length - 34);
+                sawStreamInfo = true;
+            } else {
+                // Seek tables, tags, pictures and padding carry nothing needed for decoding
+                reader.skipBytes(length);
+            }
+        } while (!last);
+
+        if (!sawStreamInfo) {
+            throw new IOException("FLAC stream has no STREAMINFO block");
+        }
+        if (bits < 4 || bits > 24) {
+            throw new IOException("Unsupported FLAC sample size: " + bits + " bits");
+        }
+
+        this.channels = channelCount;
+        this.bitsPerSample = bits;
+        this.bytesPerSample = (bits + 7) / 8;
+        this.totalSamples = total;
+        this.format = new AudioFormat(sampleRate, bytesPerSample * 8, channelCount, true, false);
+        this.samples = new int[channelCount][Math.max(blockSize, 16)];
+
+        boolean hasSignature = false;
+        for (byte b : signature) {
+            hasSignature |= b != 0;
+        }
+        this.expectedSignature = hasSignature ? signature : null;
+        MessageDigest digest = null;
+        if (hasSignature) {
+            try {
+                digest = MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                digest = null;
+            }
+        }
+        this.md5 = digest;
+    }
+
+    /**
+     * Opens a FLAC file as an AudioInputStream of PCM samples.
+     */
+    public static AudioInputStream open(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            FlacDecoder decoder = new FlacDecoder(in);
+            long frames = decoder.getTotalSamples() > 0 ? decoder.getTotalSamples() : AudioSystem.NOT_SPECIFIED;
+            return new AudioInputStream(decoder, decoder.getFormat(), frames);
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * The PCM format produced; sample sizes that are not a whole number of bytes are widened.
+     */
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * Samples per channel as declared in STREAMINFO, or 0 if unknown.
+     */
+    public long getTotalSamples() {
+        return totalSamples;
+    }
+
+    public double getDurationSeconds() {
+        return format.getSampleRate() > 0 ? totalSamples / (double) format.getSampleRate() : 0;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (outputPosition == outputLength && !nextFrame()) {
+            return -1;
+        }
+        return output[outputPosition++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (outputPosition == outputLength && !nextFrame()) {
+            return -1;
+        }
+        int n = Math.min(length, outputLength - outputPosition);
+        System.arraycopy(output, outputPosition, buffer, offset, n);
+        outputPosition += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return outputLength - outputPosition;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private boolean nextFrame() throws IOException {
+        while (!finished) {
+            int blockSize = decodeFrame();
+            if (blockSize < 0) {
+                finished = true;
+                verifyEnd();
+                return false;
+            }
+            if (blockSize > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void verifyEnd() throws IOException {
+        if (totalSamples > 0 && decodedSamples != totalSamples) {
+            throw new IOException("FLAC stream ended after " + decodedSamples + " of " + totalSamples + " samples");
+        }
+        if (md5 != null && !Arrays.equals(md5.digest(), expectedSignature)) {
+            throw new IOException("FLAC MD5 signature mismatch");
+        }
+    }
+
+    /**
+     * Decodes the next frame into the output buffer, returning its block size or -1 at the end of the stream.
+     */
+    private int decodeFrame() throws IOException {
+        int syncByte;
+        int first = reader.readByteOrEof();
+        while (true) {
+            if (first < 0) {
+                return -1;
+            }
+            if (first == 0xFF) {
+                syncByte = reader.readByteOrEof();
+                if (syncByte < 0) {
+                    return -1;
+                }
+                if ((syncByte & 0xFE) == 0xF8) {
+                    break;
+                }
+                first = syncByte;
+            } else {
+                first = reader.readByteOrEof();
+            }
+        }
+        reader.resetCrc();
+        reader.updateCrc(0xFF);
+        reader.updateCrc(syncByte);
+
+        int blockSizeCode = (int) reader.readBits(4);
+        int sampleRateCode = (int) reader.readBits(4);
+        int channelAssignment = (int) reader.readBits(4);
+        int sampleSizeCode = (int) reader.readBits(3);
+        reader.readBits(1);
+        reader.readUtf8();
+
+        int blockSize;
+        if (blockSizeCode == 1) {
+            blockSize = 192;
+        } else if (blockSizeCode >= 2 && blockSizeCode <= 5) {
+            blockSize = 576 << (blockSizeCode - 2);
+        } else if (blockSizeCode == 6) {
+            blockSize = (int) reader.readBits(8) + 1;
+        } else if (blockSizeCode == 7) {
+            blockSize = (int) reader.readBits(16) + 1;
+        } else if (blockSizeCode >= 8) {
+            blockSize = 256 << (blockSizeCode - 8);
+        } else {
+            throw new IOException("Reserved FLAC block size code");
+        }
+
+        if (sampleRateCode == 12) {
+            reader.readBits(8);
+        } else if (sampleRateCode == 13 || sampleRateCode == 14) {
+            reader.readBits(16);
+        } else if (sampleRateCode == 15) {
+            throw new IOException("Invalid FLAC sample rate code");
+        }
+
+        int frameBits;
+        switch (sampleSizeCode) {
+            case 0: frameBits = bitsPerSample; break;
+            case 1: frameBits = 8; break;
+            case 2: frameBits = 12; break;
+            case 4: frameBits = 16; break;
+            case 5: frameBits = 20; break;
+            case 6: frameBits = 24; break;
+            default: throw new IOException("Unsupported FLAC sample size code: " + sampleSizeCode);
+        }
+
+        int expectedCrc8 = reader.getCrc8();
+        if (reader.readBits(8) != expectedCrc8) {
+            throw new IOException("FLAC frame header CRC mismatch");
+        }
+
+        int frameChannels = channelAssignment < 8 ? channelAssignment + 1 : 2;
+        if (channelAssignment > 10 || frameChannels != channels) {
+            throw new IOException("Invalid FLAC channel assignment: " + channelAssignment);
+        }
+        if (blockSize > samples[0].length) {
+            samples = new int[channels][blockSize];
+        }
+
+        for (int c = 0; c < channels; c++) {
+            // The side channel carries one extra bit
+            boolean side = (channelAssignment == 8 && c == 1) || (channelAssignment == 9 && c == 0)
+                    || (channelAssignment == 10 && c == 1);
+            decodeSubframe(samples[c], blockSize, frameBits + (side ? 1 : 0));
+        }
+
+        reader.alignToByte();
+        int expectedCrc16 = reader.getCrc16();
+        if (reader.readBits(16) != expectedCrc16) {
+            throw new IOException("FLAC frame CRC mismatch");
+        }
+
+        decorrelate(channelAssignment, blockSize);
+        writeOutput(blockSize);
+        decodedSamples += blockSize;
+        return blockSize;
+    }
+
+    private void decodeSubframe(int[] x, int n, int bits) throws IOException {
+        if (reader.readBits(1) != 0) {
+            throw new IOException("Invalid FLAC subframe padding");
+        }
+        int type = (int) reader.readBits(6);
+        int wasted = 0;
+        if (reader.readBits(1) == 1) {
+            wasted = reader.readUnary() + 1;
+            bits -= wasted;
+        }
+
+        if (type == 0) {
+            Arrays.fill(x, 0, n, reader.readSignedBits(bits));
+        } else if (type == 1) {
+            for (int i = 0; i < n; i++) {
+                x[i] = reader.readSignedBits(bits);
+            }
+        } else if (type >= 8 && type <= 12) {
+            int order = type - 8;
+            readWarmUp(x, order, bits);
+            readResidual(x, n, order);
+            restoreFixed(x, n, order);
+        } else if (type >= 32) {
+            int order = (type & 31) + 1;
+            readWarmUp(x, order, bits);
+            int precision = (int) reader.readBits(4) + 1;
+            if (precision == 16) {
+                throw new IOException("Invalid FLAC LPC precision");
+            }
+            int shift = reader.readSignedBits(5);
+            if (shift < 0) {
+                throw new IOException("Negative FLAC LPC shift");
+            }
+            int[] coefficients = new int[order];
+            for (int i = 0; i < order; i++) {
+                coefficients[i] = reader.readSignedBits(precision);
+            }
+            readResidual(x, n, order);
+            restoreLpc(x, n, coefficients, shift);
+        } else {
+            throw new IOException("Reserved FLAC subframe type: " + type);
+        }
+
+        if (wasted > 0) {
+            for (int i = 0; i < n; i++) {
+                x[i] <<= wasted;
+            }
+        }
+    }
+
+    private void readWarmUp(int[] x, int order, int bits) throws IOException {
+        for (int i = 0; i < order; i++) {
+            x[i] = reader.readSignedBits(bits);
+        }
+    }
+
+    private void readResidual(int[] x, int n, int predictorOrder) throws IOException {
+        int method = (int) reader.readBits(2);
+        if (method > 1) {
+            throw new IOException("Reserved FLAC residual coding method");
+        }
+        int parameterBits = method == 0 ? 4 : 5;
+        int escape = (1 << parameterBits) - 1;
+        int partitionOrder = (int) reader.readBits(4);
+        int partitions = 1 << partitionOrder;
+        int partitionSize = n >> partitionOrder;
+        if ((partitionSize << partitionOrder) != n || partitionSize < predictorOrder) {
+            throw new IOException("Invalid FLAC residual partition order");
+        }
+
+        int i = predictorOrder;
+        for (int p = 0; p < partitions; p++) {
+            int end = (p + 1) * partitionSize;
+            int k = (int) reader.readBits(parameterBits);
+            if (k == escape) {
+                int rawBits = (int) reader.readBits(5);
+                for (; i < end; i++) {
+                    x[i] = reader.readSignedBits(rawBits);
+                }
+            } else {
+                for (; i < end; i++) {
+                    x[i] = reader.readRice(k);
+                }
+            }
+        }
+    }
+
+    private static void restoreFixed(int[] x, int n, int order) {
+        switch (order) {
+            case 0:
+                break;
+            case 1:
+                for (int i = 1; i < n; i++) {
+                    x[i] += x[i - 1];
+                }
+                break;
+            case 2:
+                for (int i = 2; i < n; i++) {
+                    x[i] += 2 * x[i - 1] - x[i - 2];
+                }
+                break;
+            case 3:
+                for (int i = 3; i < n; i++) {
+                    x[i] += 3 * x[i - 1] - 3 * x[i - 2] + x[i - 3];
+                }
+                break;
+            default:
+                for (int i = 4; i < n; i++) {
+                    x[i] += 4 * x[i - 1] - 6 * x[i - 2] + 4 * x[i - 3] - x[i - 4];
+                }
+                break;
+        }
+    }
+
+    private static void restoreLpc(int[] x, int n, int[] coefficients, int shift) {
+        int order = coefficients.length;
+        for (int i = order; i < n; i++) {
+            long prediction = 0;
+            for (int j = 0; j < order; j++) {
+                prediction += (long) coefficients[j] * x[i - 1 - j];
+            }
+            x[i] += (int) (prediction >> shift);
+        }
+    }
+
+    private void decorrelate(int channelAssignment, int n) {
+        int[] a = samples[0];
+        int[] b = channels > 1 ? samples[1] : null;
+        switch (channelAssignment) {
+            case 8: // left, side
+                for (int i = 0; i < n; i++) {
+                    b[i] = a[i] - b[i];
+                }
+                break;
+            case 9: // side, right
+                for (int i = 0; i < n; i++) {
+                    a[i] += b[i];
+                }
+                break;
+            case 10: // mid, side
+                for (int i = 0; i < n; i++) {
+                    int side = b[i];
+                    int mid = (a[i] << 1) | (side & 1);
+                    a[i] = (mid + side) >> 1;
+                    b[i] = (mid - side) >> 1;
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void writeOutput(int n) {
+        int length = n * channels * bytesPerSample;
+        if (output.length < length) {
+            output = new byte[length];
+        }
+        int o = 0;
+        for (int i = 0; i < n; i++) {
+            for (int c = 0; c < channels; c++) {
+                int v = samples[c][i];
+                for (int k = 0; k < bytesPerSample; k++) {
+                    output[o++] = (byte) (v >> (8 * k));
+                }
+            }
+        }
+        if (md5 != null) {
+            md5.update(output, 0, length);
+        }
+        outputPosition = 0;
+        outputLength = length;
+    }
+}
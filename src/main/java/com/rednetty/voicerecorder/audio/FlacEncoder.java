@@ -0,0 +1,717 @@
+package com.rednetty.voicerecorder.audio;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Streams signed 16-bit little-endian PCM into a lossless FLAC file.
+ *
+ * Samples are buffered into fixed-size blocks; each block is encoded as one frame using whichever
+ * of a constant, fixed-polynomial, LPC or verbatim subframe is smallest, with Rice-coded residuals
+ * split into the best number of partitions. Like {@link WavFileWriter}, the STREAMINFO header is
+ * reserved up front and patched on close with the sample count, frame sizes and MD5 signature,
+ * so memory use does not grow with the length of the take.
+ */
+public class FlacEncoder implements Closeable {
+    public static final String CODEC = "flac";
+    public static final String FILE_EXTENSION = ".flac";
+    public static final int DEFAULT_BLOCK_SIZE = 4096;
+
+    // "fLaC" marker, the metadata block header and the 34-byte STREAMINFO block
+    private static final int HEADER_SIZE = 42;
+    private static final int STREAMINFO_SIZE = 34;
+
+    private static final int MAX_FIXED_ORDER = 4;
+    private static final int[] LPC_ORDERS = {4, 8, 12};
+    private static final int MAX_LPC_ORDER = 12;
+    private static final int LPC_PRECISION = 13;
+    private static final int MAX_LPC_SHIFT = 15;
+    private static final int MAX_PARTITION_ORDER = 8;
+    private static final int MAX_RICE_PARAMETER = 30;
+    // Method 0 stores 4-bit parameters, where 15 is reserved as the escape code
+    private static final int MAX_RICE4_PARAMETER = 14;
+
+    private final File file;
+    private final int channels;
+    private final int bitsPerSample;
+    private final int sampleRate;
+    private final int blockSize;
+    private final int bytesPerFrame;
+    private final FileChannel channel;
+    private final MessageDigest md5;
+    private final FlacBitWriter frame;
+
+    private final int[][] block;
+    private int blockFill;
+    // Bytes of a sample frame split across two write calls
+    private final byte[] pending;
+    private int pendingLength;
+
+    // Scratch space for choosing and writing a subframe, reused for every block
+    private int[] residual;
+    private int[] bestResidual;
+    private int[] riceParameters = new int[1 << MAX_PARTITION_ORDER];
+    private int[] bestRiceParameters = new int[1 << MAX_PARTITION_ORDER];
+    private final long[] partitionSums = new long[1 << MAX_PARTITION_ORDER];
+    private int plannedPartitionOrder;
+    private final double[] windowed;
+    private double[] window = new double[0];
+    private final double[] autocorrelation = new double[MAX_LPC_ORDER + 1];
+    private final double[][] lpcCoefficients = new double[MAX_LPC_ORDER][MAX_LPC_ORDER];
+    private final double[] lpcScratch = new double[MAX_LPC_ORDER];
+    private final int[] quantized = new int[MAX_LPC_ORDER];
+    private final int[] bestQuantized = new int[MAX_LPC_ORDER];
+
+    private long frameNumber;
+    private long totalSamples;
+    private int minFrameSize = Integer.MAX_VALUE;
+    private int maxFrameSize;
+    private boolean closed;
+
+    public FlacEncoder(File file, AudioFormat format) throws IOException {
+        this(file, format, DEFAULT_BLOCK_SIZE);
+    }
+
+    public FlacEncoder(File file, AudioFormat format, int blockSize) throws IOException {
+        if (!isSupported(format)) {
+            throw new IllegalArgumentException("FLAC encoding needs signed 16-bit little-endian PCM, got " + format);
+        }
+        if (blockSize < 16 || blockSize > 65535) {
+            throw new IllegalArgumentException("Block size out of range: " + blockSize);
+        }
+        this.file = file;
+        this.channels = format.getChannels();
+        this.bitsPerSample = format.getSampleSizeInBits();
+        this.sampleRate = (int) format.getSampleRate();
+        this.blockSize = blockSize;
+        this.bytesPerFrame = channels * 2;
+        this.block = new int[channels][blockSize];
+        this.pending = new byte[bytesPerFrame];
+        this.residual = new int[blockSize];
+        this.bestResidual = new int[blockSize];
+        this.windowed = new double[blockSize];
+        this.frame = new FlacBitWriter(blockSize * bytesPerFrame + 64);
+
+        try {
+            this.md5 = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("MD5 is not available", e);
+        }
+
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+
+        this.channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+
+        // Reserve the header with unknown sizes; it is rewritten on close
+        writeHeader(new byte[16]);
+        channel.position(HEADER_SIZE);
+    }
+
+    /**
+     * Whether this encoder can take PCM in the given format.
+     */
+    public static boolean isSupported(AudioFormat format) {
+        return AudioFormat.Encoding.PCM_SIGNED.equals(format.getEncoding())
+                && format.getSampleSizeInBits() == 16
+                && !format.isBigEndian()
+                && format.getChannels() >= 1 && format.getChannels() <= 8
+                && format.getSampleRate() >= 1 && format.getSampleRate() < (1 << 20);
+    }
+
+    /**
+     * Re-encodes a 16-bit PCM WAV file as FLAC.
+     *
+     * @return the size of the FLAC file in bytes
+     */
+    public static long transcode(File wavFile, File flacFile) throws IOException {
+        WavHeader header = WavHeader.read(wavFile.toPath());
+        if (!header.isPcm()) {
+            throw new IOException("Not a PCM WAV file: " + wavFile);
+        }
+        AudioFormat format = new AudioFormat(header.getSampleRate(), header.getBitsPerSample(),
+                header.getChannels(), true, false);
+
+        try (FileChannel source = FileChannel.open(wavFile.toPath(), StandardOpenOption.READ);
+             FlacEncoder encoder = new FlacEncoder(flacFile, format)) {
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            long position = header.getDataOffset();
+            long remaining = header.getAvailableDataLength();
+            while (remaining > 0) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), remaining));
+                int read = source.read(buffer, position);
+                if (read < 0) {
+                    break;
+                }
+                encoder.write(buffer.array(), 0, read);
+                position += read;
+                remaining -= read;
+            }
+        }
+        return flacFile.length();
+    }
+
+    /**
+     * Appends interleaved PCM bytes. Sample frames may be split across calls.
+     */
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+        int i = offset;
+        int end = offset + length;
+
+        if (pendingLength > 0) {
+            int take = Math.min(bytesPerFrame - pendingLength, length);
+            System.arraycopy(buffer, offset, pending, pendingLength, take);
+            pendingLength += take;
+            i += take;
+            if (pendingLength < bytesPerFrame) {
+                return;
+            }
+            md5.update(pending, 0, bytesPerFrame);
+            addSampleFrame(pending, 0);
+            pendingLength = 0;
+        }
+
+        int whole = (end - i) / bytesPerFrame * bytesPerFrame;
+        md5.update(buffer, i, whole);
+        int wholeEnd = i + whole;
+        while (i < wholeEnd) {
+            addSampleFrame(buffer, i);
+            i += bytesPerFrame;
+        }
+
+        pendingLength = end - i;
+        System.arraycopy(buffer, i, pending, 0, pendingLength);
+    }
+
+    private void addSampleFrame(byte[] buffer, int offset) throws IOException {
+        for (int c = 0; c < channels; c++, offset += 2) {
+            block[c][blockFill] = (buffer[offset] & 0xFF) | (buffer[offset + 1] << 8);
+        }
+        if (++blockFill == blockSize) {
+            encodeBlock(blockSize);
+            blockFill = 0;
+        }
+    }
+
+    /**
+     * Samples per channel written so far.
+     */
+    public long getSampleCount() {
+        return totalSamples + blockFill;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Flushes the last partial block and patches the STREAMINFO header. A trailing incomplete
+     * sample frame is dropped.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (blockFill > 0) {
+                encodeBlock(blockFill);
+                blockFill = 0;
+            }
+            writeHeader(md5.digest());
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void writeHeader(byte[] signature) throws IOException {
+        FlacBitWriter header = new FlacBitWriter(HEADER_SIZE);
+        header.writeBits(0x664C6143, 32); // "fLaC"
+        // Last metadata block, type 0 (STREAMINFO)
+        header.writeBits(0x80, 8);
+        header.writeBits(STREAMINFO_SIZE, 24);
+        header.writeBits(blockSize, 16);
+        header.writeBits(blockSize, 16);
+        header.writeBits(maxFrameSize > 0 ? minFrameSize : 0, 24);
+        header.writeBits(maxFrameSize, 24);
+        header.writeBits(sampleRate, 20);
+        header.writeBits(channels - 1, 3);
+        header.writeBits(bitsPerSample - 1, 5);
+        header.writeBits(totalSamples >>> 32, 4);
+        header.writeBits(totalSamples, 32);
+        for (byte b : signature) {
+            header.writeBits(b, 8);
+        }
+
+        ByteBuffer data = ByteBuffer.wrap(header.buffer(), 0, header.length());
+        long position = 0;
+        while (data.hasRemaining()) {
+            position += channel.write(data, position);
+        }
+    }
+
+    private void encodeBlock(int samples) throws IOException {
+        frame.reset();
+        writeFrameHeader(samples);
+        for (int c = 0; c < channels; c++) {
+            encodeSubframe(block[c], samples);
+        }
+        frame.alignToByte();
+        frame.writeBits(FlacCrc.crc16(frame.buffer(), 0, frame.length()), 16);
+
+        int size = frame.length();
+        ByteBuffer data = ByteBuffer.wrap(frame.buffer(), 0, size);
+        while (data.hasRemaining()) {
+            channel.write(data);
+        }
+        minFrameSize = Math.min(minFrameSize, size);
+        maxFrameSize = Math.max(maxFrameSize, size);
+        frameNumber++;
+        totalSamples += samples;
+    }
+
+    private void writeFrameHeader(int samples) {
+        int blockSizeCode = blockSizeCode(samples);
+        int sampleRateCode = sampleRateCode(sampleRate);
+
+        // Sync code, reserved bit and the fixed-blocksize strategy bit
+        frame.writeBits(0xFFF8, 16);
+        frame.writeBits(blockSizeCode, 4);
+        frame.writeBits(sampleRateCode, 4);
+        // Independent channels; 16 bits per sample
+        frame.writeBits(channels - 1, 4);
+        frame.writeBits(4, 3);
+        frame.writeBits(0, 1);
+        frame.writeUtf8(frameNumber);
+
+        if (blockSizeCode == 6) {
+            frame.writeBits(samples - 1, 8);
+        } else if (blockSizeCode == 7) {
+            frame.writeBits(samples - 1, 16);
+        }
+        if (sampleRateCode == 12) {
+            frame.writeBits(sampleRate / 1000, 8);
+        } else if (sampleRateCode == 13) {
+            frame.writeBits(sampleRate, 16);
+        } else if (sampleRateCode == 14) {
+            frame.writeBits(sampleRate / 10, 16);
+        }
+        frame.writeBits(FlacCrc.crc8(frame.buffer(), 0, frame.length()), 8);
+    }
+
+    private static int blockSizeCode(int samples) {
+        switch (samples) {
+            case 192: return 1;
+            case 576: return 2;
+            case 1152: return 3;
+            case 2304: return 4;
+            case 4608: return 5;
+            case 256: return 8;
+            case 512: return 9;
+            case 1024: return 10;
+            case 2048: return 11;
+            case 4096: return 12;
+            case 8192: return 13;
+            case 16384: return 14;
+            case 32768: return 15;
+            default: return samples <= 256 ? 6 : 7;
+        }
+    }
+
+    private static int sampleRateCode(int rate) {
+        switch (rate) {
+            case 88200: return 1;
+            case 176400: return 2;
+            case 192000: return 3;
+            case 8000: return 4;
+            case 16000: return 5;
+            case 22050: return 6;
+            case 24000: return 7;
+            case 32000: return 8;
+            case 44100: return 9;
+            case 48000: return 10;
+            case 96000: return 11;
+            default:
+                if (rate % 1000 == 0 && rate / 1000 <= 255) {
+                    return 12;
+                } else if (rate <= 65535) {
+                    return 13;
+                } else if (rate % 10 == 0 && rate / 10 <= 65535) {
+                    return 14;
+                }
+                // Taken from STREAMINFO
+                return 0;
+        }
+    }
+
+    private void encodeSubframe(int[] x, int n) {
+        boolean constant = true;
+        for (int i = 1; i < n && constant; i++) {
+            constant = x[i] == x[0];
+        }
+        if (constant) {
+            writeSubframeHeader(0);
+            frame.writeBits(x[0], bitsPerSample);
+            return;
+        }
+
+        long verbatimBits = (long) n * bitsPerSample;
+        long bestBits = verbatimBits;
+        int bestType = 1;
+        int bestOrder = 0;
+        int bestPartitionOrder = 0;
+        int bestShift = 0;
+
+        if (n > MAX_FIXED_ORDER) {
+            int order = bestFixedOrder(x, n);
+            computeFixedResidual(x, n, order, residual);
+            long bits = (long) order * bitsPerSample + planResidual(residual, n, order, riceParameters);
+            if (bits < bestBits) {
+                bestBits = bits;
+                bestType = 8 | order;
+                bestOrder = order;
+                bestPartitionOrder = plannedPartitionOrder;
+                keepCandidate();
+            }
+        }
+
+        int maxOrder = Math.min(MAX_LPC_ORDER, n / 4);
+        if (maxOrder >= LPC_ORDERS[0] && computeLpcCoefficients(x, n, maxOrder)) {
+            for (int order : LPC_ORDERS) {
+                if (order > maxOrder) {
+                    break;
+                }
+                int shift = quantizeCoefficients(lpcCoefficients[order - 1], order);
+                if (shift < 0 || !computeLpcResidual(x, n, order, shift, residual)) {
+                    continue;
+                }
+                long bits = (long) order * bitsPerSample + 4 + 5 + (long) order * LPC_PRECISION
+                        + planResidual(residual, n, order, riceParameters);
+                if (bits < bestBits) {
+                    bestBits = bits;
+                    bestType = 32 | (order - 1);
+                    bestOrder = order;
+                    bestPartitionOrder = plannedPartitionOrder;
+                    bestShift = shift;
+                    System.arraycopy(quantized, 0, bestQuantized, 0, order);
+                    keepCandidate();
+                }
+            }
+        }
+
+        writeSubframeHeader(bestType);
+        if (bestType == 1) {
+            for (int i = 0; i < n; i++) {
+                frame.writeBits(x[i], bitsPerSample);
+            }
+            return;
+        }
+        for (int i = 0; i < bestOrder; i++) {
+            frame.writeBits(x[i], bitsPerSample);
+        }
+        if (bestType >= 32) {
+            frame.writeBits(LPC_PRECISION - 1, 4);
+            frame.writeBits(bestShift, 5);
+            for (int i = 0; i < bestOrder; i++) {
+                frame.writeBits(bestQuantized[i], LPC_PRECISION);
+            }
+        }
+        writeResidual(bestResidual, n, bestOrder, bestPartitionOrder, bestRiceParameters);
+    }
+
+    private void writeSubframeHeader(int type) {
+        // Zero padding bit, subframe type, no wasted bits
+        frame.writeBits(type << 1, 8);
+    }
+
+    private void keepCandidate() {
+        int[] swap = bestResidual;
+        bestResidual = residual;
+        residual = swap;
+        swap = bestRiceParameters;
+        bestRiceParameters = riceParameters;
+        riceParameters = swap;
+    }
+
+    /**
+     * Picks the fixed polynomial predictor order (0 - 4) with the smallest total absolute residual.
+     */
+    private static int bestFixedOrder(int[] x, int n) {
+        long e0 = 0, e1 = 0, e2 = 0, e3 = 0, e4 = 0;
+        for (int i = MAX_FIXED_ORDER; i < n; i++) {
+            int r0 = x[i];
+            int r1 = r0 - x[i - 1];
+            int r2 = r1 - (x[i - 1] - x[i - 2]);
+            int r3 = r2 - (x[i - 1] - 2 * x[i - 2] + x[i - 3]);
+            int r4 = r3 - (x[i - 1] - 3 * x[i - 2] + 3 * x[i - 3] - x[i - 4]);
+            e0 += Math.abs(r0);
+            e1 += Math.abs(r1);
+            e2 += Math.abs(r2);
+            e3 += Math.abs(r3);
+            e4 += Math.abs(r4);
+        }
+        int order = 0;
+        long best = e0;
+        if (e1 < best) { best = e1; order = 1; }
+        if (e2 < best) { best = e2; order = 2; }
+        if (e3 < best) { best = e3; order = 3; }
+        if (e4 < best) { order = 4; }
+        return order;
+    }
+
+    private static void computeFixedResidual(int[] x, int n, int order, int[] out) {
+        switch (order) {
+            case 0:
+                System.arraycopy(x, 0, out, 0, n);
+                break;
+            case 1:
+                for (int i = 1; i < n; i++) {
+                    out[i] = x[i] - x[i - 1];
+                }
+                break;
+            case 2:
+                for (int i = 2; i < n; i++) {
+                    out[i] = x[i] - 2 * x[i - 1] + x[i - 2];
+                }
+                break;
+            case 3:
+                for (int i = 3; i < n; i++) {
+                    out[i] = x[i] - 3 * x[i - 1] + 3 * x[i - 2] - x[i - 3];
+                }
+                break;
+            default:
+                for (int i = 4; i < n; i++) {
+                    out[i] = x[i] - 4 * x[i - 1] + 6 * x[i - 2] - 4 * x[i - 3] + x[i - 4];
+                }
+                break;
+        }
+    }
+
+    /**
+     * Windows the block, takes its autocorrelation and solves for predictors of every order up to
+     * {@code maxOrder} with the Levinson-Durbin recursion.
+     */
+    private boolean computeLpcCoefficients(int[] x, int n, int maxOrder) {
+        if (window.length != n) {
+            window = tukeyWindow(n);
+        }
+        for (int i = 0; i < n; i++) {
+            windowed[i] = x[i] * window[i];
+        }
+        for (int lag = 0; lag <= maxOrder; lag++) {
+            double sum = 0;
+            for (int i = lag; i < n; i++) {
+                sum += windowed[i] * windowed[i - lag];
+            }
+            autocorrelation[lag] = sum;
+        }
+        if (autocorrelation[0] == 0) {
+            return false;
+        }
+
+        double[] lpc = lpcScratch;
+        double error = autocorrelation[0];
+        for (int i = 0; i < maxOrder; i++) {
+            double reflection = -autocorrelation[i + 1];
+            for (int j = 0; j < i; j++) {
+                reflection -= lpc[j] * autocorrelation[i - j];
+            }
+            reflection /= error;
+
+            lpc[i] = reflection;
+            int j = 0;
+            for (; j < (i >> 1); j++) {
+                double tmp = lpc[j];
+                lpc[j] += reflection * lpc[i - 1 - j];
+                lpc[i - 1 - j] += reflection * tmp;
+            }
+            if ((i & 1) != 0) {
+                lpc[j] += lpc[j] * reflection;
+            }
+            error *= 1.0 - reflection * reflection;
+
+            for (j = 0; j <= i; j++) {
+                lpcCoefficients[i][j] = -lpc[j];
+            }
+            if (error <= 0) {
+                // Perfectly predictable; higher orders would add nothing
+                for (int k = i + 1; k < maxOrder; k++) {
+                    System.arraycopy(lpcCoefficients[i], 0, lpcCoefficients[k], 0, MAX_LPC_ORDER);
+                }
+                break;
+            }
+        }
+        return true;
+    }
+
+    private static double[] tukeyWindow(int n) {
+        double[] w = new double[n];
+        int taper = Math.max(1, n / 4);
+        for (int i = 0; i < n; i++) {
+            if (i < taper) {
+                w[i] = 0.5 - 0.5 * Math.cos(Math.PI * i / taper);
+            } else if (i >= n - taper) {
+                w[i] = 0.5 - 0.5 * Math.cos(Math.PI * (n - 1 - i) / taper);
+            } else {
+                w[i] = 1.0;
+            }
+        }
+        return w;
+    }
+
+    /**
+     * Quantizes predictor coefficients to {@link #LPC_PRECISION} bits into {@link #quantized},
+     * carrying the rounding error forward. Returns the shift, or -1 if the coefficients cannot be
+     * represented with a non-negative shift.
+     */
+    private int quantizeCoefficients(double[] coefficients, int order) {
+        double max = 0;
+        for (int i = 0; i < order; i++) {
+            max = Math.max(max, Math.abs(coefficients[i]));
+        }
+        if (max <= 0) {
+            return -1;
+        }
+        int shift = Math.min(MAX_LPC_SHIFT, LPC_PRECISION - 2 - Math.getExponent(max));
+        if (shift < 0) {
+            return -1;
+        }
+
+        int maxValue = (1 << (LPC_PRECISION - 1)) - 1;
+        int minValue = -(1 << (LPC_PRECISION - 1));
+        double error = 0;
+        for (int i = 0; i < order; i++) {
+            error += coefficients[i] * (1 << shift);
+            int q = (int) Math.max(minValue, Math.min(maxValue, Math.round(error)));
+            error -= q;
+            quantized[i] = q;
+        }
+        return shift;
+    }
+
+    private boolean computeLpcResidual(int[] x, int n, int order, int shift, int[] out) {
+        for (int i = order; i < n; i++) {
+            long prediction = 0;
+            for (int j = 0; j < order; j++) {
+                prediction += (long) quantized[j] * x[i - 1 - j];
+            }
+            long r = x[i] - (prediction >> shift);
+            // Keep the zigzag-folded residual within 31 bits
+            if (r > (1 << 29) || r < -(1 << 29)) {
+                return false;
+            }
+            out[i] = (int) r;
+        }
+        return true;
+    }
+
+    /**
+     * Chooses the partition order and per-partition Rice parameters for a residual, filling
+     * {@code parameters} and {@link #plannedPartitionOrder}. Returns the estimated size in bits
+     * of the whole subframe minus its warm-up samples.
+     */
+    private long planResidual(int[] res, int n, int predictorOrder, int[] parameters) {
+        int maxPartitionOrder = MAX_PARTITION_ORDER;
+        while (maxPartitionOrder > 0
+                && ((n & ((1 << maxPartitionOrder) - 1)) != 0 || (n >> maxPartitionOrder) <= predictorOrder)) {
+            maxPartitionOrder--;
+        }
+
+        int partitions = 1 << maxPartitionOrder;
+        int partitionSize = n >> maxPartitionOrder;
+        for (int p = 0; p < partitions; p++) {
+            int start = p == 0 ? predictorOrder : p * partitionSize;
+            int end = (p + 1) * partitionSize;
+            long sum = 0;
+            for (int i = start; i < end; i++) {
+                int v = res[i];
+                sum += (v << 1) ^ (v >> 31);
+            }
+            partitionSums[p] = sum;
+        }
+
+        long bestBits = Long.MAX_VALUE;
+        for (int order = maxPartitionOrder; order >= 0; order--) {
+            partitions = 1 << order;
+            partitionSize = n >> order;
+            long bits = 2 + 4;
+            int largestParameter = 0;
+            for (int p = 0; p < partitions; p++) {
+                int count = partitionSize - (p == 0 ? predictorOrder : 0);
+                int k = riceParameter(partitionSums[p], count);
+                largestParameter = Math.max(largestParameter, k);
+                bits += riceBits(partitionSums[p], count, k);
+            }
+            bits += (long) partitions * (largestParameter > MAX_RICE4_PARAMETER ? 5 : 4);
+
+            if (bits < bestBits) {
+                bestBits = bits;
+                plannedPartitionOrder = order;
+                for (int p = 0; p < partitions; p++) {
+                    int count = partitionSize - (p == 0 ? predictorOrder : 0);
+                    parameters[p] = riceParameter(partitionSums[p], count);
+                }
+            }
+            // Merge neighbouring partitions for the next, coarser order
+            for (int p = 0; p < partitions / 2; p++) {
+                partitionSums[p] = partitionSums[2 * p] + partitionSums[2 * p + 1];
+            }
+        }
+        // Subframe header byte
+        return bestBits + 8;
+    }
+
+    private static int riceParameter(long sum, int count) {
+        if (count <= 0 || sum < count) {
+            return 0;
+        }
+        int k = 63 - Long.numberOfLeadingZeros(sum / count);
+        long best = riceBits(sum, count, k);
+        if (k > 0 && riceBits(sum, count, k - 1) < best) {
+            k--;
+        } else if (k < MAX_RICE_PARAMETER && riceBits(sum, count, k + 1) < best) {
+            k++;
+        }
+        return Math.min(k, MAX_RICE_PARAMETER);
+    }
+
+    private static long riceBits(long sum, int count, int k) {
+        // Each value costs k low bits, a stop bit and on average (value >> k) unary bits
+        return (long) count * (k + 1) + (sum >> k);
+    }
+
+    private void writeResidual(int[] res, int n, int predictorOrder, int partitionOrder, int[] parameters) {
+        int partitions = 1 << partitionOrder;
+        int largestParameter = 0;
+        for (int p = 0; p < partitions; p++) {
+            largestParameter = Math.max(largestParameter, parameters[p]);
+        }
+        int method = largestParameter > MAX_RICE4_PARAMETER ? 1 : 0;
+        int parameterBits = method == 0 ? 4 : 5;
+
+        frame.writeBits(method, 2);
+        frame.writeBits(partitionOrder, 4);
+        int partitionSize = n >> partitionOrder;
+        int i = predictorOrder;
+        for (int p = 0; p < partitions; p++) {
+            int k = parameters[p];
+            int end = (p + 1) * partitionSize;
+            frame.writeBits(k, parameterBits);
+            for (; i < end; i++) {
+                frame.writeRice(res[i], k);
+            }
+        }
+    }
+}
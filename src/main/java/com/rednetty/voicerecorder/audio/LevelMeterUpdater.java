@@ -1,4 +1,64 @@
 package com.rednetty.voicerecorder.audio;
 
-public class LevelMeterUpdater {
+import javax.swing.JProgressBar;
+import javax.swing.Timer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Coalesces audio level updates for a level meter. The capture side only stores the latest
+ * level in an atomic slot, so nothing is allocated or queued per buffer; a single Swing timer
+ * picks up the newest value at a fixed frame rate. Levels published between two frames are
+ * dropped, so the load on the event dispatch thread is bounded whatever the sample rate.
+ */
+public class LevelMeterUpdater implements AudioRecorder.AudioLevelListener {
+    public static final int DEFAULT_FRAMES_PER_SECOND = 30;
+
+    // Marks the slot as consumed, so idle frames do not touch the meter
+    private static final int NO_UPDATE = -1;
+
+    private final JProgressBar meter;
+    private final AtomicInteger latestLevel = new AtomicInteger(NO_UPDATE);
+    private final Timer timer;
+
+    public LevelMeterUpdater(JProgressBar meter) {
+        this(meter, DEFAULT_FRAMES_PER_SECOND);
+    }
+
+    public LevelMeterUpdater(JProgressBar meter, int framesPerSecond) {
+        this.meter = meter;
+        this.timer = new Timer(1000 / Math.max(1, framesPerSecond), e -> repaint());
+        this.timer.setCoalesce(true);
+    }
+
+    /**
+     * Called from the level-meter consumer thread for every captured buffer.
+     */
+    @Override
+    public void onLevelUpdate(int level) {
+        latestLevel.set(level);
+    }
+
+    /**
+     * Starts repainting the meter. Call on the event dispatch thread.
+     */
+    public void start() {
+        latestLevel.set(NO_UPDATE);
+        timer.start();
+    }
+
+    /**
+     * Stops repainting and resets the meter to zero. Call on the event dispatch thread.
+     */
+    public void stop() {
+        timer.stop();
+        latestLevel.set(NO_UPDATE);
+        meter.setValue(0);
+    }
+
+    private void repaint() {
+        int level = latestLevel.getAndSet(NO_UPDATE);
+        if (level != NO_UPDATE) {
+            meter.setValue(level);
+        }
+    }
 }
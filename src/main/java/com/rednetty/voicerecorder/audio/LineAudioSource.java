@@ -0,0 +1,102 @@
+package com.rednetty.voicerecorder.audio;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.Mixer;
+import javax.sound.sampled.TargetDataLine;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Captures from a JavaSound input line: the default one (the microphone), or the line of a
+ * given mixer so that several sources can record at once.
+ */
+public class LineAudioSource implements AudioSource {
+    private final Mixer.Info mixerInfo;
+    private TargetDataLine targetDataLine;
+
+    public LineAudioSource() {
+        this(null);
+    }
+
+    /**
+     * @param mixerInfo the mixer to capture from, or null for the system default
+     */
+    public LineAudioSource(Mixer.Info mixerInfo) {
+        this.mixerInfo = mixerInfo;
+    }
+
+    /**
+     * Mixers that can capture audio in the given format.
+     */
+    public static List<Mixer.Info> findCaptureMixers(AudioFormat format) {
+        DataLine.Info dataLineInfo = new DataLine.Info(TargetDataLine.class, format);
+        List<Mixer.Info> mixers = new ArrayList<>();
+        for (Mixer.Info info : AudioSystem.getMixerInfo()) {
+            if (AudioSystem.getMixer(info).isLineSupported(dataLineInfo)) {
+                mixers.add(info);
+            }
+        }
+        return mixers;
+    }
+
+    /**
+     * The first capture mixer whose name contains the given text, ignoring case, or null.
+     */
+    public static Mixer.Info findCaptureMixer(AudioFormat format, String name) {
+        String wanted = name.toLowerCase(Locale.ROOT);
+        for (Mixer.Info info : findCaptureMixers(format)) {
+            if (info.getName().toLowerCase(Locale.ROOT).contains(wanted)) {
+                return info;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void open(AudioFormat format) throws LineUnavailableException {
+        // Configure the data line
+        DataLine.Info dataLineInfo = new DataLine.Info(TargetDataLine.class, format);
+
+        if (mixerInfo != null) {
+            Mixer mixer = AudioSystem.getMixer(mixerInfo);
+            if (!mixer.isLineSupported(dataLineInfo)) {
+                throw new LineUnavailableException("Audio line not supported by " + mixerInfo.getName());
+            }
+            targetDataLine = (TargetDataLine) mixer.getLine(dataLineInfo);
+        } else {
+            if (!AudioSystem.isLineSupported(dataLineInfo)) {
+                throw new LineUnavailableException("Audio line not supported");
+            }
+            targetDataLine = (TargetDataLine) AudioSystem.getLine(dataLineInfo);
+        }
+        targetDataLine.open(format);
+    }
+
+    @Override
+    public void start() {
+        targetDataLine.start();
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) {
+        return targetDataLine.read(buffer, offset, length);
+    }
+
+    @Override
+    public void stop() {
+        if (targetDataLine != null) {
+            targetDataLine.stop();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (targetDataLine != null) {
+            targetDataLine.close();
+        }
+    }
+}
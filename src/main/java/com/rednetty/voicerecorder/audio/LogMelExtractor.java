@@ -0,0 +1,118 @@
+package com.rednetty.voicerecorder.audio;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Streaming log-mel feature stage for 16-bit little-endian PCM. Attached to a take as a ring
+ * consumer, it cuts the audio into 25 ms windows every 10 ms, computes 80 log-mel energies per
+ * window with a {@link LogMelSpectrogram} and streams them into a {@link LogMelFeatureFile}, so the
+ * features are ready when the take stops instead of being computed from the WAV later.
+ *
+ * Allocates nothing per frame. Only the first channel is analyzed.
+ */
+public class LogMelExtractor implements PcmFrameConsumer {
+    public static final int WINDOW_MILLIS = 25;
+    public static final int HOP_MILLIS = 10;
+    public static final int FFT_SIZE = 512;
+    public static final int MEL_BINS = 80;
+
+    private static final float FULL_SCALE = 32768f;
+    private static final int READ_BUFFER_SIZE = 4096;
+
+    private final int bytesPerFrame;
+    private final int windowLength;
+    private final int hopLength;
+    private final LogMelSpectrogram spectrogram;
+    private final LogMelFeatureWriter writer;
+    // Samples of the current window; the first windowLength - hopLength carry over to the next one
+    private final float[] samples;
+    private final float[] melFrame;
+    private int filled;
+
+    /**
+     * Creates the feature file and prepares to fill it from a take in the given format.
+     */
+    public LogMelExtractor(AudioFormat format, File featureFile) throws IOException {
+        if (format.getSampleSizeInBits() != 16 || format.isBigEndian()) {
+            throw new IllegalArgumentException("Feature extraction needs 16-bit little-endian PCM");
+        }
+        int sampleRate = Math.round(format.getSampleRate());
+        this.bytesPerFrame = format.getFrameSize();
+        this.windowLength = sampleRate * WINDOW_MILLIS / 1000;
+        this.hopLength = sampleRate * HOP_MILLIS / 1000;
+        this.spectrogram = new LogMelSpectrogram(sampleRate, windowLength, FFT_SIZE, MEL_BINS);
+        this.samples = new float[windowLength];
+        this.melFrame = new float[MEL_BINS];
+        this.writer = new LogMelFeatureWriter(featureFile, sampleRate, windowLength, hopLength, FFT_SIZE, MEL_BINS);
+    }
+
+    /**
+     * Computes the features of a whole WAV file into the given feature file, for takes that were
+     * not followed while they were captured.
+     *
+     * @return the number of frames written
+     */
+    public static int extract(File audioFile, File featureFile) throws IOException {
+        try (AudioInputStream in = AudioSystem.getAudioInputStream(audioFile)) {
+            LogMelExtractor extractor = new LogMelExtractor(in.getFormat(), featureFile);
+            try {
+                byte[] buffer = new byte[READ_BUFFER_SIZE - READ_BUFFER_SIZE % in.getFormat().getFrameSize()];
+                long position = 0;
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    extractor.onFrame(buffer, read, position);
+                    position += read;
+                }
+            } finally {
+                extractor.onEnd();
+            }
+            return extractor.getFrameCount();
+        } catch (UnsupportedAudioFileException e) {
+            throw new IOException("Unsupported audio file " + audioFile.getName() + ": " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void onFrame(byte[] data, int length, long streamPosition) throws IOException {
+        for (int i = 0; i + 1 < length; i += bytesPerFrame) {
+            samples[filled++] = ((data[i] & 0xFF) | (data[i + 1] << 8)) / FULL_SCALE;
+            if (filled == windowLength) {
+                spectrogram.compute(samples, 0, melFrame);
+                writer.write(melFrame);
+                System.arraycopy(samples, hopLength, samples, 0, windowLength - hopLength);
+                filled -= hopLength;
+            }
+        }
+    }
+
+    /**
+     * Patches the header and closes the feature file. A partial window at the end is dropped.
+     */
+    @Override
+    public void onEnd() throws IOException {
+        writer.close();
+    }
+
+    public int getFrameCount() {
+        return writer.getFrameCount();
+    }
+
+    /**
+     * Samples between the starts of successive frames.
+     */
+    public int getHopLength() {
+        return hopLength;
+    }
+
+    /**
+     * The number of frames that fit wholly inside {@code sampleCount} samples.
+     */
+    public int framesIn(long sampleCount) {
+        return sampleCount < windowLength ? 0 : (int) ((sampleCount - windowLength) / hopLength + 1);
+    }
+}
@@ -0,0 +1,168 @@
+package com.rednetty.voicerecorder.audio;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The log-mel feature sidecar stored next to a take's audio, and the parameters it was computed with.
+ *
+ * The file is a 32-byte header followed by one row of {@code melBins} float32 values per analysis
+ * frame, all little-endian. The header holds the magic "WSMF", the format version, the sample
+ * rate, the window, hop and FFT lengths in samples, the number of mel bins and the frame count.
+ * Frame {@code i} covers samples {@code i * hop} to {@code i * hop + window} of the take, so a row
+ * can be found without reading the rows before it.
+ */
+public class LogMelFeatureFile {
+    public static final String FILE_EXTENSION = ".logmel";
+    public static final int HEADER_SIZE = 32;
+
+    static final int MAGIC = 0x464D5357; // "WSMF"
+    static final int VERSION = 1;
+    static final int FRAME_COUNT_OFFSET = 28;
+
+    private final int sampleRate;
+    private final int windowLength;
+    private final int hopLength;
+    private final int fftSize;
+    private final int melBins;
+    private final int frameCount;
+
+    public LogMelFeatureFile(int sampleRate, int windowLength, int hopLength, int fftSize, int melBins,
+                             int frameCount) {
+        this.sampleRate = sampleRate;
+        this.windowLength = windowLength;
+        this.hopLength = hopLength;
+        this.fftSize = fftSize;
+        this.melBins = melBins;
+        this.frameCount = frameCount;
+    }
+
+    /**
+     * The sidecar for an audio file: the same name with the {@code .logmel} extension, so it
+     * follows the take whatever codec the audio ends up stored in.
+     */
+    public static File featureFileFor(File audioFile) {
+        String name = audioFile.getName();
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        return new File(audioFile.getAbsoluteFile().getParentFile(), base + FILE_EXTENSION);
+    }
+
+    /**
+     * Reads the header of a feature file.
+     *
+     * @throws IOException if the file is not a complete feature file
+     */
+    public static LogMelFeatureFile read(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining()) {
+                if (channel.read(header) < 0) {
+                    throw new IOException("Truncated feature header in " + file.getName());
+                }
+            }
+            header.flip();
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("Not a log-mel feature file: " + file.getName());
+            }
+            LogMelFeatureFile features = new LogMelFeatureFile(header.getInt(), header.getInt(), header.getInt(),
+                    header.getInt(), header.getInt(), header.getInt());
+            if (channel.size() < HEADER_SIZE + (long) features.frameCount * features.getFrameBytes()) {
+                throw new IOException("Truncated feature data in " + file.getName());
+            }
+            return features;
+        }
+    }
+
+    /**
+     * Reads every frame of a feature file, one array of mel values per frame.
+     */
+    public static float[][] readFrames(File file) throws IOException {
+        LogMelFeatureFile features = read(file);
+        float[][] frames = new float[features.frameCount][features.melBins];
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer data = ByteBuffer.allocate(features.frameCount * features.getFrameBytes())
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            channel.position(HEADER_SIZE);
+            while (data.hasRemaining() && channel.read(data) >= 0) {
+                // Keep reading
+            }
+            data.flip();
+            for (float[] frame : frames) {
+                data.asFloatBuffer().get(frame);
+                data.position(data.position() + features.getFrameBytes());
+            }
+        }
+        return frames;
+    }
+
+    /**
+     * Replaces a feature file with one holding only {@code count} frames starting at {@code first},
+     * the frames that lie wholly inside audio trimmed at a multiple of the hop length.
+     */
+    public static void slice(File file, int first, int count) throws IOException {
+        LogMelFeatureFile features = read(file);
+        int start = Math.min(Math.max(0, first), features.frameCount);
+        int kept = Math.min(Math.max(0, count), features.frameCount - start);
+        File slicedFile = new File(file.getPath() + ".trim");
+        try (FileChannel source = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+             LogMelFeatureWriter sliced = new LogMelFeatureWriter(slicedFile, features.sampleRate,
+                     features.windowLength, features.hopLength, features.fftSize, features.melBins)) {
+            sliced.transferFrom(source, HEADER_SIZE + (long) start * features.getFrameBytes(), kept);
+        }
+        Files.move(slicedFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getWindowLength() {
+        return windowLength;
+    }
+
+    public int getHopLength() {
+        return hopLength;
+    }
+
+    public int getFftSize() {
+        return fftSize;
+    }
+
+    public int getMelBins() {
+        return melBins;
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * Bytes per frame row.
+     */
+    public int getFrameBytes() {
+        return melBins * Float.BYTES;
+    }
+
+    /**
+     * The feature parameters as audio properties for recording metadata.
+     */
+    public Map<String, Object> toAudioProperties() {
+        Map<String, Object> properties = new LinkedHashMap<>();
+        properties.put("featureType", "logmel");
+        properties.put("featureFrames", frameCount);
+        properties.put("featureMelBins", melBins);
+        properties.put("featureWindowMs", windowLength * 1000.0 / sampleRate);
+        properties.put("featureHopMs", hopLength * 1000.0 / sampleRate);
+        properties.put("featureFftSize", fftSize);
+        return properties;
+    }
+}
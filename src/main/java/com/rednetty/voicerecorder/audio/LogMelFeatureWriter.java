@@ -0,0 +1,108 @@
+package com.rednetty.voicerecorder.audio;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Streams log-mel frames into a {@link LogMelFeatureFile} through a FileChannel.
+ * Rows are batched in a buffer allocated once, and the frame count in the header is patched on
+ * close, like {@link WavFileWriter} does for the WAV sizes.
+ */
+public class LogMelFeatureWriter implements Closeable {
+    // Rows per write; 64 frames of 80 bins is 20 KB, under a second of audio at a 10 ms hop
+    private static final int FRAMES_PER_WRITE = 64;
+
+    private final FileChannel channel;
+    private final ByteBuffer header;
+    private final ByteBuffer rows;
+    private final int melBins;
+    private int frameCount;
+    private boolean closed;
+
+    public LogMelFeatureWriter(File file, int sampleRate, int windowLength, int hopLength, int fftSize,
+                               int melBins) throws IOException {
+        this.melBins = melBins;
+        this.header = ByteBuffer.allocate(LogMelFeatureFile.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        this.rows = ByteBuffer.allocateDirect(FRAMES_PER_WRITE * melBins * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        this.channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+
+        header.putInt(LogMelFeatureFile.MAGIC).putInt(LogMelFeatureFile.VERSION).putInt(sampleRate)
+                .putInt(windowLength).putInt(hopLength).putInt(fftSize).putInt(melBins).putInt(0);
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+    }
+
+    /**
+     * Appends one frame of {@code melBins} values.
+     */
+    public void write(float[] frame) throws IOException {
+        if (rows.remaining() < melBins * Float.BYTES) {
+            flush();
+        }
+        for (int i = 0; i < melBins; i++) {
+            rows.putFloat(frame[i]);
+        }
+        frameCount++;
+    }
+
+    /**
+     * Appends {@code frames} whole rows of another feature file, starting at byte {@code position}.
+     */
+    void transferFrom(FileChannel source, long position, int frames) throws IOException {
+        flush();
+        long count = (long) frames * melBins * Float.BYTES;
+        long transferred = 0;
+        while (transferred < count) {
+            long n = source.transferTo(position + transferred, count - transferred, channel);
+            if (n <= 0) {
+                throw new IOException("Unexpected end of source after " + transferred + " bytes");
+            }
+            transferred += n;
+        }
+        frameCount += frames;
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    private void flush() throws IOException {
+        rows.flip();
+        while (rows.hasRemaining()) {
+            channel.write(rows);
+        }
+        rows.clear();
+    }
+
+    /**
+     * Writes any buffered frames, patches the frame count and closes the file. Safe to call more than once.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            flush();
+            header.clear();
+            header.putInt(frameCount).flip();
+            channel.write(header, LogMelFeatureFile.FRAME_COUNT_OFFSET);
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.rednetty.voicerecorder.audio;
+
+/**
+ * Computes the log-mel spectrum of one analysis window: a Hann window, a radix-2 FFT, the power
+ * spectrum, a bank of triangular filters on the HTK mel scale, and the natural log.
+ * The real window is packed into a complex sequence of half the length (even samples real, odd
+ * samples imaginary), so the FFT only runs over {@code fftSize / 2} points.
+ * The window, twiddle factors, bit-reversal table, filterbank and work arrays are all built in the
+ * constructor, so computing a frame allocates nothing. Not thread-safe; use one per consumer.
+ */
+public class LogMelSpectrogram {
+    // Added before the log so silent bands stay finite
+    private static final float LOG_FLOOR = 1e-10f;
+
+    private final float sampleRate;
+    private final int windowLength;
+    private final int fftSize;
+    private final int melBins;
+
+    private final float[] window;
+    private final int half;
+    private final int[] bitReverse;
+    // e^(-2*pi*i*k/fftSize) for k < fftSize / 2; the half-length FFT uses every other entry
+    private final float[] cos;
+    private final float[] sin;
+    private final float[] real;
+    private final float[] imag;
+    private final float[] power;
+    // Filter m covers FFT bins filterStart[m] .. filterStart[m] + filterWeights[m].length - 1
+    private final int[] filterStart;
+    private final float[][] filterWeights;
+
+    /**
+     * @param sampleRate sample rate of the audio in Hz
+     * @param windowLength samples per analysis window; zero-padded up to the FFT size
+     * @param fftSize FFT length, a power of two no smaller than the window
+     * @param melBins number of mel bands between 0 Hz and the Nyquist frequency
+     */
+    public LogMelSpectrogram(float sampleRate, int windowLength, int fftSize, int melBins) {
+        if (fftSize < 4 || Integer.bitCount(fftSize) != 1) {
+            throw new IllegalArgumentException("FFT size must be a power of two: " + fftSize);
+        }
+        if (windowLength < 1 || windowLength > fftSize) {
+            throw new IllegalArgumentException("Window length must be between 1 and " + fftSize + ": " + windowLength);
+        }
+        if (melBins < 1) {
+            throw new IllegalArgumentException("At least one mel bin is required: " + melBins);
+        }
+        this.sampleRate = sampleRate;
+        this.windowLength = windowLength;
+        this.fftSize = fftSize;
+        this.melBins = melBins;
+
+        // Periodic Hann window
+        window = new float[windowLength];
+        for (int i = 0; i < windowLength; i++) {
+            window[i] = (float) (0.5 - 0.5 * Math.cos(2 * Math.PI * i / windowLength));
+        }
+
+        half = fftSize / 2;
+        int bits = Integer.numberOfTrailingZeros(half);
+        bitReverse = new int[half];
+        for (int i = 1; i < half; i++) {
+            bitReverse[i] = Integer.reverse(i) >>> (32 - bits);
+        }
+
+        cos = new float[fftSize / 2];
+        sin = new float[fftSize / 2];
+        for (int k = 0; k < fftSize / 2; k++) {
+            double angle = 2 * Math.PI * k / fftSize;
+            cos[k] = (float) Math.cos(angle);
+            sin[k] = (float) -Math.sin(angle);
+        }
+
+        real = new float[half];
+        imag = new float[half];
+        power = new float[fftSize / 2 + 1];
+
+        filterStart = new int[melBins];
+        filterWeights = new float[melBins][];
+        buildFilterbank();
+    }
+
+    public int getWindowLength() {
+        return windowLength;
+    }
+
+    public int getFftSize() {
+        return fftSize;
+    }
+
+    public int getMelBins() {
+        return melBins;
+    }
+
+    /**
+     * Computes the log-mel energies of {@code windowLength} samples.
+     *
+     * @param samples audio scaled to [-1, 1)
+     * @param offset index of the first sample of the window
+     * @param out receives {@code melBins} values
+     */
+    public void compute(float[] samples, int offset, float[] out) {
+        for (int i = 0; i < half; i++) {
+            int even = 2 * i;
+            real[i] = even < windowLength ? samples[offset + even] * window[even] : 0;
+            imag[i] = even + 1 < windowLength ? samples[offset + even + 1] * window[even + 1] : 0;
+        }
+
+        fft();
+        unpackPower();
+        for (int m = 0; m < melBins; m++) {
+            float[] weights = filterWeights[m];
+            int start = filterStart[m];
+            float energy = 0;
+            for (int k = 0; k < weights.length; k++) {
+                energy += weights[k] * power[start + k];
+            }
+            out[m] = (float) Math.log(energy + LOG_FLOOR);
+        }
+    }
+
+    // In-place iterative radix-2 decimation-in-time FFT of length half over real/imag
+    private void fft() {
+        for (int i = 0; i < half; i++) {
+            int j = bitReverse[i];
+            if (j > i) {
+                float t = real[i];
+                real[i] = real[j];
+                real[j] = t;
+                t = imag[i];
+                imag[i] = imag[j];
+                imag[j] = t;
+            }
+        }
+        for (int size = 2; size <= half; size <<= 1) {
+            int span = size >> 1;
+            int step = fftSize / size;
+            for (int start = 0; start < half; start += size) {
+                for (int k = 0; k < span; k++) {
+                    float c = cos[k * step];
+                    float s = sin[k * step];
+                    int i = start + k;
+                    int j = i + span;
+                    float tr = real[j] * c - imag[j] * s;
+                    float ti = real[j] * s + imag[j] * c;
+                    real[j] = real[i] - tr;
+                    imag[j] = imag[i] - ti;
+                    real[i] += tr;
+                    imag[i] += ti;
+                }
+            }
+        }
+    }
+
+    // Splits the packed transform Z into the spectra of the even and odd samples and combines them
+    // into the power of the full real FFT: X[k] = E[k] + e^(-2*pi*i*k/N) * O[k]
+    private void unpackPower() {
+        power[0] = (real[0] + imag[0]) * (real[0] + imag[0]);
+        power[half] = (real[0] - imag[0]) * (real[0] - imag[0]);
+        for (int k = 1; k < half; k++) {
+            float zr = real[k];
+            float zi = imag[k];
+            float cr = real[half - k];
+            float ci = -imag[half - k];
+            float evenReal = (zr + cr) * 0.5f;
+            float evenImag = (zi + ci) * 0.5f;
+            // (Z[k] - conj(Z[N/2 - k])) / 2i
+            float oddReal = (zi - ci) * 0.5f;
+            float oddImag = -(zr - cr) * 0.5f;
+            float xr = evenReal + cos[k] * oddReal - sin[k] * oddImag;
+            float xi = evenImag + cos[k] * oddImag + sin[k] * oddReal;
+            power[k] = xr * xr + xi * xi;
+        }
+    }
+
+    // Triangular filters with centres evenly spaced in mel, each rising from the previous centre and falling to the next
+    private void buildFilterbank() {
+        double maxMel = hzToMel(sampleRate / 2);
+        double[] edges = new double[melBins + 2];
+        for (int i = 0; i < edges.length; i++) {
+            // Edge positions in fractional FFT bins
+            edges[i] = melToHz(maxMel * i / (melBins + 1)) * fftSize / sampleRate;
+        }
+        int lastBin = fftSize / 2;
+        for (int m = 0; m < melBins; m++) {
+            double left = edges[m];
+            double centre = edges[m + 1];
+            double right = edges[m + 2];
+            int first = Math.min(lastBin, (int) Math.floor(left) + 1);
+            int last = Math.min(lastBin, (int) Math.ceil(right) - 1);
+            float[] weights = new float[Math.max(0, last - first + 1)];
+            for (int k = first; k <= last; k++) {
+                double weight = k <= centre ? (k - left) / (centre - left) : (right - k) / (right - centre);
+                weights[k - first] = (float) Math.max(0, weight);
+            }
+            filterStart[m] = first;
+            filterWeights[m] = weights;
+        }
+    }
+
+    private static double hzToMel(double hz) {
+        return 2595 * Math.log10(1 + hz / 700);
+    }
+
+    private static double melToHz(double mel) {
+        return 700 * (Math.pow(10, mel / 2595) - 1);
+    }
+}
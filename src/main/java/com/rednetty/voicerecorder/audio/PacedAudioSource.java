@@ -0,0 +1,87 @@
+package com.rednetty.voicerecorder.audio;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.LineUnavailableException;
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Base for sources that produce audio on demand rather than from hardware. Delivery is paced
+ * at a multiple of real time, or runs as fast as the consumers allow when the speed is 0.
+ */
+abstract class PacedAudioSource implements AudioSource {
+    private final double speed;
+
+    protected AudioFormat format;
+    private volatile boolean running;
+    private long startNanos;
+    private long bytesDelivered;
+
+    /**
+     * @param speed playback speed relative to real time (1.0 = real time), or 0 for unthrottled
+     */
+    protected PacedAudioSource(double speed) {
+        this.speed = speed;
+    }
+
+    @Override
+    public void open(AudioFormat format) throws LineUnavailableException {
+        this.format = format;
+        this.bytesDelivered = 0;
+    }
+
+    @Override
+    public void start() {
+        startNanos = System.nanoTime();
+        running = true;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (!running) {
+            return 0;
+        }
+        int frameSize = format.getFrameSize();
+        int read = fill(buffer, offset, length - length % frameSize);
+        if (read > 0) {
+            bytesDelivered += read;
+            pace();
+        }
+        return read;
+    }
+
+    /**
+     * Produces the next audio bytes, a whole number of frames.
+     *
+     * @return bytes written, or -1 once the source is exhausted
+     */
+    protected abstract int fill(byte[] buffer, int offset, int length) throws IOException;
+
+    // Sleeps until the audio delivered so far would have been captured in real time, scaled by speed
+    private void pace() {
+        if (speed <= 0) {
+            return;
+        }
+        double bytesPerSecond = format.getFrameRate() * format.getFrameSize() * speed;
+        long dueNanos = startNanos + (long) (bytesDelivered / bytesPerSecond * 1e9);
+        long waitNanos;
+        while (running && (waitNanos = dueNanos - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(waitNanos);
+        }
+    }
+
+    @Override
+    public boolean isRealTime() {
+        return speed > 0;
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+    }
+
+    @Override
+    public void close() {
+        running = false;
+    }
+}
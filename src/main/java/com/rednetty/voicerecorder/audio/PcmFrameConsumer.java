@@ -0,0 +1,24 @@
+package com.rednetty.voicerecorder.audio;
+
+import java.io.IOException;
+
+/**
+ * Receives captured PCM frames from a {@link PcmRingBuffer} on its own thread.
+ */
+public interface PcmFrameConsumer {
+
+    /**
+     * Called for each frame, in order.
+     *
+     * @param data buffer holding the frame; only valid for the duration of the call
+     * @param length number of valid bytes
+     * @param streamPosition byte offset of the frame in the capture stream
+     */
+    void onFrame(byte[] data, int length, long streamPosition) throws IOException;
+
+    /**
+     * Called once after the last frame of the take has been delivered.
+     */
+    default void onEnd() throws IOException {
+    }
+}
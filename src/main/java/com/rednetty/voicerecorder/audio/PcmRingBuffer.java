@@ -0,0 +1,282 @@
+package com.rednetty.voicerecorder.audio;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Single-producer/multi-consumer lock-free ring of preallocated PCM frames.
+ * The capture thread only publishes into the ring and never waits for readers;
+ * each consumer reads at its own {@link Cursor} and counts the frames it lost
+ * when it fell more than a ring's worth behind.
+ *
+ * Readers copy a slot without locking and then re-read the published sequence to detect that the
+ * producer overwrote it meanwhile, like a seqlock. A load fence between the copy and the re-read
+ * keeps the copy from being reordered after the check, and a store fence after each publish keeps
+ * the producer's writes into the next slot from becoming visible before the sequence that would
+ * tell a reader the slot is being reused.
+ */
+public class PcmRingBuffer {
+    // Unsafe.loadFence and storeFence (Java 8 has no VarHandle fences), or null if they cannot be reached
+    private static final MethodHandle LOAD_FENCE = findFence("loadFence");
+    private static final MethodHandle STORE_FENCE = findFence("storeFence");
+    // Fallback: validating an optimistic read stamp issues the same fence
+    private static final StampedLock FENCE_LOCK = new StampedLock();
+    private static final long FENCE_STAMP = FENCE_LOCK.tryOptimisticRead();
+
+    private final byte[][] frames;
+    private final int[] lengths;
+    private final long[] positions;
+    private final int capacity;
+    private final int mask;
+    private final int frameSize;
+
+    // Sequence of the last published frame, -1 before the first publish
+    private final AtomicLong published = new AtomicLong(-1);
+    private long nextStreamPosition;
+    private volatile boolean closed;
+
+    /**
+     * @param capacity number of frames, rounded up to a power of two
+     * @param frameSize maximum number of bytes per frame
+     */
+    public PcmRingBuffer(int capacity, int frameSize) {
+        int size = Integer.highestOneBit(Math.max(4, capacity) - 1) << 1;
+        this.capacity = size;
+        this.mask = size - 1;
+        this.frameSize = frameSize;
+        this.frames = new byte[size][frameSize];
+        this.lengths = new int[size];
+        this.positions = new long[size];
+    }
+
+    /**
+     * Returns the slot the next frame should be written into. The producer fills it
+     * (for example directly from {@code TargetDataLine.read}) and then calls {@link #publish(int)}.
+     */
+    public byte[] claim() {
+        return frames[(int) (published.get() + 1) & mask];
+    }
+
+    /**
+     * Publishes the frame previously filled through {@link #claim()}.
+     *
+     * @param length number of valid bytes in the claimed slot
+     */
+    public void publish(int length) {
+        long sequence = published.get() + 1;
+        int index = (int) sequence & mask;
+        lengths[index] = length;
+        positions[index] = nextStreamPosition;
+        nextStreamPosition += length;
+        if (STORE_FENCE != null) {
+            // Ordered store: slot contents become visible before the new sequence
+            published.lazySet(sequence);
+            // ... and the sequence before the writes into the next claimed slot
+            try {
+                STORE_FENCE.invokeExact();
+                return;
+            } catch (Throwable e) {
+                // Fall through to the volatile store
+            }
+        }
+        // Without Unsafe: a volatile store, which HotSpot follows with a full fence
+        published.set(sequence);
+    }
+
+    /**
+     * Copies the given bytes into the next slot and publishes it.
+     */
+    public void publish(byte[] source, int offset, int length) {
+        int remaining = length;
+        int position = offset;
+        while (remaining > 0) {
+            int chunk = Math.min(remaining, frameSize);
+            System.arraycopy(source, position, claim(), 0, chunk);
+            publish(chunk);
+            position += chunk;
+            remaining -= chunk;
+        }
+    }
+
+    /**
+     * Marks the end of the stream. Consumers drain what is left and then stop.
+     */
+    public void close() {
+        closed = true;
+    }
+
+    /**
+     * Reopens a closed ring for the next take. Frames from earlier takes remain readable as history.
+     */
+    public void reopen() {
+        closed = false;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    public long getPublishedSequence() {
+        return published.get();
+    }
+
+    /**
+     * Stream byte offset just past the last published frame.
+     */
+    public long getStreamPosition() {
+        while (true) {
+            long head = published.get();
+            if (head < 0) {
+                return 0;
+            }
+            int index = (int) head & mask;
+            long position = positions[index] + lengths[index];
+            loadFence();
+            // Retry if the producer moved on while we read the slot
+            if (published.get() == head) {
+                return position;
+            }
+        }
+    }
+
+    /**
+     * Creates a consumer cursor that starts at the next frame to be published.
+     */
+    public Cursor newCursor() {
+        return new Cursor(published.get() + 1);
+    }
+
+    /**
+     * Creates a consumer cursor that starts up to {@code history} frames in the past,
+     * limited to what the ring still holds.
+     */
+    public Cursor newCursor(int history) {
+        long head = published.get();
+        long start = Math.max(0, head + 1 - Math.min(history, capacity - 2));
+        return new Cursor(start);
+    }
+
+    // Orders the slot reads before it ahead of the sequence re-read after it
+    private static void loadFence() {
+        if (LOAD_FENCE != null) {
+            try {
+                LOAD_FENCE.invokeExact();
+                return;
+            } catch (Throwable e) {
+                // Fall through to the lock-based fence
+            }
+        }
+        FENCE_LOCK.validate(FENCE_STAMP);
+    }
+
+    private static MethodHandle findFence(String name) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            return MethodHandles.lookup()
+                    .findVirtual(unsafeClass, name, MethodType.methodType(void.class))
+                    .bindTo(theUnsafe.get(null));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * An independent read position into the ring.
+     */
+    public final class Cursor {
+        private long next;
+        private volatile long overruns;
+        private long lastPosition;
+
+        private Cursor(long next) {
+            this.next = next;
+        }
+
+        /**
+         * Copies the next frame into {@code destination}.
+         *
+         * @return the number of bytes copied, or -1 if no frame is available yet
+         */
+        public int read(byte[] destination) {
+            while (true) {
+                long head = published.get();
+                if (next > head) {
+                    return -1;
+                }
+
+                // Skip frames the producer has already lapped
+                long oldestSafe = head - (capacity - 2);
+                if (next < oldestSafe) {
+                    overruns += oldestSafe - next;
+                    next = oldestSafe;
+                }
+
+                int index = (int) next & mask;
+                int length = lengths[index];
+                long position = positions[index];
+                System.arraycopy(frames[index], 0, destination, 0, length);
+                loadFence();
+
+                // If the producer reached this slot while we copied, the data is torn
+                if (published.get() - next >= capacity - 1) {
+                    overruns++;
+                    next++;
+                    continue;
+                }
+
+                lastPosition = position;
+                next++;
+                return length;
+            }
+        }
+
+        /**
+         * Sequence of the frame the next read will return.
+         */
+        public long getNextSequence() {
+            return next;
+        }
+
+        /**
+         * Returns true once the ring is closed and this cursor has read everything.
+         */
+        public boolean isDrained() {
+            return closed && next > published.get();
+        }
+
+        /**
+         * Stream byte offset of the frame returned by the last successful read.
+         */
+        public long getLastPosition() {
+            return lastPosition;
+        }
+
+        /**
+         * Number of frames this consumer lost because it fell behind.
+         */
+        public long getOverruns() {
+            return overruns;
+        }
+
+        /**
+         * Number of published frames this consumer has not read yet.
+         */
+        public long getLag() {
+            return Math.max(0, published.get() + 1 - next);
+        }
+    }
+}
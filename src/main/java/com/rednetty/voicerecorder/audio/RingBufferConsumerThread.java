@@ -0,0 +1,87 @@
+package com.rednetty.voicerecorder.audio;
+
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drains a {@link PcmRingBuffer} cursor into a {@link PcmFrameConsumer} on a dedicated thread,
+ * so a slow consumer can never stall the capture thread.
+ */
+public class RingBufferConsumerThread extends Thread {
+    // How long to park when the ring is empty; well below the duration of one capture buffer
+    private static final long IDLE_PARK_NANOS = 1_000_000L;
+
+    private final PcmRingBuffer.Cursor cursor;
+    private final PcmFrameConsumer consumer;
+    private final byte[] frame;
+    private volatile IOException error;
+    // Last sequence to deliver when the ring stays open after this consumer's take ends
+    private volatile long endSequence = Long.MAX_VALUE;
+
+    public RingBufferConsumerThread(String name, PcmRingBuffer ringBuffer, PcmRingBuffer.Cursor cursor,
+                                    PcmFrameConsumer consumer) {
+        super(name);
+        this.cursor = cursor;
+        this.consumer = consumer;
+        this.frame = new byte[ringBuffer.getFrameSize()];
+        setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (cursor.getNextSequence() <= endSequence) {
+                int length = cursor.read(frame);
+                if (length >= 0) {
+                    if (cursor.getNextSequence() - 1 > endSequence) {
+                        // An overrun skipped past the end
+                        break;
+                    }
+                    consumer.onFrame(frame, length, cursor.getLastPosition());
+                } else if (cursor.isDrained()) {
+                    break;
+                } else {
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                }
+            }
+        } catch (IOException e) {
+            error = e;
+        } finally {
+            try {
+                consumer.onEnd();
+            } catch (IOException e) {
+                if (error == null) {
+                    error = e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Ends this consumer after the frame with the given sequence, while the ring itself stays open.
+     */
+    public void finishAt(long sequence) {
+        endSequence = sequence;
+    }
+
+    /**
+     * Number of frames this consumer lost because it fell behind the capture thread.
+     */
+    public long getOverruns() {
+        return cursor.getOverruns();
+    }
+
+    /**
+     * Number of frames published but not yet consumed.
+     */
+    public long getLag() {
+        return cursor.getLag();
+    }
+
+    /**
+     * The I/O error that stopped this consumer, if any.
+     */
+    public IOException getError() {
+        return error;
+    }
+}
@@ -0,0 +1,18 @@
+package com.rednetty.voicerecorder.audio;
+
+import java.io.File;
+import java.util.Map;
+
+/**
+ * Receives the takes cut from a continuous session by a {@link SpeechSegmenter}, on the segmenter's thread.
+ */
+public interface SpeechSegmentListener {
+
+    /**
+     * A finished take.
+     *
+     * @param file the complete WAV file of the take
+     * @param audioProperties statistics and speech offsets of the take, ready for recording metadata
+     */
+    void onSegment(File file, Map<String, Object> audioProperties);
+}
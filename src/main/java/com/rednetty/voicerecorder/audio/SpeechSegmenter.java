@@ -0,0 +1,170 @@
+package com.rednetty.voicerecorder.audio;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Cuts a continuous capture stream into one WAV take per utterance. Runs its own voice activity
+ * detector inline: at speech onset a new take is opened and seeded with the padded lead-in from a
+ * preallocated history ring, audio is streamed into it while the speaker talks, and once a pause
+ * longer than the hangover follows, the take is finished at the end of speech plus the pad and
+ * handed to the listener.
+ *
+ * Writes trail the live stream by the hangover, so the take never needs to be truncated afterwards.
+ */
+public class SpeechSegmenter implements PcmFrameConsumer, VoiceActivityListener {
+    public static final long DEFAULT_PAUSE_MILLIS = 800;
+    public static final long DEFAULT_PAD_MILLIS = 250;
+    public static final long DEFAULT_MIN_SPEECH_MILLIS = 200;
+
+    // History kept beyond the pad and pause, comfortably more than one capture buffer
+    private static final long HISTORY_SLACK_MILLIS = 1000;
+
+    private final AudioFormat format;
+    private final VoiceActivityDetector detector;
+    private final Supplier<File> segmentFiles;
+    private final SpeechSegmentListener listener;
+    private final AudioStats stats;
+    private final long padBytes;
+    private final long lagBytes;
+    private final long minSpeechBytes;
+
+    // Most recent audio of the session; byte at relative position p lives at p % history.length
+    private final byte[] history;
+    private long historyEnd;
+
+    private boolean started;
+    private long basePosition;
+
+    private WavFileWriter writer;
+    private long segmentStart;
+    private long segmentSpeechStart;
+    private long written;
+
+    public SpeechSegmenter(AudioFormat format, Supplier<File> segmentFiles, SpeechSegmentListener listener) {
+        this(format, segmentFiles, listener, DEFAULT_PAUSE_MILLIS, DEFAULT_PAD_MILLIS, DEFAULT_MIN_SPEECH_MILLIS);
+    }
+
+    /**
+     * @param pauseMillis silence that ends a take
+     * @param padMillis silence kept before and after the speech of each take
+     * @param minSpeechMillis shorter utterances (coughs, clicks) are discarded
+     */
+    public SpeechSegmenter(AudioFormat format, Supplier<File> segmentFiles, SpeechSegmentListener listener,
+                           long pauseMillis, long padMillis, long minSpeechMillis) {
+        this.format = format;
+        this.segmentFiles = segmentFiles;
+        this.listener = listener;
+        this.detector = new VoiceActivityDetector(format);
+        this.detector.setHangoverMillis(pauseMillis);
+        this.detector.setListener(this);
+        this.stats = new AudioStats();
+        this.padBytes = detector.millisToBytes(Math.min(padMillis, pauseMillis));
+        this.lagBytes = detector.millisToBytes(pauseMillis);
+        this.minSpeechBytes = detector.millisToBytes(minSpeechMillis);
+        this.history = new byte[(int) detector.millisToBytes(padMillis + pauseMillis + HISTORY_SLACK_MILLIS)];
+    }
+
+    @Override
+    public void onFrame(byte[] data, int length, long streamPosition) throws IOException {
+        if (!started) {
+            started = true;
+            basePosition = streamPosition;
+        }
+        // Frames lost to a ring overrun leave a gap, keeping history positions in step with the detector's
+        historyEnd = Math.max(historyEnd, streamPosition - basePosition);
+        appendToHistory(data, length);
+
+        // May open or finish a take through the listener callbacks below
+        detector.onFrame(data, length, streamPosition);
+
+        if (writer != null) {
+            writeTo(writer, historyEnd - lagBytes);
+        }
+    }
+
+    @Override
+    public void onEnd() throws IOException {
+        // The session stopped mid-utterance: keep what was spoken
+        if (writer != null) {
+            finishSegment(detector.getSpeechEnd() + padBytes);
+        }
+    }
+
+    @Override
+    public void onSpeechStart(long position) {
+        try {
+            long oldest = Math.max(0, historyEnd - history.length);
+            segmentSpeechStart = position;
+            segmentStart = Math.max(oldest, position - padBytes);
+            written = segmentStart;
+            stats.reset();
+            writer = new WavFileWriter(segmentFiles.get(), format);
+        } catch (IOException e) {
+            System.err.println("Could not open segment file: " + e.getMessage());
+            writer = null;
+        }
+    }
+
+    @Override
+    public void onSpeechEnd(long position) {
+        try {
+            finishSegment(position + padBytes);
+        } catch (IOException e) {
+            System.err.println("Could not finish segment: " + e.getMessage());
+        }
+    }
+
+    private void finishSegment(long end) throws IOException {
+        WavFileWriter segment = writer;
+        if (segment == null) {
+            return;
+        }
+        writer = null;
+        long speechEnd = Math.max(segmentSpeechStart, end - padBytes);
+
+        try {
+            writeTo(segment, Math.min(Math.max(end, written), historyEnd));
+        } finally {
+            segment.close();
+        }
+
+        if (speechEnd - segmentSpeechStart < minSpeechBytes) {
+            segment.getFile().delete();
+            return;
+        }
+
+        Map<String, Object> properties = stats.toAudioProperties();
+        properties.put("speechDetected", true);
+        properties.put("speechStartMs", detector.bytesToMillis(segmentSpeechStart - segmentStart));
+        properties.put("speechEndMs", detector.bytesToMillis(speechEnd - segmentStart));
+        properties.put("speechDurationMs", detector.bytesToMillis(speechEnd - segmentSpeechStart));
+        properties.put("sessionOffsetMs", detector.bytesToMillis(segmentStart));
+        listener.onSegment(segment.getFile(), properties);
+    }
+
+    // Writes history bytes [written, end) into the segment
+    private void writeTo(WavFileWriter segment, long end) throws IOException {
+        while (written < end) {
+            int offset = (int) (written % history.length);
+            int length = (int) Math.min(end - written, history.length - offset);
+            segment.write(history, offset, length);
+            stats.accumulate(history, offset, length);
+            written += length;
+        }
+    }
+
+    private void appendToHistory(byte[] data, int length) {
+        int copied = 0;
+        while (copied < length) {
+            int offset = (int) (historyEnd % history.length);
+            int chunk = Math.min(length - copied, history.length - offset);
+            System.arraycopy(data, copied, history, offset, chunk);
+            copied += chunk;
+            historyEnd += chunk;
+        }
+    }
+}
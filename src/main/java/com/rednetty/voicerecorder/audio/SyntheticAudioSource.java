@@ -0,0 +1,82 @@
+package com.rednetty.voicerecorder.audio;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.LineUnavailableException;
+import java.util.Random;
+
+/**
+ * Generates a take of fixed length: a tone with background noise, surrounded by silence, so
+ * it looks like a spoken phrase to level metering and analysis. Each take uses the next seed,
+ * so runs are reproducible.
+ */
+public class SyntheticAudioSource extends PacedAudioSource {
+    private final long durationMillis;
+    private final double frequency;
+    private final double amplitude;
+    private long seed;
+
+    private Random random;
+    private long totalFrames;
+    private long leadFrames;
+    private long frame;
+
+    /**
+     * @param durationMillis length of each take
+     * @param speed playback speed relative to real time, or 0 for unthrottled
+     */
+    public SyntheticAudioSource(long durationMillis, double speed) {
+        this(durationMillis, speed, 220.0, 0.3, 1);
+    }
+
+    /**
+     * @param frequency tone frequency in Hz
+     * @param amplitude tone amplitude as a fraction of full scale
+     * @param seed seed for the noise of the first take
+     */
+    public SyntheticAudioSource(long durationMillis, double speed, double frequency, double amplitude, long seed) {
+        super(speed);
+        this.durationMillis = durationMillis;
+        this.frequency = frequency;
+        this.amplitude = amplitude;
+        this.seed = seed;
+    }
+
+    @Override
+    public void open(AudioFormat format) throws LineUnavailableException {
+        if (format.getSampleSizeInBits() != 16 || format.isBigEndian()
+                || format.getEncoding() != AudioFormat.Encoding.PCM_SIGNED) {
+            throw new LineUnavailableException("Synthetic source only produces 16-bit little-endian PCM");
+        }
+        super.open(format);
+        random = new Random(seed++);
+        totalFrames = (long) (format.getFrameRate() * durationMillis / 1000);
+        // A fifth of the take is silence at either end
+        leadFrames = totalFrames / 5;
+        frame = 0;
+    }
+
+    @Override
+    protected int fill(byte[] buffer, int offset, int length) {
+        if (frame >= totalFrames) {
+            return -1;
+        }
+        int channels = format.getChannels();
+        int frameSize = format.getFrameSize();
+        int frames = (int) Math.min(length / frameSize, totalFrames - frame);
+        double phaseStep = 2 * Math.PI * frequency / format.getFrameRate();
+
+        int position = offset;
+        for (int i = 0; i < frames; i++, frame++) {
+            double value = random.nextGaussian() * 0.005;
+            if (frame >= leadFrames && frame < totalFrames - leadFrames) {
+                value += amplitude * Math.sin(phaseStep * frame);
+            }
+            int sample = (int) Math.max(-32768, Math.min(32767, value * 32767));
+            for (int c = 0; c < channels; c++) {
+                buffer[position++] = (byte) sample;
+                buffer[position++] = (byte) (sample >> 8);
+            }
+        }
+        return frames * frameSize;
+    }
+}
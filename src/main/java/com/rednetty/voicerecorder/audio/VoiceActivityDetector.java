@@ -0,0 +1,220 @@
+package com.rednetty.voicerecorder.audio;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Streaming voice activity detector for 16-bit little-endian PCM. Audio is cut into 20 ms analysis
+ * frames; a frame is speech when its energy is well above an adaptive noise floor, or moderately
+ * above it with a high zero-crossing rate (unvoiced consonants such as "s" and "f").
+ * Speech starts after a few consecutive speech frames and ends after a hangover of silence.
+ *
+ * Runs as a ring consumer and allocates nothing per frame. Positions are byte offsets from the
+ * start of the take, so they can be used directly as offsets into the WAV data chunk.
+ */
+public class VoiceActivityDetector implements PcmFrameConsumer {
+    public static final long DEFAULT_HANGOVER_MILLIS = 300;
+
+    private static final int ANALYSIS_FRAME_MILLIS = 20;
+    // Consecutive speech frames needed before an onset is accepted (60 ms)
+    private static final int ONSET_FRAMES = 3;
+    // Frames used to seed the noise floor at the start of a take
+    private static final int CALIBRATION_FRAMES = 5;
+    private static final double VOICED_MARGIN_DB = 9.0;
+    private static final double UNVOICED_MARGIN_DB = 4.0;
+    private static final double UNVOICED_MIN_ZCR = 0.25;
+    // Nothing quieter than this is speech, however quiet the room
+    private static final double MIN_SPEECH_DB = -55.0;
+    // Cap on the calibrated floor, in case the take starts mid-word
+    private static final double MAX_NOISE_FLOOR_DB = -35.0;
+    private static final double FLOOR_ADAPTATION = 0.05;
+    private static final double FULL_SCALE_SQUARED = 32768.0 * 32768.0;
+
+    private final int bytesPerFrame;
+    private final int samplesPerAnalysisFrame;
+    private final double bytesPerMillisecond;
+    private long hangoverBytes;
+    private VoiceActivityListener listener;
+
+    // Current analysis frame
+    private long frameSquares;
+    private int frameCrossings;
+    private int frameSamples;
+    private int previousSample;
+    private long frameStart;
+
+    private boolean started;
+    private long basePosition;
+    private long bytesAnalyzed;
+    private int framesAnalyzed;
+    private double noiseFloorDb;
+
+    private int speechRun;
+    private long runStart;
+    private boolean inSpeech;
+    private volatile long speechStart;
+    private volatile long speechEnd;
+    private long segmentEnd;
+
+    public VoiceActivityDetector(AudioFormat format) {
+        if (format.getSampleSizeInBits() != 16 || format.isBigEndian()) {
+            throw new IllegalArgumentException("Voice activity detection needs 16-bit little-endian PCM");
+        }
+        this.bytesPerFrame = format.getFrameSize();
+        this.samplesPerAnalysisFrame = (int) (format.getSampleRate() * ANALYSIS_FRAME_MILLIS / 1000);
+        this.bytesPerMillisecond = format.getSampleRate() * bytesPerFrame / 1000.0;
+        this.hangoverBytes = millisToBytes(DEFAULT_HANGOVER_MILLIS);
+        reset();
+    }
+
+    /**
+     * How long silence must last before speech is considered to have ended.
+     */
+    public void setHangoverMillis(long hangoverMillis) {
+        this.hangoverBytes = millisToBytes(hangoverMillis);
+    }
+
+    public void setListener(VoiceActivityListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Forgets all state, ready for a new take.
+     */
+    public void reset() {
+        frameSquares = 0;
+        frameCrossings = 0;
+        frameSamples = 0;
+        previousSample = 0;
+        frameStart = 0;
+        started = false;
+        basePosition = 0;
+        bytesAnalyzed = 0;
+        framesAnalyzed = 0;
+        noiseFloorDb = 0;
+        speechRun = 0;
+        runStart = 0;
+        inSpeech = false;
+        speechStart = -1;
+        speechEnd = -1;
+        segmentEnd = -1;
+    }
+
+    @Override
+    public void onFrame(byte[] data, int length, long streamPosition) {
+        if (!started) {
+            // Positions are reported relative to the first frame of the take
+            started = true;
+            basePosition = streamPosition;
+        }
+        long position = streamPosition - basePosition;
+
+        // Only the first channel is analyzed
+        for (int i = 0; i + 1 < length; i += bytesPerFrame) {
+            int sample = (data[i] & 0xFF) | (data[i + 1] << 8);
+            frameSquares += sample * sample;
+            frameCrossings += ((sample ^ previousSample) >>> 31);
+            previousSample = sample;
+
+            if (++frameSamples == samplesPerAnalysisFrame) {
+                long frameEnd = position + i + bytesPerFrame;
+                classify(frameEnd);
+                frameStart = frameEnd;
+                frameSquares = 0;
+                frameCrossings = 0;
+                frameSamples = 0;
+            }
+        }
+        bytesAnalyzed = position + length;
+    }
+
+    private void classify(long frameEnd) {
+        double meanSquare = (double) frameSquares / frameSamples;
+        double energyDb = 10 * Math.log10(meanSquare / FULL_SCALE_SQUARED + 1e-12);
+        double zeroCrossingRate = (double) frameCrossings / frameSamples;
+
+        if (framesAnalyzed < CALIBRATION_FRAMES) {
+            // Seed the floor with the quietest of the first frames
+            noiseFloorDb = Math.min(MAX_NOISE_FLOOR_DB, framesAnalyzed == 0 ? energyDb : Math.min(noiseFloorDb, energyDb));
+            framesAnalyzed++;
+        }
+
+        boolean speech = energyDb > MIN_SPEECH_DB
+                && (energyDb > noiseFloorDb + VOICED_MARGIN_DB
+                || (energyDb > noiseFloorDb + UNVOICED_MARGIN_DB && zeroCrossingRate > UNVOICED_MIN_ZCR));
+
+        if (speech) {
+            if (speechRun++ == 0) {
+                runStart = frameStart;
+            }
+            if (inSpeech) {
+                segmentEnd = frameEnd;
+                speechEnd = frameEnd;
+            } else if (speechRun >= ONSET_FRAMES) {
+                inSpeech = true;
+                segmentEnd = frameEnd;
+                speechEnd = frameEnd;
+                if (speechStart < 0) {
+                    speechStart = runStart;
+                }
+                if (listener != null) {
+                    listener.onSpeechStart(runStart);
+                }
+            }
+        } else {
+            speechRun = 0;
+            // Track the floor only through silence; drop immediately if the room gets quieter
+            noiseFloorDb = energyDb < noiseFloorDb
+                    ? energyDb : noiseFloorDb + FLOOR_ADAPTATION * (energyDb - noiseFloorDb);
+            if (inSpeech && frameEnd - segmentEnd >= hangoverBytes) {
+                inSpeech = false;
+                if (listener != null) {
+                    listener.onSpeechEnd(segmentEnd);
+                }
+            }
+        }
+    }
+
+    /**
+     * True once speech has been detected anywhere in the take.
+     */
+    public boolean isSpeechDetected() {
+        return speechStart >= 0;
+    }
+
+    /**
+     * True while inside a speech segment (including its hangover).
+     */
+    public boolean isInSpeech() {
+        return inSpeech;
+    }
+
+    /**
+     * Start of the first speech segment, or -1 if no speech was detected.
+     */
+    public long getSpeechStart() {
+        return speechStart;
+    }
+
+    /**
+     * End of the last speech frame seen, or -1 if no speech was detected.
+     */
+    public long getSpeechEnd() {
+        return speechEnd;
+    }
+
+    /**
+     * Number of bytes of the take analyzed so far.
+     */
+    public long getBytesAnalyzed() {
+        return bytesAnalyzed;
+    }
+
+    public long millisToBytes(long millis) {
+        long bytes = (long) (millis * bytesPerMillisecond);
+        return bytes - bytes % bytesPerFrame;
+    }
+
+    public long bytesToMillis(long bytes) {
+        return Math.round(bytes / bytesPerMillisecond);
+    }
+}
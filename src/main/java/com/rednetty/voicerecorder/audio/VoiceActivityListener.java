@@ -0,0 +1,20 @@
+package com.rednetty.voicerecorder.audio;
+
+/**
+ * Receives speech onset and offset events from a {@link VoiceActivityDetector}, on the detector's thread.
+ * Positions are byte offsets from the start of the take.
+ */
+public interface VoiceActivityListener {
+
+    /**
+     * Speech has started at the given position.
+     */
+    default void onSpeechStart(long position) {
+    }
+
+    /**
+     * Speech ended at the given position and the detector has since seen a full hangover of silence.
+     */
+    default void onSpeechEnd(long position) {
+    }
+}
@@ -0,0 +1,128 @@
+package com.rednetty.voicerecorder.audio;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Streams PCM data straight into a WAV file through a FileChannel.
+ * The 44-byte header is reserved up front and its size fields are patched on close,
+ * so memory use stays the same no matter how long the take is.
+ */
+public class WavFileWriter implements Closeable {
+    public static final int HEADER_SIZE = 44;
+
+    private final File file;
+    private final AudioFormat format;
+    private final FileChannel channel;
+    private final ByteBuffer headerBuffer;
+    private long dataLength;
+    private boolean closed;
+
+    public WavFileWriter(File file, AudioFormat format) throws IOException {
+        this.file = file;
+        this.format = format;
+        this.headerBuffer = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        // Ensure directory exists
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+
+        this.channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+
+        // Reserve the header with zero sizes; it is rewritten with the real sizes on close
+        writeHeader(0);
+        channel.position(HEADER_SIZE);
+    }
+
+    /**
+     * Appends raw PCM bytes at the end of the data chunk.
+     */
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+        write(ByteBuffer.wrap(buffer, offset, length));
+    }
+
+    /**
+     * Appends the remaining bytes of the given buffer at the end of the data chunk.
+     */
+    public void write(ByteBuffer data) throws IOException {
+        while (data.hasRemaining()) {
+            dataLength += channel.write(data);
+        }
+    }
+
+    /**
+     * Appends {@code count} bytes of another file, starting at {@code position}, without copying through the heap.
+     */
+    public void transferFrom(FileChannel source, long position, long count) throws IOException {
+        long transferred = 0;
+        while (transferred < count) {
+            long n = source.transferTo(position + transferred, count - transferred, channel);
+            if (n <= 0) {
+                throw new IOException("Unexpected end of source after " + transferred + " bytes");
+            }
+            transferred += n;
+        }
+        dataLength += transferred;
+    }
+
+    public long getDataLength() {
+        return dataLength;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Patches the RIFF and data chunk sizes and closes the file.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            writeHeader(dataLength);
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void writeHeader(long pcmLength) throws IOException {
+        int channels = format.getChannels();
+        int bitsPerSample = format.getSampleSizeInBits();
+        int sampleRate = (int) format.getSampleRate();
+        int blockAlign = channels * bitsPerSample / 8;
+
+        headerBuffer.clear();
+        headerBuffer.put((byte) 'R').put((byte) 'I').put((byte) 'F').put((byte) 'F');
+        headerBuffer.putInt((int) Math.min(0xFFFFFFFFL, 36 + pcmLength));
+        headerBuffer.put((byte) 'W').put((byte) 'A').put((byte) 'V').put((byte) 'E');
+        headerBuffer.put((byte) 'f').put((byte) 'm').put((byte) 't').put((byte) ' ');
+        headerBuffer.putInt(16);
+        headerBuffer.putShort((short) 1); // PCM
+        headerBuffer.putShort((short) channels);
+        headerBuffer.putInt(sampleRate);
+        headerBuffer.putInt(sampleRate * blockAlign);
+        headerBuffer.putShort((short) blockAlign);
+        headerBuffer.putShort((short) bitsPerSample);
+        headerBuffer.put((byte) 'd').put((byte) 'a').put((byte) 't').put((byte) 'a');
+        headerBuffer.putInt((int) Math.min(0xFFFFFFFFL, pcmLength));
+        headerBuffer.flip();
+
+        long position = 0;
+        while (headerBuffer.hasRemaining()) {
+            position += channel.write(headerBuffer, position);
+        }
+    }
+}
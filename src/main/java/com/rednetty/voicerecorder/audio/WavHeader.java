@@ -0,0 +1,226 @@
+package com.rednetty.voicerecorder.audio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Format information parsed from the chunks of a RIFF/WAVE file header.
+ * Parsing only touches the chunk headers, never the audio data.
+ */
+public class WavHeader {
+    public static final int FORMAT_PCM = 1;
+    public static final int FORMAT_EXTENSIBLE = 0xFFFE;
+
+    private static final int RIFF = 0x46464952; // "RIFF"
+    private static final int WAVE = 0x45564157; // "WAVE"
+    private static final int FMT = 0x20746d66;  // "fmt "
+    private static final int DATA = 0x61746164; // "data"
+    private static final int MIN_FMT_SIZE = 16;
+    // A WAVE_FORMAT_EXTENSIBLE fmt chunk ends with the 16-byte SubFormat GUID at this offset
+    private static final int EXTENSIBLE_FMT_SIZE = 40;
+    private static final int SUBFORMAT_OFFSET = 24;
+    // KSDATAFORMAT_SUBTYPE_PCM, 00000001-0000-0010-8000-00aa00389b71, as stored in the file
+    private static final byte[] SUBFORMAT_PCM = {
+            0x01, 0x00, 0x00, 0x00, 0x00, 0x00, 0x10, 0x00,
+            (byte) 0x80, 0x00, 0x00, (byte) 0xAA, 0x00, 0x38, (byte) 0x9B, 0x71
+    };
+
+    private final int formatCode;
+    private final boolean pcmSubFormat;
+    private final int channels;
+    private final int sampleRate;
+    private final int bitsPerSample;
+    private final long dataOffset;
+    private final long dataLength;
+    private final long fileLength;
+
+    private WavHeader(int formatCode, boolean pcmSubFormat, int channels, int sampleRate, int bitsPerSample,
+                      long dataOffset, long dataLength, long fileLength) {
+        this.formatCode = formatCode;
+        this.pcmSubFormat = pcmSubFormat;
+        this.channels = channels;
+        this.sampleRate = sampleRate;
+        this.bitsPerSample = bitsPerSample;
+        this.dataOffset = dataOffset;
+        this.dataLength = dataLength;
+        this.fileLength = fileLength;
+    }
+
+    /**
+     * Reads the header of a WAV file, seeking from chunk to chunk without reading the audio data.
+     */
+    public static WavHeader read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long fileLength = channel.size();
+            ByteBuffer chunk = ByteBuffer.allocate(40).order(ByteOrder.LITTLE_ENDIAN);
+
+            readFully(channel, chunk, 0, 12);
+            if (chunk.getInt(0) != RIFF || chunk.getInt(8) != WAVE) {
+                throw new IOException("Not a RIFF/WAVE file: " + file);
+            }
+
+            int formatCode = -1;
+            boolean pcmSubFormat = false;
+            int channels = 0;
+            int sampleRate = 0;
+            int bitsPerSample = 0;
+            long position = 12;
+            while (position + 8 <= fileLength) {
+                readFully(channel, chunk, position, 8);
+                int id = chunk.getInt(0);
+                long size = chunk.getInt(4) & 0xFFFFFFFFL;
+
+                if (id == FMT) {
+                    if (size < MIN_FMT_SIZE) {
+                        throw new IOException("fmt chunk of " + size + " bytes is too short: " + file);
+                    }
+                    readFully(channel, chunk, position + 8, (int) Math.min(EXTENSIBLE_FMT_SIZE, size));
+                    formatCode = chunk.getShort(0) & 0xFFFF;
+                    channels = chunk.getShort(2) & 0xFFFF;
+                    sampleRate = chunk.getInt(4);
+                    bitsPerSample = chunk.getShort(14) & 0xFFFF;
+                    pcmSubFormat = size >= EXTENSIBLE_FMT_SIZE && isPcmSubFormat(chunk, SUBFORMAT_OFFSET);
+                } else if (id == DATA) {
+                    if (formatCode < 0) {
+                        throw new IOException("Data chunk before fmt chunk: " + file);
+                    }
+                    return new WavHeader(formatCode, pcmSubFormat, channels, sampleRate, bitsPerSample,
+                            position + 8, size, fileLength);
+                }
+                // Chunks are padded to an even size
+                position += 8 + size + (size & 1);
+            }
+            throw new IOException("No data chunk in " + file);
+        }
+    }
+
+    /**
+     * Parses the header from a buffer holding the start of the file (for example a memory mapping).
+     * The buffer's position and limit are not changed.
+     */
+    public static WavHeader parse(ByteBuffer buffer) throws IOException {
+        ByteBuffer data = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int base = data.position();
+        long fileLength = data.remaining();
+        if (fileLength < 12 || data.getInt(base) != RIFF || data.getInt(base + 8) != WAVE) {
+            throw new IOException("Not a RIFF/WAVE file");
+        }
+
+        int formatCode = -1;
+        boolean pcmSubFormat = false;
+        int channels = 0;
+        int sampleRate = 0;
+        int bitsPerSample = 0;
+        long position = 12;
+        while (position + 8 <= fileLength) {
+            int at = base + (int) position;
+            int id = data.getInt(at);
+            long size = data.getInt(at + 4) & 0xFFFFFFFFL;
+
+            if (id == FMT) {
+                if (size < MIN_FMT_SIZE) {
+                    throw new IOException("fmt chunk of " + size + " bytes is too short");
+                }
+                if (position + 8 + Math.min(EXTENSIBLE_FMT_SIZE, size) > fileLength) {
+                    throw new IOException("Truncated fmt chunk");
+                }
+                formatCode = data.getShort(at + 8) & 0xFFFF;
+                channels = data.getShort(at + 10) & 0xFFFF;
+                sampleRate = data.getInt(at + 12);
+                bitsPerSample = data.getShort(at + 22) & 0xFFFF;
+                pcmSubFormat = size >= EXTENSIBLE_FMT_SIZE && isPcmSubFormat(data, at + 8 + SUBFORMAT_OFFSET);
+            } else if (id == DATA) {
+                if (formatCode < 0) {
+                    throw new IOException("Data chunk before fmt chunk");
+                }
+                return new WavHeader(formatCode, pcmSubFormat, channels, sampleRate, bitsPerSample,
+                        position + 8, size, fileLength);
+            }
+            position += 8 + size + (size & 1);
+        }
+        throw new IOException("No data chunk");
+    }
+
+    private static boolean isPcmSubFormat(ByteBuffer buffer, int offset) {
+        for (int i = 0; i < SUBFORMAT_PCM.length; i++) {
+            if (buffer.get(offset + i) != SUBFORMAT_PCM[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position, int length)
+            throws IOException {
+        buffer.clear();
+        buffer.limit(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of WAV header");
+            }
+        }
+    }
+
+    public int getFormatCode() {
+        return formatCode;
+    }
+
+    /**
+     * Plain PCM, or WAVE_FORMAT_EXTENSIBLE whose SubFormat GUID is PCM (extensible float or
+     * compressed audio is not PCM).
+     */
+    public boolean isPcm() {
+        return formatCode == FORMAT_PCM || (formatCode == FORMAT_EXTENSIBLE && pcmSubFormat);
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getBitsPerSample() {
+        return bitsPerSample;
+    }
+
+    public int getBlockAlign() {
+        return channels * bitsPerSample / 8;
+    }
+
+    /**
+     * Byte offset of the first audio sample.
+     */
+    public long getDataOffset() {
+        return dataOffset;
+    }
+
+    /**
+     * Size of the audio data as declared in the data chunk header.
+     */
+    public long getDataLength() {
+        return dataLength;
+    }
+
+    /**
+     * Number of audio bytes actually present, which is less than declared for truncated files.
+     */
+    public long getAvailableDataLength() {
+        return Math.max(0, Math.min(dataLength, fileLength - dataOffset));
+    }
+
+    public long getFileLength() {
+        return fileLength;
+    }
+
+    public double getDurationSeconds() {
+        int blockAlign = getBlockAlign();
+        return blockAlign > 0 && sampleRate > 0
+                ? (double) getAvailableDataLength() / blockAlign / sampleRate : 0;
+    }
+}
@@ -0,0 +1,449 @@
+package com.rednetty.voicerecorder.cli;
+
+import com.rednetty.voicerecorder.audio.AudioStats;
+import com.rednetty.voicerecorder.audio.WavHeader;
+import com.rednetty.voicerecorder.model.Phrase;
+import com.rednetty.voicerecorder.model.RecordingMetadata;
+import com.rednetty.voicerecorder.util.DataManager;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Headless entry point that ingests WAV takes collected elsewhere into the recordings corpus.
+ * Files are matched to phrases by name, their audio properties are read from the WAV header,
+ * and they go through the same DataManager pipeline as takes recorded in the app.
+ *
+ * Usage: {@code BatchIngestTool <source-dir> [--output recordings] [--phrases phrases.json]
+ * [--threads N] [--user-id ID] [--speech-type TYPE] [--impairment DETAILS] [--device-info INFO] [--flac]}
+ * Without {@code --user-id} the takes are credited to an id derived from the source directory's path.
+ *
+ * Ingested source files are listed in {@code ingest_progress.log} inside the output directory,
+ * so an interrupted run picks up where it stopped. Before a file is committed a pending line with
+ * its recording id is logged; if the run stops between the index commit and the final line, the
+ * next run finds that id in the global index and does not ingest the file twice.
+ */
+public class BatchIngestTool {
+    private static final String PROGRESS_FILE = "ingest_progress.log";
+    // Prefix of a progress line naming a file whose commit was started: pending, recording id, source path
+    private static final String PENDING_PREFIX = "pending\t";
+    private static final long REPORT_INTERVAL_SECONDS = 5;
+    private static final int STATS_BUFFER_SIZE = 64 * 1024;
+
+    private final Path sourceDirectory;
+    private final String outputDirectory;
+    private final String phrasesFile;
+    private final int threads;
+    private final String userId;
+    private final String speechType;
+    private final String impairmentDetails;
+    private final String deviceInfo;
+
+    private final AtomicLong filesIngested = new AtomicLong();
+    private final AtomicLong bytesIngested = new AtomicLong();
+    private final AtomicLong filesSkipped = new AtomicLong();
+    private final AtomicLong filesFailed = new AtomicLong();
+
+    private boolean compressAudio;
+    private DataManager dataManager;
+    private Map<String, Phrase> phrasesById;
+    private BufferedWriter progressWriter;
+
+    // One scan buffer and stats accumulator per worker thread
+    private final ThreadLocal<ByteBuffer> statsBuffer =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(STATS_BUFFER_SIZE));
+    private final ThreadLocal<AudioStats> audioStats = ThreadLocal.withInitial(AudioStats::new);
+
+    public BatchIngestTool(Path sourceDirectory, String outputDirectory, String phrasesFile, int threads,
+                           String userId, String speechType, String impairmentDetails, String deviceInfo) {
+        this.sourceDirectory = sourceDirectory;
+        this.outputDirectory = outputDirectory;
+        this.phrasesFile = phrasesFile;
+        this.threads = threads;
+        this.userId = userId;
+        this.speechType = speechType;
+        this.impairmentDetails = impairmentDetails;
+        this.deviceInfo = deviceInfo;
+    }
+
+    /**
+     * Stores ingested takes as FLAC; see {@link DataManager#setCompressAudio(boolean)}.
+     */
+    public void setCompressAudio(boolean compressAudio) {
+        this.compressAudio = compressAudio;
+    }
+
+    public static void main(String[] args) {
+        // Never touch the display or audio devices
+        System.setProperty("java.awt.headless", "true");
+
+        String source = null;
+        String output = "recordings";
+        String phrases = "phrases.json";
+        int threads = Runtime.getRuntime().availableProcessors();
+        String userId = null;
+        String speechType = "clear";
+        String impairment = null;
+        boolean flac = false;
+        String deviceInfo = "imported";
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if ("--output".equals(arg)) {
+                    output = args[++i];
+                } else if ("--phrases".equals(arg)) {
+                    phrases = args[++i];
+                } else if ("--threads".equals(arg)) {
+                    threads = Integer.parseInt(args[++i]);
+                } else if ("--user-id".equals(arg)) {
+                    userId = args[++i];
+                } else if ("--speech-type".equals(arg)) {
+                    speechType = args[++i];
+                } else if ("--impairment".equals(arg)) {
+                    impairment = args[++i];
+                } else if ("--device-info".equals(arg)) {
+                    deviceInfo = args[++i];
+                } else if ("--flac".equals(arg)) {
+                    flac = true;
+                } else if (source == null && !arg.startsWith("--")) {
+                    source = arg;
+                } else {
+                    throw new IllegalArgumentException("Unknown argument: " + arg);
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+            System.err.println(e.getMessage() != null ? e.getMessage() : "Missing argument value");
+            source = null;
+        }
+
+        if (source == null) {
+            System.err.println("Usage: BatchIngestTool <source-dir> [--output recordings] [--phrases phrases.json]"
+                    + " [--threads N] [--user-id ID] [--speech-type TYPE] [--impairment DETAILS]"
+                    + " [--device-info INFO] [--flac]");
+            System.exit(2);
+        }
+
+        BatchIngestTool tool = new BatchIngestTool(Paths.get(source), output, phrases, Math.max(1, threads),
+                userId != null ? userId : defaultUserId(Paths.get(source)), speechType, impairment, deviceInfo);
+        tool.setCompressAudio(flac);
+        try {
+            tool.run();
+        } catch (IOException e) {
+            System.err.println("Ingestion failed: " + e.getMessage());
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    public void run() throws IOException {
+        dataManager = new DataManager(outputDirectory);
+        dataManager.setCompressAudio(compressAudio);
+        // Fail before doing any work if another recorder owns the corpus
+        dataManager.lockCorpus();
+        dataManager.loadGlobalMetadata();
+        if (!dataManager.isIndexLoaded()) {
+            throw new IOException("Could not read the recordings index in " + outputDirectory);
+        }
+        phrasesById = new HashMap<>();
+        for (Phrase phrase : dataManager.loadPhrases(phrasesFile)) {
+            phrasesById.put(phrase.getId(), phrase);
+        }
+
+        Path progressPath = Paths.get(outputDirectory, PROGRESS_FILE);
+        Map<String, String> pending = new HashMap<>();
+        Set<String> alreadyIngested = readProgress(progressPath, pending);
+        List<Path> files = findWavFiles(sourceDirectory);
+        progressWriter = Files.newBufferedWriter(progressPath, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        resolvePending(pending, alreadyIngested);
+        System.out.println("Found " + files.size() + " WAV files, " + alreadyIngested.size()
+                + " already ingested, " + phrasesById.size() + " phrases");
+
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        // Bound the number of files in flight so a huge tree never queues up unbounded work
+        Semaphore inFlight = new Semaphore(threads * 4);
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+        long startNanos = System.nanoTime();
+        reporter.scheduleAtFixedRate(() -> report(startNanos, false),
+                REPORT_INTERVAL_SECONDS, REPORT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+
+        try {
+            for (Path file : files) {
+                String key = file.toAbsolutePath().normalize().toString();
+                if (alreadyIngested.contains(key)) {
+                    filesSkipped.incrementAndGet();
+                    continue;
+                }
+
+                inFlight.acquireUninterruptibly();
+                workers.execute(() -> {
+                    CompletableFuture<RecordingMetadata> persisted = null;
+                    try {
+                        persisted = ingest(file, key);
+                    } finally {
+                        // A file stays in flight until it is persisted, so the persistence queue bounds the run too
+                        if (persisted != null) {
+                            persisted.whenComplete((saved, error) -> inFlight.release());
+                        } else {
+                            inFlight.release();
+                        }
+                    }
+                });
+            }
+
+            workers.shutdown();
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+            dataManager.shutdown();
+            dataManager.saveGlobalMetadata(dataManager.getRecordingsMetadata());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            reporter.shutdownNow();
+            synchronized (this) {
+                progressWriter.close();
+            }
+        }
+
+        report(startNanos, true);
+    }
+
+    /**
+     * Reads the header, copies the file into the corpus staging area and queues it for persistence.
+     *
+     * @return the persistence of the file, or null if it was skipped or failed before being queued
+     */
+    private CompletableFuture<RecordingMetadata> ingest(Path file, String key) {
+        try {
+            Phrase phrase = matchPhrase(file);
+            if (phrase == null) {
+                System.err.println("No phrase matches " + file);
+                filesSkipped.incrementAndGet();
+                return null;
+            }
+
+            WavHeader header = WavHeader.read(file);
+            if (!header.isPcm()) {
+                System.err.println("Skipping non-PCM file " + file);
+                filesSkipped.incrementAndGet();
+                return null;
+            }
+
+            String recordingId = UUID.randomUUID().toString();
+            String stagingPath = dataManager.createRecordingPath(recordingId);
+            // Copy rather than move: the source tree belongs to whoever collected it
+            Files.copy(file, Paths.get(stagingPath), StandardCopyOption.REPLACE_EXISTING);
+
+            String timestamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.ROOT)
+                    .format(new Date(Files.getLastModifiedTime(file).toMillis()));
+            RecordingMetadata metadata = new RecordingMetadata(
+                    userId,
+                    phrase.getId(),
+                    phrase.getText(),
+                    phrase.getCategory(),
+                    recordingId + ".wav",
+                    timestamp,
+                    speechType,
+                    impairmentDetails,
+                    deviceInfo
+            );
+            metadata.setRecordingId(recordingId);
+            metadata.addAudioProperty("sampleRate", (float) header.getSampleRate());
+            metadata.addAudioProperty("bitsPerSample", header.getBitsPerSample());
+            metadata.addAudioProperty("channels", header.getChannels());
+            if (header.getBitsPerSample() == 16) {
+                metadata.getAudioProperties().putAll(computeStats(file, header).toAudioProperties());
+            }
+            metadata.addAdditionalInfo("sourceFile", key);
+
+            long size = header.getFileLength();
+            writeProgress(PENDING_PREFIX + recordingId + "\t" + key);
+            return dataManager.addRecordingWithMetadataAsync(metadata, stagingPath).whenComplete((saved, error) -> {
+                if (error != null) {
+                    System.err.println("Error ingesting " + file + ": " + error.getMessage());
+                    filesFailed.incrementAndGet();
+                } else {
+                    filesIngested.incrementAndGet();
+                    bytesIngested.addAndGet(size);
+                    writeProgress(key);
+                }
+            });
+        } catch (IOException e) {
+            System.err.println("Error ingesting " + file + ": " + e.getMessage());
+            filesFailed.incrementAndGet();
+            return null;
+        }
+    }
+
+    /**
+     * Scans the audio data of a 16-bit file in fixed-size chunks through the per-thread stats kernel.
+     */
+    private AudioStats computeStats(Path file, WavHeader header) throws IOException {
+        ByteBuffer buffer = statsBuffer.get();
+        AudioStats stats = audioStats.get();
+        stats.reset();
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long position = header.getDataOffset();
+            long end = position + header.getAvailableDataLength();
+            while (position < end) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), end - position));
+                int read = channel.read(buffer, position);
+                if (read < 0) {
+                    break;
+                }
+                position += read;
+                buffer.flip();
+                stats.accumulate(buffer);
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Matches a file to a phrase: the file name (without extension) equals a phrase id, starts with
+     * a phrase id followed by '_', '-' or '.', or the parent directory is named after a phrase id.
+     */
+    private Phrase matchPhrase(Path file) {
+        String name = file.getFileName().toString();
+        String baseName = name.substring(0, name.length() - ".wav".length());
+
+        Phrase phrase = phrasesById.get(baseName);
+        if (phrase != null) {
+            return phrase;
+        }
+
+        // Longest id prefix first, so "basic-10_take2" prefers "basic-10" over "basic-1"
+        for (int i = baseName.length() - 1; i > 0; i--) {
+            char c = baseName.charAt(i);
+            if (c == '_' || c == '-' || c == '.') {
+                phrase = phrasesById.get(baseName.substring(0, i));
+                if (phrase != null) {
+                    return phrase;
+                }
+            }
+        }
+
+        Path parent = file.getParent();
+        return parent != null && parent.getFileName() != null
+                ? phrasesById.get(parent.getFileName().toString()) : null;
+    }
+
+    /**
+     * Counts a file whose commit was started but never logged as done as ingested if its recording
+     * made it into the global index, and logs it as done.
+     */
+    private void resolvePending(Map<String, String> pending, Set<String> alreadyIngested) {
+        pending.keySet().removeAll(alreadyIngested);
+        if (pending.isEmpty()) {
+            return;
+        }
+        Set<String> pendingIds = new HashSet<>(pending.values());
+        Set<String> committedIds = new HashSet<>();
+        dataManager.forEachRecording(view -> {
+            if (pendingIds.contains(view.getRecordingId())) {
+                committedIds.add(view.getRecordingId());
+            }
+        });
+        for (Map.Entry<String, String> entry : pending.entrySet()) {
+            if (committedIds.contains(entry.getValue())) {
+                alreadyIngested.add(entry.getKey());
+                writeProgress(entry.getKey());
+            }
+        }
+    }
+
+    private synchronized void writeProgress(String line) {
+        try {
+            progressWriter.write(line);
+            progressWriter.newLine();
+            progressWriter.flush();
+        } catch (IOException e) {
+            System.err.println("Error writing ingest progress: " + e.getMessage());
+        }
+    }
+
+    private void report(long startNanos, boolean done) {
+        double seconds = Math.max(1e-9, (System.nanoTime() - startNanos) / 1e9);
+        long files = filesIngested.get();
+        double megabytes = bytesIngested.get() / (1024.0 * 1024.0);
+        System.out.println(String.format(Locale.ROOT,
+                "%s %d ingested, %d skipped, %d failed in %.1fs (%.1f files/s, %.2f MB/s)",
+                done ? "Done:" : "Progress:", files, filesSkipped.get(), filesFailed.get(),
+                seconds, files / seconds, megabytes / seconds));
+    }
+
+    /**
+     * Reads the source files logged as ingested, and collects the recording id of each file whose
+     * commit was started into {@code pending}.
+     */
+    private static Set<String> readProgress(Path progressPath, Map<String, String> pending) throws IOException {
+        Set<String> ingested = new HashSet<>();
+        if (Files.exists(progressPath)) {
+            for (String line : Files.readAllLines(progressPath, StandardCharsets.UTF_8)) {
+                if (line.startsWith(PENDING_PREFIX)) {
+                    int separator = line.indexOf('\t', PENDING_PREFIX.length());
+                    if (separator > 0) {
+                        pending.put(line.substring(separator + 1), line.substring(PENDING_PREFIX.length(), separator));
+                    }
+                } else if (!line.isEmpty()) {
+                    ingested.add(line);
+                }
+            }
+        }
+        return ingested;
+    }
+
+    /**
+     * A user id derived from the source directory, so a resumed run credits the rest of the files
+     * to the same user as the first run.
+     */
+    static String defaultUserId(Path sourceDirectory) {
+        String key = sourceDirectory.toAbsolutePath().normalize().toString();
+        return "ingest-" + UUID.nameUUIDFromBytes(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static List<Path> findWavFiles(Path root) throws IOException {
+        List<Path> files = new ArrayList<>();
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile() && file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".wav")) {
+                    files.add(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        files.sort(null);
+        return files;
+    }
+}
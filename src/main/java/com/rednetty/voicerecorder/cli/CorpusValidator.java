@@ -0,0 +1,518 @@
+package com.rednetty.voicerecorder.cli;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.rednetty.voicerecorder.audio.AudioStats;
+import com.rednetty.voicerecorder.audio.FlacDecoder;
+import com.rednetty.voicerecorder.audio.FlacEncoder;
+import com.rednetty.voicerecorder.audio.LogMelFeatureFile;
+import com.rednetty.voicerecorder.audio.WavHeader;
+import com.rednetty.voicerecorder.model.RecordingMetadata;
+import com.rednetty.voicerecorder.util.DataManager;
+import com.rednetty.voicerecorder.util.RecordingQueryIndex;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Walks the recordings corpus in parallel and checks that every recording directory holds a
+ * readable WAV or FLAC file matching the audio properties in its metadata.json, that the audio is not silent,
+ * and that the directory agrees with the global index. Orphaned files in {@code temp/} and
+ * directories without metadata are moved to {@code quarantine/}, but only while the corpus lock
+ * can be taken; if a recorder holds it they may belong to a take being saved and are only
+ * reported. A JSON report is written to {@code validation_report.json}.
+ *
+ * Usage: {@code CorpusValidator [recordings-dir] [--threads N] [--dry-run] [--min-orphan-age-minutes M]}
+ */
+public class CorpusValidator {
+    private static final String REPORT_FILE = "validation_report.json";
+    private static final String QUARANTINE_DIR = "quarantine";
+    private static final String TEMP_DIR = "temp";
+    // Directories validated by one fork-join leaf task
+    private static final int LEAF_SIZE = 64;
+    // Peak 16-bit amplitude below which a take is considered silent (about -54 dBFS)
+    private static final int SILENCE_PEAK_THRESHOLD = 64;
+    // Audio data is mapped in windows of this many bytes, since one mapping cannot exceed 2 GB
+    private static final long MAP_WINDOW_SIZE = 64L * 1024 * 1024;
+
+    private final Path corpusDirectory;
+    private final int parallelism;
+    private final boolean dryRun;
+    private final long minOrphanAgeMillis;
+    private final Gson gson;
+
+    public CorpusValidator(Path corpusDirectory, int parallelism, boolean dryRun, long minOrphanAgeMillis) {
+        this.corpusDirectory = corpusDirectory;
+        this.parallelism = parallelism;
+        this.dryRun = dryRun;
+        this.minOrphanAgeMillis = minOrphanAgeMillis;
+        this.gson = new GsonBuilder().setPrettyPrinting().create();
+    }
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+
+        String directory = "recordings";
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean dryRun = false;
+        long minOrphanAgeMinutes = 10;
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if ("--threads".equals(arg) && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else if ("--dry-run".equals(arg)) {
+                dryRun = true;
+            } else if ("--min-orphan-age-minutes".equals(arg) && i + 1 < args.length) {
+                minOrphanAgeMinutes = Long.parseLong(args[++i]);
+            } else if (!arg.startsWith("--")) {
+                directory = arg;
+            } else {
+                System.err.println("Usage: CorpusValidator [recordings-dir] [--threads N] [--dry-run]"
+                        + " [--min-orphan-age-minutes M]");
+                System.exit(2);
+            }
+        }
+
+        CorpusValidator validator = new CorpusValidator(Paths.get(directory), Math.max(1, threads), dryRun,
+                minOrphanAgeMinutes * 60_000L);
+        try {
+            Report report = validator.run();
+            System.exit(report.issues.isEmpty() ? 0 : 1);
+        } catch (IOException e) {
+            System.err.println("Validation failed: " + e.getMessage());
+            e.printStackTrace();
+            System.exit(2);
+        }
+    }
+
+    public Report run() throws IOException {
+        long startNanos = System.nanoTime();
+
+        // Recording ids known to the global index
+        DataManager dataManager = new DataManager(corpusDirectory.toString());
+        dataManager.loadGlobalMetadata();
+        if (!dataManager.isIndexLoaded()) {
+            throw new IOException("Could not read the recordings index in " + corpusDirectory);
+        }
+        Set<String> indexedIds = new HashSet<>();
+        dataManager.forEachRecording(view -> indexedIds.add(view.getRecordingId()));
+
+        // Flat or sharded, whichever layout the corpus uses
+        List<File> recordingDirs = dataManager.getStoreLayout().listRecordingDirectories();
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        Report report;
+        try {
+            report = pool.invoke(new ValidateTask(recordingDirs, 0, recordingDirs.size()));
+        } finally {
+            pool.shutdown();
+        }
+
+        // Cross-check against the index
+        Set<String> onDisk = new HashSet<>();
+        for (File dir : recordingDirs) {
+            onDisk.add(dir.getName());
+        }
+        for (String id : indexedIds) {
+            if (!onDisk.contains(id)) {
+                report.addIssue(id, "indexed but missing on disk");
+            }
+        }
+        Set<String> orphanIds = new HashSet<>();
+        for (String orphan : report.orphanDirectories) {
+            orphanIds.add(Paths.get(orphan).getFileName().toString());
+        }
+        for (String id : onDisk) {
+            if (!indexedIds.contains(id) && !orphanIds.contains(id)) {
+                report.addIssue(id, "not in global index");
+            }
+        }
+        report.indexedRecordings = indexedIds.size();
+
+        // Corpus composition, from the secondary indexes
+        RecordingQueryIndex queryIndex = dataManager.getQueryIndex();
+        report.users = queryIndex.getUserIds().size();
+        report.recordingsByCategory = queryIndex.getCategoryCounts();
+        report.recordingsBySpeechType = queryIndex.getSpeechTypeCounts();
+
+        quarantineOrphans(report);
+
+        report.elapsedSeconds = (System.nanoTime() - startNanos) / 1e9;
+        try (Writer writer = Files.newBufferedWriter(corpusDirectory.resolve(REPORT_FILE), StandardCharsets.UTF_8)) {
+            gson.toJson(report, writer);
+        }
+
+        System.out.println(String.format(Locale.ROOT,
+                "Validated %d recordings (%.1f MB) in %.1fs: %d issues, %d files quarantined%s",
+                report.recordingsChecked, report.bytesChecked / (1024.0 * 1024.0), report.elapsedSeconds,
+                report.issues.size(), report.quarantined.size(), dryRun ? " (dry run)" : ""));
+        if (!report.orphansNotMoved.isEmpty()) {
+            System.out.println("Corpus in use by a recorder: " + report.orphansNotMoved.size()
+                    + " orphans reported but not moved");
+        }
+        System.out.println("Index: " + report.indexedRecordings + " recordings by " + report.users
+                + " users, by speech type " + report.recordingsBySpeechType);
+        return report;
+    }
+
+    /**
+     * Fork-join task validating a slice of recording directories.
+     */
+    private class ValidateTask extends RecursiveTask<Report> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<File> dirs;
+        private final int from;
+        private final int to;
+
+        ValidateTask(List<File> dirs, int from, int to) {
+            this.dirs = dirs;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Report compute() {
+            if (to - from <= LEAF_SIZE) {
+                Report report = new Report();
+                for (int i = from; i < to; i++) {
+                    validateRecording(dirs.get(i), report);
+                }
+                return report;
+            }
+
+            int middle = (from + to) >>> 1;
+            ValidateTask left = new ValidateTask(dirs, from, middle);
+            left.fork();
+            Report right = new ValidateTask(dirs, middle, to).compute();
+            return left.join().merge(right);
+        }
+    }
+
+    private void validateRecording(File dir, Report report) {
+        String id = dir.getName();
+        File metadataFile = new File(dir, "metadata.json");
+        if (!metadataFile.isFile()) {
+            report.orphanDirectories.add(corpusDirectory.relativize(dir.toPath()).toString());
+            return;
+        }
+
+        RecordingMetadata metadata;
+        try (Reader reader = Files.newBufferedReader(metadataFile.toPath(), StandardCharsets.UTF_8)) {
+            metadata = gson.fromJson(reader, RecordingMetadata.class);
+        } catch (IOException | JsonParseException e) {
+            report.addIssue(id, "unreadable metadata.json: " + e.getMessage());
+            return;
+        }
+        if (metadata == null) {
+            report.addIssue(id, "empty metadata.json");
+            return;
+        }
+        if (!id.equals(metadata.getRecordingId())) {
+            report.addIssue(id, "metadata recordingId is " + metadata.getRecordingId());
+        }
+
+        File wavFile = metadata.getRecordingFile() != null ? new File(dir, metadata.getRecordingFile()) : null;
+        if (wavFile == null || !wavFile.isFile()) {
+            report.addIssue(id, "audio file missing: " + metadata.getRecordingFile());
+            return;
+        }
+        if (metadata.getFeatureFile() != null) {
+            try {
+                LogMelFeatureFile.read(new File(dir, metadata.getFeatureFile()));
+            } catch (IOException e) {
+                report.addIssue(id, "bad feature file " + metadata.getFeatureFile() + ": " + e.getMessage());
+            }
+        }
+
+        report.recordingsChecked++;
+        report.bytesChecked += wavFile.length();
+        if (wavFile.getName().toLowerCase(Locale.ROOT).endsWith(FlacEncoder.FILE_EXTENSION)) {
+            checkFlac(id, metadata, wavFile, report);
+            return;
+        }
+        try {
+            checkAudio(id, metadata, wavFile, report);
+        } catch (IOException e) {
+            report.addIssue(id, "unreadable WAV: " + e.getMessage());
+        }
+    }
+
+    private void checkAudio(String id, RecordingMetadata metadata, File wavFile, Report report) throws IOException {
+        WavHeader header;
+        try {
+            header = WavHeader.read(wavFile.toPath());
+        } catch (IOException e) {
+            report.addIssue(id, "invalid WAV header: " + e.getMessage());
+            return;
+        }
+
+        if (!header.isPcm()) {
+            report.addIssue(id, "not PCM (format " + header.getFormatCode() + ")");
+            return;
+        }
+        if (header.getAvailableDataLength() < header.getDataLength()) {
+            report.addIssue(id, "truncated: header declares " + header.getDataLength() + " bytes, file holds "
+                    + header.getAvailableDataLength());
+        }
+        if (header.getAvailableDataLength() == 0) {
+            report.addIssue(id, "no audio data");
+            return;
+        }
+
+        Map<String, Object> properties = metadata.getAudioProperties();
+        checkProperty(id, properties, "sampleRate", header.getSampleRate(), report);
+        checkProperty(id, properties, "bitsPerSample", header.getBitsPerSample(), report);
+        checkProperty(id, properties, "channels", header.getChannels(), report);
+
+        if (header.getBitsPerSample() == 16 && isSilent(wavFile, header)) {
+            report.addIssue(id, "silent (peak below " + SILENCE_PEAK_THRESHOLD + ")");
+        }
+    }
+
+    /**
+     * Decodes a FLAC take to the end, which checks every frame CRC and the MD5 signature of the
+     * samples, and applies the same property and silence checks as for WAV files.
+     */
+    private void checkFlac(String id, RecordingMetadata metadata, File flacFile, Report report) {
+        try (FlacDecoder decoder = new FlacDecoder(new FileInputStream(flacFile))) {
+            AudioFormat format = decoder.getFormat();
+            if (decoder.getTotalSamples() == 0) {
+                report.addIssue(id, "no audio data");
+                return;
+            }
+
+            Map<String, Object> properties = metadata.getAudioProperties();
+            checkProperty(id, properties, "sampleRate", (int) format.getSampleRate(), report);
+            checkProperty(id, properties, "bitsPerSample", format.getSampleSizeInBits(), report);
+            checkProperty(id, properties, "channels", format.getChannels(), report);
+
+            boolean sixteenBit = format.getSampleSizeInBits() == 16;
+            AudioStats stats = new AudioStats();
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = decoder.read(buffer, 0, buffer.length)) > 0) {
+                if (sixteenBit) {
+                    stats.accumulate(buffer, 0, read);
+                }
+            }
+            if (sixteenBit && stats.getPeak() < SILENCE_PEAK_THRESHOLD) {
+                report.addIssue(id, "silent (peak below " + SILENCE_PEAK_THRESHOLD + ")");
+            }
+        } catch (IOException e) {
+            report.addIssue(id, "corrupt FLAC: " + e.getMessage());
+        }
+    }
+
+    private static void checkProperty(String id, Map<String, Object> properties, String key, int actual,
+                                      Report report) {
+        Object expected = properties != null ? properties.get(key) : null;
+        if (!(expected instanceof Number)) {
+            report.addIssue(id, "metadata has no " + key);
+        } else if (((Number) expected).intValue() != actual) {
+            report.addIssue(id, key + " is " + actual + " but metadata says " + expected);
+        }
+    }
+
+    /**
+     * Scans the 16-bit samples one mapped window at a time, stopping as soon as one is loud enough.
+     */
+    private static boolean isSilent(File wavFile, WavHeader header) throws IOException {
+        long position = header.getDataOffset();
+        long end = position + (header.getAvailableDataLength() & ~1L);
+        try (FileChannel channel = FileChannel.open(wavFile.toPath(), StandardOpenOption.READ)) {
+            while (position < end) {
+                long length = Math.min(MAP_WINDOW_SIZE, end - position);
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                try {
+                    ShortBuffer samples = mapped.order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+                    while (samples.hasRemaining()) {
+                        int sample = samples.get();
+                        if (sample >= SILENCE_PEAK_THRESHOLD || sample <= -SILENCE_PEAK_THRESHOLD) {
+                            return false;
+                        }
+                    }
+                } finally {
+                    unmap(mapped);
+                }
+                position += length;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Moves stale files from temp/ and directories without metadata into quarantine/, holding the
+     * corpus lock so no take is being stored meanwhile. A recording directory gets its audio before
+     * its metadata.json, so without the lock a take mid-commit would look like an orphan.
+     */
+    private void quarantineOrphans(Report report) throws IOException {
+        List<File> orphans = new ArrayList<>();
+        File[] tempFiles = corpusDirectory.resolve(TEMP_DIR).toFile().listFiles();
+        long cutoff = System.currentTimeMillis() - minOrphanAgeMillis;
+        if (tempFiles != null) {
+            for (File file : tempFiles) {
+                // Recent files may belong to a take that is still being saved
+                if (file.lastModified() < cutoff) {
+                    orphans.add(file);
+                }
+            }
+        }
+        for (String relativePath : report.orphanDirectories) {
+            orphans.add(corpusDirectory.resolve(relativePath).toFile());
+        }
+
+        if (orphans.isEmpty()) {
+            return;
+        }
+        if (dryRun) {
+            for (File orphan : orphans) {
+                report.quarantined.add(corpusDirectory.relativize(orphan.toPath()).toString());
+            }
+            return;
+        }
+
+        try (FileChannel lockChannel = FileChannel.open(corpusDirectory.resolve(DataManager.LOCK_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            FileLock lock;
+            try {
+                lock = lockChannel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                lock = null;
+            }
+            if (lock == null) {
+                for (File orphan : orphans) {
+                    report.orphansNotMoved.add(corpusDirectory.relativize(orphan.toPath()).toString());
+                }
+                return;
+            }
+
+            Path target = corpusDirectory.resolve(QUARANTINE_DIR)
+                    .resolve(new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.ROOT).format(new Date()));
+            for (File orphan : orphans) {
+                // A take that was being stored when the scan saw it may have been completed since
+                boolean stillOrphaned = orphan.getParentFile().getName().equals(TEMP_DIR)
+                        ? orphan.exists() && orphan.lastModified() < cutoff
+                        : orphan.isDirectory() && !new File(orphan, "metadata.json").isFile();
+                if (!stillOrphaned) {
+                    continue;
+                }
+                report.quarantined.add(corpusDirectory.relativize(orphan.toPath()).toString());
+                Files.createDirectories(target);
+                Files.move(orphan.toPath(), target.resolve(orphan.getName()));
+            }
+            // Released when the channel closes
+        }
+    }
+
+    /**
+     * Releases a mapping right away instead of waiting for garbage collection, so scanning
+     * a large corpus does not run into the per-process mapping limit.
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            // Java 9+
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            invokeCleaner.invoke(theUnsafe.get(null), buffer);
+        } catch (NoSuchMethodException e) {
+            try {
+                // Java 8
+                Method cleaner = buffer.getClass().getMethod("cleaner");
+                cleaner.setAccessible(true);
+                Object clean = cleaner.invoke(buffer);
+                if (clean != null) {
+                    clean.getClass().getMethod("clean").invoke(clean);
+                }
+            } catch (ReflectiveOperationException | RuntimeException ignored) {
+                // Left to the garbage collector
+            }
+        } catch (ReflectiveOperationException | RuntimeException ignored) {
+            // Left to the garbage collector
+        }
+    }
+
+    /**
+     * Validation results; partial reports from fork-join tasks are merged.
+     */
+    public static class Report {
+        int recordingsChecked;
+        long bytesChecked;
+        int indexedRecordings;
+        int users;
+        Map<String, Integer> recordingsByCategory;
+        Map<String, Integer> recordingsBySpeechType;
+        double elapsedSeconds;
+        final Map<String, List<String>> issues = new LinkedHashMap<>();
+        final List<String> orphanDirectories = new ArrayList<>();
+        final List<String> quarantined = new ArrayList<>();
+        // Orphans left in place because a recorder held the corpus lock
+        final List<String> orphansNotMoved = new ArrayList<>();
+
+        void addIssue(String recordingId, String issue) {
+            List<String> list = issues.get(recordingId);
+            if (list == null) {
+                list = new ArrayList<>();
+                issues.put(recordingId, list);
+            }
+            list.add(issue);
+        }
+
+        Report merge(Report other) {
+            recordingsChecked += other.recordingsChecked;
+            bytesChecked += other.bytesChecked;
+            for (Map.Entry<String, List<String>> entry : other.issues.entrySet()) {
+                for (String issue : entry.getValue()) {
+                    addIssue(entry.getKey(), issue);
+                }
+            }
+            orphanDirectories.addAll(other.orphanDirectories);
+            return this;
+        }
+
+        public int getRecordingsChecked() {
+            return recordingsChecked;
+        }
+
+        public Map<String, List<String>> getIssues() {
+            return issues;
+        }
+
+        public List<String> getQuarantined() {
+            return quarantined;
+        }
+    }
+}
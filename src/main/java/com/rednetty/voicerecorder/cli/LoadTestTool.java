@@ -0,0 +1,298 @@
+package com.rednetty.voicerecorder.cli;
+
+import com.rednetty.voicerecorder.audio.AudioRecorder;
+import com.rednetty.voicerecorder.audio.AudioSource;
+import com.rednetty.voicerecorder.audio.FileAudioSource;
+import com.rednetty.voicerecorder.audio.FlacEncoder;
+import com.rednetty.voicerecorder.audio.SyntheticAudioSource;
+import com.rednetty.voicerecorder.metrics.MetricsRegistry;
+import com.rednetty.voicerecorder.metrics.MetricsReporter;
+import com.rednetty.voicerecorder.model.Phrase;
+import com.rednetty.voicerecorder.model.RecordingMetadata;
+import com.rednetty.voicerecorder.util.DataManager;
+
+import javax.sound.sampled.LineUnavailableException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Headless load driver for the capture, save and persistence pipeline. Each station records
+ * takes from a synthetic or file-replay source through its own {@link AudioRecorder} and hands
+ * them to the DataManager exactly as the recording panel does, so throughput regressions in any
+ * stage show up without a microphone or a display.
+ *
+ * Usage: {@code LoadTestTool [--output load-test] [--phrases phrases.json] [--takes N] [--stations N]
+ * [--duration-ms MS] [--speed X] [--replay DIR] [--flac] [--features]}
+ *
+ * A speed of 0 (the default) runs the sources as fast as the pipeline accepts audio; 1 is real time.
+ */
+public class LoadTestTool {
+    private static final long REPORT_INTERVAL_SECONDS = 5;
+    private static final long SOURCE_TIMEOUT_MS = 60_000;
+
+    private final String outputDirectory;
+    private final String phrasesFile;
+    private final int takes;
+    private final int stations;
+    private final long durationMillis;
+    private final double speed;
+    private final File replayDirectory;
+
+    private final AtomicInteger nextTake = new AtomicInteger();
+    private final AtomicLong takesRecorded = new AtomicLong();
+    private final AtomicLong takesPersisted = new AtomicLong();
+    private final AtomicLong takesFailed = new AtomicLong();
+    private final AtomicLong bytesRecorded = new AtomicLong();
+    private final AtomicLong persistNanos = new AtomicLong();
+
+    private boolean compressAudio;
+    private boolean extractFeatures;
+    private DataManager dataManager;
+    private List<Phrase> phrases;
+
+    public LoadTestTool(String outputDirectory, String phrasesFile, int takes, int stations,
+                        long durationMillis, double speed, File replayDirectory) {
+        this.outputDirectory = outputDirectory;
+        this.phrasesFile = phrasesFile;
+        this.takes = takes;
+        this.stations = stations;
+        this.durationMillis = durationMillis;
+        this.speed = speed;
+        this.replayDirectory = replayDirectory;
+    }
+
+    /**
+     * Stores takes as FLAC, adding the encoding pool to the measured pipeline.
+     */
+    public void setCompressAudio(boolean compressAudio) {
+        this.compressAudio = compressAudio;
+    }
+
+    /**
+     * Computes log-mel features during every take, adding the feature stage to the measured pipeline.
+     */
+    public void setExtractFeatures(boolean extractFeatures) {
+        this.extractFeatures = extractFeatures;
+    }
+
+    public static void main(String[] args) {
+        // Never touch the display or audio devices
+        System.setProperty("java.awt.headless", "true");
+
+        String output = "load-test";
+        String phrases = "phrases.json";
+        int takes = 1000;
+        int stations = 1;
+        long durationMillis = 2000;
+        double speed = 0;
+        File replay = null;
+        boolean flac = false;
+        boolean features = false;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if ("--output".equals(arg)) {
+                    output = args[++i];
+                } else if ("--phrases".equals(arg)) {
+                    phrases = args[++i];
+                } else if ("--takes".equals(arg)) {
+                    takes = Integer.parseInt(args[++i]);
+                } else if ("--stations".equals(arg)) {
+                    stations = Integer.parseInt(args[++i]);
+                } else if ("--duration-ms".equals(arg)) {
+                    durationMillis = Long.parseLong(args[++i]);
+                } else if ("--speed".equals(arg)) {
+                    speed = Double.parseDouble(args[++i]);
+                } else if ("--replay".equals(arg)) {
+                    replay = new File(args[++i]);
+                } else if ("--flac".equals(arg)) {
+                    flac = true;
+                } else if ("--features".equals(arg)) {
+                    features = true;
+                } else {
+                    throw new IllegalArgumentException("Unknown argument: " + arg);
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+            System.err.println(e.getMessage() != null ? e.getMessage() : "Missing argument value");
+            System.err.println("Usage: LoadTestTool [--output load-test] [--phrases phrases.json] [--takes N]"
+                    + " [--stations N] [--duration-ms MS] [--speed X] [--replay DIR] [--flac] [--features]");
+            System.exit(2);
+        }
+
+        LoadTestTool tool = new LoadTestTool(output, phrases, Math.max(1, takes), Math.max(1, stations),
+                durationMillis, speed, replay);
+        tool.setCompressAudio(flac);
+        tool.setExtractFeatures(features);
+        try {
+            tool.run();
+        } catch (IOException e) {
+            System.err.println("Load test failed: " + e.getMessage());
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    public void run() throws IOException {
+        dataManager = new DataManager(outputDirectory);
+        dataManager.setCompressAudio(compressAudio);
+        // Fail before doing any work if another recorder owns the corpus
+        dataManager.lockCorpus();
+        dataManager.loadGlobalMetadata();
+        if (!dataManager.isIndexLoaded()) {
+            throw new IOException("Could not read the recordings index in " + outputDirectory);
+        }
+        phrases = dataManager.loadPhrases(phrasesFile);
+        List<File> replayFiles = findReplayFiles();
+
+        System.out.println("Recording " + takes + " takes on " + stations + " stations from "
+                + (replayFiles != null ? replayFiles.size() + " replayed files" : "a synthetic source")
+                + (speed > 0 ? " at " + speed + "x real time" : " unthrottled"));
+
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+        long startNanos = System.nanoTime();
+        reporter.scheduleAtFixedRate(() -> report(startNanos, false),
+                REPORT_INTERVAL_SECONDS, REPORT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        // Per-stage latencies and lost frames, alongside the throughput reported here
+        MetricsReporter metricsReporter = new MetricsReporter(MetricsRegistry.getDefault(),
+                Paths.get(outputDirectory, MetricsReporter.METRICS_FILE), REPORT_INTERVAL_SECONDS);
+        metricsReporter.start();
+
+        CountDownLatch finished = new CountDownLatch(stations);
+        for (int i = 0; i < stations; i++) {
+            AudioSource source = replayFiles != null
+                    ? new FileAudioSource(replayFiles, speed)
+                    : new SyntheticAudioSource(durationMillis, speed, 220.0 + 20 * i, 0.3, 1 + i * 1_000_000L);
+            Thread station = new Thread(() -> {
+                AudioRecorder recorder = new AudioRecorder(source);
+                recorder.setExtractFeatures(extractFeatures);
+                try {
+                    runStation(recorder);
+                } finally {
+                    recorder.close();
+                    finished.countDown();
+                }
+            }, "load-station-" + i);
+            station.start();
+        }
+
+        try {
+            finished.await();
+            dataManager.shutdown();
+            dataManager.saveGlobalMetadata(dataManager.getRecordingsMetadata());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            reporter.shutdownNow();
+            metricsReporter.close();
+        }
+
+        report(startNanos, true);
+        System.out.println("Stage metrics written to " + Paths.get(outputDirectory, MetricsReporter.METRICS_FILE));
+    }
+
+    /**
+     * Records takes until the shared take budget is used up, following the recording panel's steps:
+     * capture to the temporary path, save, build metadata and queue it for persistence.
+     */
+    private void runStation(AudioRecorder recorder) {
+        int take;
+        while ((take = nextTake.getAndIncrement()) < takes) {
+            Phrase phrase = phrases.get(take % phrases.size());
+            String recordingId = UUID.randomUUID().toString();
+            String filePath = dataManager.createRecordingPath(recordingId);
+
+            try {
+                recorder.startRecording(new File(filePath));
+                if (!recorder.awaitEndOfSource(SOURCE_TIMEOUT_MS)) {
+                    System.err.println("Source did not finish within " + SOURCE_TIMEOUT_MS + " ms");
+                }
+                recorder.stopRecording();
+
+                if (!recorder.saveRecording(filePath)) {
+                    takesFailed.incrementAndGet();
+                    continue;
+                }
+                takesRecorded.incrementAndGet();
+                bytesRecorded.addAndGet(new File(filePath).length());
+
+                RecordingMetadata metadata = new RecordingMetadata(
+                        "load-test",
+                        phrase.getId(),
+                        phrase.getText(),
+                        phrase.getCategory(),
+                        recordingId + ".wav",
+                        new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.ROOT).format(new Date()),
+                        "clear",
+                        null,
+                        "load-test"
+                );
+                metadata.setRecordingId(recordingId);
+                metadata.addAudioProperty("sampleRate", AudioRecorder.getSampleRate());
+                metadata.addAudioProperty("bitsPerSample", AudioRecorder.getSampleSizeInBits());
+                metadata.addAudioProperty("channels", AudioRecorder.getChannels());
+                metadata.addAudioProperty("captureOverruns", recorder.getWriterOverruns());
+                metadata.getAudioProperties().putAll(recorder.getLastTakeStats().toAudioProperties());
+                metadata.getAudioProperties().putAll(recorder.getLastTakeVoiceActivity());
+
+                long queuedNanos = System.nanoTime();
+                dataManager.addRecordingWithMetadataAsync(metadata, filePath).whenComplete((saved, error) -> {
+                    if (error != null) {
+                        System.err.println("Error persisting take: " + error.getMessage());
+                        takesFailed.incrementAndGet();
+                    } else {
+                        persistNanos.addAndGet(System.nanoTime() - queuedNanos);
+                        takesPersisted.incrementAndGet();
+                    }
+                });
+            } catch (LineUnavailableException | IOException e) {
+                System.err.println("Error recording take: " + e.getMessage());
+                takesFailed.incrementAndGet();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private List<File> findReplayFiles() throws IOException {
+        if (replayDirectory == null) {
+            return null;
+        }
+        File[] files = replayDirectory.listFiles((dir, name) -> {
+            String lower = name.toLowerCase(Locale.ROOT);
+            return lower.endsWith(".wav") || lower.endsWith(FlacEncoder.FILE_EXTENSION);
+        });
+        if (files == null || files.length == 0) {
+            throw new IOException("No WAV or FLAC files to replay in " + replayDirectory);
+        }
+        Arrays.sort(files);
+        return new ArrayList<>(Arrays.asList(files));
+    }
+
+    private void report(long startNanos, boolean done) {
+        double seconds = Math.max(1e-9, (System.nanoTime() - startNanos) / 1e9);
+        long recorded = takesRecorded.get();
+        long persisted = takesPersisted.get();
+        double meanPersistMillis = persisted > 0 ? persistNanos.get() / 1e6 / persisted : 0;
+        System.out.println(String.format(Locale.ROOT,
+                "%s %d recorded, %d persisted, %d failed in %.1fs (%.0f takes/min, %.2f MB/s, %.1f ms mean persist)",
+                done ? "Done:" : "Progress:", recorded, persisted, takesFailed.get(), seconds,
+                recorded * 60 / seconds, bytesRecorded.get() / (1024.0 * 1024.0) / seconds, meanPersistMillis));
+    }
+}
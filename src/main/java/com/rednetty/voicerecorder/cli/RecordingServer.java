@@ -0,0 +1,358 @@
+package com.rednetty.voicerecorder.cli;
+
+import com.rednetty.voicerecorder.audio.AudioRecorder;
+import com.rednetty.voicerecorder.audio.AudioSource;
+import com.rednetty.voicerecorder.audio.FileAudioSource;
+import com.rednetty.voicerecorder.audio.FlacEncoder;
+import com.rednetty.voicerecorder.audio.LineAudioSource;
+import com.rednetty.voicerecorder.audio.SyntheticAudioSource;
+import com.rednetty.voicerecorder.metrics.MetricsRegistry;
+import com.rednetty.voicerecorder.metrics.MetricsReporter;
+import com.rednetty.voicerecorder.model.Phrase;
+import com.rednetty.voicerecorder.util.DataManager;
+import com.rednetty.voicerecorder.util.PhraseScheduler;
+
+import javax.sound.sampled.Mixer;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives several recording booths from one process. Each station runs a continuous session on
+ * its own mixer (or a simulated source) with its own capture thread, and all of them share one
+ * DataManager, whose single persistence writer commits their takes to the index in groups. The
+ * corpus is locked, so a second recorder cannot write to the same index.
+ *
+ * Usage: {@code RecordingServer [--output recordings] [--phrases phrases.json] [--duration-s N]
+ * [--speed X] [--flac] [--features] [--list-mixers] --station SPEC [--station SPEC]...}
+ *
+ * A station is {@code SOURCE[,name=NAME][,user=ID][,speech-type=TYPE]}, where the source is
+ * {@code default} (the default input), {@code mixer:NAME} (the first input mixer whose name
+ * contains NAME), {@code synthetic} or {@code replay:DIR}. Simulated sources play at {@code --speed}
+ * times real time, 0 for unthrottled. The server runs until every speaker has recorded every
+ * phrase, {@code --duration-s} elapses, or it is interrupted.
+ */
+public class RecordingServer {
+    private static final long REPORT_INTERVAL_SECONDS = 5;
+    private static final long SYNTHETIC_TAKE_MILLIS = 2000;
+
+    private final String outputDirectory;
+    private final String phrasesFile;
+    private final List<StationSpec> specs;
+    private final long durationMillis;
+
+    private boolean compressAudio;
+    private boolean extractFeatures;
+    private DataManager dataManager;
+    private final List<PhraseScheduler> schedulers = new ArrayList<>();
+    private final List<RecordingStation> stations = new ArrayList<>();
+    private MetricsReporter metricsReporter;
+    private ScheduledExecutorService reporter;
+    private long startNanos;
+    private boolean started;
+    private boolean stopped;
+
+    public RecordingServer(String outputDirectory, String phrasesFile, List<StationSpec> specs, long durationMillis) {
+        this.outputDirectory = outputDirectory;
+        this.phrasesFile = phrasesFile;
+        this.specs = specs;
+        this.durationMillis = durationMillis;
+    }
+
+    /**
+     * Stores takes as FLAC; encoding runs on the shared encoding pool.
+     */
+    public void setCompressAudio(boolean compressAudio) {
+        this.compressAudio = compressAudio;
+    }
+
+    /**
+     * Computes log-mel features for every utterance and stores them next to its audio.
+     */
+    public void setExtractFeatures(boolean extractFeatures) {
+        this.extractFeatures = extractFeatures;
+    }
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+
+        String output = "recordings";
+        String phrases = "phrases.json";
+        long durationSeconds = 0;
+        double speed = 1;
+        boolean flac = false;
+        boolean features = false;
+        List<String> stationArgs = new ArrayList<>();
+        List<StationSpec> specs = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if ("--output".equals(arg)) {
+                    output = args[++i];
+                } else if ("--phrases".equals(arg)) {
+                    phrases = args[++i];
+                } else if ("--duration-s".equals(arg)) {
+                    durationSeconds = Long.parseLong(args[++i]);
+                } else if ("--speed".equals(arg)) {
+                    speed = Double.parseDouble(args[++i]);
+                } else if ("--flac".equals(arg)) {
+                    flac = true;
+                } else if ("--features".equals(arg)) {
+                    features = true;
+                } else if ("--station".equals(arg)) {
+                    stationArgs.add(args[++i]);
+                } else if ("--list-mixers".equals(arg)) {
+                    listMixers();
+                    return;
+                } else {
+                    throw new IllegalArgumentException("Unknown argument: " + arg);
+                }
+            }
+            if (stationArgs.isEmpty()) {
+                throw new IllegalArgumentException("At least one --station is required");
+            }
+            for (int i = 0; i < stationArgs.size(); i++) {
+                specs.add(StationSpec.parse(stationArgs.get(i), i, speed));
+            }
+        } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+            System.err.println(e.getMessage() != null ? e.getMessage() : "Missing argument value");
+            System.err.println("Usage: RecordingServer [--output recordings] [--phrases phrases.json] [--duration-s N]"
+                    + " [--speed X] [--flac] [--features] [--list-mixers] --station SPEC [--station SPEC]...");
+            System.err.println("  SPEC: default|mixer:NAME|synthetic|replay:DIR[,name=NAME][,user=ID][,speech-type=TYPE]");
+            System.exit(2);
+        }
+
+        RecordingServer server = new RecordingServer(output, phrases, specs, durationSeconds * 1000);
+        server.setCompressAudio(flac);
+        server.setExtractFeatures(features);
+        try {
+            server.run();
+        } catch (IOException e) {
+            System.err.println("Recording server failed: " + e.getMessage());
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Starts every station and waits until they finish or the duration has elapsed, then stops.
+     * Once the corpus is locked and its index loaded, a shutdown hook stops the server on Ctrl-C.
+     *
+     * @throws IOException if the corpus is in use by another recorder or its index cannot be read;
+     *                     nothing is written then
+     */
+    public void run() throws IOException {
+        DataManager manager = new DataManager(outputDirectory);
+        manager.setCompressAudio(compressAudio);
+        manager.lockCorpus();
+        manager.loadGlobalMetadata();
+        if (!manager.isIndexLoaded()) {
+            throw new IOException("Could not read the recordings index in " + outputDirectory);
+        }
+        List<Phrase> phrases = manager.loadPhrases(phrasesFile);
+
+        synchronized (this) {
+            if (stopped) {
+                return;
+            }
+            dataManager = manager;
+            for (StationSpec spec : specs) {
+                // Each speaker gets their own queue; all schedulers follow every commit
+                PhraseScheduler scheduler = PhraseScheduler.open(dataManager, phrases);
+                schedulers.add(scheduler);
+                RecordingStation station = new RecordingStation(spec.name, spec.source, spec.deviceInfo, dataManager,
+                        scheduler, spec.userId, spec.speechType);
+                station.setExtractFeatures(extractFeatures);
+                stations.add(station);
+            }
+
+            metricsReporter = new MetricsReporter(MetricsRegistry.getDefault(),
+                    Paths.get(outputDirectory, MetricsReporter.METRICS_FILE), REPORT_INTERVAL_SECONDS);
+            metricsReporter.start();
+            reporter = Executors.newSingleThreadScheduledExecutor();
+            startNanos = System.nanoTime();
+            reporter.scheduleAtFixedRate(() -> report(false),
+                    REPORT_INTERVAL_SECONDS, REPORT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+
+            for (RecordingStation station : stations) {
+                station.start();
+            }
+            started = true;
+            Runtime.getRuntime().addShutdownHook(new Thread(this::stop, "recording-server-shutdown"));
+        }
+        System.out.println("Recording on " + stations.size() + " stations into " + outputDirectory);
+
+        try {
+            long deadline = durationMillis > 0 ? System.currentTimeMillis() + durationMillis : Long.MAX_VALUE;
+            while (anyStationAlive() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(200);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        stop();
+    }
+
+    /**
+     * Ends every session and drains the shared pipeline: takes are persisted, the index is
+     * compacted and the phrase schedule saved. Safe to call more than once; before {@link #run()}
+     * has started the stations it only keeps them from starting.
+     */
+    public synchronized void stop() {
+        if (stopped) {
+            return;
+        }
+        stopped = true;
+        if (!started) {
+            return;
+        }
+        for (RecordingStation station : stations) {
+            try {
+                station.stop();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        dataManager.shutdown();
+        dataManager.saveGlobalMetadata(dataManager.getRecordingsMetadata());
+        if (!schedulers.isEmpty()) {
+            try {
+                // Every scheduler has seen the same commits
+                schedulers.get(0).save();
+            } catch (IOException e) {
+                System.err.println("Error saving phrase schedule: " + e.getMessage());
+            }
+        }
+        reporter.shutdownNow();
+        metricsReporter.close();
+        report(true);
+    }
+
+    private boolean anyStationAlive() {
+        for (RecordingStation station : stations) {
+            if (station.isAlive()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void report(boolean done) {
+        double seconds = Math.max(1e-9, (System.nanoTime() - startNanos) / 1e9);
+        long recorded = 0;
+        long persisted = 0;
+        long failed = 0;
+        StringBuilder perStation = new StringBuilder();
+        for (RecordingStation station : stations) {
+            recorded += station.getTakesRecorded();
+            persisted += station.getTakesPersisted();
+            failed += station.getTakesFailed();
+            perStation.append(perStation.length() == 0 ? "" : ", ")
+                    .append(station.getName()).append(' ').append(station.getTakesRecorded());
+        }
+        System.out.println(String.format(Locale.ROOT,
+                "%s %d recorded, %d persisted, %d failed in %.1fs (%.0f takes/min; %s)",
+                done ? "Done:" : "Progress:", recorded, persisted, failed, seconds,
+                recorded * 60 / seconds, perStation));
+    }
+
+    private static void listMixers() {
+        List<Mixer.Info> mixers = LineAudioSource.findCaptureMixers(AudioRecorder.getAudioFormat());
+        if (mixers.isEmpty()) {
+            System.out.println("No input mixers support " + AudioRecorder.getAudioFormat());
+        }
+        for (Mixer.Info info : mixers) {
+            System.out.println(info.getName() + " - " + info.getDescription());
+        }
+    }
+
+    /**
+     * One {@code --station} argument.
+     */
+    public static class StationSpec {
+        final String name;
+        final AudioSource source;
+        final String deviceInfo;
+        final String userId;
+        final String speechType;
+
+        StationSpec(String name, AudioSource source, String deviceInfo, String userId, String speechType) {
+            this.name = name;
+            this.source = source;
+            this.deviceInfo = deviceInfo;
+            this.userId = userId;
+            this.speechType = speechType;
+        }
+
+        /**
+         * @param index position of the station on the command line, for defaults and synthetic seeds
+         * @param speed playback speed of simulated sources
+         */
+        static StationSpec parse(String spec, int index, double speed) {
+            String[] parts = spec.split(",");
+            String name = "station-" + (index + 1);
+            String userId = null;
+            String speechType = "clear";
+            for (int i = 1; i < parts.length; i++) {
+                int equals = parts[i].indexOf('=');
+                String key = equals > 0 ? parts[i].substring(0, equals) : parts[i];
+                String value = equals > 0 ? parts[i].substring(equals + 1) : "";
+                if ("name".equals(key)) {
+                    name = value;
+                } else if ("user".equals(key)) {
+                    userId = value;
+                } else if ("speech-type".equals(key)) {
+                    speechType = value;
+                } else {
+                    throw new IllegalArgumentException("Unknown station option: " + parts[i]);
+                }
+            }
+
+            String source = parts[0];
+            String deviceInfo = System.getProperty("os.name") + " " + System.getProperty("os.version");
+            AudioSource audioSource;
+            if ("default".equals(source)) {
+                audioSource = new LineAudioSource();
+            } else if (source.startsWith("mixer:")) {
+                Mixer.Info mixer = LineAudioSource.findCaptureMixer(AudioRecorder.getAudioFormat(),
+                        source.substring("mixer:".length()));
+                if (mixer == null) {
+                    throw new IllegalArgumentException("No input mixer matches " + source
+                            + "; see --list-mixers");
+                }
+                audioSource = new LineAudioSource(mixer);
+                deviceInfo = mixer.getName() + " on " + deviceInfo;
+            } else if ("synthetic".equals(source)) {
+                audioSource = new SyntheticAudioSource(SYNTHETIC_TAKE_MILLIS, speed,
+                        220.0 + 20 * index, 0.3, 1 + index * 1_000_000L);
+                deviceInfo = "synthetic";
+            } else if (source.startsWith("replay:")) {
+                audioSource = new FileAudioSource(findReplayFiles(new File(source.substring("replay:".length()))), speed);
+                deviceInfo = "replay";
+            } else {
+                throw new IllegalArgumentException("Unknown station source: " + source);
+            }
+            return new StationSpec(name, audioSource, deviceInfo, userId != null ? userId : name, speechType);
+        }
+
+        private static List<File> findReplayFiles(File directory) {
+            File[] files = directory.listFiles((dir, name) -> {
+                String lower = name.toLowerCase(Locale.ROOT);
+                return lower.endsWith(".wav") || lower.endsWith(FlacEncoder.FILE_EXTENSION);
+            });
+            if (files == null || files.length == 0) {
+                throw new IllegalArgumentException("No WAV or FLAC files to replay in " + directory);
+            }
+            Arrays.sort(files);
+            return new ArrayList<>(Arrays.asList(files));
+        }
+    }
+}
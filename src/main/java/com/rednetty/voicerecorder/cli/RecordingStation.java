@@ -0,0 +1,174 @@
+package com.rednetty.voicerecorder.cli;
+
+import com.rednetty.voicerecorder.audio.AudioRecorder;
+import com.rednetty.voicerecorder.audio.AudioSource;
+import com.rednetty.voicerecorder.audio.LogMelFeatureFile;
+import com.rednetty.voicerecorder.model.Phrase;
+import com.rednetty.voicerecorder.model.RecordingMetadata;
+import com.rednetty.voicerecorder.util.DataManager;
+import com.rednetty.voicerecorder.util.PhraseScheduler;
+
+import javax.sound.sampled.LineUnavailableException;
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One booth of a {@link RecordingServer}: a continuous session on its own source and
+ * {@link AudioRecorder}, so it has its own capture and segmenter threads. Every utterance becomes
+ * a take of the phrase its scheduler picked for the station's speaker, handed to the shared
+ * DataManager. Finite sources (replayed files, synthetic takes) are reopened for the next
+ * session when they run out.
+ */
+class RecordingStation {
+    private static final long POLL_MILLIS = 500;
+
+    private final String name;
+    private final AudioRecorder recorder;
+    private final DataManager dataManager;
+    private final PhraseScheduler scheduler;
+    private final String userId;
+    private final String speechType;
+    private final String deviceInfo;
+
+    private final AtomicLong takesRecorded = new AtomicLong();
+    private final AtomicLong takesPersisted = new AtomicLong();
+    private final AtomicLong takesFailed = new AtomicLong();
+
+    private volatile boolean running;
+    private volatile Phrase currentPhrase;
+    private Thread thread;
+
+    RecordingStation(String name, AudioSource source, String deviceInfo, DataManager dataManager,
+                     PhraseScheduler scheduler, String userId, String speechType) {
+        this.name = name;
+        this.recorder = new AudioRecorder(source);
+        this.deviceInfo = deviceInfo;
+        this.dataManager = dataManager;
+        this.scheduler = scheduler;
+        this.userId = userId;
+        this.speechType = speechType;
+    }
+
+    void setExtractFeatures(boolean extractFeatures) {
+        recorder.setExtractFeatures(extractFeatures);
+    }
+
+    void start() {
+        scheduler.setUser(userId, speechType);
+        currentPhrase = scheduler.next();
+        running = true;
+        thread = new Thread(this::run, "station-" + name);
+        thread.start();
+    }
+
+    /**
+     * Ends the session, waiting for the last utterance to be handed off.
+     */
+    void stop() throws InterruptedException {
+        running = false;
+        if (thread != null) {
+            thread.join();
+        }
+    }
+
+    boolean isAlive() {
+        return thread != null && thread.isAlive();
+    }
+
+    String getName() {
+        return name;
+    }
+
+    long getTakesRecorded() {
+        return takesRecorded.get();
+    }
+
+    long getTakesPersisted() {
+        return takesPersisted.get();
+    }
+
+    long getTakesFailed() {
+        return takesFailed.get();
+    }
+
+    private void run() {
+        try {
+            while (running && currentPhrase != null) {
+                try {
+                    recorder.startSession(() -> new File(dataManager.createRecordingPath(UUID.randomUUID().toString())),
+                            this::onSegment);
+                } catch (LineUnavailableException e) {
+                    System.err.println("Station " + name + " could not start: " + e.getMessage());
+                    return;
+                }
+                try {
+                    while (running && !recorder.awaitEndOfSource(POLL_MILLIS)) {
+                        // Recording; utterances arrive through onSegment
+                    }
+                } finally {
+                    recorder.stopRecording();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            running = false;
+            recorder.close();
+        }
+        if (currentPhrase == null) {
+            System.out.println("Station " + name + ": " + userId + " has recorded every phrase");
+        }
+    }
+
+    // Called on the segmenter thread for each utterance
+    private void onSegment(File file, Map<String, Object> audioProperties) {
+        Phrase phrase = currentPhrase;
+        if (phrase == null) {
+            // Spoken after the last phrase
+            file.delete();
+            LogMelFeatureFile.featureFileFor(file).delete();
+            return;
+        }
+        String fileName = file.getName();
+        String recordingId = fileName.substring(0, fileName.length() - ".wav".length());
+
+        RecordingMetadata metadata = new RecordingMetadata(
+                userId,
+                phrase.getId(),
+                phrase.getText(),
+                phrase.getCategory(),
+                fileName,
+                new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.ROOT).format(new Date()),
+                speechType,
+                null,
+                deviceInfo
+        );
+        metadata.setRecordingId(recordingId);
+        metadata.addAudioProperty("sampleRate", AudioRecorder.getSampleRate());
+        metadata.addAudioProperty("bitsPerSample", AudioRecorder.getSampleSizeInBits());
+        metadata.addAudioProperty("channels", AudioRecorder.getChannels());
+        metadata.getAudioProperties().putAll(audioProperties);
+        metadata.addAdditionalInfo("station", name);
+
+        takesRecorded.incrementAndGet();
+        dataManager.addRecordingWithMetadataAsync(metadata, file.getPath()).whenComplete((saved, error) -> {
+            if (error != null) {
+                System.err.println("Station " + name + " could not persist a take: " + error.getMessage());
+                takesFailed.incrementAndGet();
+            } else {
+                takesPersisted.incrementAndGet();
+            }
+        });
+
+        scheduler.markRecorded(phrase);
+        currentPhrase = scheduler.next();
+        if (currentPhrase == null) {
+            running = false;
+        }
+    }
+}
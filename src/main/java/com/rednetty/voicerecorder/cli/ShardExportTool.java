@@ -0,0 +1,119 @@
+package com.rednetty.voicerecorder.cli;
+
+import com.rednetty.voicerecorder.util.CorpusExporter;
+import com.rednetty.voicerecorder.util.DataManager;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Packs a corpus into balanced shard files for training pipelines with {@link CorpusExporter}.
+ *
+ * Usage: {@code ShardExportTool [recordings-dir] [--output DIR] [--shard-size-mb N] [--threads N] [--verify]}
+ *
+ * Without {@code --output} the export goes to {@code <recordings-dir>/exports/<timestamp>/}.
+ * {@code --verify} reads every shard back afterwards and checks it against the manifest.
+ */
+public class ShardExportTool {
+    private static final long REPORT_INTERVAL_SECONDS = 5;
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+
+        String directory = "recordings";
+        String output = null;
+        long shardSizeMb = CorpusExporter.DEFAULT_SHARD_BYTES / (1024 * 1024);
+        int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+        boolean verify = false;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if ("--output".equals(arg)) {
+                    output = args[++i];
+                } else if ("--shard-size-mb".equals(arg)) {
+                    shardSizeMb = Long.parseLong(args[++i]);
+                } else if ("--threads".equals(arg)) {
+                    threads = Integer.parseInt(args[++i]);
+                } else if ("--verify".equals(arg)) {
+                    verify = true;
+                } else if (!arg.startsWith("--")) {
+                    directory = arg;
+                } else {
+                    throw new IllegalArgumentException("Unknown argument: " + arg);
+                }
+            }
+            if (shardSizeMb <= 0) {
+                throw new IllegalArgumentException("--shard-size-mb must be positive");
+            }
+        } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+            System.err.println(e.getMessage() != null ? e.getMessage() : "Missing argument value");
+            System.err.println("Usage: ShardExportTool [recordings-dir] [--output DIR] [--shard-size-mb N]"
+                    + " [--threads N] [--verify]");
+            System.exit(2);
+        }
+
+        if (!Paths.get(directory).toFile().isDirectory()) {
+            System.err.println("No corpus at " + directory);
+            System.exit(2);
+        }
+        Path outputDirectory = output != null ? Paths.get(output) : Paths.get(directory, "exports",
+                new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.ROOT).format(new Date()));
+
+        DataManager dataManager = new DataManager(directory);
+        dataManager.loadGlobalMetadata();
+        if (!dataManager.isIndexLoaded()) {
+            System.err.println("Could not read the recordings index in " + directory);
+            System.exit(1);
+        }
+        CorpusExporter exporter = new CorpusExporter(dataManager, outputDirectory,
+                shardSizeMb * 1024 * 1024, Math.max(1, threads));
+
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+        long startNanos = System.nanoTime();
+        reporter.scheduleAtFixedRate(() -> report(exporter, startNanos, "Progress:"),
+                REPORT_INTERVAL_SECONDS, REPORT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+
+        int exitCode = 0;
+        try {
+            CorpusExporter.Manifest manifest = exporter.export();
+            reporter.shutdownNow();
+            report(exporter, startNanos, "Done:");
+            System.out.println("Wrote " + manifest.getShards().size() + " shards to " + outputDirectory
+                    + (manifest.getMissingRecordings().isEmpty() ? ""
+                    : ", " + manifest.getMissingRecordings().size() + " recordings skipped (audio missing)"));
+
+            if (verify) {
+                long verifyStart = System.nanoTime();
+                long records = CorpusExporter.verify(outputDirectory);
+                System.out.println(String.format(Locale.ROOT, "Verified %d recordings in %.1fs",
+                        records, (System.nanoTime() - verifyStart) / 1e9));
+            }
+        } catch (IOException e) {
+            System.err.println("Export failed: " + e.getMessage());
+            e.printStackTrace();
+            exitCode = 1;
+        } finally {
+            reporter.shutdownNow();
+            dataManager.shutdown();
+        }
+        System.exit(exitCode);
+    }
+
+    private static void report(CorpusExporter exporter, long startNanos, String label) {
+        double seconds = Math.max(1e-9, (System.nanoTime() - startNanos) / 1e9);
+        long records = exporter.getRecordsWritten();
+        double megabytes = exporter.getBytesWritten() / (1024.0 * 1024.0);
+        System.out.println(String.format(Locale.ROOT,
+                "%s %d of %d recordings, %.1f MB in %.1fs (%.1f MB/s, %.0f recordings/s)",
+                label, records, exporter.getTotalRecords(), megabytes, seconds,
+                megabytes / seconds, records / seconds));
+    }
+}
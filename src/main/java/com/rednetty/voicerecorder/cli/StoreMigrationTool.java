@@ -0,0 +1,175 @@
+package com.rednetty.voicerecorder.cli;
+
+import com.rednetty.voicerecorder.util.DataManager;
+import com.rednetty.voicerecorder.util.RecordingStoreLayout;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Converts a corpus from one directory per recording at the top level to the sharded layout
+ * described in {@link RecordingStoreLayout}, in place. Every recording directory is moved with a
+ * rename, so no audio is copied; moves run on several threads because on network and
+ * metadata-heavy file systems each rename is a round trip.
+ *
+ * Usage: {@code StoreMigrationTool [recordings-dir] [--threads N] [--dry-run]}
+ *
+ * The layout marker is written before anything moves, so takes saved by a later session already
+ * go to their shards, and an interrupted run is finished by running the tool again. The tool holds
+ * the corpus lock ({@code recordings.lock}) for the whole run and refuses to start while a recorder
+ * holds it. Directories without a metadata.json are left in place for {@code CorpusValidator} to
+ * quarantine.
+ */
+public class StoreMigrationTool {
+    private static final long REPORT_INTERVAL_SECONDS = 5;
+
+    private final Path corpusDirectory;
+    private final int threads;
+    private final boolean dryRun;
+
+    private final AtomicLong moved = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private volatile int total;
+
+    public StoreMigrationTool(Path corpusDirectory, int threads, boolean dryRun) {
+        this.corpusDirectory = corpusDirectory;
+        this.threads = threads;
+        this.dryRun = dryRun;
+    }
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+
+        String directory = "recordings";
+        int threads = Math.max(4, Runtime.getRuntime().availableProcessors());
+        boolean dryRun = false;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if ("--threads".equals(arg)) {
+                    threads = Integer.parseInt(args[++i]);
+                } else if ("--dry-run".equals(arg)) {
+                    dryRun = true;
+                } else if (!arg.startsWith("--")) {
+                    directory = arg;
+                } else {
+                    throw new IllegalArgumentException("Unknown argument: " + arg);
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+            System.err.println(e.getMessage() != null ? e.getMessage() : "Missing argument value");
+            System.err.println("Usage: StoreMigrationTool [recordings-dir] [--threads N] [--dry-run]");
+            System.exit(2);
+        }
+
+        StoreMigrationTool tool = new StoreMigrationTool(Paths.get(directory), Math.max(1, threads), dryRun);
+        try {
+            tool.run();
+            System.exit(tool.failed.get() == 0 ? 0 : 1);
+        } catch (IOException e) {
+            System.err.println("Migration failed: " + e.getMessage());
+            e.printStackTrace();
+            System.exit(2);
+        }
+    }
+
+    /**
+     * @throws IOException if the corpus is in use by a recorder; nothing is moved then
+     */
+    public void run() throws IOException {
+        if (!corpusDirectory.toFile().isDirectory()) {
+            throw new IOException("No corpus at " + corpusDirectory);
+        }
+
+        try (FileChannel lockChannel = FileChannel.open(corpusDirectory.resolve(DataManager.LOCK_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            FileLock lock;
+            try {
+                lock = lockChannel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                lock = null;
+            }
+            if (lock == null) {
+                throw new IOException("The corpus in " + corpusDirectory + " is in use by another recorder");
+            }
+            // Released when the channel closes
+            migrateAll();
+        }
+    }
+
+    private void migrateAll() throws IOException {
+        RecordingStoreLayout layout = RecordingStoreLayout.detect(corpusDirectory);
+        if (!dryRun && !layout.isSharded()) {
+            layout = RecordingStoreLayout.markSharded(corpusDirectory);
+        }
+        List<File> flatDirectories = layout.listFlatRecordingDirectories();
+        total = flatDirectories.size();
+        System.out.println("Found " + total + " recording directories to move"
+                + (layout.isSharded() ? "" : " (corpus not marked sharded yet)")
+                + (dryRun ? ", dry run" : ""));
+
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+        long startNanos = System.nanoTime();
+        reporter.scheduleAtFixedRate(() -> report(startNanos, false),
+                REPORT_INTERVAL_SECONDS, REPORT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+
+        RecordingStoreLayout target = RecordingStoreLayout.sharded(corpusDirectory);
+        try {
+            for (File directory : flatDirectories) {
+                workers.execute(() -> migrate(target, directory));
+            }
+            workers.shutdown();
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            reporter.shutdownNow();
+        }
+
+        report(startNanos, true);
+    }
+
+    private void migrate(RecordingStoreLayout layout, File directory) {
+        if (!new File(directory, "metadata.json").isFile()) {
+            skipped.incrementAndGet();
+            return;
+        }
+        if (dryRun) {
+            moved.incrementAndGet();
+            return;
+        }
+        try {
+            layout.moveToShard(directory);
+            moved.incrementAndGet();
+        } catch (IOException e) {
+            System.err.println("Could not move " + directory.getName() + ": " + e);
+            failed.incrementAndGet();
+        }
+    }
+
+    private void report(long startNanos, boolean done) {
+        double seconds = Math.max(1e-9, (System.nanoTime() - startNanos) / 1e9);
+        long count = moved.get();
+        long processed = count + skipped.get() + failed.get();
+        System.out.println(String.format(Locale.ROOT,
+                "%s %d %s, %d skipped (no metadata), %d failed, %d of %d in %.1fs (%.0f dirs/s)",
+                done ? "Done:" : "Progress:", count, dryRun ? "to move" : "moved", skipped.get(), failed.get(),
+                processed, total, seconds, processed / seconds));
+    }
+}
@@ -0,0 +1,31 @@
+package com.rednetty.voicerecorder.metrics;
+
+import java.util.function.LongSupplier;
+
+/**
+ * A value that goes up and down: either set by the code that owns it, or read on demand from a
+ * supplier such as a queue's size.
+ */
+public class Gauge {
+    private volatile long value;
+    private volatile LongSupplier supplier;
+
+    Gauge() {
+    }
+
+    public void set(long value) {
+        this.value = value;
+    }
+
+    /**
+     * Reads the gauge from the supplier from now on; replaces any earlier supplier.
+     */
+    void setSupplier(LongSupplier supplier) {
+        this.supplier = supplier;
+    }
+
+    public long get() {
+        LongSupplier current = supplier;
+        return current != null ? current.getAsLong() : value;
+    }
+}
@@ -0,0 +1,78 @@
+package com.rednetty.voicerecorder.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Named counters, gauges and histograms for watching a collection station while it runs.
+ *
+ * Components look their metrics up once, typically into static fields, and then update them on
+ * hot paths without locking or allocating. Looking up a name that exists returns the same metric,
+ * so several instances of a component share it. Names are dotted, starting with the component
+ * ({@code capture.frames}), and end with the unit where there is one ({@code recorder.saveMicros}).
+ */
+public class MetricsRegistry {
+    private static final MetricsRegistry DEFAULT = new MetricsRegistry();
+
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private final Map<String, Gauge> gauges = new ConcurrentHashMap<>();
+    private final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    /**
+     * The registry the application's components report to.
+     */
+    public static MetricsRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    public Counter counter(String name) {
+        return counters.computeIfAbsent(name, key -> new Counter());
+    }
+
+    public Gauge gauge(String name) {
+        return gauges.computeIfAbsent(name, key -> new Gauge());
+    }
+
+    /**
+     * A gauge read from the supplier whenever metrics are reported. Registering the name again
+     * replaces the supplier, e.g. when a component is recreated.
+     */
+    public Gauge gauge(String name, LongSupplier supplier) {
+        Gauge gauge = gauge(name);
+        gauge.setSupplier(supplier);
+        return gauge;
+    }
+
+    public Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, key -> new Histogram());
+    }
+
+    /**
+     * Current values of every metric, sorted by name: counters and gauges as numbers, histograms
+     * as their count, mean, 50th, 90th and 99th percentiles and maximum.
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> values = new TreeMap<>();
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().get());
+        }
+        for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().get());
+        }
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            Histogram.Snapshot snapshot = entry.getValue().snapshot();
+            Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("count", snapshot.getCount());
+            summary.put("mean", Math.round(snapshot.getMean() * 10) / 10.0);
+            summary.put("p50", snapshot.getPercentile(0.50));
+            summary.put("p90", snapshot.getPercentile(0.90));
+            summary.put("p99", snapshot.getPercentile(0.99));
+            summary.put("max", snapshot.getMax());
+            values.put(entry.getKey(), summary);
+        }
+        return values;
+    }
+}
@@ -0,0 +1,204 @@
+package com.rednetty.voicerecorder.metrics;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes a {@link MetricsRegistry} for operators: every few seconds the current values are
+ * written to a JSON file (replaced atomically, so a reader never sees half a file), and while the
+ * reporter runs they are also readable over JMX as the {@code com.rednetty.voicerecorder:type=Metrics}
+ * MBean, e.g. in JConsole or VisualVM. Histogram summaries appear there as separate attributes
+ * such as {@code recorder.saveMicros.p99}.
+ */
+public class MetricsReporter implements Closeable {
+    public static final String METRICS_FILE = "metrics.json";
+    public static final String OBJECT_NAME = "com.rednetty.voicerecorder:type=Metrics";
+
+    private final MetricsRegistry registry;
+    private final Path file;
+    private final long intervalSeconds;
+    private final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+    private final long startMillis = System.currentTimeMillis();
+    private ScheduledExecutorService scheduler;
+    private ObjectName registeredName;
+
+    public MetricsReporter(MetricsRegistry registry, Path file, long intervalSeconds) {
+        this.registry = registry;
+        this.file = file;
+        this.intervalSeconds = Math.max(1, intervalSeconds);
+    }
+
+    /**
+     * Starts writing the file periodically and registers the MBean.
+     */
+    public synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "metrics-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(this::writeQuietly, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(new MetricsMBean(), name);
+                registeredName = name;
+            }
+        } catch (JMException e) {
+            // The file is still written
+            System.err.println("Could not register metrics MBean: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the current values to the file now.
+     */
+    public void writeSnapshot() throws IOException {
+        Map<String, Object> document = new LinkedHashMap<>();
+        document.put("timestamp", new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ", Locale.ROOT).format(new Date()));
+        document.put("uptimeSeconds", (System.currentTimeMillis() - startMillis) / 1000);
+        document.put("metrics", registry.snapshot());
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            gson.toJson(document, writer);
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Stops the reporter, writing the final values and unregistering the MBean.
+     */
+    @Override
+    public synchronized void close() {
+        if (scheduler == null) {
+            return;
+        }
+        scheduler.shutdownNow();
+        scheduler = null;
+        writeQuietly();
+        if (registeredName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+            } catch (JMException e) {
+                System.err.println("Could not unregister metrics MBean: " + e.getMessage());
+            }
+            registeredName = null;
+        }
+    }
+
+    private void writeQuietly() {
+        try {
+            writeSnapshot();
+        } catch (IOException e) {
+            System.err.println("Error writing metrics: " + e.getMessage());
+        }
+    }
+
+    // Flattens histogram summaries into "name.p99"-style attributes
+    private Map<String, Object> attributes() {
+        Map<String, Object> attributes = new TreeMap<>();
+        for (Map.Entry<String, Object> entry : registry.snapshot().entrySet()) {
+            if (entry.getValue() instanceof Map) {
+                for (Map.Entry<?, ?> field : ((Map<?, ?>) entry.getValue()).entrySet()) {
+                    attributes.put(entry.getKey() + "." + field.getKey(), field.getValue());
+                }
+            } else {
+                attributes.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return attributes;
+    }
+
+    /**
+     * Read-only MBean whose attributes are the registry's current values; metrics registered
+     * later show up the next time a JMX client reads the MBean info.
+     */
+    private class MetricsMBean implements DynamicMBean {
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Object value = attributes().get(attribute);
+            if (value == null) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            return value;
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] names) {
+            Map<String, Object> values = attributes();
+            AttributeList list = new AttributeList();
+            for (String name : names) {
+                if (values.containsKey(name)) {
+                    list.add(new Attribute(name, values.get(name)));
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) {
+            throw new UnsupportedOperationException("Metrics are read-only");
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) {
+            throw new UnsupportedOperationException("Metrics have no operations");
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> infos = new ArrayList<>();
+            for (Map.Entry<String, Object> entry : attributes().entrySet()) {
+                infos.add(new MBeanAttributeInfo(entry.getKey(), entry.getValue().getClass().getName(),
+                        entry.getKey(), true, false, false));
+            }
+            return new MBeanInfo(MetricsReporter.class.getName(), "Voice recorder metrics",
+                    infos.toArray(new MBeanAttributeInfo[0]), null, null, null);
+        }
+    }
+}
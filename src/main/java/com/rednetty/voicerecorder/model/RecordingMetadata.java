@@ -15,6 +15,8 @@ public class RecordingMetadata {
     private String phraseText;
     private String phraseCategory;
     private String recordingFile;
+    // Log-mel feature sidecar next to the audio, or null
+    private String featureFile;
     private String timestamp;
     private String speechType;
     private String speechImpairmentDetails;
@@ -71,6 +73,14 @@ public class RecordingMetadata {
         this.recordingFile = recordingFile;
     }
 
+    public String getFeatureFile() {
+        return featureFile;
+    }
+
+    public void setFeatureFile(String featureFile) {
+        this.featureFile = featureFile;
+    }
+
     public String getTimestamp() {
         return timestamp;
     }
@@ -0,0 +1,33 @@
+package com.rednetty.voicerecorder.model;
+
+/**
+ * Read-only view of the indexed fields of a recording.
+ * Views over the binary index are flyweights: they may be repositioned to another
+ * recording, so callers should not hold on to them. Use {@link #toMetadata()} for a full copy.
+ */
+public interface RecordingView {
+    String getRecordingId();
+
+    String getUserId();
+
+    String getPhraseId();
+
+    String getPhraseCategory();
+
+    String getSpeechType();
+
+    String getRecordingFile();
+
+    String getTimestamp();
+
+    float getSampleRate();
+
+    int getBitsPerSample();
+
+    int getChannels();
+
+    /**
+     * Builds the complete metadata for this recording, including audio properties and additional info.
+     */
+    RecordingMetadata toMetadata();
+}
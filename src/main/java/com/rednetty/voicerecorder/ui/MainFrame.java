@@ -1,15 +1,20 @@
 package com.rednetty.voicerecorder.ui;
 
+import com.rednetty.voicerecorder.metrics.MetricsRegistry;
+import com.rednetty.voicerecorder.metrics.MetricsReporter;
 import com.rednetty.voicerecorder.model.Phrase;
 import com.rednetty.voicerecorder.model.RecordingMetadata;
 import com.rednetty.voicerecorder.model.UserProfile;
 import com.rednetty.voicerecorder.util.DataManager;
+import com.rednetty.voicerecorder.util.PhraseScheduler;
 import com.rednetty.voicerecorder.util.UIHelper;
 
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.List;
 
 /**
@@ -20,17 +25,44 @@ public class MainFrame extends JFrame {
     private static final String TITLE = "Voice Recorder for AI Dataset Collection";
     private static final String OUTPUT_DIR = "recordings";
     private static final String PHRASES_FILE = "phrases.json";
+    private static final long METRICS_INTERVAL_SECONDS = 10;
 
     private UserProfile userProfile;
     private DataManager dataManager;
     private RecordingPanel recordingPanel;
+    private PhraseScheduler phraseScheduler;
+    private MetricsReporter metricsReporter;
     private JLabel userInfoLabel;
 
     public MainFrame() {
+        this(false, false);
+    }
+
+    /**
+     * @param compressAudio store takes as lossless FLAC instead of WAV
+     * @param extractFeatures store log-mel features computed during capture next to each take
+     */
+    public MainFrame(boolean compressAudio, boolean extractFeatures) {
         super(TITLE);
 
         // Initialize data manager
         dataManager = new DataManager(OUTPUT_DIR);
+        dataManager.setCompressAudio(compressAudio);
+        try {
+            // One recorder per corpus; several booths share a RecordingServer instead
+            dataManager.lockCorpus();
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(null,
+                    e.getMessage() + ".\nClose the other recorder first.",
+                    "Recordings In Use",
+                    JOptionPane.ERROR_MESSAGE);
+            System.exit(1);
+        }
+
+        // Capture and persistence metrics for operators, in recordings/metrics.json and over JMX
+        metricsReporter = new MetricsReporter(MetricsRegistry.getDefault(),
+                Paths.get(OUTPUT_DIR, MetricsReporter.METRICS_FILE), METRICS_INTERVAL_SECONDS);
+        metricsReporter.start();
 
         // Set up the user profile first
         if (!setupUserProfile()) {
@@ -39,15 +71,27 @@ public class MainFrame extends JFrame {
 
         // Set up UI
         setupUI();
+        recordingPanel.setExtractFeatures(extractFeatures);
 
         // Load phrases and update recording panel
         List<Phrase> phrases = dataManager.loadPhrases(PHRASES_FILE);
 
         // Load existing recordings metadata
         dataManager.loadGlobalMetadata();
+        if (!dataManager.isIndexLoaded()) {
+            JOptionPane.showMessageDialog(null,
+                    "The recordings index in " + OUTPUT_DIR + " could not be read.\n"
+                            + "Unreadable index files were renamed to *.corrupt; restore a backup before recording.",
+                    "Recordings Index Unreadable",
+                    JOptionPane.ERROR_MESSAGE);
+            System.exit(1);
+        }
+
+        // Order phrases by coverage, resuming from the saved schedule
+        phraseScheduler = PhraseScheduler.open(dataManager, phrases);
 
         // Update recording panel with loaded phrases
-        recordingPanel.setPhrases(phrases);
+        recordingPanel.setPhrases(phrases, phraseScheduler);
 
         // Set up window properties
         setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
@@ -69,8 +113,18 @@ public class MainFrame extends JFrame {
                 );
 
                 if (option == JOptionPane.YES_OPTION) {
-                    // Save any remaining data
+                    // Finish any take and its save, release the microphone, wait for queued
+                    // recordings, then save any remaining data
+                    recordingPanel.shutdown();
+                    dataManager.shutdown();
                     dataManager.saveGlobalMetadata(dataManager.getRecordingsMetadata());
+                    try {
+                        phraseScheduler.save();
+                    } catch (IOException ex) {
+                        // Rebuilt from the index on the next start
+                        System.err.println("Error saving phrase schedule: " + ex.getMessage());
+                    }
+                    metricsReporter.close();
                     System.exit(0);
                 }
             }
@@ -154,8 +208,18 @@ public class MainFrame extends JFrame {
      * @param filePath the path to the audio file
      */
     private void handleNewRecording(RecordingMetadata metadata, String filePath) {
-        // Add to data manager with individual metadata file
-        dataManager.addRecordingWithMetadata(metadata, filePath);
+        // Hand off to the background persistence stage so the UI can move on at once
+        dataManager.addRecordingWithMetadataAsync(metadata, filePath).whenComplete((saved, error) -> {
+            if (error == null) {
+                SwingUtilities.invokeLater(recordingPanel::refreshTakeCounts);
+            } else {
+                SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(
+                        MainFrame.this,
+                        "Error saving recording: " + error.getMessage(),
+                        "Save Error",
+                        JOptionPane.ERROR_MESSAGE));
+            }
+        });
     }
 
     private void showProfileDialog() {
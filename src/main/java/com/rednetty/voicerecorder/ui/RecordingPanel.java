@@ -1,10 +1,14 @@
 package com.rednetty.voicerecorder.ui;
 
 import com.rednetty.voicerecorder.audio.AudioRecorder;
+import com.rednetty.voicerecorder.audio.LevelMeterUpdater;
+import com.rednetty.voicerecorder.audio.LogMelFeatureFile;
 import com.rednetty.voicerecorder.model.Phrase;
 import com.rednetty.voicerecorder.model.RecordingMetadata;
 import com.rednetty.voicerecorder.model.UserProfile;
 import com.rednetty.voicerecorder.util.DataManager;
+import com.rednetty.voicerecorder.util.PhraseScheduler;
+import com.rednetty.voicerecorder.util.RecordingExecutors;
 
 import javax.sound.sampled.LineUnavailableException;
 import javax.swing.*;
@@ -12,11 +16,19 @@ import javax.swing.border.CompoundBorder;
 import javax.swing.border.EmptyBorder;
 import javax.swing.border.LineBorder;
 import java.awt.*;
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.function.BiConsumer;
 
 /**
@@ -30,6 +42,9 @@ public class RecordingPanel extends JPanel {
     private JButton nextButton;
     private JButton previousButton;
     private JProgressBar levelMeter;
+    private LevelMeterUpdater levelMeterUpdater;
+    private JCheckBox autoStopCheckBox;
+    private JCheckBox sessionCheckBox;
     private JLabel statusLabel;
     private JLabel phraseCountLabel;
 
@@ -40,26 +55,55 @@ public class RecordingPanel extends JPanel {
 
     // Data
     private List<Phrase> phrases;
-    private int currentPhraseIndex = 0;
-    private UserProfile userProfile;
+    private PhraseScheduler scheduler;
+    // Phrases shown so far, for Previous; the scheduler picks each new one
+    private final List<Phrase> history = new ArrayList<>();
+    private int historyPosition = -1;
+    private volatile UserProfile userProfile;
     private String outputDirectory;
     private DataManager dataManager;
 
     // Audio recording
+    private static final long AUTO_STOP_SILENCE_MS = 1500;
     private AudioRecorder audioRecorder;
+    private String pendingRecordingId;
+    private String pendingFilePath;
+    // The phrase on screen, for takes cut from a session on the segmenter thread
+    private volatile Phrase sessionPhrase;
+    private final RecordingExecutors executors = new RecordingExecutors();
+    private CompletableFuture<Void> pendingSave = CompletableFuture.completedFuture(null);
+    private boolean saving;
     private BiConsumer<RecordingMetadata, String> recordingCallback;
 
     public RecordingPanel(List<Phrase> phrases, UserProfile userProfile, String outputDirectory,
                           DataManager dataManager, BiConsumer<RecordingMetadata, String> recordingCallback) {
+        this(phrases, userProfile, outputDirectory, dataManager, recordingCallback, new AudioRecorder());
+    }
+
+    /**
+     * Creates a panel that records through the given recorder, for example one backed by a
+     * synthetic or file-replay source when driving the UI without a microphone.
+     */
+    public RecordingPanel(List<Phrase> phrases, UserProfile userProfile, String outputDirectory,
+                          DataManager dataManager, BiConsumer<RecordingMetadata, String> recordingCallback,
+                          AudioRecorder audioRecorder) {
         this.phrases = phrases;
         this.userProfile = userProfile;
         this.outputDirectory = outputDirectory;
         this.dataManager = dataManager;
         this.recordingCallback = recordingCallback;
-        this.audioRecorder = new AudioRecorder();
+        this.audioRecorder = audioRecorder;
 
         setupUI();
         updatePhraseDisplay();
+
+        // Keep the line warm so Record starts instantly, with the last moments before it as pre-roll
+        try {
+            this.audioRecorder.startMonitoring();
+        } catch (LineUnavailableException e) {
+            // Each take then opens the line itself
+            System.err.println("Could not open audio line for monitoring: " + e.getMessage());
+        }
     }
 
     private void setupUI() {
@@ -117,6 +161,23 @@ public class RecordingPanel extends JPanel {
         statusLabel.setFont(new Font("Arial", Font.PLAIN, 14));
         meterPanel.add(statusLabel, BorderLayout.SOUTH);
 
+        // Stop automatically once the speaker has been silent for a while
+        autoStopCheckBox = new JCheckBox("Stop on silence");
+        autoStopCheckBox.setFont(new Font("Arial", Font.PLAIN, 12));
+        autoStopCheckBox.setOpaque(false);
+
+        // Keep the microphone open and cut one take per phrase from continuous speech
+        sessionCheckBox = new JCheckBox("Continuous session");
+        sessionCheckBox.setFont(new Font("Arial", Font.PLAIN, 12));
+        sessionCheckBox.setOpaque(false);
+        sessionCheckBox.addActionListener(e -> autoStopCheckBox.setEnabled(!sessionCheckBox.isSelected()));
+
+        JPanel optionsPanel = new JPanel(new GridLayout(2, 1));
+        optionsPanel.setOpaque(false);
+        optionsPanel.add(autoStopCheckBox);
+        optionsPanel.add(sessionCheckBox);
+        meterPanel.add(optionsPanel, BorderLayout.EAST);
+
         controlPanel.add(meterPanel, BorderLayout.NORTH);
 
         // Buttons panel
@@ -125,8 +186,8 @@ public class RecordingPanel extends JPanel {
 
         previousButton = createStyledButton("Previous", new Color(100, 100, 100));
         previousButton.addActionListener(e -> {
-            if (currentPhraseIndex > 0) {
-                currentPhraseIndex--;
+            if (historyPosition > 0) {
+                historyPosition--;
                 updatePhraseDisplay();
             }
         });
@@ -136,6 +197,10 @@ public class RecordingPanel extends JPanel {
         recordButton.setPreferredSize(new Dimension(120, 50));
         recordButton.setForeground(Color.WHITE);
         recordButton.addActionListener(e -> {
+            if (saving) {
+                // The last take is still being stopped and saved
+                return;
+            }
             if (!audioRecorder.isRecording()) {
                 startRecording();
             } else {
@@ -145,9 +210,13 @@ public class RecordingPanel extends JPanel {
 
         nextButton = createStyledButton("Next", new Color(100, 100, 100));
         nextButton.addActionListener(e -> {
-            if (currentPhraseIndex < phrases.size() - 1) {
-                currentPhraseIndex++;
-                updatePhraseDisplay();
+            // Moving on without a take sets the phrase aside for this session
+            Phrase current = getCurrentPhrase();
+            if (current != null && !scheduler.hasRecorded(current)) {
+                scheduler.skip(current);
+            }
+            if (!advance()) {
+                statusLabel.setText("You have recorded every phrase.");
             }
         });
 
@@ -161,10 +230,14 @@ public class RecordingPanel extends JPanel {
         add(phrasePanel, BorderLayout.CENTER);
         add(controlPanel, BorderLayout.SOUTH);
 
-        // Set up audio level listener
-        audioRecorder.setAudioLevelListener(level -> {
-            SwingUtilities.invokeLater(() -> levelMeter.setValue(level));
-        });
+        // Set up audio level listener; updates are coalesced and repainted at a fixed frame rate
+        levelMeterUpdater = new LevelMeterUpdater(levelMeter);
+        audioRecorder.setAudioLevelListener(levelMeterUpdater);
+        audioRecorder.setAutoStopListener(() -> SwingUtilities.invokeLater(() -> {
+            if (audioRecorder.isRecording() && !saving) {
+                stopRecording();
+            }
+        }));
     }
 
     private JButton createStyledButton(String text, Color color) {
@@ -192,31 +265,73 @@ public class RecordingPanel extends JPanel {
         return button;
     }
 
+    private Phrase getCurrentPhrase() {
+        return historyPosition >= 0 ? history.get(historyPosition) : null;
+    }
+
+    /**
+     * Moves forward through phrases already shown, then on to the phrase the scheduler picks.
+     *
+     * @return false if the user has recorded every phrase
+     */
+    private boolean advance() {
+        if (historyPosition < history.size() - 1) {
+            historyPosition++;
+        } else {
+            Phrase next = scheduler != null ? scheduler.next() : null;
+            if (next == null) {
+                updatePhraseDisplay();
+                return false;
+            }
+            history.add(next);
+            historyPosition = history.size() - 1;
+        }
+        updatePhraseDisplay();
+        return true;
+    }
+
     private void updatePhraseDisplay() {
-        if (!phrases.isEmpty() && currentPhraseIndex >= 0 && currentPhraseIndex < phrases.size()) {
-            Phrase currentPhrase = phrases.get(currentPhraseIndex);
+        Phrase currentPhrase = getCurrentPhrase();
+        sessionPhrase = currentPhrase;
+        if (currentPhrase != null) {
             phraseLabel.setText("<html><div style='text-align: center;'>" +
                     currentPhrase.getText() + "</div></html>");
 
-            phraseCountLabel.setText((currentPhraseIndex + 1) + " of " + phrases.size());
+            phraseCountLabel.setText(scheduler.getRecordedCount() + " of " + phrases.size() + " recorded"
+                    + describeTakes(currentPhrase));
 
-            previousButton.setEnabled(currentPhraseIndex > 0);
-            nextButton.setEnabled(currentPhraseIndex < phrases.size() - 1);
+            previousButton.setEnabled(historyPosition > 0);
+            nextButton.setEnabled(true);
+            recordButton.setEnabled(!saving);
         } else {
-            phraseLabel.setText("No phrases available");
-            phraseCountLabel.setText("0 of 0");
+            phraseLabel.setText(phrases.isEmpty() ? "No phrases available"
+                    : "You have recorded every phrase. Thank you!");
+            phraseCountLabel.setText(scheduler != null
+                    ? scheduler.getRecordedCount() + " of " + phrases.size() + " recorded" : "0 of 0");
             previousButton.setEnabled(false);
             nextButton.setEnabled(false);
+            recordButton.setEnabled(false);
         }
     }
 
     private void startRecording() {
+        if (sessionCheckBox.isSelected()) {
+            startSession();
+            return;
+        }
         try {
             statusLabel.setText("Recording... Speak now!");
             recordButton.setText("Stop");
             recordButton.setBackground(SUCCESS_COLOR);
 
-            audioRecorder.startRecording();
+            // Generate a unique recording ID and stream the take straight to its temporary location
+            pendingRecordingId = UUID.randomUUID().toString();
+            pendingFilePath = dataManager.createRecordingPath(pendingRecordingId);
+
+            audioRecorder.setAutoStopSilenceMillis(autoStopCheckBox.isSelected() ? AUTO_STOP_SILENCE_MS : 0);
+            audioRecorder.startRecording(new File(pendingFilePath));
+            levelMeterUpdater.start();
+            sessionCheckBox.setEnabled(false);
         } catch (LineUnavailableException e) {
             JOptionPane.showMessageDialog(this,
                     "Could not start recording: " + e.getMessage(),
@@ -225,82 +340,235 @@ public class RecordingPanel extends JPanel {
         }
     }
 
-    private void stopRecording() {
-        audioRecorder.stopRecording();
-        recordButton.setText("Record");
-        recordButton.setBackground(ACCENT_COLOR);
-        statusLabel.setText("Saving recording...");
+    /**
+     * Starts a continuous session: the line stays open and every utterance becomes a take
+     * for the displayed phrase, after which the panel moves on to the next phrase by itself.
+     */
+    private void startSession() {
+        try {
+            audioRecorder.startSession(() -> {
+                String recordingId = UUID.randomUUID().toString();
+                return new File(dataManager.createRecordingPath(recordingId));
+            }, this::onSessionTake);
+            levelMeterUpdater.start();
+            statusLabel.setText("Session running... Read each phrase, then pause.");
+            recordButton.setText("End");
+            recordButton.setBackground(SUCCESS_COLOR);
+            sessionCheckBox.setEnabled(false);
+        } catch (LineUnavailableException e) {
+            JOptionPane.showMessageDialog(this,
+                    "Could not start session: " + e.getMessage(),
+                    "Recording Error",
+                    JOptionPane.ERROR_MESSAGE);
+        }
+    }
 
-        // Save the recording in a separate thread
+    // Called on the segmenter thread. The take is handed to the DataManager from here, so it is
+    // not lost if the window closes before the event dispatch thread gets to it.
+    private void onSessionTake(File file, Map<String, Object> audioProperties) {
+        Phrase currentPhrase = sessionPhrase;
+        if (currentPhrase == null) {
+            // Spoken after the last phrase
+            discardTake(file.getPath());
+            return;
+        }
+        String fileName = file.getName();
+        String recordingId = fileName.substring(0, fileName.length() - ".wav".length());
+
+        RecordingMetadata metadata = createMetadata(currentPhrase, recordingId);
+        metadata.getAudioProperties().putAll(audioProperties);
+        if (recordingCallback != null) {
+            recordingCallback.accept(metadata, file.getPath());
+        }
+
+        scheduler.markRecorded(currentPhrase);
         SwingUtilities.invokeLater(() -> {
-            try {
-                // Get the current phrase
-                Phrase currentPhrase = phrases.get(currentPhraseIndex);
+            if (advance()) {
+                statusLabel.setText("Take saved. Read the next phrase.");
+            } else {
+                statusLabel.setText("Take saved. That was the last phrase.");
+            }
+        });
+    }
 
-                // Generate a unique recording ID
-                String recordingId = UUID.randomUUID().toString();
+    // Only once per take: the recorder keeps recording until the I/O executor has stopped it, so
+    // every caller checks saving, which is set here on the event dispatch thread
+    private void stopRecording() {
+        if (saving) {
+            return;
+        }
+        levelMeterUpdater.stop();
+        recordButton.setText("Record");
+        recordButton.setBackground(ACCENT_COLOR);
+        // Record stays disabled until the recorder has finished with this take
+        recordButton.setEnabled(false);
+        saving = true;
+        sessionCheckBox.setEnabled(true);
+        boolean session = sessionCheckBox.isSelected();
+        statusLabel.setText(session ? "Ending session..." : "Saving recording...");
+
+        Phrase currentPhrase = getCurrentPhrase();
+        // The take was streamed to its temporary location while recording
+        String recordingId = pendingRecordingId;
+        String filePath = pendingFilePath;
+
+        // Draining the capture pipeline and saving are file I/O; keep them off the event dispatch thread.
+        // Chained, so shutdown() waits for every save rather than only the latest
+        pendingSave = pendingSave.exceptionally(error -> null).thenRunAsync(() -> {
+            audioRecorder.stopRecording();
+            if (session) {
+                // The last utterance, if any, is delivered through onSessionTake
+                SwingUtilities.invokeLater(() -> finishSave("Session ended."));
+            } else {
+                saveTake(currentPhrase, recordingId, filePath);
+            }
+        }, executors.getIoExecutor());
+    }
 
-                // Create file path in temporary location
-                String filePath = dataManager.createRecordingPath(recordingId);
-
-                // Generate timestamp
-                String timestamp = new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date());
-
-                // Save the recording
-                if (audioRecorder.saveRecording(filePath)) {
-                    // Create metadata
-                    RecordingMetadata metadata = new RecordingMetadata(
-                            userProfile.getUserId(),
-                            currentPhrase.getId(),
-                            currentPhrase.getText(),
-                            currentPhrase.getCategory(),
-                            recordingId + ".wav", // Temporary filename, will be updated by DataManager
-                            timestamp,
-                            userProfile.getSpeechType(),
-                            userProfile.getSpeechImpairmentDetails(),
-                            userProfile.getDeviceInfo()
-                    );
-
-                    // Set the recording ID
-                    metadata.setRecordingId(recordingId);
-
-                    // Add audio properties to metadata
-                    metadata.addAudioProperty("sampleRate", AudioRecorder.getSampleRate());
-                    metadata.addAudioProperty("bitsPerSample", AudioRecorder.getSampleSizeInBits());
-                    metadata.addAudioProperty("channels", AudioRecorder.getChannels());
-
-                    // Notify callback with metadata and file path
-                    if (recordingCallback != null) {
-                        recordingCallback.accept(metadata, filePath);
-                    }
-
-                    statusLabel.setText("Recording saved. Ready for next phrase.");
-
-                    // Automatically go to next phrase if not at the end
-                    if (currentPhraseIndex < phrases.size() - 1) {
-                        currentPhraseIndex++;
-                        updatePhraseDisplay();
-                    }
-                } else {
-                    statusLabel.setText("Error saving recording. Try again.");
+    // Runs on the I/O executor
+    private void saveTake(Phrase currentPhrase, String recordingId, String filePath) {
+        try {
+            if (audioRecorder.saveRecording(filePath)) {
+                // Create metadata
+                RecordingMetadata metadata = createMetadata(currentPhrase, recordingId);
+                metadata.addAudioProperty("captureOverruns", audioRecorder.getWriterOverruns());
+                metadata.getAudioProperties().putAll(audioRecorder.getLastTakeStats().toAudioProperties());
+                metadata.getAudioProperties().putAll(audioRecorder.getLastTakeVoiceActivity());
+
+                // Notify callback with metadata and file path
+                if (recordingCallback != null) {
+                    recordingCallback.accept(metadata, filePath);
                 }
-            } catch (IOException e) {
+
+                // Automatically go to the next phrase the scheduler picks
+                scheduler.markRecorded(currentPhrase);
+                SwingUtilities.invokeLater(() -> {
+                    saving = false;
+                    statusLabel.setText(advance() ? "Recording saved. Ready for next phrase."
+                            : "Recording saved. You have recorded every phrase.");
+                });
+            } else {
+                // Nothing was captured; don't leave the empty take behind
+                discardTake(filePath);
+                SwingUtilities.invokeLater(() -> finishSave("Error saving recording. Try again."));
+            }
+        } catch (IOException e) {
+            SwingUtilities.invokeLater(() -> {
+                finishSave("Error saving recording. Try again.");
                 JOptionPane.showMessageDialog(this,
                         "Error saving recording: " + e.getMessage(),
                         "Save Error",
                         JOptionPane.ERROR_MESSAGE);
-                statusLabel.setText("Error saving recording. Try again.");
+            });
+        }
+    }
+
+    private void finishSave(String status) {
+        saving = false;
+        updatePhraseDisplay();
+        statusLabel.setText(status);
+    }
+
+    private void discardTake(String filePath) {
+        executors.getHousekeepingExecutor().execute(() -> {
+            try {
+                Files.deleteIfExists(Paths.get(filePath));
+                Files.deleteIfExists(LogMelFeatureFile.featureFileFor(new File(filePath)).toPath());
+            } catch (IOException e) {
+                System.err.println("Could not delete discarded take " + filePath + ": " + e.getMessage());
             }
         });
     }
 
-    public void setPhrases(List<Phrase> phrases) {
+    private RecordingMetadata createMetadata(Phrase phrase, String recordingId) {
+        // Generate timestamp
+        String timestamp = new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date());
+
+        RecordingMetadata metadata = new RecordingMetadata(
+                userProfile.getUserId(),
+                phrase.getId(),
+                phrase.getText(),
+                phrase.getCategory(),
+                recordingId + ".wav", // Temporary filename, will be updated by DataManager
+                timestamp,
+                userProfile.getSpeechType(),
+                userProfile.getSpeechImpairmentDetails(),
+                userProfile.getDeviceInfo()
+        );
+
+        // Set the recording ID
+        metadata.setRecordingId(recordingId);
+
+        // Add audio properties to metadata
+        metadata.addAudioProperty("sampleRate", AudioRecorder.getSampleRate());
+        metadata.addAudioProperty("bitsPerSample", AudioRecorder.getSampleSizeInBits());
+        metadata.addAudioProperty("channels", AudioRecorder.getChannels());
+        return metadata;
+    }
+
+    /**
+     * Ends any take in progress and waits until every pending save has handed its take to the
+     * recording callback, then releases the audio line and the panel's threads. Call on exit,
+     * before shutting down the DataManager.
+     */
+    public void shutdown() {
+        if (audioRecorder.isRecording() && !saving) {
+            stopRecording();
+        }
+        try {
+            pendingSave.join();
+        } catch (CompletionException | CancellationException e) {
+            System.err.println("Error finishing the last take: " + e.getMessage());
+        }
+        audioRecorder.close();
+        executors.shutdown();
+    }
+
+    /**
+     * Shows the given phrases in the order chosen by the scheduler, starting with the one the
+     * current user should record first.
+     */
+    public void setPhrases(List<Phrase> phrases, PhraseScheduler scheduler) {
         this.phrases = phrases;
-        currentPhraseIndex = 0;
-        updatePhraseDisplay();
+        this.scheduler = scheduler;
+        restartSchedule();
     }
 
     public void setUserProfile(UserProfile userProfile) {
         this.userProfile = userProfile;
+        if (scheduler != null) {
+            restartSchedule();
+        }
+    }
+
+    /**
+     * Stores log-mel features computed during capture next to each take.
+     */
+    public void setExtractFeatures(boolean extractFeatures) {
+        audioRecorder.setExtractFeatures(extractFeatures);
+    }
+
+    private void restartSchedule() {
+        scheduler.setUser(userProfile.getUserId(), userProfile.getSpeechType());
+        history.clear();
+        historyPosition = -1;
+        advance();
+    }
+
+    /**
+     * Refreshes the take counts shown for the current phrase, e.g. after a take was saved.
+     */
+    public void refreshTakeCounts() {
+        updatePhraseDisplay();
+    }
+
+    private String describeTakes(Phrase phrase) {
+        int takes = scheduler.getTakeCount(phrase);
+        boolean recordedByUser = scheduler.hasRecorded(phrase);
+        if (takes == 0 && !recordedByUser) {
+            return " - this phrase has no takes yet";
+        }
+        return " - this phrase: " + takes + (takes == 1 ? " take" : " takes")
+                + (recordedByUser ? ", recorded by you" : "");
     }
 }
\ No newline at end of file
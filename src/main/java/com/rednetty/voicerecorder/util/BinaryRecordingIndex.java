@@ -0,0 +1,583 @@
+package com.rednetty.voicerecorder.util;
+
+import com.google.gson.Gson;
+import com.rednetty.voicerecorder.model.RecordingMetadata;
+import com.rednetty.voicerecorder.model.RecordingView;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact, memory-mapped binary snapshot of the global recordings index.
+ *
+ * Layout (little-endian):
+ * <pre>
+ * header   magic, version, record count, string count, sequence, generation and section offsets
+ * blobs    compact JSON of each full RecordingMetadata, only parsed on demand
+ * columns  one fixed-width column per indexed field; string fields hold string table references
+ * strings  offsets into UTF-8 data for every distinct string (user ids, phrase ids, categories, ...)
+ * </pre>
+ * Opening an index maps the file read-only and decodes nothing; fields are read through
+ * flyweight {@link RecordingView}s and full metadata objects are built only when asked for.
+ */
+public class BinaryRecordingIndex implements Closeable {
+    private static final String FILE_PREFIX = "recordings_index.";
+    private static final String FILE_SUFFIX = ".bin";
+    private static final int MAGIC = 0x58495357; // "WSIX"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+
+    // Column numbers; the first seven hold string table references
+    private static final int COL_RECORDING_ID = 0;
+    private static final int COL_USER_ID = 1;
+    private static final int COL_PHRASE_ID = 2;
+    private static final int COL_CATEGORY = 3;
+    private static final int COL_SPEECH_TYPE = 4;
+    private static final int COL_RECORDING_FILE = 5;
+    private static final int COL_TIMESTAMP = 6;
+    private static final int COL_SAMPLE_RATE = 7;
+    private static final int COL_BITS_PER_SAMPLE = 8;
+    private static final int COL_CHANNELS = 9;
+    private static final int COL_BLOB_LENGTH = 10;
+    private static final int INT_COLUMNS = 11;
+    private static final int STRING_COLUMNS = 7;
+
+    private static final Gson GSON = new Gson();
+
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int recordCount;
+    private final int stringCount;
+    private final long sequence;
+    private final long generation;
+    private final int columnsOffset;
+    private final int blobOffsetsOffset;
+    private final int stringOffsetsOffset;
+    private final int stringDataOffset;
+    private final String[] stringCache;
+
+    private BinaryRecordingIndex(Path path) throws IOException {
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        long size = channel.size();
+        if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+            channel.close();
+            throw new IOException("Invalid index file size: " + path);
+        }
+
+        try {
+            this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            channel.close();
+            throw new IOException("Not a recordings index: " + path);
+        }
+
+        this.recordCount = buffer.getInt(8);
+        this.stringCount = buffer.getInt(12);
+        this.sequence = buffer.getLong(16);
+        this.generation = buffer.getLong(24);
+        this.columnsOffset = (int) buffer.getLong(32);
+        this.blobOffsetsOffset = columnsOffset + INT_COLUMNS * 4 * recordCount;
+        this.stringOffsetsOffset = (int) buffer.getLong(40);
+        this.stringDataOffset = stringOffsetsOffset + 4 * (stringCount + 1);
+        this.stringCache = new String[stringCount];
+
+        if (stringDataOffset > size || blobOffsetsOffset + 8L * recordCount > size) {
+            channel.close();
+            throw new IOException("Truncated recordings index: " + path);
+        }
+    }
+
+    /**
+     * Opens the newest index generation in the directory, or returns null if there is none and none
+     * was ever quarantined.
+     * An unreadable generation is never deleted: when {@code quarantine} is set (the caller holds the
+     * corpus lock) it is renamed to {@code *.corrupt} so it is kept for inspection. An older
+     * generation is not used in its place, since the journal entries between the two were
+     * truncated when the newer one was written; the load fails until the newer generation is
+     * restored or its {@code *.corrupt} file is removed to accept the older index.
+     *
+     * @throws IOException if the newest generation, now or when it was quarantined, cannot be read
+     */
+    public static BinaryRecordingIndex openLatest(Path directory, boolean quarantine) throws IOException {
+        List<Path> candidates = listGenerations(directory);
+        candidates.sort((a, b) -> Long.compare(generationOf(b), generationOf(a)));
+        long newestQuarantined = newestQuarantinedGeneration(directory);
+
+        Path unreadable = null;
+        IOException failure = null;
+        for (Path candidate : candidates) {
+            if (failure != null || generationOf(candidate) < newestQuarantined) {
+                String newer = unreadable != null ? unreadable.getFileName().toString()
+                        : FILE_PREFIX + newestQuarantined + FILE_SUFFIX;
+                IOException stale = new IOException("Recordings index " + newer + " is unreadable and "
+                        + candidate.getFileName() + " lacks the recordings committed after it; restore "
+                        + newer + ", or remove the *.corrupt files in " + directory + " to accept the older index");
+                if (failure != null) {
+                    stale.addSuppressed(failure);
+                }
+                throw stale;
+            }
+            try {
+                return new BinaryRecordingIndex(candidate);
+            } catch (IOException e) {
+                System.err.println("Unreadable index " + candidate.getFileName() + ": " + e.getMessage());
+                unreadable = candidate;
+                failure = e;
+                if (quarantine) {
+                    quarantine(candidate);
+                }
+            }
+        }
+        if (failure != null) {
+            throw new IOException("No readable recordings index in " + directory, failure);
+        }
+        if (newestQuarantined >= 0) {
+            // Starting from an empty index would hide every recording the quarantined snapshots held
+            throw new IOException("Only unreadable (*.corrupt) recordings indexes in " + directory
+                    + "; restore one or remove them to rebuild the index from the journal");
+        }
+        return null;
+    }
+
+    // Generation of the newest *.corrupt index, -1 if there is none
+    private static long newestQuarantinedGeneration(Path directory) {
+        long newest = -1;
+        if (!Files.isDirectory(directory)) {
+            return newest;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, FILE_PREFIX + "*.corrupt")) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                int end = name.indexOf('.', FILE_PREFIX.length());
+                try {
+                    newest = Math.max(newest, Long.parseLong(name.substring(FILE_PREFIX.length(), end)));
+                } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+                    // Not named by generation; still blocks starting from an empty index
+                    newest = Math.max(newest, 0);
+                }
+            }
+        } catch (IOException e) {
+            // Cannot tell, so never fall back silently
+            return Long.MAX_VALUE;
+        }
+        return newest;
+    }
+
+    private static void quarantine(Path file) {
+        Path target = file.resolveSibling(file.getFileName() + ".corrupt");
+        if (Files.exists(target)) {
+            target = file.resolveSibling(file.getFileName() + "." + System.currentTimeMillis() + ".corrupt");
+        }
+        try {
+            Files.move(file, target);
+            System.err.println("Moved unreadable index to " + target.getFileName());
+        } catch (IOException e) {
+            System.err.println("Could not move unreadable index " + file.getFileName() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes a new index generation for the given records.
+     * Records that come from a previous index are copied as raw bytes instead of being re-serialized.
+     *
+     * @param sequence the journal sequence number the snapshot covers
+     */
+    public static BinaryRecordingIndex write(Path directory, List<RecordingMetadata> records, long sequence)
+            throws IOException {
+        long generation = 1;
+        for (Path existing : listGenerations(directory)) {
+            generation = Math.max(generation, generationOf(existing) + 1);
+        }
+
+        Path target = directory.resolve(FILE_PREFIX + generation + FILE_SUFFIX);
+        Path tempPath = directory.resolve(FILE_PREFIX + generation + FILE_SUFFIX + ".tmp");
+
+        MappedRecordingList mappedList = records instanceof MappedRecordingList ? (MappedRecordingList) records : null;
+        BinaryRecordingIndex base = mappedList != null ? mappedList.getBase() : null;
+        int baseCount = base != null ? base.size() : 0;
+
+        int count = records.size();
+        int[][] columns = new int[INT_COLUMNS][count];
+        long[] blobOffsets = new long[count];
+        Map<String, Integer> stringIds = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+
+        try (FileChannel out = FileChannel.open(tempPath, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer chunk = ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+            long position = HEADER_SIZE;
+            out.position(position);
+
+            // Blobs first, collecting the column values and the string table as we go
+            View view = base != null ? base.newView() : null;
+            for (int i = 0; i < count; i++) {
+                ByteBuffer blob;
+                if (i < baseCount) {
+                    view.moveTo(i);
+                    for (int c = 0; c < STRING_COLUMNS; c++) {
+                        columns[c][i] = intern(view.getString(c), stringIds, strings);
+                    }
+                    columns[COL_SAMPLE_RATE][i] = view.getInt(COL_SAMPLE_RATE);
+                    columns[COL_BITS_PER_SAMPLE][i] = view.getInt(COL_BITS_PER_SAMPLE);
+                    columns[COL_CHANNELS][i] = view.getInt(COL_CHANNELS);
+                    blob = view.blob();
+                } else {
+                    RecordingMetadata metadata = records.get(i);
+                    columns[COL_RECORDING_ID][i] = intern(metadata.getRecordingId(), stringIds, strings);
+                    columns[COL_USER_ID][i] = intern(metadata.getUserId(), stringIds, strings);
+                    columns[COL_PHRASE_ID][i] = intern(metadata.getPhraseId(), stringIds, strings);
+                    columns[COL_CATEGORY][i] = intern(metadata.getPhraseCategory(), stringIds, strings);
+                    columns[COL_SPEECH_TYPE][i] = intern(metadata.getSpeechType(), stringIds, strings);
+                    columns[COL_RECORDING_FILE][i] = intern(metadata.getRecordingFile(), stringIds, strings);
+                    columns[COL_TIMESTAMP][i] = intern(metadata.getTimestamp(), stringIds, strings);
+                    columns[COL_SAMPLE_RATE][i] = Float.floatToIntBits(
+                            numberProperty(metadata, "sampleRate").floatValue());
+                    columns[COL_BITS_PER_SAMPLE][i] = numberProperty(metadata, "bitsPerSample").intValue();
+                    columns[COL_CHANNELS][i] = numberProperty(metadata, "channels").intValue();
+                    blob = ByteBuffer.wrap(GSON.toJson(metadata).getBytes(StandardCharsets.UTF_8));
+                }
+
+                blobOffsets[i] = position;
+                columns[COL_BLOB_LENGTH][i] = blob.remaining();
+                while (blob.hasRemaining()) {
+                    position += out.write(blob);
+                }
+            }
+
+            // Fixed-width columns
+            long columnsPosition = position;
+            for (int c = 0; c < INT_COLUMNS; c++) {
+                for (int i = 0; i < count; i++) {
+                    if (chunk.remaining() < 4) {
+                        position += flush(out, chunk);
+                    }
+                    chunk.putInt(columns[c][i]);
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                if (chunk.remaining() < 8) {
+                    position += flush(out, chunk);
+                }
+                chunk.putLong(blobOffsets[i]);
+            }
+            position += flush(out, chunk);
+
+            // String table: offsets followed by UTF-8 data
+            long stringsPosition = position;
+            List<byte[]> encoded = new ArrayList<>(strings.size());
+            int dataOffset = 0;
+            for (String value : strings) {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                encoded.add(bytes);
+                if (chunk.remaining() < 4) {
+                    position += flush(out, chunk);
+                }
+                chunk.putInt(dataOffset);
+                dataOffset += bytes.length;
+            }
+            if (chunk.remaining() < 4) {
+                position += flush(out, chunk);
+            }
+            chunk.putInt(dataOffset);
+            position += flush(out, chunk);
+            for (byte[] bytes : encoded) {
+                ByteBuffer data = ByteBuffer.wrap(bytes);
+                while (data.hasRemaining()) {
+                    position += out.write(data);
+                }
+            }
+
+            if (position > Integer.MAX_VALUE) {
+                throw new IOException("Recordings index exceeds 2 GB");
+            }
+
+            // Header last, so a partially written file never has a valid magic number
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(count).putInt(strings.size())
+                    .putLong(sequence).putLong(generation).putLong(columnsPosition).putLong(stringsPosition);
+            header.flip();
+            long headerPosition = 0;
+            while (header.hasRemaining()) {
+                headerPosition += out.write(header, headerPosition);
+            }
+            out.force(true);
+        }
+
+        try {
+            Files.move(tempPath, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempPath, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return new BinaryRecordingIndex(target);
+    }
+
+    /**
+     * Removes the index generations older than the previous one. The previous one is kept for
+     * manual recovery if this one turns out unreadable; it is never loaded in its place. Files
+     * still mapped elsewhere (on platforms that lock them) are left for the next compaction.
+     */
+    public void deleteOtherGenerations() {
+        List<Path> candidates = listGenerations(path.getParent());
+        long previous = -1;
+        for (Path candidate : candidates) {
+            long candidateGeneration = generationOf(candidate);
+            if (candidateGeneration < generationOf(path)) {
+                previous = Math.max(previous, candidateGeneration);
+            }
+        }
+        for (Path candidate : candidates) {
+            long candidateGeneration = generationOf(candidate);
+            if (candidateGeneration != generationOf(path) && candidateGeneration != previous) {
+                deleteQuietly(candidate);
+            }
+        }
+    }
+
+    public int size() {
+        return recordCount;
+    }
+
+    /**
+     * The journal sequence number this snapshot covers; later journal entries are replayed on top.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    public long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Creates a flyweight view; position it with {@link View#moveTo(int)}.
+     */
+    public View newView() {
+        return new View();
+    }
+
+    /**
+     * Builds the full metadata of one recording from its stored JSON.
+     */
+    public RecordingMetadata materialize(int index) {
+        View view = newView();
+        view.moveTo(index);
+        return view.toMetadata();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private String string(int id) {
+        if (id < 0) {
+            return null;
+        }
+        String value = stringCache[id];
+        if (value == null) {
+            int start = buffer.getInt(stringOffsetsOffset + 4 * id);
+            int end = buffer.getInt(stringOffsetsOffset + 4 * (id + 1));
+            byte[] bytes = new byte[end - start];
+            ByteBuffer slice = buffer.duplicate();
+            slice.position(stringDataOffset + start);
+            slice.get(bytes);
+            value = new String(bytes, StandardCharsets.UTF_8).intern();
+            stringCache[id] = value;
+        }
+        return value;
+    }
+
+    /**
+     * Flyweight over one record of the mapped index.
+     */
+    public final class View implements RecordingView {
+        private int index;
+
+        private View() {
+        }
+
+        public View moveTo(int index) {
+            if (index < 0 || index >= recordCount) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + recordCount);
+            }
+            this.index = index;
+            return this;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * String table id of the user id, for cheap grouping without decoding the string.
+         */
+        public int getUserIdRef() {
+            return getInt(COL_USER_ID);
+        }
+
+        /**
+         * String table id of the phrase id.
+         */
+        public int getPhraseIdRef() {
+            return getInt(COL_PHRASE_ID);
+        }
+
+        @Override
+        public String getRecordingId() {
+            return getString(COL_RECORDING_ID);
+        }
+
+        @Override
+        public String getUserId() {
+            return getString(COL_USER_ID);
+        }
+
+        @Override
+        public String getPhraseId() {
+            return getString(COL_PHRASE_ID);
+        }
+
+        @Override
+        public String getPhraseCategory() {
+            return getString(COL_CATEGORY);
+        }
+
+        @Override
+        public String getSpeechType() {
+            return getString(COL_SPEECH_TYPE);
+        }
+
+        @Override
+        public String getRecordingFile() {
+            return getString(COL_RECORDING_FILE);
+        }
+
+        @Override
+        public String getTimestamp() {
+            return getString(COL_TIMESTAMP);
+        }
+
+        @Override
+        public float getSampleRate() {
+            return Float.intBitsToFloat(getInt(COL_SAMPLE_RATE));
+        }
+
+        @Override
+        public int getBitsPerSample() {
+            return getInt(COL_BITS_PER_SAMPLE);
+        }
+
+        @Override
+        public int getChannels() {
+            return getInt(COL_CHANNELS);
+        }
+
+        @Override
+        public RecordingMetadata toMetadata() {
+            ByteBuffer blob = blob();
+            byte[] bytes = new byte[blob.remaining()];
+            blob.get(bytes);
+            return GSON.fromJson(new String(bytes, StandardCharsets.UTF_8), RecordingMetadata.class);
+        }
+
+        private int getInt(int column) {
+            return buffer.getInt(columnsOffset + 4 * (column * recordCount + index));
+        }
+
+        private String getString(int column) {
+            return string(getInt(column));
+        }
+
+        private ByteBuffer blob() {
+            int offset = (int) buffer.getLong(blobOffsetsOffset + 8 * index);
+            ByteBuffer slice = buffer.duplicate();
+            slice.position(offset);
+            slice.limit(offset + getInt(COL_BLOB_LENGTH));
+            return slice;
+        }
+    }
+
+    private static int intern(String value, Map<String, Integer> ids, List<String> strings) {
+        if (value == null) {
+            return -1;
+        }
+        Integer id = ids.get(value);
+        if (id == null) {
+            id = strings.size();
+            ids.put(value, id);
+            strings.add(value);
+        }
+        return id;
+    }
+
+    private static Number numberProperty(RecordingMetadata metadata, String key) {
+        Object value = metadata.getAudioProperties() != null ? metadata.getAudioProperties().get(key) : null;
+        return value instanceof Number ? (Number) value : Integer.valueOf(0);
+    }
+
+    private static int flush(FileChannel out, ByteBuffer chunk) throws IOException {
+        chunk.flip();
+        int written = 0;
+        while (chunk.hasRemaining()) {
+            written += out.write(chunk);
+        }
+        chunk.clear();
+        return written;
+    }
+
+    private static List<Path> listGenerations(Path directory) {
+        List<Path> result = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return result;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, FILE_PREFIX + "*" + FILE_SUFFIX)) {
+            for (Path candidate : stream) {
+                if (generationOf(candidate) > 0) {
+                    result.add(candidate);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error listing index files: " + e.getMessage());
+        }
+        return result;
+    }
+
+    private static long generationOf(Path file) {
+        String name = file.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(FILE_PREFIX.length(), name.length() - FILE_SUFFIX.length()));
+        } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+            return -1;
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            // Still mapped or locked; retried on the next startup
+        }
+    }
+}
@@ -0,0 +1,353 @@
+package com.rednetty.voicerecorder.util;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.rednetty.voicerecorder.model.RecordingMetadata;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Export stage that packs the corpus into a few large shard files for training pipelines, which
+ * then read sequentially instead of paying an open and a stat for every small file.
+ *
+ * Recordings are grouped by user and category and the groups are dealt out round-robin, each
+ * recording going to the shard with the fewest bytes so far. Every shard therefore holds a similar
+ * amount of audio and a similar mix of speakers and categories, so any subset of shards is a fair
+ * sample of the corpus. Shards are written in parallel as {@code shard-NNNNN.wss} files (see
+ * {@link RecordingShardWriter}) next to a {@code manifest.json} describing each of them.
+ *
+ * The export covers the index as it was when it started; takes recorded meanwhile are left out.
+ */
+public class CorpusExporter {
+    public static final String MANIFEST_FILE = "manifest.json";
+    public static final String SHARD_EXTENSION = ".wss";
+    public static final long DEFAULT_SHARD_BYTES = 256L * 1024 * 1024;
+
+    private final DataManager dataManager;
+    private final Path outputDirectory;
+    private final long targetShardBytes;
+    private final int threads;
+    private final Gson gson = new Gson();
+    private final Gson manifestGson = new GsonBuilder().setPrettyPrinting().create();
+
+    private final AtomicLong recordsWritten = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private volatile int totalRecords;
+
+    /**
+     * @param targetShardBytes approximate size of each shard; only the audio is counted when planning
+     */
+    public CorpusExporter(DataManager dataManager, Path outputDirectory, long targetShardBytes, int threads) {
+        this.dataManager = dataManager;
+        this.outputDirectory = outputDirectory;
+        this.targetShardBytes = Math.max(1, targetShardBytes);
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Exports every indexed recording. Recordings whose audio file is missing are listed in the
+     * manifest and skipped.
+     */
+    public Manifest export() throws IOException {
+        Manifest manifest = new Manifest();
+        manifest.created = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ", Locale.ROOT).format(new Date());
+        manifest.targetShardBytes = targetShardBytes;
+
+        // One snapshot for planning and writing; recordings committed meanwhile are left for the next export
+        MappedRecordingList recordings = dataManager.getIndexSnapshot();
+        List<Item> items = collect(recordings, manifest.missingRecordings);
+        totalRecords = items.size();
+        List<List<Item>> plan = plan(items);
+
+        Files.createDirectories(outputDirectory);
+        ExecutorService workers = Executors.newFixedThreadPool(Math.min(threads, plan.size()));
+        try {
+            List<Future<ShardInfo>> shards = new ArrayList<>();
+            for (int i = 0; i < plan.size(); i++) {
+                int shardNumber = i;
+                shards.add(workers.submit(() -> writeShard(shardNumber, plan.get(shardNumber), recordings, manifest)));
+            }
+            for (Future<ShardInfo> shard : shards) {
+                ShardInfo info = shard.get();
+                manifest.shards.add(info);
+                manifest.recordings += info.records;
+                manifest.bytes += info.bytes;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Export interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        } finally {
+            workers.shutdownNow();
+        }
+
+        writeManifest(manifest);
+        return manifest;
+    }
+
+    public long getRecordsWritten() {
+        return recordsWritten.get();
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    /**
+     * Number of recordings being exported, known once planning is done.
+     */
+    public int getTotalRecords() {
+        return totalRecords;
+    }
+
+    /**
+     * Reads every shard of an export back, checking record CRCs and counts against the manifest.
+     *
+     * @return the number of recordings read
+     */
+    public static long verify(Path exportDirectory) throws IOException {
+        Manifest manifest;
+        try (Reader reader = Files.newBufferedReader(exportDirectory.resolve(MANIFEST_FILE), StandardCharsets.UTF_8)) {
+            manifest = new Gson().fromJson(reader, Manifest.class);
+        }
+        if (manifest == null || manifest.shards == null) {
+            throw new IOException("Empty export manifest in " + exportDirectory);
+        }
+        long records = 0;
+        for (ShardInfo shard : manifest.shards) {
+            try (RecordingShardReader reader = new RecordingShardReader(exportDirectory.resolve(shard.file))) {
+                while (reader.next() != null) {
+                    records++;
+                }
+                if (reader.getRecordsRead() != shard.records) {
+                    throw new IOException(shard.file + " holds " + reader.getRecordsRead()
+                            + " records but the manifest lists " + shard.records);
+                }
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Gathers the indexed fields and audio location of every recording in one pass over the index.
+     */
+    private List<Item> collect(MappedRecordingList recordings, List<String> missing) {
+        List<Item> items = new ArrayList<>();
+        int[] position = {0};
+        recordings.forEachView(view -> {
+            int index = position[0]++;
+            String recordingId = view.getRecordingId();
+            File audioFile = view.getRecordingFile() != null
+                    ? new File(dataManager.getRecordingDirectory(recordingId), view.getRecordingFile()) : null;
+            long size = audioFile != null ? audioFile.length() : 0;
+            if (audioFile == null || size == 0 && !audioFile.isFile()) {
+                missing.add(recordingId);
+                return;
+            }
+            items.add(new Item(index, recordingId, String.valueOf(view.getUserId()),
+                    String.valueOf(view.getPhraseCategory()), audioFile.toPath(), size));
+        });
+        return items;
+    }
+
+    /**
+     * Assigns recordings to shards, interleaving user/category groups and balancing bytes.
+     */
+    private List<List<Item>> plan(List<Item> items) {
+        Map<String, ArrayDeque<Item>> groups = new TreeMap<>();
+        long totalBytes = 0;
+        for (Item item : items) {
+            groups.computeIfAbsent(item.userId + '\u0000' + item.category, key -> new ArrayDeque<>()).add(item);
+            totalBytes += item.size;
+        }
+
+        int shardCount = (int) Math.max(1, Math.min(items.size(), (totalBytes + targetShardBytes - 1) / targetShardBytes));
+        List<List<Item>> shards = new ArrayList<>(shardCount);
+        long[] shardBytes = new long[shardCount];
+        // Least-loaded shard first; ties go to the lower shard number
+        PriorityQueue<Integer> byLoad = new PriorityQueue<>(shardCount, (a, b) ->
+                shardBytes[a] != shardBytes[b] ? Long.compare(shardBytes[a], shardBytes[b]) : Integer.compare(a, b));
+        for (int i = 0; i < shardCount; i++) {
+            shards.add(new ArrayList<>());
+            byLoad.add(i);
+        }
+
+        List<ArrayDeque<Item>> remaining = new ArrayList<>(groups.values());
+        while (!remaining.isEmpty()) {
+            Iterator<ArrayDeque<Item>> it = remaining.iterator();
+            while (it.hasNext()) {
+                ArrayDeque<Item> group = it.next();
+                Item item = group.poll();
+                int shard = byLoad.poll();
+                shards.get(shard).add(item);
+                shardBytes[shard] += item.size;
+                byLoad.add(shard);
+                if (group.isEmpty()) {
+                    it.remove();
+                }
+            }
+        }
+        return shards;
+    }
+
+    private ShardInfo writeShard(int shardNumber, List<Item> items, List<RecordingMetadata> recordings,
+                                 Manifest manifest) throws IOException {
+        ShardInfo info = new ShardInfo();
+        info.file = String.format(Locale.ROOT, "shard-%05d%s", shardNumber, SHARD_EXTENSION);
+        Path target = outputDirectory.resolve(info.file);
+        Path temp = outputDirectory.resolve(info.file + ".tmp");
+
+        Set<String> users = new HashSet<>();
+        RecordingShardWriter writer = new RecordingShardWriter(temp);
+        try {
+            for (Item item : items) {
+                RecordingMetadata metadata = recordings.get(item.index);
+                long before = writer.getBytesWritten();
+                try {
+                    writer.append(gson.toJson(metadata), item.audioFile);
+                } catch (NoSuchFileException e) {
+                    // Deleted after planning; nothing was written for it
+                    synchronized (manifest) {
+                        manifest.missingRecordings.add(item.recordingId);
+                    }
+                    continue;
+                }
+                users.add(item.userId);
+                info.categories.merge(item.category, 1, Integer::sum);
+                recordsWritten.incrementAndGet();
+                bytesWritten.addAndGet(writer.getBytesWritten() - before);
+            }
+            info.sha256 = writer.finish();
+        } catch (IOException | RuntimeException e) {
+            writer.close();
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+
+        info.records = writer.getRecordCount();
+        info.bytes = writer.getBytesWritten();
+        info.users = users.size();
+        try {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return info;
+    }
+
+    private void writeManifest(Manifest manifest) throws IOException {
+        Path target = outputDirectory.resolve(MANIFEST_FILE);
+        Path temp = outputDirectory.resolve(MANIFEST_FILE + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            manifestGson.toJson(manifest, writer);
+        }
+        try {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static class Item {
+        final int index;
+        final String recordingId;
+        final String userId;
+        final String category;
+        final Path audioFile;
+        final long size;
+
+        Item(int index, String recordingId, String userId, String category, Path audioFile, long size) {
+            this.index = index;
+            this.recordingId = recordingId;
+            this.userId = userId;
+            this.category = category;
+            this.audioFile = audioFile;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Contents of {@code manifest.json}.
+     */
+    public static class Manifest {
+        String format = "WSSH/" + RecordingShardWriter.VERSION;
+        String created;
+        long targetShardBytes;
+        int recordings;
+        long bytes;
+        final List<ShardInfo> shards = new ArrayList<>();
+        final List<String> missingRecordings = new ArrayList<>();
+
+        public int getRecordings() {
+            return recordings;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public List<ShardInfo> getShards() {
+            return shards;
+        }
+
+        public List<String> getMissingRecordings() {
+            return missingRecordings;
+        }
+    }
+
+    /**
+     * One shard in the manifest.
+     */
+    public static class ShardInfo {
+        String file;
+        int records;
+        long bytes;
+        String sha256;
+        int users;
+        final Map<String, Integer> categories = new TreeMap<>();
+
+        public String getFile() {
+            return file;
+        }
+
+        public int getRecords() {
+            return records;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public String getSha256() {
+            return sha256;
+        }
+    }
+}
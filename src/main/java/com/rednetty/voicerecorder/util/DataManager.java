@@ -2,44 +2,105 @@ package com.rednetty.voicerecorder.util;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import com.google.gson.reflect.TypeToken;
+import com.rednetty.voicerecorder.audio.FlacEncoder;
+import com.rednetty.voicerecorder.audio.LogMelFeatureFile;
+import com.rednetty.voicerecorder.metrics.Counter;
+import com.rednetty.voicerecorder.metrics.Histogram;
+import com.rednetty.voicerecorder.metrics.MetricsRegistry;
 import com.rednetty.voicerecorder.model.Phrase;
 import com.rednetty.voicerecorder.model.RecordingMetadata;
+import com.rednetty.voicerecorder.model.RecordingView;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.lang.reflect.Type;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 /**
  * Handles data loading and saving operations.
  * Updated to store each recording in its own directory with individual metadata.
+ *
+ * The global index has a single writer: loading, committing and compacting are serialized on this
+ * object, and in the application only the persistence queue's thread commits. Every change
+ * publishes a new immutable snapshot, so readers ({@link #getRecordingsMetadata()},
+ * {@link #forEachRecording(Consumer)}, exporters and validators) never lock and never see a
+ * half-applied commit, however long they hold on to it.
  */
 public class DataManager {
+    public static final String CODEC_WAV = "wav";
+    public static final String LOCK_FILE = "recordings.lock";
+
+    private static final Histogram ADD_LATENCY = MetricsRegistry.getDefault().histogram("datamanager.addMicros");
+    private static final Counter ADD_ERRORS = MetricsRegistry.getDefault().counter("datamanager.addErrors");
+    private static final Histogram ENCODE_LATENCY = MetricsRegistry.getDefault().histogram("encoder.flacMicros");
+    private static final Counter ENCODE_FAILURES = MetricsRegistry.getDefault().counter("encoder.failures");
+    private static final Histogram STORE_LATENCY = MetricsRegistry.getDefault().histogram("store.filesMicros");
+    private static final Histogram COMMIT_LATENCY = MetricsRegistry.getDefault().histogram("index.commitMicros");
+    private static final Counter COMMITTED = MetricsRegistry.getDefault().counter("index.recordingsCommitted");
+    private static final Histogram SNAPSHOT_LATENCY = MetricsRegistry.getDefault().histogram("index.snapshotMicros");
+    private static final Counter SNAPSHOT_ERRORS = MetricsRegistry.getDefault().counter("index.snapshotErrors");
+    private static final Histogram LOAD_LATENCY = MetricsRegistry.getDefault().histogram("index.loadMicros");
+
     private final String baseOutputDirectory;
     private final String globalMetadataFile;
     private final Gson gson;
+    private final RecordingIndexJournal indexJournal;
+    private final RecordingStoreLayout storeLayout;
 
     private List<Phrase> phrases;
-    private List<RecordingMetadata> recordingsMetadata;
+    // Written only while holding this object's lock; read without it
+    private volatile MappedRecordingList recordingsMetadata;
+    private volatile boolean indexLoaded;
+    private volatile RecordingQueryIndex queryIndex;
+    // Serializes exports, which write one file, without holding up commits
+    private final Object exportLock = new Object();
+    private final List<Consumer<RecordingView>> commitListeners = new CopyOnWriteArrayList<>();
+    private RecordingPersistenceQueue persistenceQueue;
+    private volatile boolean compressAudio;
+    private ExecutorService encodingPool;
+    private FileChannel lockChannel;
 
     public DataManager(String baseOutputDirectory) {
         this.baseOutputDirectory = baseOutputDirectory;
-        this.globalMetadataFile = "recordings_index.json";
+        this.globalMetadataFile = RecordingIndexJournal.LEGACY_INDEX_FILE;
         // Use pretty printing for better readability
         this.gson = new GsonBuilder().setPrettyPrinting().create();
+        this.indexJournal = new RecordingIndexJournal(Paths.get(baseOutputDirectory));
         this.phrases = new ArrayList<>();
-        this.recordingsMetadata = new ArrayList<>();
+        this.recordingsMetadata = new MappedRecordingList(null, null);
 
         // Create base output directory if it doesn't exist
         createBaseOutputDirectory();
+        this.storeLayout = openStoreLayout();
+    }
+
+    private RecordingStoreLayout openStoreLayout() {
+        Path directory = Paths.get(baseOutputDirectory);
+        try {
+            return RecordingStoreLayout.open(directory);
+        } catch (IOException e) {
+            System.err.println("Error reading store layout, using flat directories: " + e.getMessage());
+            return RecordingStoreLayout.flat(directory);
+        }
     }
 
     public void createBaseOutputDirectory() {
@@ -49,13 +110,28 @@ public class DataManager {
         }
     }
 
+    /**
+     * Stores new recordings as lossless FLAC instead of WAV, typically about half the size.
+     * The codec is recorded in each recording's audio properties.
+     */
+    public void setCompressAudio(boolean compressAudio) {
+        this.compressAudio = compressAudio;
+    }
+
+    public boolean isCompressAudio() {
+        return compressAudio;
+    }
+
+    /**
+     * Loads phrases lazily: an offset index is built on the first pass (and cached next to
+     * the file), and phrases are parsed in pages as they are accessed.
+     */
     public List<Phrase> loadPhrases(String phrasesJsonFile) {
         try {
-            String jsonContent = readJsonFile(phrasesJsonFile);
-            Type phraseListType = new TypeToken<ArrayList<Phrase>>(){}.getType();
-            phrases = gson.fromJson(jsonContent, phraseListType);
+            Path phrasesPath = Paths.get(phrasesJsonFile);
+            phrases = new PagedPhraseList(phrasesPath, PhraseIndex.loadOrBuild(phrasesPath));
 
-            if (phrases == null || phrases.isEmpty()) {
+            if (phrases.isEmpty()) {
                 phrases = new ArrayList<>();
                 // Add a fallback phrase if none are loaded
                 phrases.add(new Phrase("fallback", "No phrases loaded from JSON. Please check your phrases.json file.", "general"));
@@ -70,36 +146,167 @@ public class DataManager {
         return phrases;
     }
 
-    public List<RecordingMetadata> loadGlobalMetadata() {
-        Path metadataPath = Paths.get(baseOutputDirectory, globalMetadataFile);
-        if (Files.exists(metadataPath)) {
-            try {
-                String jsonContent = new String(Files.readAllBytes(metadataPath));
-                Type metadataListType = new TypeToken<ArrayList<RecordingMetadata>>(){}.getType();
-                recordingsMetadata = gson.fromJson(jsonContent, metadataListType);
-
-                if (recordingsMetadata == null) {
-                    recordingsMetadata = new ArrayList<>();
+    /**
+     * Loads the global index: the binary snapshot is memory-mapped and only journal entries
+     * added after it are parsed. Without a binary snapshot the index is rebuilt from the
+     * journal (or a legacy JSON index), and a snapshot is written for the next startup if this
+     * DataManager holds the corpus lock. Tools that only read the corpus never rewrite its index.
+     *
+     * If the newest snapshot cannot be read, the index is left empty and not marked loaded, so
+     * nothing is committed or compacted over it (see {@link #isIndexLoaded()}); an older snapshot
+     * would miss the recordings committed since it.
+     */
+    public synchronized List<RecordingMetadata> loadGlobalMetadata() {
+        long startNanos = System.nanoTime();
+        Path directory = Paths.get(baseOutputDirectory);
+        try {
+            BinaryRecordingIndex snapshot = BinaryRecordingIndex.openLatest(directory, lockChannel != null);
+            if (snapshot != null) {
+                recordingsMetadata = new MappedRecordingList(snapshot, indexJournal.loadTail(snapshot.getSequence()));
+                indexLoaded = true;
+            } else {
+                recordingsMetadata = new MappedRecordingList(null, indexJournal.load());
+                indexLoaded = true;
+                // Only the owner of the corpus may compact it; another process may be appending to the journal
+                if (!recordingsMetadata.isEmpty() && lockChannel != null) {
+                    saveGlobalMetadata(recordingsMetadata);
                 }
-            } catch (IOException e) {
-                System.err.println("Error loading global metadata: " + e.getMessage());
-                recordingsMetadata = new ArrayList<>();
             }
+        } catch (IOException e) {
+            System.err.println("ERROR: the global index in " + directory + " could not be loaded and will not be"
+                    + " written to: " + e.getMessage());
+            recordingsMetadata = new MappedRecordingList(null, null);
+            indexLoaded = false;
         }
+        // Rebuilt on the next query
+        queryIndex = null;
+        LOAD_LATENCY.recordMicrosSince(startNanos);
 
         return recordingsMetadata;
     }
 
-    public void saveGlobalMetadata(List<RecordingMetadata> metadata) {
-        Path metadataPath = Paths.get(baseOutputDirectory, globalMetadataFile);
+    /**
+     * Whether the global index was read successfully. False before {@link #loadGlobalMetadata()}
+     * and after a load that found only unreadable snapshots.
+     */
+    public boolean isIndexLoaded() {
+        return indexLoaded;
+    }
+
+    /**
+     * Writes the given index as a compacted binary snapshot and clears the journal. A list obtained
+     * from {@link #getRecordingsMetadata()} stands for the current index, so recordings committed
+     * after it was taken are kept.
+     *
+     * Does nothing unless the index has been loaded and this DataManager holds the corpus lock
+     * (see {@link #lockCorpus()}), since a snapshot replaces the journal and every other generation.
+     */
+    public synchronized void saveGlobalMetadata(List<RecordingMetadata> metadata) {
+        if (!indexLoaded || lockChannel == null) {
+            System.err.println("Not saving the global index: "
+                    + (!indexLoaded ? "it was never loaded" : "the corpus is not locked by this recorder"));
+            return;
+        }
+        MappedRecordingList current = recordingsMetadata;
+        if (metadata instanceof MappedRecordingList) {
+            metadata = current;
+        }
+        if (metadata == current && current.getTailSize() == 0 && current.getBase() != null) {
+            // Nothing added since the last snapshot
+            return;
+        }
+
+        long startNanos = System.nanoTime();
+        Path directory = Paths.get(baseOutputDirectory);
         try {
-            String jsonContent = gson.toJson(metadata);
-            Files.write(metadataPath, jsonContent.getBytes());
+            BinaryRecordingIndex snapshot = BinaryRecordingIndex.write(directory, metadata, indexJournal.getLastSequence());
+            indexJournal.truncate();
+            recordingsMetadata = new MappedRecordingList(snapshot, null);
+            if (metadata != current) {
+                // Positions in the query index refer to the old list
+                queryIndex = null;
+            }
+            if (current.getBase() != null) {
+                // Readers still holding the old snapshot keep using its mapping, which outlives the channel
+                current.getBase().close();
+            }
+            snapshot.deleteOtherGenerations();
+            SNAPSHOT_LATENCY.recordMicrosSince(startNanos);
         } catch (IOException e) {
+            SNAPSHOT_ERRORS.increment();
             System.err.println("Error saving global metadata: " + e.getMessage());
         }
     }
 
+    /**
+     * Visits every indexed recording through a lightweight view, without building full metadata objects.
+     * The scan covers the index as it was when it started and does not hold up commits.
+     */
+    public void forEachRecording(Consumer<RecordingView> action) {
+        recordingsMetadata.forEachView(action);
+    }
+
+    /**
+     * Secondary indexes by phrase, user, category and speech type. Built with one pass over the
+     * global index on first use and then updated as each recording is committed.
+     */
+    public RecordingQueryIndex getQueryIndex() {
+        RecordingQueryIndex index = queryIndex;
+        return index != null ? index : buildQueryIndex();
+    }
+
+    private synchronized RecordingQueryIndex buildQueryIndex() {
+        if (queryIndex == null) {
+            if (!indexLoaded) {
+                loadGlobalMetadata();
+            }
+            RecordingQueryIndex index = new RecordingQueryIndex();
+            recordingsMetadata.forEachView(view -> index.add(view.getPhraseId(), view.getUserId(),
+                    view.getPhraseCategory(), view.getSpeechType()));
+            queryIndex = index;
+        }
+        return queryIndex;
+    }
+
+    /**
+     * Calls the listener with every recording from position {@code replayFrom} of the global index
+     * on, then with each recording committed afterwards (on the persistence thread). Lets a
+     * component that keeps its own state catch up with the index without rescanning it.
+     */
+    public synchronized void addCommitListener(int replayFrom, Consumer<RecordingView> listener) {
+        if (!indexLoaded) {
+            loadGlobalMetadata();
+        }
+        recordingsMetadata.forEachView(replayFrom, listener);
+        commitListeners.add(listener);
+    }
+
+    /**
+     * Every take of a phrase, oldest first, looked up through the query index.
+     */
+    public List<RecordingMetadata> getTakesForPhrase(String phraseId) {
+        MappedRecordingList snapshot = recordingsMetadata;
+        int[] positions = getQueryIndex().getTakePositions(phraseId);
+        List<RecordingMetadata> takes = new ArrayList<>(positions.length);
+        for (int position : positions) {
+            // Takes committed after the snapshot was taken are left out
+            if (position < snapshot.size()) {
+                takes.add(snapshot.get(position));
+            }
+        }
+        return takes;
+    }
+
+    /**
+     * Exports the global index as a single pretty-printed {@code recordings_index.json}.
+     */
+    public void exportGlobalMetadata() throws IOException {
+        MappedRecordingList snapshot = recordingsMetadata;
+        synchronized (exportLock) {
+            indexJournal.exportJson(snapshot, Paths.get(baseOutputDirectory, globalMetadataFile), gson);
+        }
+    }
+
     /**
      * Adds a new recording metadata and saves both individual metadata file and updates global index.
      *
@@ -108,48 +315,247 @@ public class DataManager {
      * @return true if successful, false otherwise
      */
     public boolean addRecordingWithMetadata(RecordingMetadata metadata, String audioFilePath) {
-        if (recordingsMetadata == null) {
-            recordingsMetadata = new ArrayList<>();
+        long startNanos = System.nanoTime();
+        try {
+            storeRecordingFiles(metadata, encodeForStorage(metadata, audioFilePath));
+            commitToIndex(Collections.singletonList(metadata));
+            ADD_LATENCY.recordMicrosSince(startNanos);
+            return true;
+        } catch (IOException e) {
+            ADD_ERRORS.increment();
+            System.err.println("Error saving recording metadata: " + e.getMessage());
+            e.printStackTrace();
+            return false;
         }
+    }
+
+    /**
+     * Queues a recording for the background persistence stage and returns immediately.
+     * Several queued recordings are committed to the global index with a single flush.
+     * With compression enabled the take is first encoded on the encoding pool, so neither
+     * the caller nor the single persistence writer waits for the encoder.
+     *
+     * @param metadata The recording metadata to add
+     * @param audioFilePath The full path to the audio file
+     * @return a future completed with the stored metadata once it is on disk and indexed
+     */
+    public CompletableFuture<RecordingMetadata> addRecordingWithMetadataAsync(RecordingMetadata metadata,
+                                                                             String audioFilePath) {
+        if (!compressAudio) {
+            metadata.addAudioProperty("codec", CODEC_WAV);
+            return getPersistenceQueue().submit(metadata, audioFilePath);
+        }
+        return CompletableFuture.supplyAsync(() -> encodeForStorage(metadata, audioFilePath), getEncodingPool())
+                .thenCompose(storedPath -> getPersistenceQueue().submit(metadata, storedPath));
+    }
 
+    /**
+     * Converts a WAV take to FLAC next to it when compression is enabled, deleting the WAV,
+     * and records the codec in the metadata. Returns the path of the file to store. If the take
+     * cannot be encoded it is kept as WAV rather than lost.
+     */
+    String encodeForStorage(RecordingMetadata metadata, String audioFilePath) {
+        File wavFile = new File(audioFilePath).getAbsoluteFile();
+        String name = wavFile.getName();
+        if (compressAudio && name.toLowerCase(Locale.ROOT).endsWith(".wav")) {
+            File flacFile = new File(wavFile.getParentFile(),
+                    name.substring(0, name.length() - ".wav".length()) + FlacEncoder.FILE_EXTENSION);
+            long startNanos = System.nanoTime();
+            try {
+                long originalBytes = wavFile.length();
+                long storedBytes = FlacEncoder.transcode(wavFile, flacFile);
+                ENCODE_LATENCY.recordMicrosSince(startNanos);
+                Files.delete(wavFile.toPath());
+
+                metadata.addAudioProperty("codec", FlacEncoder.CODEC);
+                metadata.addAudioProperty("compressionRatio",
+                        originalBytes > 0 ? (double) storedBytes / originalBytes : 1.0);
+                return flacFile.getPath();
+            } catch (IOException | IllegalArgumentException e) {
+                ENCODE_FAILURES.increment();
+                System.err.println("Could not compress " + name + ", storing it as WAV: " + e.getMessage());
+                flacFile.delete();
+            }
+        }
+        metadata.addAudioProperty("codec", CODEC_WAV);
+        return audioFilePath;
+    }
+
+    /**
+     * Moves the audio file, and its log-mel feature sidecar if there is one, into its recording
+     * directory and writes the individual metadata file. Does not touch the global index.
+     */
+    void storeRecordingFiles(RecordingMetadata metadata, String audioFilePath) throws IOException {
+        long startNanos = System.nanoTime();
+        // Create a unique directory for this recording
+        File recordingDir = getRecordingDirectory(metadata.getRecordingId());
+        recordingDir.mkdirs();
+
+        // Move the audio file to the recording directory
+        File sourceAudioFile = new File(audioFilePath);
+        File destAudioFile = new File(recordingDir, sourceAudioFile.getName());
+
+        // If the source is already in the final location, no need to move
+        if (!sourceAudioFile.getAbsolutePath().equals(destAudioFile.getAbsolutePath())) {
+            moveFile(sourceAudioFile.toPath(), destAudioFile.toPath());
+        }
+
+        // Update the recording file path in metadata
+        metadata.setRecordingFile(destAudioFile.getName());
+
+        // Features computed during capture sit next to the take under the same name
+        File sourceFeatureFile = LogMelFeatureFile.featureFileFor(sourceAudioFile);
+        if (sourceFeatureFile.isFile()) {
+            File destFeatureFile = new File(recordingDir, sourceFeatureFile.getName());
+            if (!sourceFeatureFile.getAbsolutePath().equals(destFeatureFile.getAbsolutePath())) {
+                moveFile(sourceFeatureFile.toPath(), destFeatureFile.toPath());
+            }
+            metadata.setFeatureFile(destFeatureFile.getName());
+            try {
+                metadata.getAudioProperties().putAll(LogMelFeatureFile.read(destFeatureFile).toAudioProperties());
+            } catch (IOException e) {
+                System.err.println("Unreadable feature file " + destFeatureFile + ": " + e.getMessage());
+            }
+        }
+
+        // Save individual metadata file
+        File metadataFile = new File(recordingDir, "metadata.json");
+        try (FileWriter writer = new FileWriter(metadataFile)) {
+            writer.write(gson.toJson(metadata));
+        }
+        STORE_LATENCY.recordMicrosSince(startNanos);
+    }
+
+    /**
+     * Claims the corpus for this DataManager, so no other process (or second DataManager in this
+     * one) can write to its index at the same time. Taken automatically before the first commit;
+     * call it at startup to fail before any recording is made. Held until the process exits.
+     *
+     * @throws IOException if another writer holds the corpus
+     */
+    public synchronized void lockCorpus() throws IOException {
+        if (lockChannel != null) {
+            return;
+        }
+        Path lockFile = Paths.get(baseOutputDirectory, LOCK_FILE);
+        FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock;
         try {
-            // Create a unique directory for this recording
-            String recordingDirName = metadata.getRecordingId();
-            File recordingDir = new File(baseOutputDirectory, recordingDirName);
-            recordingDir.mkdirs();
-
-            // Copy the audio file to the recording directory
-            File sourceAudioFile = new File(audioFilePath);
-            File destAudioFile = new File(recordingDir, sourceAudioFile.getName());
-
-            // If the source is already in the final location, no need to copy
-            if (!sourceAudioFile.getAbsolutePath().equals(destAudioFile.getAbsolutePath())) {
-                Files.copy(sourceAudioFile.toPath(), destAudioFile.toPath());
-
-                // Delete the original file if it was copied successfully
-                if (destAudioFile.exists() && destAudioFile.length() == sourceAudioFile.length()) {
-                    sourceAudioFile.delete();
+            lock = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        if (lock == null) {
+            channel.close();
+            throw new IOException("The corpus in " + baseOutputDirectory + " is in use by another recorder");
+        }
+        lockChannel = channel;
+    }
+
+    /**
+     * Adds already stored recordings to the global index with a single journal append.
+     * The index is compacted into a new snapshot once the journal grows long enough.
+     */
+    synchronized void commitToIndex(List<RecordingMetadata> batch) throws IOException {
+        lockCorpus();
+        if (!indexLoaded) {
+            // Never compact over an index that was not read yet
+            loadGlobalMetadata();
+            if (!indexLoaded) {
+                throw new IOException("The global index could not be loaded; not committing " + batch.size()
+                        + " recording(s) to it");
+            }
+        }
+        long startNanos = System.nanoTime();
+        indexJournal.append(batch);
+        recordingsMetadata = recordingsMetadata.append(batch);
+        COMMITTED.add(batch.size());
+        if (queryIndex != null) {
+            for (RecordingMetadata metadata : batch) {
+                queryIndex.add(metadata.getPhraseId(), metadata.getUserId(),
+                        metadata.getPhraseCategory(), metadata.getSpeechType());
+            }
+        }
+        for (Consumer<RecordingView> listener : commitListeners) {
+            for (RecordingMetadata metadata : batch) {
+                try {
+                    listener.accept(MappedRecordingList.view(metadata));
+                } catch (RuntimeException e) {
+                    // The recording is stored either way
+                    System.err.println("Error in commit listener: " + e.getMessage());
+                    e.printStackTrace();
                 }
             }
+        }
+
+        COMMIT_LATENCY.recordMicrosSince(startNanos);
 
-            // Update the recording file path in metadata
-            metadata.setRecordingFile(destAudioFile.getName());
+        if (indexJournal.needsCompaction()) {
+            saveGlobalMetadata(recordingsMetadata);
+        }
+    }
 
-            // Save individual metadata file
-            File metadataFile = new File(recordingDir, "metadata.json");
-            try (FileWriter writer = new FileWriter(metadataFile)) {
-                writer.write(gson.toJson(metadata));
+    /**
+     * Waits for all queued recordings to be persisted and stops the background stage.
+     * Call before exiting the application.
+     */
+    public void shutdown() {
+        ExecutorService pool;
+        synchronized (this) {
+            pool = encodingPool;
+            encodingPool = null;
+        }
+        // Encoded takes are handed to the persistence queue, so drain the encoders first
+        if (pool != null) {
+            pool.shutdown();
+            try {
+                pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
+        }
 
-            // Add to global metadata list and save
-            recordingsMetadata.add(metadata);
-            saveGlobalMetadata(recordingsMetadata);
+        RecordingPersistenceQueue queue;
+        synchronized (this) {
+            queue = persistenceQueue;
+            persistenceQueue = null;
+        }
+        if (queue != null) {
+            queue.shutdown();
+        }
+    }
 
-            return true;
-        } catch (IOException e) {
-            System.err.println("Error saving recording metadata: " + e.getMessage());
-            e.printStackTrace();
-            return false;
+    private synchronized RecordingPersistenceQueue getPersistenceQueue() {
+        if (persistenceQueue == null) {
+            persistenceQueue = new RecordingPersistenceQueue(this);
+        }
+        return persistenceQueue;
+    }
+
+    private synchronized ExecutorService getEncodingPool() {
+        if (encodingPool == null) {
+            // Leave a core for capture; encoder threads also run below normal priority
+            int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+            AtomicInteger threadCount = new AtomicInteger();
+            encodingPool = Executors.newFixedThreadPool(threads, task -> {
+                Thread thread = new Thread(task, "audio-encoder-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                return thread;
+            });
+        }
+        return encodingPool;
+    }
+
+    private static void moveFile(Path source, Path target) throws IOException {
+        try {
+            // A rename within the same file system; no copy of the audio data
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
         }
     }
 
@@ -168,22 +574,33 @@ public class DataManager {
         return tempDir.getPath() + File.separator + recordingId + ".wav";
     }
 
+    /**
+     * The directory holding a recording's audio and metadata.json under the corpus layout.
+     */
+    public File getRecordingDirectory(String recordingId) {
+        return storeLayout.recordingDirectory(recordingId).toFile();
+    }
+
+    public RecordingStoreLayout getStoreLayout() {
+        return storeLayout;
+    }
+
     public List<Phrase> getPhrases() {
         return phrases;
     }
 
+    /**
+     * An immutable snapshot of the global index. Later commits do not change it; call again
+     * for a newer one.
+     */
     public List<RecordingMetadata> getRecordingsMetadata() {
         return recordingsMetadata;
     }
 
-    private String readJsonFile(String filename) throws IOException {
-        StringBuilder content = new StringBuilder();
-        try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                content.append(line);
-            }
-        }
-        return content.toString();
+    /**
+     * The current index snapshot, with the view-based scan available to this package.
+     */
+    MappedRecordingList getIndexSnapshot() {
+        return recordingsMetadata;
     }
 }
\ No newline at end of file
@@ -0,0 +1,181 @@
+package com.rednetty.voicerecorder.util;
+
+import com.rednetty.voicerecorder.model.RecordingMetadata;
+import com.rednetty.voicerecorder.model.RecordingView;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.function.Consumer;
+
+/**
+ * An immutable snapshot of the global index: recordings from the mapped binary snapshot followed by
+ * the ones added since. Snapshot entries are materialized on each {@link #get(int)}; use
+ * {@link #forEachView(Consumer)} to scan the indexed fields without building objects.
+ *
+ * Adding recordings with {@link #append(List)} returns a new list and leaves this one unchanged, so
+ * readers can hold a list as long as they like without locking. The tail array is shared between
+ * successive lists: each one only reads the slots below its own size, and the writer only fills
+ * slots above the newest size, so appending is amortized O(1) rather than a copy of the tail.
+ */
+class MappedRecordingList extends AbstractList<RecordingMetadata> implements RandomAccess {
+    private static final RecordingMetadata[] EMPTY = new RecordingMetadata[0];
+
+    private final BinaryRecordingIndex base;
+    private final RecordingMetadata[] tail;
+    private final int tailSize;
+
+    MappedRecordingList(BinaryRecordingIndex base, List<RecordingMetadata> tail) {
+        this(base, tail != null ? tail.toArray(EMPTY) : EMPTY, tail != null ? tail.size() : 0);
+    }
+
+    private MappedRecordingList(BinaryRecordingIndex base, RecordingMetadata[] tail, int tailSize) {
+        this.base = base;
+        this.tail = tail;
+        this.tailSize = tailSize;
+    }
+
+    /**
+     * A list with the given recordings added at the end. Only the index writer may call this, and
+     * only on the newest list, since the new entries go into the shared tail array.
+     */
+    MappedRecordingList append(List<RecordingMetadata> batch) {
+        RecordingMetadata[] array = tail;
+        int size = tailSize + batch.size();
+        if (size > array.length) {
+            array = Arrays.copyOf(array, Math.max(size, array.length * 2));
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            array[tailSize + i] = batch.get(i);
+        }
+        return new MappedRecordingList(base, array, size);
+    }
+
+    BinaryRecordingIndex getBase() {
+        return base;
+    }
+
+    int getTailSize() {
+        return tailSize;
+    }
+
+    @Override
+    public RecordingMetadata get(int index) {
+        int baseSize = baseSize();
+        if (index < 0 || index >= baseSize + tailSize) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+        return index < baseSize ? base.materialize(index) : tail[index - baseSize];
+    }
+
+    @Override
+    public int size() {
+        return baseSize() + tailSize;
+    }
+
+    /**
+     * Visits every recording through a view, reusing one flyweight for the snapshot part.
+     */
+    void forEachView(Consumer<RecordingView> action) {
+        forEachView(0, action);
+    }
+
+    /**
+     * Visits the recordings from the given position to the end.
+     */
+    void forEachView(int from, Consumer<RecordingView> action) {
+        int baseSize = baseSize();
+        if (base != null) {
+            BinaryRecordingIndex.View view = base.newView();
+            for (int i = Math.max(0, from); i < baseSize; i++) {
+                action.accept(view.moveTo(i));
+            }
+        }
+        for (int i = Math.max(0, from - baseSize); i < tailSize; i++) {
+            action.accept(new MetadataView(tail[i]));
+        }
+    }
+
+    /**
+     * A view over a recording that is already in memory.
+     */
+    static RecordingView view(RecordingMetadata metadata) {
+        return new MetadataView(metadata);
+    }
+
+    private int baseSize() {
+        return base != null ? base.size() : 0;
+    }
+
+    /**
+     * View over a recording that is already in memory.
+     */
+    private static class MetadataView implements RecordingView {
+        private final RecordingMetadata metadata;
+
+        MetadataView(RecordingMetadata metadata) {
+            this.metadata = metadata;
+        }
+
+        @Override
+        public String getRecordingId() {
+            return metadata.getRecordingId();
+        }
+
+        @Override
+        public String getUserId() {
+            return metadata.getUserId();
+        }
+
+        @Override
+        public String getPhraseId() {
+            return metadata.getPhraseId();
+        }
+
+        @Override
+        public String getPhraseCategory() {
+            return metadata.getPhraseCategory();
+        }
+
+        @Override
+        public String getSpeechType() {
+            return metadata.getSpeechType();
+        }
+
+        @Override
+        public String getRecordingFile() {
+            return metadata.getRecordingFile();
+        }
+
+        @Override
+        public String getTimestamp() {
+            return metadata.getTimestamp();
+        }
+
+        @Override
+        public float getSampleRate() {
+            return number("sampleRate").floatValue();
+        }
+
+        @Override
+        public int getBitsPerSample() {
+            return number("bitsPerSample").intValue();
+        }
+
+        @Override
+        public int getChannels() {
+            return number("channels").intValue();
+        }
+
+        @Override
+        public RecordingMetadata toMetadata() {
+            return metadata;
+        }
+
+        private Number number(String key) {
+            Object value = metadata.getAudioProperties() != null ? metadata.getAudioProperties().get(key) : null;
+            return value instanceof Number ? (Number) value : Integer.valueOf(0);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.rednetty.voicerecorder.util;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.rednetty.voicerecorder.model.Phrase;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * Read-only list of phrases backed by a {@link PhraseIndex}. Phrases are parsed in pages on
+ * first access and a bounded number of recently used pages is kept in memory, so very large
+ * prompt sets can be shown without parsing the whole file up front.
+ */
+public class PagedPhraseList extends AbstractList<Phrase> implements RandomAccess {
+    static final int PAGE_SIZE = 256;
+    private static final int MAX_CACHED_PAGES = 16;
+
+    private final Path phrasesFile;
+    private final PhraseIndex index;
+    private final Map<Integer, Phrase[]> pages;
+
+    public PagedPhraseList(Path phrasesFile, PhraseIndex index) {
+        this.phrasesFile = phrasesFile;
+        this.index = index;
+        // Access-ordered map evicting the least recently used page
+        this.pages = new LinkedHashMap<Integer, Phrase[]>(MAX_CACHED_PAGES, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Phrase[]> eldest) {
+                return size() > MAX_CACHED_PAGES;
+            }
+        };
+    }
+
+    @Override
+    public synchronized Phrase get(int position) {
+        if (position < 0 || position >= index.size()) {
+            throw new IndexOutOfBoundsException("Index: " + position + ", Size: " + index.size());
+        }
+
+        int pageNumber = position / PAGE_SIZE;
+        Phrase[] page = pages.get(pageNumber);
+        if (page == null) {
+            try {
+                int first = pageNumber * PAGE_SIZE;
+                page = readPhrases(phrasesFile, index, first, Math.min(index.size(), first + PAGE_SIZE) - 1);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Error reading phrases page " + pageNumber, e);
+            }
+            pages.put(pageNumber, page);
+        }
+        return page[position % PAGE_SIZE];
+    }
+
+    @Override
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * The id of the phrase at a position, read from the index without parsing the phrase.
+     */
+    public String getId(int position) {
+        return index.getId(position);
+    }
+
+    /**
+     * The category of the phrase at a position, read from the index without parsing the phrase.
+     */
+    public String getCategory(int position) {
+        return index.getCategory(position);
+    }
+
+    /**
+     * Reads the byte range holding phrases {@code first} to {@code last} with a single positional
+     * read and parses each phrase.
+     */
+    static Phrase[] readPhrases(Path phrasesFile, PhraseIndex index, int first, int last) throws IOException {
+        long start = index.getOffset(first);
+        long end = index.getOffset(last) + index.getLength(last);
+
+        ByteBuffer data = ByteBuffer.allocate((int) (end - start));
+        try (FileChannel channel = FileChannel.open(phrasesFile, StandardOpenOption.READ)) {
+            while (data.hasRemaining()) {
+                if (channel.read(data, start + data.position()) < 0) {
+                    throw new IOException("Phrases file changed while reading");
+                }
+            }
+        }
+
+        Phrase[] page = new Phrase[last - first + 1];
+        byte[] bytes = data.array();
+        for (int i = first; i <= last; i++) {
+            int offset = (int) (index.getOffset(i) - start);
+            page[i - first] = parsePhrase(bytes, offset, index.getLength(i));
+        }
+        return page;
+    }
+
+    private static Phrase parsePhrase(byte[] bytes, int offset, int length) throws IOException {
+        String id = null;
+        String text = null;
+        String category = null;
+
+        try (JsonReader reader = new JsonReader(new InputStreamReader(
+                new ByteArrayInputStream(bytes, offset, length), StandardCharsets.UTF_8))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.nextNull();
+                } else if ("id".equals(name)) {
+                    id = reader.nextString();
+                } else if ("text".equals(name)) {
+                    text = reader.nextString();
+                } else if ("category".equals(name)) {
+                    category = reader.nextString();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        return new Phrase(id, text, category);
+    }
+}
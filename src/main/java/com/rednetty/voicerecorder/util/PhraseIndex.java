@@ -0,0 +1,279 @@
+package com.rednetty.voicerecorder.util;
+
+import com.rednetty.voicerecorder.model.Phrase;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Byte offsets, ids and categories of every phrase object in a phrases JSON array.
+ * The offsets are found with one streaming pass over the file and the ids and categories with a
+ * second, paged pass; the result is cached next to the file ({@code phrases.json.idx}), so later
+ * startups skip parsing entirely as long as the source file's size and modification time are
+ * unchanged. Components that only need to know which phrases exist, such as the
+ * {@link PhraseScheduler}, read them from here without parsing phrase texts.
+ */
+public class PhraseIndex {
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final int MAGIC = 0x57535049; // "WSPI"
+    private static final int VERSION = 2;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final long[] offsets;
+    private final int[] lengths;
+    private final int count;
+    private String[] ids;
+    // Position in categoryNames of each phrase's category, -1 for none
+    private int[] categories;
+    private String[] categoryNames;
+
+    private PhraseIndex(long[] offsets, int[] lengths, int count) {
+        this.offsets = offsets;
+        this.lengths = lengths;
+        this.count = count;
+    }
+
+    /**
+     * Loads the cached index for the given phrases file, or builds and caches it if it is missing or stale.
+     */
+    public static PhraseIndex loadOrBuild(Path phrasesFile) throws IOException {
+        Path indexFile = phrasesFile.resolveSibling(phrasesFile.getFileName() + INDEX_SUFFIX);
+        long size = Files.size(phrasesFile);
+        long modified = Files.getLastModifiedTime(phrasesFile).toMillis();
+
+        if (Files.exists(indexFile)) {
+            PhraseIndex cached = readCache(indexFile, size, modified);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        PhraseIndex index = build(phrasesFile);
+        index.readKeys(phrasesFile);
+        try {
+            index.writeCache(indexFile, size, modified);
+        } catch (IOException e) {
+            // A read-only install still works, it just rebuilds the index on every start
+            System.err.println("Could not cache phrase index: " + e.getMessage());
+        }
+        return index;
+    }
+
+    /**
+     * Scans the file once, recording where each top-level array element starts and ends.
+     * Only brackets, braces and string boundaries are tracked; nothing is decoded.
+     */
+    static PhraseIndex build(Path phrasesFile) throws IOException {
+        long[] offsets = new long[1024];
+        int[] lengths = new int[1024];
+        int count = 0;
+
+        int depth = 0;
+        boolean inString = false;
+        boolean escaped = false;
+        boolean sawArray = false;
+        long elementStart = -1;
+        long position = 0;
+
+        try (InputStream in = Files.newInputStream(phrasesFile)) {
+            byte[] buffer = new byte[READ_BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                for (int i = 0; i < read; i++, position++) {
+                    byte b = buffer[i];
+                    if (inString) {
+                        if (escaped) {
+                            escaped = false;
+                        } else if (b == '\\') {
+                            escaped = true;
+                        } else if (b == '"') {
+                            inString = false;
+                        }
+                        continue;
+                    }
+
+                    switch (b) {
+                        case '"':
+                            inString = true;
+                            break;
+                        case '[':
+                        case '{':
+                            if (depth == 0) {
+                                if (b != '[') {
+                                    throw new IOException("Phrases file must contain a JSON array");
+                                }
+                                sawArray = true;
+                            } else if (depth == 1) {
+                                elementStart = position;
+                            }
+                            depth++;
+                            break;
+                        case ']':
+                        case '}':
+                            depth--;
+                            if (depth == 1) {
+                                if (count == offsets.length) {
+                                    offsets = Arrays.copyOf(offsets, count * 2);
+                                    lengths = Arrays.copyOf(lengths, count * 2);
+                                }
+                                offsets[count] = elementStart;
+                                lengths[count] = (int) (position + 1 - elementStart);
+                                count++;
+                            } else if (depth < 0) {
+                                throw new IOException("Unbalanced brackets in phrases file");
+                            }
+                            break;
+                        default:
+                            break;
+                    }
+                }
+            }
+        }
+
+        if (!sawArray || depth != 0 || inString) {
+            throw new IOException("Phrases file is not a complete JSON array");
+        }
+        return new PhraseIndex(offsets, lengths, count);
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public long getOffset(int index) {
+        return offsets[index];
+    }
+
+    public int getLength(int index) {
+        return lengths[index];
+    }
+
+    /**
+     * The id of a phrase, or null if it has none. Only available on an index from {@link #loadOrBuild}.
+     */
+    public String getId(int index) {
+        return ids[index];
+    }
+
+    /**
+     * The category of a phrase, or null if it has none. Only available on an index from {@link #loadOrBuild}.
+     */
+    public String getCategory(int index) {
+        int category = categories[index];
+        return category >= 0 ? categoryNames[category] : null;
+    }
+
+    /**
+     * Parses every phrase once, page by page, keeping only its id and category.
+     */
+    private void readKeys(Path phrasesFile) throws IOException {
+        ids = new String[count];
+        categories = new int[count];
+        Map<String, Integer> categoryIds = new HashMap<>();
+        for (int first = 0; first < count; first += PagedPhraseList.PAGE_SIZE) {
+            int last = Math.min(count, first + PagedPhraseList.PAGE_SIZE) - 1;
+            Phrase[] page = PagedPhraseList.readPhrases(phrasesFile, this, first, last);
+            for (int i = first; i <= last; i++) {
+                Phrase phrase = page[i - first];
+                ids[i] = phrase.getId();
+                String category = phrase.getCategory();
+                if (category == null) {
+                    categories[i] = -1;
+                } else {
+                    Integer id = categoryIds.get(category);
+                    if (id == null) {
+                        id = categoryIds.size();
+                        categoryIds.put(category, id);
+                    }
+                    categories[i] = id;
+                }
+            }
+        }
+        categoryNames = new String[categoryIds.size()];
+        for (Map.Entry<String, Integer> entry : categoryIds.entrySet()) {
+            categoryNames[entry.getValue()] = entry.getKey();
+        }
+    }
+
+    private static PhraseIndex readCache(Path indexFile, long sourceSize, long sourceModified) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION
+                    || in.readLong() != sourceSize || in.readLong() != sourceModified) {
+                return null;
+            }
+            int count = in.readInt();
+            int categoryCount = in.readInt();
+            if (count < 0 || count > sourceSize || categoryCount < 0 || categoryCount > count) {
+                return null;
+            }
+            String[] categoryNames = new String[categoryCount];
+            for (int i = 0; i < categoryCount; i++) {
+                categoryNames[i] = in.readUTF();
+            }
+            long[] offsets = new long[count];
+            int[] lengths = new int[count];
+            String[] ids = new String[count];
+            int[] categories = new int[count];
+            for (int i = 0; i < count; i++) {
+                offsets[i] = in.readLong();
+                lengths[i] = in.readInt();
+                ids[i] = in.readBoolean() ? in.readUTF() : null;
+                categories[i] = in.readInt();
+                if (categories[i] < -1 || categories[i] >= categoryCount) {
+                    return null;
+                }
+            }
+            PhraseIndex index = new PhraseIndex(offsets, lengths, count);
+            index.ids = ids;
+            index.categories = categories;
+            index.categoryNames = categoryNames;
+            return index;
+        } catch (EOFException e) {
+            return null;
+        } catch (IOException e) {
+            System.err.println("Ignoring unreadable phrase index: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void writeCache(Path indexFile, long sourceSize, long sourceModified) throws IOException {
+        Path tempFile = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(sourceSize);
+            out.writeLong(sourceModified);
+            out.writeInt(count);
+            out.writeInt(categoryNames.length);
+            for (String name : categoryNames) {
+                out.writeUTF(name);
+            }
+            for (int i = 0; i < count; i++) {
+                out.writeLong(offsets[i]);
+                out.writeInt(lengths[i]);
+                out.writeBoolean(ids[i] != null);
+                if (ids[i] != null) {
+                    out.writeUTF(ids[i]);
+                }
+                out.writeInt(categories[i]);
+            }
+        }
+        try {
+            Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,365 @@
+package com.rednetty.voicerecorder.util;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.rednetty.voicerecorder.model.Phrase;
+import com.rednetty.voicerecorder.model.RecordingView;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Picks the next phrase for a speaker so that takes spread evenly over the phrase list instead of
+ * piling up on its first entries.
+ *
+ * Coverage is counted per speech type, since a phrase recorded by many clear speakers still needs
+ * impaired speakers and vice versa. For the current speaker the scheduler keeps two levels of
+ * ordered sets: categories ordered by their average takes per phrase, and within each category
+ * the phrases ordered by takes for the speaker's speech type, then takes overall, then list
+ * position. {@link #next()} returns the least covered phrase of the least covered category.
+ * Phrases the speaker has recorded are left out. A committed take moves one phrase and one
+ * category, O(log n).
+ *
+ * Take counts and the phrases each user has recorded are saved to {@code phrase_schedule.json}
+ * together with the number of index entries they reflect, so a restart only replays recordings
+ * committed since the last save instead of rescanning the corpus.
+ *
+ * Phrase ids and categories are taken from the {@link PhraseIndex} when the phrases come from a
+ * {@link PagedPhraseList}, so scheduling a large prompt set parses only the phrases that are shown.
+ */
+public class PhraseScheduler {
+    public static final String STATE_FILE = "phrase_schedule.json";
+
+    private final List<Phrase> phrases;
+    private final Path stateFile;
+    private final String[] phraseIds;
+    private final Map<String, Integer> phraseIndexes = new HashMap<>();
+    private final int[] categoryOf;
+    private final int[] categorySizes;
+    private final int[] totalTakes;
+    private final Map<String, int[]> takesBySpeechType = new HashMap<>();
+    private final Map<String, long[]> categoryTakesBySpeechType = new HashMap<>();
+    private final Map<String, BitSet> recordedByUser = new HashMap<>();
+    private int appliedRecordings;
+
+    // Queues for the current speaker
+    private int[] activeTakes;
+    private long[] activeCategoryTakes;
+    private BitSet activeRecorded = new BitSet();
+    private final BitSet skipped = new BitSet();
+    private final TreeSet<Integer> categoryQueue;
+    private final List<TreeSet<Integer>> phraseQueues = new ArrayList<>();
+
+    private PhraseScheduler(List<Phrase> phrases, Path stateFile) {
+        this.phrases = phrases;
+        this.stateFile = stateFile;
+        this.phraseIds = new String[phrases.size()];
+        this.categoryOf = new int[phrases.size()];
+        this.totalTakes = new int[phrases.size()];
+
+        PagedPhraseList paged = phrases instanceof PagedPhraseList ? (PagedPhraseList) phrases : null;
+        Map<String, Integer> categoryIds = new HashMap<>();
+        List<Integer> sizes = new ArrayList<>();
+        for (int i = 0; i < phrases.size(); i++) {
+            String phraseCategory;
+            if (paged != null) {
+                phraseIds[i] = paged.getId(i);
+                phraseCategory = paged.getCategory(i);
+            } else {
+                Phrase phrase = phrases.get(i);
+                phraseIds[i] = phrase.getId();
+                phraseCategory = phrase.getCategory();
+            }
+            phraseIndexes.putIfAbsent(phraseIds[i], i);
+            String category = phraseCategory != null ? phraseCategory : "";
+            Integer id = categoryIds.get(category);
+            if (id == null) {
+                id = categoryIds.size();
+                categoryIds.put(category, id);
+                sizes.add(0);
+            }
+            categoryOf[i] = id;
+            sizes.set(id, sizes.get(id) + 1);
+        }
+        this.categorySizes = new int[sizes.size()];
+        for (int i = 0; i < categorySizes.length; i++) {
+            categorySizes[i] = sizes.get(i);
+            phraseQueues.add(new TreeSet<>(this::comparePhrases));
+        }
+        this.categoryQueue = new TreeSet<>(this::compareCategories);
+        setUser(null, null);
+    }
+
+    /**
+     * Opens the scheduler for a corpus, restoring its saved state and catching up with recordings
+     * committed since, then following new commits. Open it before recording starts.
+     */
+    public static PhraseScheduler open(DataManager dataManager, List<Phrase> phrases) {
+        Path stateFile = dataManager.getStoreLayout().getBaseDirectory().resolve(STATE_FILE);
+        PhraseScheduler scheduler = new PhraseScheduler(phrases, stateFile);
+        scheduler.loadState(dataManager.getRecordingsMetadata().size());
+        dataManager.addCommitListener(scheduler.appliedRecordings, scheduler::onCommitted);
+        return scheduler;
+    }
+
+    /**
+     * Switches to another speaker, rebuilding the queues for their speech type and recorded phrases.
+     */
+    public synchronized void setUser(String userId, String speechType) {
+        String type = normalize(speechType);
+        activeTakes = takesBySpeechType.computeIfAbsent(type, key -> new int[phrases.size()]);
+        activeCategoryTakes = categoryTakesBySpeechType.computeIfAbsent(type, key -> new long[categorySizes.length]);
+        activeRecorded = userId != null ? recordedByUser.computeIfAbsent(userId, key -> new BitSet()) : new BitSet();
+        skipped.clear();
+
+        categoryQueue.clear();
+        for (TreeSet<Integer> queue : phraseQueues) {
+            queue.clear();
+        }
+        for (int i = 0; i < phrases.size(); i++) {
+            // Only the first of several phrases sharing an id is scheduled
+            if (!activeRecorded.get(i) && phraseIndexes.get(phraseIds[i]) == i) {
+                phraseQueues.get(categoryOf[i]).add(i);
+            }
+        }
+        for (int category = 0; category < categorySizes.length; category++) {
+            if (!phraseQueues.get(category).isEmpty()) {
+                categoryQueue.add(category);
+            }
+        }
+    }
+
+    /**
+     * The phrase the current speaker should record next, or null once they have recorded every
+     * phrase. Phrases skipped this session come back after all others.
+     */
+    public synchronized Phrase next() {
+        if (categoryQueue.isEmpty() && !skipped.isEmpty()) {
+            for (int i = skipped.nextSetBit(0); i >= 0; i = skipped.nextSetBit(i + 1)) {
+                if (!activeRecorded.get(i)) {
+                    enqueue(i);
+                }
+            }
+            skipped.clear();
+        }
+        if (categoryQueue.isEmpty()) {
+            return null;
+        }
+        return phrases.get(phraseQueues.get(categoryQueue.first()).first());
+    }
+
+    /**
+     * Sets a phrase aside for the rest of the session without recording it.
+     */
+    public synchronized void skip(Phrase phrase) {
+        int index = indexOf(phrase);
+        if (index >= 0 && !activeRecorded.get(index)) {
+            dequeue(index);
+            skipped.set(index);
+        }
+    }
+
+    /**
+     * Marks a phrase as recorded by the current speaker as soon as the take is handed off, before
+     * it is committed, so it is not offered again. Take counts follow on commit.
+     */
+    public synchronized void markRecorded(Phrase phrase) {
+        int index = indexOf(phrase);
+        if (index >= 0) {
+            dequeue(index);
+            activeRecorded.set(index);
+            skipped.clear(index);
+        }
+    }
+
+    public synchronized boolean hasRecorded(Phrase phrase) {
+        int index = indexOf(phrase);
+        return index >= 0 && activeRecorded.get(index);
+    }
+
+    /**
+     * Number of listed phrases the current speaker has recorded.
+     */
+    public synchronized int getRecordedCount() {
+        return activeRecorded.cardinality();
+    }
+
+    /**
+     * Takes of a phrase across all speakers.
+     */
+    public synchronized int getTakeCount(Phrase phrase) {
+        int index = indexOf(phrase);
+        return index >= 0 ? totalTakes[index] : 0;
+    }
+
+    /**
+     * Writes the take counts and recorded phrases; call after the persistence queue has drained.
+     */
+    public synchronized void save() throws IOException {
+        State state = new State();
+        state.recordings = appliedRecordings;
+        for (Map.Entry<String, int[]> entry : takesBySpeechType.entrySet()) {
+            Map<String, Integer> takes = new TreeMap<>();
+            int[] counts = entry.getValue();
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] > 0) {
+                    takes.put(phraseIds[i], counts[i]);
+                }
+            }
+            if (!takes.isEmpty()) {
+                state.takesBySpeechType.put(entry.getKey(), takes);
+            }
+        }
+        for (Map.Entry<String, BitSet> entry : recordedByUser.entrySet()) {
+            List<String> recorded = new ArrayList<>();
+            BitSet bits = entry.getValue();
+            for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+                recorded.add(phraseIds[i]);
+            }
+            if (!recorded.isEmpty()) {
+                state.recordedPhrasesByUser.put(entry.getKey(), recorded);
+            }
+        }
+
+        Path temp = stateFile.resolveSibling(STATE_FILE + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            new Gson().toJson(state, writer);
+        }
+        try {
+            Files.move(temp, stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, stateFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private synchronized void onCommitted(RecordingView recording) {
+        appliedRecordings++;
+        Integer index = recording.getPhraseId() != null ? phraseIndexes.get(recording.getPhraseId()) : null;
+        if (index == null) {
+            // Not in the current phrase list
+            return;
+        }
+        String type = normalize(recording.getSpeechType());
+        int[] takes = takesBySpeechType.computeIfAbsent(type, key -> new int[phrases.size()]);
+        long[] categoryTakes = categoryTakesBySpeechType.computeIfAbsent(type, key -> new long[categorySizes.length]);
+        int category = categoryOf[index];
+
+        // Keys of queued elements must not change while they are in their sets
+        boolean queued = phraseQueues.get(category).remove(index);
+        boolean categoryQueued = categoryQueue.remove(category);
+        takes[index]++;
+        categoryTakes[category]++;
+        totalTakes[index]++;
+        if (recording.getUserId() != null) {
+            recordedByUser.computeIfAbsent(recording.getUserId(), key -> new BitSet()).set(index);
+        }
+        if (queued && !activeRecorded.get(index)) {
+            phraseQueues.get(category).add(index);
+        }
+        if (categoryQueued && !phraseQueues.get(category).isEmpty()) {
+            categoryQueue.add(category);
+        }
+    }
+
+    private void loadState(int indexSize) {
+        if (!Files.isRegularFile(stateFile)) {
+            return;
+        }
+        State state;
+        try (Reader reader = Files.newBufferedReader(stateFile, StandardCharsets.UTF_8)) {
+            state = new Gson().fromJson(reader, State.class);
+        } catch (IOException | JsonParseException e) {
+            System.err.println("Could not read phrase schedule, rebuilding it: " + e.getMessage());
+            return;
+        }
+        if (state == null || state.recordings > indexSize) {
+            // The index was replaced; replay it from the start
+            return;
+        }
+        for (Map.Entry<String, Map<String, Integer>> entry : state.takesBySpeechType.entrySet()) {
+            int[] takes = takesBySpeechType.computeIfAbsent(entry.getKey(), key -> new int[phrases.size()]);
+            long[] categoryTakes = categoryTakesBySpeechType.computeIfAbsent(entry.getKey(),
+                    key -> new long[categorySizes.length]);
+            for (Map.Entry<String, Integer> phrase : entry.getValue().entrySet()) {
+                Integer index = phraseIndexes.get(phrase.getKey());
+                if (index != null) {
+                    takes[index] += phrase.getValue();
+                    categoryTakes[categoryOf[index]] += phrase.getValue();
+                    totalTakes[index] += phrase.getValue();
+                }
+            }
+        }
+        for (Map.Entry<String, List<String>> entry : state.recordedPhrasesByUser.entrySet()) {
+            BitSet recorded = recordedByUser.computeIfAbsent(entry.getKey(), key -> new BitSet());
+            for (String phraseId : entry.getValue()) {
+                Integer index = phraseIndexes.get(phraseId);
+                if (index != null) {
+                    recorded.set(index);
+                }
+            }
+        }
+        appliedRecordings = state.recordings;
+        setUser(null, null);
+    }
+
+    private void enqueue(int index) {
+        int category = categoryOf[index];
+        categoryQueue.remove(category);
+        phraseQueues.get(category).add(index);
+        categoryQueue.add(category);
+    }
+
+    private void dequeue(int index) {
+        int category = categoryOf[index];
+        if (phraseQueues.get(category).remove(index) && phraseQueues.get(category).isEmpty()) {
+            categoryQueue.remove(category);
+        }
+    }
+
+    private int indexOf(Phrase phrase) {
+        Integer index = phrase != null ? phraseIndexes.get(phrase.getId()) : null;
+        return index != null ? index : -1;
+    }
+
+    private int compareCategories(Integer a, Integer b) {
+        // Average takes per phrase, compared without division
+        int byCoverage = Long.compare(activeCategoryTakes[a] * categorySizes[b], activeCategoryTakes[b] * categorySizes[a]);
+        return byCoverage != 0 ? byCoverage : Integer.compare(a, b);
+    }
+
+    private int comparePhrases(Integer a, Integer b) {
+        if (activeTakes[a] != activeTakes[b]) {
+            return Integer.compare(activeTakes[a], activeTakes[b]);
+        }
+        if (totalTakes[a] != totalTakes[b]) {
+            return Integer.compare(totalTakes[a], totalTakes[b]);
+        }
+        return Integer.compare(a, b);
+    }
+
+    private static String normalize(String speechType) {
+        return speechType != null ? speechType : "";
+    }
+
+    /**
+     * Contents of {@code phrase_schedule.json}.
+     */
+    private static class State {
+        int recordings;
+        Map<String, Map<String, Integer>> takesBySpeechType = new TreeMap<>();
+        Map<String, List<String>> recordedPhrasesByUser = new TreeMap<>();
+    }
+}
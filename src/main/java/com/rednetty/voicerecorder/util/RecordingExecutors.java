@@ -0,0 +1,85 @@
+package com.rednetty.voicerecorder.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The threads that do a take's work after Stop, so none of it runs on the event dispatch thread.
+ *
+ * Saving (finishing, trimming and moving the take, then handing it to the DataManager) runs on a
+ * small pool. Its queue is unbounded, so a save is never dropped and never falls back to running
+ * on the submitting thread; the panel only ever has one take in flight. Housekeeping that nothing
+ * waits for, such as deleting discarded take files, runs on virtual threads when the runtime has
+ * them (Java 21+) and on a low-priority daemon thread otherwise.
+ */
+public class RecordingExecutors {
+    private static final int IO_THREADS = 2;
+
+    private final ThreadPoolExecutor ioExecutor;
+    private final ExecutorService housekeepingExecutor;
+
+    public RecordingExecutors() {
+        ioExecutor = new ThreadPoolExecutor(IO_THREADS, IO_THREADS, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), namedThreads("recording-io", Thread.NORM_PRIORITY));
+
+        ExecutorService virtual = newVirtualThreadExecutor();
+        housekeepingExecutor = virtual != null ? virtual
+                : Executors.newSingleThreadExecutor(namedThreads("recording-housekeeping", Thread.MIN_PRIORITY));
+    }
+
+    /**
+     * Pool for saving takes.
+     */
+    public ExecutorService getIoExecutor() {
+        return ioExecutor;
+    }
+
+    /**
+     * Background work that no one waits for.
+     */
+    public ExecutorService getHousekeepingExecutor() {
+        return housekeepingExecutor;
+    }
+
+    /**
+     * Stops accepting work and waits for every queued save, then every housekeeping task, to finish.
+     * Call before shutting down the DataManager, since saves hand their takes to it.
+     */
+    public void shutdown() {
+        ioExecutor.shutdown();
+        try {
+            ioExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            // Saves may still have queued housekeeping
+            housekeepingExecutor.shutdown();
+            housekeepingExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor() on Java 21+, looked up so the code still runs on Java 8
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static ThreadFactory namedThreads(String prefix, int priority) {
+        AtomicInteger threadCount = new AtomicInteger();
+        return task -> {
+            Thread thread = new Thread(task, prefix + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(priority);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,294 @@
+package com.rednetty.voicerecorder.util;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import com.rednetty.voicerecorder.model.RecordingMetadata;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only JSON-lines journal for the global recordings index.
+ *
+ * Every line has the form {@code {"seq":N,"crc":"xxxxxxxx","record":{...}}}, where the CRC-32 covers
+ * the raw text of the record. Compacted snapshots are kept in a {@link BinaryRecordingIndex}; on load
+ * only journal entries newer than the snapshot are replayed. A torn or corrupt last line is detected
+ * through its checksum and cut off. JSON-lines snapshots and the single-file JSON index written by
+ * earlier versions are still read so existing corpora can be migrated.
+ */
+public class RecordingIndexJournal {
+    public static final String JOURNAL_FILE = "recordings_index.jsonl";
+    public static final String SNAPSHOT_FILE = "recordings_index.snapshot.jsonl";
+    public static final String LEGACY_INDEX_FILE = "recordings_index.json";
+
+    private static final String RECORD_FIELD = ",\"record\":";
+    // Number of journal entries after which the index is compacted into a new snapshot
+    private static final int DEFAULT_COMPACTION_THRESHOLD = 1000;
+
+    private final Path journalPath;
+    private final Path snapshotPath;
+    private final Path legacyIndexPath;
+    private final Gson gson;
+    private final CRC32 crc;
+    private boolean syncOnAppend;
+    private int compactionThreshold;
+    private long lastSequence;
+    private int entriesSinceSnapshot;
+
+    public RecordingIndexJournal(Path directory) {
+        this.journalPath = directory.resolve(JOURNAL_FILE);
+        this.snapshotPath = directory.resolve(SNAPSHOT_FILE);
+        this.legacyIndexPath = directory.resolve(LEGACY_INDEX_FILE);
+        // Compact output: one record per line
+        this.gson = new Gson();
+        this.crc = new CRC32();
+        this.syncOnAppend = true;
+        this.compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+    }
+
+    /**
+     * Whether each append is forced to the storage device before returning. Defaults to true.
+     */
+    public void setSyncOnAppend(boolean syncOnAppend) {
+        this.syncOnAppend = syncOnAppend;
+    }
+
+    public void setCompactionThreshold(int compactionThreshold) {
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    /**
+     * Rebuilds the whole index without a binary snapshot: the JSON-lines snapshot (if any) and
+     * the journal, or a legacy {@code recordings_index.json} when neither exists.
+     */
+    public synchronized List<RecordingMetadata> load() throws IOException {
+        List<RecordingMetadata> records = new ArrayList<>();
+        lastSequence = 0;
+        entriesSinceSnapshot = 0;
+
+        if (!Files.exists(snapshotPath) && !Files.exists(journalPath)) {
+            if (Files.exists(legacyIndexPath)) {
+                records.addAll(loadLegacyIndex());
+            }
+            return records;
+        }
+
+        if (Files.exists(snapshotPath)) {
+            replay(snapshotPath, records, false);
+        }
+        if (Files.exists(journalPath)) {
+            entriesSinceSnapshot = replay(journalPath, records, true);
+        }
+        return records;
+    }
+
+    /**
+     * Replays only the journal entries newer than a snapshot.
+     *
+     * @param afterSequence the sequence number covered by the snapshot
+     */
+    public synchronized List<RecordingMetadata> loadTail(long afterSequence) throws IOException {
+        List<RecordingMetadata> records = new ArrayList<>();
+        lastSequence = afterSequence;
+        entriesSinceSnapshot = 0;
+        if (Files.exists(journalPath)) {
+            entriesSinceSnapshot = replay(journalPath, records, true);
+        }
+        return records;
+    }
+
+    /**
+     * Appends a batch of records to the journal with a single write (and fsync, if enabled).
+     */
+    public synchronized void append(List<RecordingMetadata> batch) throws IOException {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        StringBuilder lines = new StringBuilder();
+        for (RecordingMetadata metadata : batch) {
+            appendLine(lines, ++lastSequence, metadata);
+        }
+
+        ByteBuffer data = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+        try (FileChannel channel = FileChannel.open(journalPath,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+            if (syncOnAppend) {
+                channel.force(false);
+            }
+        }
+        entriesSinceSnapshot += batch.size();
+    }
+
+    /**
+     * Returns true once enough entries have been appended that a new snapshot is worthwhile.
+     */
+    public synchronized boolean needsCompaction() {
+        return entriesSinceSnapshot >= compactionThreshold;
+    }
+
+    /**
+     * The sequence number of the last entry appended or replayed; a snapshot taken now covers it.
+     */
+    public synchronized long getLastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * Empties the journal once a snapshot covering all of its entries is safely on disk.
+     * A JSON-lines snapshot left by an earlier version is removed as well.
+     */
+    public synchronized void truncate() throws IOException {
+        try (FileChannel channel = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            channel.truncate(0);
+            channel.force(true);
+        }
+        Files.deleteIfExists(snapshotPath);
+        entriesSinceSnapshot = 0;
+    }
+
+    /**
+     * Writes the index as a single pretty-printed JSON array, the format used before the journal.
+     */
+    public void exportJson(List<RecordingMetadata> records, Path target, Gson prettyGson) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(target, StandardCharsets.UTF_8)) {
+            prettyGson.toJson(records, writer);
+        }
+    }
+
+    private void appendLine(StringBuilder out, long sequence, RecordingMetadata metadata) {
+        String record = gson.toJson(metadata);
+        out.append("{\"seq\":").append(sequence)
+                .append(",\"crc\":\"").append(String.format("%08x", checksum(record))).append('"')
+                .append(RECORD_FIELD).append(record).append("}\n");
+    }
+
+    /**
+     * Reads all valid lines of a journal or snapshot file.
+     *
+     * @param journal whether this is the journal, whose stale entries are skipped and torn tail cut off
+     * @return the number of entries applied
+     */
+    private int replay(Path path, List<RecordingMetadata> records, boolean journal) throws IOException {
+        int applied = 0;
+        long fileSize = Files.size(path);
+        long validLength = 0;
+        long offset = 0;
+        boolean tornTail = false;
+
+        try (InputStream in = Files.newInputStream(path);
+             BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            String pendingBadLine = null;
+            while ((line = reader.readLine()) != null) {
+                offset += line.getBytes(StandardCharsets.UTF_8).length + 1;
+                if (line.isEmpty()) {
+                    validLength = offset;
+                    continue;
+                }
+
+                if (pendingBadLine != null) {
+                    // A bad line followed by good ones is corruption in the middle, not a torn write
+                    System.err.println("Skipping corrupt index entry in " + path.getFileName());
+                    pendingBadLine = null;
+                }
+
+                // Lines are always written with their newline, so a missing one means an incomplete write
+                long sequence = offset <= fileSize ? parseEntry(line, records) : -1;
+                if (sequence < 0) {
+                    pendingBadLine = line;
+                    continue;
+                }
+                if (sequence > lastSequence) {
+                    lastSequence = sequence;
+                    applied++;
+                } else if (journal) {
+                    // Already covered by the snapshot (crash between snapshot and journal truncation)
+                    records.remove(records.size() - 1);
+                }
+                validLength = offset;
+            }
+            tornTail = pendingBadLine != null;
+        }
+
+        if (tornTail) {
+            System.err.println("Dropping torn last entry of " + path.getFileName());
+            if (journal) {
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                    channel.truncate(validLength);
+                }
+            }
+        }
+        return applied;
+    }
+
+    /**
+     * Verifies and parses one line.
+     *
+     * @return the sequence number, or -1 if the line is torn or fails its checksum
+     */
+    private long parseEntry(String line, List<RecordingMetadata> records) {
+        try {
+            int recordStart = line.indexOf(RECORD_FIELD);
+            if (!line.startsWith("{\"seq\":") || recordStart < 0 || !line.endsWith("}")) {
+                return -1;
+            }
+
+            String header = line.substring(0, recordStart);
+            int crcStart = header.indexOf(",\"crc\":\"");
+            if (crcStart < 0) {
+                return -1;
+            }
+            long sequence = Long.parseLong(header.substring("{\"seq\":".length(), crcStart));
+            long expectedCrc = Long.parseLong(header.substring(crcStart + 8, header.length() - 1), 16);
+
+            String record = line.substring(recordStart + RECORD_FIELD.length(), line.length() - 1);
+            if (checksum(record) != expectedCrc) {
+                return -1;
+            }
+
+            RecordingMetadata metadata = gson.fromJson(record, RecordingMetadata.class);
+            if (metadata == null) {
+                return -1;
+            }
+            records.add(metadata);
+            return sequence;
+        } catch (NumberFormatException | JsonParseException | StringIndexOutOfBoundsException e) {
+            return -1;
+        }
+    }
+
+    private long checksum(String text) {
+        crc.reset();
+        crc.update(text.getBytes(StandardCharsets.UTF_8));
+        return crc.getValue();
+    }
+
+    private List<RecordingMetadata> loadLegacyIndex() throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(legacyIndexPath, StandardCharsets.UTF_8)) {
+            Type metadataListType = new TypeToken<ArrayList<RecordingMetadata>>(){}.getType();
+            List<RecordingMetadata> legacy = gson.fromJson(reader, metadataListType);
+            return legacy != null ? legacy : new ArrayList<>();
+        } catch (JsonParseException e) {
+            System.err.println("Error importing legacy index: " + e.getMessage());
+            return new ArrayList<>();
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.rednetty.voicerecorder.util;
+
+import com.rednetty.voicerecorder.metrics.Counter;
+import com.rednetty.voicerecorder.metrics.Histogram;
+import com.rednetty.voicerecorder.metrics.MetricsRegistry;
+import com.rednetty.voicerecorder.model.RecordingMetadata;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background persistence stage for new recordings.
+ * Recordings are queued in a bounded queue and stored by a single writer thread,
+ * which group-commits everything that is pending into one global index flush.
+ */
+class RecordingPersistenceQueue {
+    private static final int QUEUE_CAPACITY = 256;
+    private static final int MAX_BATCH_SIZE = 64;
+    private static final long POLL_TIMEOUT_MS = 200;
+
+    private static final Histogram LATENCY = MetricsRegistry.getDefault().histogram("persistence.latencyMicros");
+    private static final Histogram BATCH_SIZE = MetricsRegistry.getDefault().histogram("persistence.batchSize");
+    private static final Counter ERRORS = MetricsRegistry.getDefault().counter("persistence.errors");
+    // Queues not shut down yet; the depth gauge, registered once, sums over them
+    private static final Set<RecordingPersistenceQueue> OPEN_QUEUES = ConcurrentHashMap.newKeySet();
+
+    static {
+        MetricsRegistry.getDefault().gauge("persistence.queueDepth", RecordingPersistenceQueue::totalDepth);
+    }
+
+    private final DataManager dataManager;
+    private final BlockingQueue<PendingRecording> queue;
+    private final Thread writerThread;
+    private volatile boolean running;
+
+    RecordingPersistenceQueue(DataManager dataManager) {
+        this.dataManager = dataManager;
+        this.queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        this.running = true;
+        OPEN_QUEUES.add(this);
+        this.writerThread = new Thread(this::processQueue, "recording-persistence");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * Queues a recording. Blocks only if the queue is full, which applies back-pressure
+     * instead of letting pending recordings pile up without bound. A recording submitted while
+     * the queue shuts down is either persisted or its future fails; it is never left pending.
+     */
+    CompletableFuture<RecordingMetadata> submit(RecordingMetadata metadata, String audioFilePath) {
+        CompletableFuture<RecordingMetadata> future = new CompletableFuture<>();
+        if (!running) {
+            future.completeExceptionally(new IllegalStateException("Persistence queue is shut down"));
+            return future;
+        }
+
+        PendingRecording pending = new PendingRecording(metadata, audioFilePath, future);
+        try {
+            queue.put(pending);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.completeExceptionally(e);
+            return future;
+        }
+        // Shut down meanwhile: the writer may already have taken its last look at the queue
+        if (!running && queue.remove(pending)) {
+            future.completeExceptionally(new IllegalStateException("Persistence queue is shut down"));
+        }
+        return future;
+    }
+
+    /**
+     * Stops accepting recordings and waits until everything already queued is persisted.
+     */
+    void shutdown() {
+        running = false;
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!writerThread.isAlive()) {
+            // Put after the writer's last poll
+            List<PendingRecording> leftovers = new ArrayList<>();
+            queue.drainTo(leftovers);
+            for (PendingRecording pending : leftovers) {
+                pending.future.completeExceptionally(new IllegalStateException("Persistence queue is shut down"));
+            }
+            OPEN_QUEUES.remove(this);
+        }
+    }
+
+    private static long totalDepth() {
+        long depth = 0;
+        for (RecordingPersistenceQueue open : OPEN_QUEUES) {
+            depth += open.queue.size();
+        }
+        return depth;
+    }
+
+    private void processQueue() {
+        List<PendingRecording> batch = new ArrayList<>(MAX_BATCH_SIZE);
+        List<RecordingMetadata> stored = new ArrayList<>(MAX_BATCH_SIZE);
+
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingRecording first = queue.poll(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+                BATCH_SIZE.record(batch.size());
+            } catch (InterruptedException e) {
+                // Keep draining; shutdown is signalled through the running flag
+                continue;
+            }
+
+            // Move files and write individual metadata for every recording in the batch
+            for (PendingRecording pending : batch) {
+                try {
+                    dataManager.storeRecordingFiles(pending.metadata, pending.audioFilePath);
+                    stored.add(pending.metadata);
+                } catch (IOException e) {
+                    ERRORS.increment();
+                    System.err.println("Error saving recording " + pending.metadata.getRecordingId()
+                            + ": " + e.getMessage());
+                    pending.future.completeExceptionally(e);
+                }
+            }
+
+            // One index flush for the whole batch
+            try {
+                if (!stored.isEmpty()) {
+                    dataManager.commitToIndex(stored);
+                }
+                for (PendingRecording pending : batch) {
+                    if (!pending.future.isDone()) {
+                        LATENCY.recordMicrosSince(pending.submittedNanos);
+                        pending.future.complete(pending.metadata);
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                ERRORS.increment();
+                System.err.println("Error updating recordings index: " + e.getMessage());
+                for (PendingRecording pending : batch) {
+                    pending.future.completeExceptionally(e);
+                }
+            }
+
+            batch.clear();
+            stored.clear();
+        }
+    }
+
+    private static class PendingRecording {
+        final RecordingMetadata metadata;
+        final String audioFilePath;
+        final CompletableFuture<RecordingMetadata> future;
+        final long submittedNanos = System.nanoTime();
+
+        PendingRecording(RecordingMetadata metadata, String audioFilePath,
+                         CompletableFuture<RecordingMetadata> future) {
+            this.metadata = metadata;
+            this.audioFilePath = audioFilePath;
+            this.future = future;
+        }
+    }
+}
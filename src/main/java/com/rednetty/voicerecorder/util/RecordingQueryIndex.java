@@ -0,0 +1,228 @@
+package com.rednetty.voicerecorder.util;
+
+import com.rednetty.voicerecorder.model.Phrase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Secondary indexes over the global recording index, answering "how many takes does this phrase
+ * have" or "which phrases has this user not recorded yet" without scanning every recording.
+ *
+ * Phrase, user, category and speech type strings are interned to dense int ids once; after that
+ * every structure is keyed by those ids: growable int arrays of recording positions per phrase and
+ * per user, a bit set of recorded phrase ids per user, and plain count arrays per category and
+ * speech type. Adding a recording is O(1) amortized. Positions are positions in the global
+ * index, which only ever grows at the end, so they hold in every later
+ * {@link DataManager#getRecordingsMetadata()} snapshot.
+ *
+ * Obtain the index with {@link DataManager#getQueryIndex()}, which keeps it up to date as
+ * recordings are committed. All methods are thread-safe.
+ */
+public class RecordingQueryIndex {
+    private final Interner phraseIds = new Interner();
+    private final Interner userIds = new Interner();
+    private final Interner categories = new Interner();
+    private final Interner speechTypes = new Interner();
+
+    private final List<IntList> takesByPhrase = new ArrayList<>();
+    private final List<IntList> takesByUser = new ArrayList<>();
+    private final List<BitSet> phrasesByUser = new ArrayList<>();
+    private int[] categoryCounts = new int[16];
+    private int[] speechTypeCounts = new int[8];
+    private int size;
+
+    RecordingQueryIndex() {
+    }
+
+    /**
+     * Indexes the next recording in the global index. Missing (null) fields are not indexed.
+     */
+    synchronized void add(String phraseId, String userId, String category, String speechType) {
+        int position = size++;
+
+        int phrase = -1;
+        if (phraseId != null) {
+            phrase = phraseIds.intern(phraseId);
+            postings(takesByPhrase, phrase).add(position);
+        }
+        if (userId != null) {
+            int user = userIds.intern(userId);
+            postings(takesByUser, user).add(position);
+            if (phrase >= 0) {
+                while (phrasesByUser.size() <= user) {
+                    phrasesByUser.add(new BitSet());
+                }
+                phrasesByUser.get(user).set(phrase);
+            }
+        }
+        if (category != null) {
+            int id = categories.intern(category);
+            categoryCounts = ensureCapacity(categoryCounts, id);
+            categoryCounts[id]++;
+        }
+        if (speechType != null) {
+            int id = speechTypes.intern(speechType);
+            speechTypeCounts = ensureCapacity(speechTypeCounts, id);
+            speechTypeCounts[id]++;
+        }
+    }
+
+    /**
+     * Number of recordings indexed.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized int getTakeCount(String phraseId) {
+        IntList takes = lookup(takesByPhrase, phraseIds.find(phraseId));
+        return takes != null ? takes.size : 0;
+    }
+
+    /**
+     * Positions in the global index of every take of a phrase, oldest first.
+     */
+    public synchronized int[] getTakePositions(String phraseId) {
+        IntList takes = lookup(takesByPhrase, phraseIds.find(phraseId));
+        return takes != null ? takes.toArray() : new int[0];
+    }
+
+    public synchronized int getUserTakeCount(String userId) {
+        IntList takes = lookup(takesByUser, userIds.find(userId));
+        return takes != null ? takes.size : 0;
+    }
+
+    /**
+     * Positions in the global index of every take by a user, oldest first.
+     */
+    public synchronized int[] getUserTakePositions(String userId) {
+        IntList takes = lookup(takesByUser, userIds.find(userId));
+        return takes != null ? takes.toArray() : new int[0];
+    }
+
+    public synchronized boolean hasRecorded(String userId, String phraseId) {
+        BitSet recorded = recordedPhrases(userId);
+        int phrase = phraseIds.find(phraseId);
+        return recorded != null && phrase >= 0 && recorded.get(phrase);
+    }
+
+    /**
+     * Number of distinct phrases a user has recorded at least once.
+     */
+    public synchronized int getRecordedPhraseCount(String userId) {
+        BitSet recorded = recordedPhrases(userId);
+        return recorded != null ? recorded.cardinality() : 0;
+    }
+
+    /**
+     * Ids of the given phrases that the user has not recorded yet, in list order.
+     */
+    public synchronized List<String> getUnrecordedPhraseIds(String userId, List<Phrase> phrases) {
+        BitSet recorded = recordedPhrases(userId);
+        List<String> unrecorded = new ArrayList<>();
+        for (Phrase phrase : phrases) {
+            int id = phraseIds.find(phrase.getId());
+            if (recorded == null || id < 0 || !recorded.get(id)) {
+                unrecorded.add(phrase.getId());
+            }
+        }
+        return unrecorded;
+    }
+
+    public synchronized Set<String> getUserIds() {
+        return Collections.unmodifiableSet(new TreeSet<>(userIds.names));
+    }
+
+    /**
+     * Recordings per phrase category, sorted by category.
+     */
+    public synchronized Map<String, Integer> getCategoryCounts() {
+        return counts(categories, categoryCounts);
+    }
+
+    /**
+     * Recordings per speech type, sorted by speech type.
+     */
+    public synchronized Map<String, Integer> getSpeechTypeCounts() {
+        return counts(speechTypes, speechTypeCounts);
+    }
+
+    private BitSet recordedPhrases(String userId) {
+        int user = userIds.find(userId);
+        return user >= 0 && user < phrasesByUser.size() ? phrasesByUser.get(user) : null;
+    }
+
+    private static IntList postings(List<IntList> lists, int id) {
+        while (lists.size() <= id) {
+            lists.add(new IntList());
+        }
+        return lists.get(id);
+    }
+
+    private static IntList lookup(List<IntList> lists, int id) {
+        return id >= 0 && id < lists.size() ? lists.get(id) : null;
+    }
+
+    private static int[] ensureCapacity(int[] counts, int id) {
+        return id < counts.length ? counts : Arrays.copyOf(counts, Math.max(id + 1, counts.length * 2));
+    }
+
+    private static Map<String, Integer> counts(Interner names, int[] counts) {
+        Map<String, Integer> result = new TreeMap<>();
+        for (int i = 0; i < names.names.size(); i++) {
+            result.put(names.names.get(i), counts[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Maps strings to dense ids in order of first appearance.
+     */
+    private static class Interner {
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final List<String> names = new ArrayList<>();
+
+        int intern(String name) {
+            Integer id = ids.get(name);
+            if (id == null) {
+                id = names.size();
+                ids.put(name, id);
+                names.add(name);
+            }
+            return id;
+        }
+
+        int find(String name) {
+            Integer id = name != null ? ids.get(name) : null;
+            return id != null ? id : -1;
+        }
+    }
+
+    /**
+     * Growable array of ints, avoiding a boxed Integer per posting.
+     */
+    private static class IntList {
+        private int[] values = new int[4];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.rednetty.voicerecorder.util;
+
+import com.google.gson.Gson;
+import com.rednetty.voicerecorder.model.RecordingMetadata;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.CRC32;
+
+/**
+ * Streams the recordings of a shard written by {@link RecordingShardWriter}, in order, checking
+ * each record's CRC-32 and the trailer's record count.
+ */
+public class RecordingShardReader implements Closeable {
+    private static final int INPUT_BUFFER_SIZE = 1024 * 1024;
+    // Audio files are read whole into memory; anything larger is treated as corruption
+    private static final long MAX_AUDIO_LENGTH = Integer.MAX_VALUE - 8;
+
+    private final Path file;
+    private final DataInputStream in;
+    private final Gson gson = new Gson();
+    private final CRC32 crc = new CRC32();
+    private int recordsRead;
+    private boolean finished;
+
+    public RecordingShardReader(Path file) throws IOException {
+        this.file = file;
+        this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), INPUT_BUFFER_SIZE));
+        try {
+            if (in.readInt() != RecordingShardWriter.MAGIC) {
+                throw new IOException("Not a recording shard: " + file);
+            }
+            int version = in.readInt();
+            if (version != RecordingShardWriter.VERSION) {
+                throw new IOException("Unsupported shard version " + version + ": " + file);
+            }
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the next recording, or returns null after the last one.
+     */
+    public Entry next() throws IOException {
+        if (finished) {
+            return null;
+        }
+        try {
+            int magic = in.readInt();
+            if (magic == RecordingShardWriter.END_MAGIC) {
+                int count = in.readInt();
+                if (count != recordsRead) {
+                    throw new IOException("Shard trailer lists " + count + " records but " + recordsRead
+                            + " were read: " + file);
+                }
+                finished = true;
+                return null;
+            }
+            if (magic != RecordingShardWriter.RECORD_MAGIC) {
+                throw new IOException("Corrupt record " + recordsRead + " in " + file);
+            }
+
+            int metadataLength = in.readInt();
+            long audioLength = in.readLong();
+            if (metadataLength < 0 || audioLength < 0 || audioLength > MAX_AUDIO_LENGTH) {
+                throw new IOException("Corrupt record lengths at record " + recordsRead + " in " + file);
+            }
+            byte[] metadata = new byte[metadataLength];
+            in.readFully(metadata);
+            byte[] audio = new byte[(int) audioLength];
+            in.readFully(audio);
+            int storedCrc = in.readInt();
+
+            crc.reset();
+            crc.update(metadata, 0, metadata.length);
+            crc.update(audio, 0, audio.length);
+            if ((int) crc.getValue() != storedCrc) {
+                throw new IOException("CRC mismatch at record " + recordsRead + " in " + file);
+            }
+
+            recordsRead++;
+            return new Entry(new String(metadata, StandardCharsets.UTF_8), audio, gson);
+        } catch (EOFException e) {
+            throw new IOException("Shard ends without a trailer after " + recordsRead + " records: " + file, e);
+        }
+    }
+
+    public int getRecordsRead() {
+        return recordsRead;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * One recording read from a shard.
+     */
+    public static class Entry {
+        private final String metadataJson;
+        private final byte[] audio;
+        private final Gson gson;
+
+        Entry(String metadataJson, byte[] audio, Gson gson) {
+            this.metadataJson = metadataJson;
+            this.audio = audio;
+            this.gson = gson;
+        }
+
+        public String getMetadataJson() {
+            return metadataJson;
+        }
+
+        public RecordingMetadata getMetadata() {
+            return gson.fromJson(metadataJson, RecordingMetadata.class);
+        }
+
+        /**
+         * The audio file bytes exactly as stored in the corpus; the file name in the metadata gives the codec.
+         */
+        public byte[] getAudio() {
+            return audio;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.rednetty.voicerecorder.util;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32;
+
+/**
+ * Writes recordings into one sequential shard file, so a training job can stream a whole shard
+ * instead of opening two small files per recording.
+ *
+ * Layout (big-endian):
+ * <pre>
+ * header:  "WSSH" magic, int version
+ * record:  "WSRC" magic, int metadata length, long audio length,
+ *          metadata JSON (UTF-8), audio file bytes as stored (WAV or FLAC),
+ *          int CRC-32 of the metadata and audio bytes
+ * trailer: "WSEN" magic, int record count
+ * </pre>
+ * A shard without its trailer was not finished and should be discarded.
+ */
+public class RecordingShardWriter implements Closeable {
+    static final int MAGIC = 0x57535348;        // "WSSH"
+    static final int RECORD_MAGIC = 0x57535243; // "WSRC"
+    static final int END_MAGIC = 0x5753454E;    // "WSEN"
+    static final int VERSION = 1;
+
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    private static final int OUTPUT_BUFFER_SIZE = 1024 * 1024;
+
+    private final DataOutputStream out;
+    private final MessageDigest sha256;
+    private final byte[] copyBuffer = new byte[COPY_BUFFER_SIZE];
+    private final CRC32 crc = new CRC32();
+    private int recordCount;
+    private long bytesWritten;
+    // Set when an append fails part way; the trailer is then left off so the shard reads as unfinished
+    private boolean broken;
+    private boolean closed;
+
+    public RecordingShardWriter(Path file) throws IOException {
+        try {
+            this.sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-256 is not available", e);
+        }
+        this.out = new DataOutputStream(new BufferedOutputStream(
+                new DigestOutputStream(Files.newOutputStream(file), sha256), OUTPUT_BUFFER_SIZE));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        bytesWritten = 8;
+    }
+
+    /**
+     * Appends one recording: its metadata as JSON and the audio file streamed from disk.
+     */
+    public void append(String metadataJson, Path audioFile) throws IOException {
+        byte[] metadata = metadataJson.getBytes(StandardCharsets.UTF_8);
+        long audioLength = Files.size(audioFile);
+
+        broken = true;
+        out.writeInt(RECORD_MAGIC);
+        out.writeInt(metadata.length);
+        out.writeLong(audioLength);
+        out.write(metadata);
+
+        crc.reset();
+        crc.update(metadata, 0, metadata.length);
+        long copied = 0;
+        try (InputStream in = Files.newInputStream(audioFile)) {
+            int read;
+            while (copied < audioLength
+                    && (read = in.read(copyBuffer, 0, (int) Math.min(copyBuffer.length, audioLength - copied))) > 0) {
+                out.write(copyBuffer, 0, read);
+                crc.update(copyBuffer, 0, read);
+                copied += read;
+            }
+        }
+        if (copied != audioLength) {
+            // The length is already written, so the shard cannot be repaired
+            throw new IOException(audioFile + " changed size while being exported");
+        }
+        out.writeInt((int) crc.getValue());
+        recordCount++;
+        bytesWritten += 4 + 4 + 8 + metadata.length + audioLength + 4;
+        broken = false;
+    }
+
+    public int getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Bytes written so far, including buffered ones.
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Writes the trailer and closes the file.
+     *
+     * @return the SHA-256 of the whole shard as hex
+     */
+    public String finish() throws IOException {
+        close();
+        StringBuilder hex = new StringBuilder(64);
+        for (byte b : sha256.digest()) {
+            hex.append(String.format("%02x", b & 0xFF));
+        }
+        return hex.toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (!broken) {
+                out.writeInt(END_MAGIC);
+                out.writeInt(recordCount);
+                bytesWritten += 8;
+            }
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package com.rednetty.voicerecorder.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Where recording directories live inside the corpus.
+ *
+ * The original flat layout puts every recording directly under the base directory, which leaves
+ * one huge directory that listings, backups and rsync crawl through. The sharded layout nests each
+ * recording under two levels named after the first hex digits of the SHA-1 of its id
+ * ({@code 3f/a9/<id>/}), so no directory holds more than 256 entries plus the recordings that
+ * hash to it. The layout is recorded in a {@code store_layout} marker file; corpora without one
+ * are flat and keep working as before until migrated with {@code StoreMigrationTool}.
+ */
+public class RecordingStoreLayout {
+    public static final String LAYOUT_FILE = "store_layout";
+    public static final String SHARDED = "sharded-v1";
+
+    // Top-level directories that never hold recordings
+    private static final Set<String> RESERVED_NAMES =
+            Collections.unmodifiableSet(new HashSet<>(Arrays.asList("temp", "quarantine", "exports")));
+
+    private final Path baseDirectory;
+    private final boolean sharded;
+
+    private RecordingStoreLayout(Path baseDirectory, boolean sharded) {
+        this.baseDirectory = baseDirectory;
+        this.sharded = sharded;
+    }
+
+    /**
+     * Reads the layout of a corpus without changing anything on disk.
+     */
+    public static RecordingStoreLayout detect(Path baseDirectory) throws IOException {
+        Path marker = baseDirectory.resolve(LAYOUT_FILE);
+        if (Files.isRegularFile(marker)) {
+            String layout = new String(Files.readAllBytes(marker), StandardCharsets.UTF_8).trim();
+            if (!SHARDED.equals(layout)) {
+                throw new IOException("Unknown recording store layout: " + layout);
+            }
+            return new RecordingStoreLayout(baseDirectory, true);
+        }
+        return new RecordingStoreLayout(baseDirectory, false);
+    }
+
+    /**
+     * Reads the layout of a corpus, starting new (empty) corpora with the sharded layout.
+     */
+    public static RecordingStoreLayout open(Path baseDirectory) throws IOException {
+        RecordingStoreLayout layout = detect(baseDirectory);
+        if (!layout.sharded && !hasFlatRecordings(baseDirectory)) {
+            layout = new RecordingStoreLayout(baseDirectory, true);
+            layout.writeMarker();
+        }
+        return layout;
+    }
+
+    /**
+     * The flat layout, used when the marker cannot be read so that takes are still stored.
+     */
+    static RecordingStoreLayout flat(Path baseDirectory) {
+        return new RecordingStoreLayout(baseDirectory, false);
+    }
+
+    /**
+     * Returns the sharded layout for a corpus, writing its marker. Recordings still in flat
+     * directories remain visible through {@link #listRecordingDirectories()} until they are moved.
+     */
+    public static RecordingStoreLayout markSharded(Path baseDirectory) throws IOException {
+        RecordingStoreLayout layout = sharded(baseDirectory);
+        layout.writeMarker();
+        return layout;
+    }
+
+    /**
+     * The sharded layout of a corpus, for computing locations without touching the marker.
+     */
+    public static RecordingStoreLayout sharded(Path baseDirectory) {
+        return new RecordingStoreLayout(baseDirectory, true);
+    }
+
+    public boolean isSharded() {
+        return sharded;
+    }
+
+    public Path getBaseDirectory() {
+        return baseDirectory;
+    }
+
+    /**
+     * The directory that holds (or will hold) the given recording.
+     */
+    public Path recordingDirectory(String recordingId) {
+        if (!sharded) {
+            return baseDirectory.resolve(recordingId);
+        }
+        String prefix = shardPrefix(recordingId);
+        return baseDirectory.resolve(prefix.substring(0, 2)).resolve(prefix.substring(2, 4)).resolve(recordingId);
+    }
+
+    /**
+     * The first four hex digits of the SHA-1 of the recording id.
+     */
+    public static String shardPrefix(String recordingId) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(recordingId.getBytes(StandardCharsets.UTF_8));
+            return String.format("%02x%02x", digest[0] & 0xFF, digest[1] & 0xFF);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to provide SHA-1
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Lists every recording directory. In the sharded layout this includes recordings still left
+     * in flat directories by an interrupted migration.
+     */
+    public List<File> listRecordingDirectories() {
+        List<File> recordings = new ArrayList<>();
+        File[] entries = baseDirectory.toFile().listFiles(File::isDirectory);
+        if (entries == null) {
+            return recordings;
+        }
+        for (File entry : entries) {
+            String name = entry.getName();
+            if (RESERVED_NAMES.contains(name)) {
+                continue;
+            }
+            if (sharded && isShardName(name)) {
+                File[] secondLevel = entry.listFiles(File::isDirectory);
+                if (secondLevel == null) {
+                    continue;
+                }
+                for (File shard : secondLevel) {
+                    File[] shardRecordings = shard.listFiles(File::isDirectory);
+                    if (shardRecordings != null) {
+                        recordings.addAll(Arrays.asList(shardRecordings));
+                    }
+                }
+            } else {
+                recordings.add(entry);
+            }
+        }
+        return recordings;
+    }
+
+    /**
+     * Recording directories that sit directly under the base directory, i.e. in the flat layout.
+     */
+    public List<File> listFlatRecordingDirectories() {
+        List<File> recordings = new ArrayList<>();
+        File[] entries = baseDirectory.toFile().listFiles(File::isDirectory);
+        if (entries != null) {
+            for (File entry : entries) {
+                if (!RESERVED_NAMES.contains(entry.getName()) && !isShardName(entry.getName())) {
+                    recordings.add(entry);
+                }
+            }
+        }
+        return recordings;
+    }
+
+    /**
+     * Moves a recording directory to its sharded location with a rename.
+     *
+     * @return the new location
+     */
+    public Path moveToShard(File recordingDirectory) throws IOException {
+        Path target = recordingDirectory(recordingDirectory.getName());
+        Files.createDirectories(target.getParent());
+        try {
+            Files.move(recordingDirectory.toPath(), target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(recordingDirectory.toPath(), target);
+        }
+        return target;
+    }
+
+    private static boolean isShardName(String name) {
+        return name.length() == 2 && isLowerHex(name.charAt(0)) && isLowerHex(name.charAt(1));
+    }
+
+    private static boolean isLowerHex(char c) {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f');
+    }
+
+    private static boolean hasFlatRecordings(Path baseDirectory) throws IOException {
+        if (!Files.isDirectory(baseDirectory)) {
+            return false;
+        }
+        // Streamed so a large flat corpus is not listed in full just to find its first recording
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(baseDirectory, Files::isDirectory)) {
+            for (Path entry : entries) {
+                if (!RESERVED_NAMES.contains(entry.getFileName().toString())
+                        && Files.isRegularFile(entry.resolve("metadata.json"))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void writeMarker() throws IOException {
+        Files.createDirectories(baseDirectory);
+        Path marker = baseDirectory.resolve(LAYOUT_FILE);
+        Path temp = baseDirectory.resolve(LAYOUT_FILE + ".tmp");
+        Files.write(temp, (SHARDED + "\n").getBytes(StandardCharsets.UTF_8));
+        try {
+            Files.move(temp, marker, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, marker, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.rednetty.voicerecorder.audio;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FlacCodecTest {
+    // "fLaC", the metadata block header, then STREAMINFO whose last 16 bytes are the MD5 signature
+    private static final int SIGNATURE_OFFSET = 26;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void monoRoundTripIsLossless() throws IOException {
+        AudioFormat format = new AudioFormat(16000, 16, 1, true, false);
+        byte[] pcm = speechLikePcm(16000 * 2 + 123, 1);
+        File file = encode(pcm, format, FlacEncoder.DEFAULT_BLOCK_SIZE, 4093);
+
+        assertTrue(file.length() < pcm.length);
+        assertArrayEquals(md5(pcm), signature(file));
+        assertDecodesTo(file, pcm, format);
+    }
+
+    @Test
+    public void stereoRoundTripWithSplitSampleFrames() throws IOException {
+        AudioFormat format = new AudioFormat(44100, 16, 2, true, false);
+        byte[] pcm = speechLikePcm(44100 / 2 + 7, 2);
+        // Odd write sizes split sample frames across calls; the last block is partial
+        File file = encode(pcm, format, 1152, 333);
+
+        assertArrayEquals(md5(pcm), signature(file));
+        assertDecodesTo(file, pcm, format);
+    }
+
+    @Test
+    public void extremeSamplesSurviveRoundTrip() throws IOException {
+        AudioFormat format = new AudioFormat(8000, 16, 1, true, false);
+        byte[] pcm = new byte[2 * 4096];
+        for (int i = 0; i < pcm.length / 2; i++) {
+            // Full-scale square wave with a run of digital silence in the middle
+            short sample = i >= 1500 && i < 2500 ? 0 : (i / 7 % 2 == 0 ? Short.MAX_VALUE : Short.MIN_VALUE);
+            pcm[2 * i] = (byte) sample;
+            pcm[2 * i + 1] = (byte) (sample >> 8);
+        }
+        File file = encode(pcm, format, 1024, pcm.length);
+
+        assertDecodesTo(file, pcm, format);
+    }
+
+    @Test
+    public void signatureMismatchIsReported() throws IOException {
+        AudioFormat format = new AudioFormat(16000, 16, 1, true, false);
+        File file = encode(speechLikePcm(8000, 1), format, FlacEncoder.DEFAULT_BLOCK_SIZE, 8192);
+
+        byte[] data = Files.readAllBytes(file.toPath());
+        data[SIGNATURE_OFFSET] ^= 0x01;
+        try {
+            decode(data);
+            fail("a wrong MD5 signature was accepted");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("MD5"));
+        }
+    }
+
+    @Test
+    public void corruptFrameIsReported() throws IOException {
+        AudioFormat format = new AudioFormat(16000, 16, 1, true, false);
+        File file = encode(speechLikePcm(8000, 1), format, FlacEncoder.DEFAULT_BLOCK_SIZE, 8192);
+
+        byte[] data = Files.readAllBytes(file.toPath());
+        data[data.length / 2] ^= 0x10;
+        try {
+            decode(data);
+            fail("a corrupt frame was decoded");
+        } catch (IOException expected) {
+            // Frame CRC or MD5 check
+        }
+    }
+
+    private File encode(byte[] pcm, AudioFormat format, int blockSize, int chunkSize) throws IOException {
+        File file = folder.newFile("take" + FlacEncoder.FILE_EXTENSION);
+        try (FlacEncoder encoder = new FlacEncoder(file, format, blockSize)) {
+            for (int offset = 0; offset < pcm.length; offset += chunkSize) {
+                encoder.write(pcm, offset, Math.min(chunkSize, pcm.length - offset));
+            }
+            assertEquals(pcm.length / format.getFrameSize(), encoder.getSampleCount());
+        }
+        return file;
+    }
+
+    private static void assertDecodesTo(File file, byte[] pcm, AudioFormat format) throws IOException {
+        try (FlacDecoder decoder = new FlacDecoder(new ByteArrayInputStream(Files.readAllBytes(file.toPath())))) {
+            assertEquals(format.getSampleRate(), decoder.getFormat().getSampleRate(), 0f);
+            assertEquals(format.getChannels(), decoder.getFormat().getChannels());
+            assertEquals(16, decoder.getFormat().getSampleSizeInBits());
+            assertEquals(pcm.length / format.getFrameSize(), decoder.getTotalSamples());
+            assertArrayEquals(pcm, readAll(decoder));
+        }
+    }
+
+    private static byte[] decode(byte[] flac) throws IOException {
+        try (FlacDecoder decoder = new FlacDecoder(new ByteArrayInputStream(flac))) {
+            return readAll(decoder);
+        }
+    }
+
+    // Reading to the end also verifies the MD5 signature
+    private static byte[] readAll(FlacDecoder decoder) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1000];
+        int read;
+        while ((read = decoder.read(buffer, 0, buffer.length)) >= 0) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Interleaved 16-bit PCM: a gliding tone with noise, an amplitude envelope and a silent gap,
+     * so that constant, fixed and LPC subframes all get exercised.
+     */
+    private static byte[] speechLikePcm(int frames, int channels) {
+        Random random = new Random(42);
+        byte[] pcm = new byte[frames * channels * 2];
+        double phase = 0;
+        for (int i = 0; i < frames; i++) {
+            phase += 2 * Math.PI * (180 + 120 * Math.sin(i / 4000.0)) / 16000.0;
+            double envelope = 0.5 + 0.5 * Math.sin(i / 1700.0);
+            boolean silent = i % 9000 < 1200;
+            for (int c = 0; c < channels; c++) {
+                int sample = silent ? 0 : (int) (envelope * (9000 * Math.sin(phase + c)
+                        + 3000 * Math.sin(3 * phase)) + random.nextGaussian() * 200);
+                sample = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, sample));
+                int offset = (i * channels + c) * 2;
+                pcm[offset] = (byte) sample;
+                pcm[offset + 1] = (byte) (sample >> 8);
+            }
+        }
+        return pcm;
+    }
+
+    private static byte[] signature(File file) throws IOException {
+        byte[] data = Files.readAllBytes(file.toPath());
+        return Arrays.copyOfRange(data, SIGNATURE_OFFSET, SIGNATURE_OFFSET + 16);
+    }
+
+    private static byte[] md5(byte[] pcm) {
+        try {
+            return MessageDigest.getInstance("MD5").digest(pcm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.rednetty.voicerecorder.util;
+
+import com.rednetty.voicerecorder.model.RecordingMetadata;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BinaryRecordingIndexTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path directory;
+
+    @Before
+    public void setUp() {
+        directory = folder.getRoot().toPath();
+    }
+
+    @Test
+    public void emptyDirectoryHasNoIndex() throws IOException {
+        assertNull(BinaryRecordingIndex.openLatest(directory, false));
+    }
+
+    @Test
+    public void columnsAndBlobsSurviveRoundTrip() throws IOException {
+        List<RecordingMetadata> records = RecordingIndexJournalTest.records(4);
+        records.get(1).setFeatureFile("user-1/p1.mel");
+        BinaryRecordingIndex.write(directory, records, 42).close();
+
+        try (BinaryRecordingIndex index = BinaryRecordingIndex.openLatest(directory, false)) {
+            assertEquals(4, index.size());
+            assertEquals(42, index.getSequence());
+            assertEquals(1, index.getGeneration());
+            assertViewsMatch(records, index);
+        }
+    }
+
+    @Test
+    public void rawCopiedRecordsMatchAfterAnotherGeneration() throws IOException {
+        List<RecordingMetadata> records = RecordingIndexJournalTest.records(5);
+        BinaryRecordingIndex.write(directory, records.subList(0, 3), 3).close();
+
+        try (BinaryRecordingIndex first = BinaryRecordingIndex.openLatest(directory, false)) {
+            // The first three come from the mapped snapshot as raw bytes, the rest are serialized
+            MappedRecordingList list = new MappedRecordingList(first, records.subList(3, 5));
+            BinaryRecordingIndex.write(directory, list, 5).close();
+        }
+
+        try (BinaryRecordingIndex second = BinaryRecordingIndex.openLatest(directory, false)) {
+            assertEquals(2, second.getGeneration());
+            assertEquals(5, second.getSequence());
+            assertViewsMatch(records, second);
+        }
+    }
+
+    @Test
+    public void unreadableNewestGenerationIsNotReplacedByAnOlderOne() throws IOException {
+        List<RecordingMetadata> records = RecordingIndexJournalTest.records(3);
+        BinaryRecordingIndex.write(directory, records.subList(0, 2), 2).close();
+        BinaryRecordingIndex.write(directory, records, 3).close();
+
+        Path newest = directory.resolve("recordings_index.2.bin");
+        try (FileChannel channel = FileChannel.open(newest, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() / 2);
+        }
+
+        try {
+            BinaryRecordingIndex.openLatest(directory, true).close();
+            fail("an older generation was used in place of the unreadable newest one");
+        } catch (IOException expected) {
+            // Kept for inspection rather than deleted
+            assertFalse(Files.exists(newest));
+            assertTrue(Files.exists(directory.resolve("recordings_index.2.bin.corrupt")));
+        }
+
+        // Still refused on the next load, now that only the older generation is left
+        try {
+            BinaryRecordingIndex.openLatest(directory, true).close();
+            fail("an older generation was used after the newest one was quarantined");
+        } catch (IOException expected) {
+            assertTrue(Files.exists(directory.resolve("recordings_index.1.bin")));
+        }
+    }
+
+    private static void assertViewsMatch(List<RecordingMetadata> expected, BinaryRecordingIndex index) {
+        BinaryRecordingIndex.View view = index.newView();
+        for (int i = 0; i < expected.size(); i++) {
+            RecordingMetadata metadata = expected.get(i);
+            view.moveTo(i);
+            assertEquals(i, view.getIndex());
+            assertEquals(metadata.getRecordingId(), view.getRecordingId());
+            assertEquals(metadata.getUserId(), view.getUserId());
+            assertEquals(metadata.getPhraseId(), view.getPhraseId());
+            assertEquals(metadata.getPhraseCategory(), view.getPhraseCategory());
+            assertEquals(metadata.getSpeechType(), view.getSpeechType());
+            assertEquals(metadata.getRecordingFile(), view.getRecordingFile());
+            assertEquals(metadata.getTimestamp(), view.getTimestamp());
+            assertEquals(16000f, view.getSampleRate(), 0f);
+            assertEquals(16, view.getBitsPerSample());
+            assertEquals(1, view.getChannels());
+
+            RecordingMetadata materialized = index.materialize(i);
+            assertEquals(metadata.getRecordingId(), materialized.getRecordingId());
+            assertEquals(metadata.getPhraseText(), materialized.getPhraseText());
+            assertEquals(metadata.getFeatureFile(), materialized.getFeatureFile());
+            assertEquals(metadata.getAdditionalInfo(), materialized.getAdditionalInfo());
+        }
+        // Users alternate, so the string table holds each user id once
+        view.moveTo(0);
+        int firstUser = view.getUserIdRef();
+        view.moveTo(2);
+        assertEquals(firstUser, view.getUserIdRef());
+    }
+}
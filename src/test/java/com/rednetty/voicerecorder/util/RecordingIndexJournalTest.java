@@ -0,0 +1,193 @@
+package com.rednetty.voicerecorder.util;
+
+import com.rednetty.voicerecorder.model.RecordingMetadata;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RecordingIndexJournalTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path directory;
+    private Path journalFile;
+
+    @Before
+    public void setUp() {
+        directory = folder.getRoot().toPath();
+        journalFile = directory.resolve(RecordingIndexJournal.JOURNAL_FILE);
+    }
+
+    @Test
+    public void appendedEntriesAreReplayedInOrder() throws IOException {
+        RecordingIndexJournal journal = new RecordingIndexJournal(directory);
+        journal.setSyncOnAppend(false);
+        List<RecordingMetadata> written = records(3);
+        journal.append(written.subList(0, 2));
+        journal.append(written.subList(2, 3));
+        assertEquals(3, journal.getLastSequence());
+
+        RecordingIndexJournal reopened = new RecordingIndexJournal(directory);
+        List<RecordingMetadata> loaded = reopened.load();
+        assertRecordIds(written, loaded);
+        assertEquals(3, reopened.getLastSequence());
+        assertEquals("phrase 1", loaded.get(1).getPhraseText());
+        assertEquals("true", loaded.get(1).getAdditionalInfo().get("verified"));
+    }
+
+    @Test
+    public void tornLastLineIsCutOff() throws IOException {
+        RecordingIndexJournal journal = new RecordingIndexJournal(directory);
+        journal.setSyncOnAppend(false);
+        List<RecordingMetadata> written = records(3);
+        journal.append(written);
+
+        // Simulate a crash in the middle of writing the last line
+        long fullSize = Files.size(journalFile);
+        long lastLineStart = lineStarts().get(2);
+        truncate((lastLineStart + fullSize) / 2);
+
+        RecordingIndexJournal reopened = new RecordingIndexJournal(directory);
+        List<RecordingMetadata> loaded = reopened.load();
+        assertRecordIds(written.subList(0, 2), loaded);
+        assertEquals(2, reopened.getLastSequence());
+        assertEquals(lastLineStart, Files.size(journalFile));
+
+        // New entries continue the sequence after the surviving ones
+        reopened.append(records(1));
+        assertEquals(3, reopened.getLastSequence());
+        assertEquals(3, new RecordingIndexJournal(directory).load().size());
+    }
+
+    @Test
+    public void lastLineWithoutNewlineIsTreatedAsTorn() throws IOException {
+        RecordingIndexJournal journal = new RecordingIndexJournal(directory);
+        journal.setSyncOnAppend(false);
+        List<RecordingMetadata> written = records(2);
+        journal.append(written);
+        truncate(Files.size(journalFile) - 1);
+
+        List<RecordingMetadata> loaded = new RecordingIndexJournal(directory).load();
+        assertRecordIds(written.subList(0, 1), loaded);
+    }
+
+    @Test
+    public void corruptLineInTheMiddleIsSkipped() throws IOException {
+        RecordingIndexJournal journal = new RecordingIndexJournal(directory);
+        journal.setSyncOnAppend(false);
+        List<RecordingMetadata> written = records(3);
+        journal.append(written);
+        long sizeBefore = Files.size(journalFile);
+
+        // Flip one character inside the second record so its checksum no longer matches
+        byte[] data = Files.readAllBytes(journalFile);
+        int position = indexOf(data, "phrase 1".getBytes(StandardCharsets.UTF_8), lineStarts().get(1).intValue());
+        data[position] = 'P';
+        Files.write(journalFile, data);
+
+        RecordingIndexJournal reopened = new RecordingIndexJournal(directory);
+        List<RecordingMetadata> loaded = reopened.load();
+        assertRecordIds(Arrays.asList(written.get(0), written.get(2)), loaded);
+        assertEquals(3, reopened.getLastSequence());
+        // Only a torn tail is truncated; the valid entry after the corrupt one stays on disk
+        assertEquals(sizeBefore, Files.size(journalFile));
+    }
+
+    @Test
+    public void loadTailSkipsEntriesCoveredBySnapshot() throws IOException {
+        RecordingIndexJournal journal = new RecordingIndexJournal(directory);
+        journal.setSyncOnAppend(false);
+        List<RecordingMetadata> written = records(5);
+        journal.append(written);
+
+        RecordingIndexJournal reopened = new RecordingIndexJournal(directory);
+        List<RecordingMetadata> tail = reopened.loadTail(3);
+        assertRecordIds(written.subList(3, 5), tail);
+        assertEquals(5, reopened.getLastSequence());
+    }
+
+    @Test
+    public void truncateStartsAnEmptyJournal() throws IOException {
+        RecordingIndexJournal journal = new RecordingIndexJournal(directory);
+        journal.setSyncOnAppend(false);
+        journal.setCompactionThreshold(2);
+        journal.append(records(2));
+        assertTrue(journal.needsCompaction());
+
+        journal.truncate();
+        assertEquals(0, Files.size(journalFile));
+        assertEquals(2, journal.getLastSequence());
+
+        journal.append(records(1));
+        RecordingIndexJournal reopened = new RecordingIndexJournal(directory);
+        assertEquals(1, reopened.loadTail(2).size());
+        assertEquals(3, reopened.getLastSequence());
+    }
+
+    static List<RecordingMetadata> records(int count) {
+        List<RecordingMetadata> records = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            RecordingMetadata metadata = new RecordingMetadata("user-" + (i % 2), "p" + i, "phrase " + i,
+                    i % 2 == 0 ? "greetings" : "numbers", "user-" + (i % 2) + "/p" + i + ".wav",
+                    "2024-01-0" + (i % 9 + 1) + "T10:00:00", "typical", "", "test-device");
+            metadata.addAudioProperty("sampleRate", 16000);
+            metadata.addAudioProperty("bitsPerSample", 16);
+            metadata.addAudioProperty("channels", 1);
+            metadata.addAdditionalInfo("verified", Boolean.toString(i % 2 == 1));
+            records.add(metadata);
+        }
+        return records;
+    }
+
+    static void assertRecordIds(List<RecordingMetadata> expected, List<RecordingMetadata> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getRecordingId(), actual.get(i).getRecordingId());
+        }
+    }
+
+    private List<Long> lineStarts() throws IOException {
+        byte[] data = Files.readAllBytes(journalFile);
+        List<Long> starts = new ArrayList<>();
+        starts.add(0L);
+        for (int i = 0; i < data.length - 1; i++) {
+            if (data[i] == '\n') {
+                starts.add((long) i + 1);
+            }
+        }
+        return starts;
+    }
+
+    private void truncate(long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(journalFile, StandardOpenOption.WRITE)) {
+            channel.truncate(size);
+        }
+    }
+
+    private static int indexOf(byte[] data, byte[] pattern, int from) {
+        outer:
+        for (int i = from; i <= data.length - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (data[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        throw new AssertionError("pattern not found");
+    }
+}